@@ -0,0 +1,291 @@
+package de.tum.i13.lsm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlockCache keeps decompressed blocks of v2 {@link LSMFile}s in memory. A
+ * single cache is shared by all files of a store, blocks are identified by the
+ * id of the file and the position of the block in the data file.
+ *
+ * The cache is bounded by the total size of the cached blocks and split into
+ * shards, each guarded by its own lock and holding an equal part of the capacity.
+ *
+ * Every shard is a segmented LRU: new blocks enter a probationary segment and
+ * are only promoted to the protected segment when they are read again. Blocks
+ * which are read only once, e.g. by a large scan, are evicted from the
+ * probationary segment and can't push the frequently read blocks out of the
+ * protected segment.
+ */
+public class BlockCache {
+
+    public static final int DEFAULT_SHARDS = 16;
+
+    // rough memory overhead of an entry besides the block itself
+    private static final int ENTRY_OVERHEAD = 96;
+
+    // share of the capacity of a shard used by the protected segment
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private static final AtomicLong nextFileId = new AtomicLong();
+
+    private final Shard[] shards;
+    private final long capacity;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * create a new cache with the default amount of shards
+     *
+     * @param capacity maximum size of all cached blocks in bytes
+     */
+    public BlockCache(long capacity) {
+        this(capacity, DEFAULT_SHARDS);
+    }
+
+    /**
+     * create a new cache
+     *
+     * @param capacity maximum size of all cached blocks in bytes
+     * @param shardCount amount of independently locked shards
+     */
+    public BlockCache(long capacity, int shardCount) {
+        if (capacity <= 0 || shardCount <= 0) {
+            throw new IllegalArgumentException("Capacity and shard count must be positive");
+        }
+        this.capacity = capacity;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(capacity / shardCount);
+        }
+    }
+
+    /**
+     * @return a new id for an opened file, which is never reused
+     */
+    static long newFileId() {
+        return nextFileId.incrementAndGet();
+    }
+
+    /**
+     * get a cached block
+     *
+     * @param fileId id of the file
+     * @param position position of the block in the data file
+     *
+     * @return the decompressed block or null if it isn't cached
+     */
+    public byte[] get(long fileId, long position) {
+        Key key = new Key(fileId, position);
+        byte[] block = shardOf(key).get(key);
+        if (block == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return block;
+    }
+
+    /**
+     * add a block to the cache. Blocks larger than a shard are not cached.
+     *
+     * @param fileId id of the file
+     * @param position position of the block in the data file
+     * @param block the decompressed block
+     */
+    public void put(long fileId, long position, byte[] block) {
+        Key key = new Key(fileId, position);
+        evictions.addAndGet(shardOf(key).put(key, block));
+    }
+
+    /**
+     * remove all blocks of a file, e.g. after it was closed
+     *
+     * @param fileId id of the file
+     */
+    public void invalidate(long fileId) {
+        for (Shard shard : shards) {
+            shard.invalidate(fileId);
+        }
+    }
+
+    private Shard shardOf(Key key) {
+        return shards[Math.floorMod(key.hashCode(), shards.length)];
+    }
+
+    /**
+     * @return maximum size of all cached blocks in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return current size of all cached blocks in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return amount of lookups which found their block
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return amount of lookups which didn't find their block
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return amount of blocks evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return share of lookups which found their block
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockCache{size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.4f}",
+                getSize(), capacity, hits.get(), misses.get(), evictions.get(), getHitRate());
+    }
+
+    private static final class Key {
+        private final long fileId;
+        private final long position;
+
+        private Key(long fileId, long position) {
+            this.fileId = fileId;
+            this.position = position;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return fileId == other.fileId && position == other.position;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = fileId * 0x9E3779B97F4A7C15L + position;
+            h ^= h >>> 32;
+            h *= 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 29));
+        }
+    }
+
+    /**
+     * a segmented LRU holding part of the capacity. Both segments are kept in
+     * access order, the eldest entry comes first.
+     */
+    private static final class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+
+        private final LinkedHashMap<Key, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, byte[]> protectedBlocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationSize;
+        private long protectedSize;
+
+        private Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+        }
+
+        private synchronized byte[] get(Key key) {
+            byte[] block = protectedBlocks.get(key);
+            if (block != null) {
+                return block;
+            }
+
+            block = probation.remove(key);
+            if (block == null) {
+                return null;
+            }
+            // read a second time: promote and demote the eldest protected blocks if necessary
+            probationSize -= weight(block);
+            protectedBlocks.put(key, block);
+            protectedSize += weight(block);
+            Iterator<Map.Entry<Key, byte[]>> it = protectedBlocks.entrySet().iterator();
+            while (protectedSize > protectedCapacity && it.hasNext()) {
+                Map.Entry<Key, byte[]> eldest = it.next();
+                it.remove();
+                protectedSize -= weight(eldest.getValue());
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationSize += weight(eldest.getValue());
+            }
+            return block;
+        }
+
+        /**
+         * @return amount of evicted blocks
+         */
+        private synchronized int put(Key key, byte[] block) {
+            long weight = weight(block);
+            if (weight > capacity || protectedBlocks.containsKey(key) || probation.containsKey(key)) {
+                return 0;
+            }
+            probation.put(key, block);
+            probationSize += weight;
+
+            int evicted = 0;
+            Iterator<Map.Entry<Key, byte[]>> it = probation.entrySet().iterator();
+            while (probationSize + protectedSize > capacity && it.hasNext()) {
+                Map.Entry<Key, byte[]> eldest = it.next();
+                it.remove();
+                probationSize -= weight(eldest.getValue());
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private synchronized void invalidate(long fileId) {
+            probation.entrySet().removeIf(e -> {
+                if (e.getKey().fileId == fileId) {
+                    probationSize -= weight(e.getValue());
+                    return true;
+                }
+                return false;
+            });
+            protectedBlocks.entrySet().removeIf(e -> {
+                if (e.getKey().fileId == fileId) {
+                    protectedSize -= weight(e.getValue());
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        private synchronized long size() {
+            return probationSize + protectedSize;
+        }
+
+        private static long weight(byte[] block) {
+            return block.length + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package de.tum.i13.lsm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * BloomFilter is a space efficient, probabilistic set of keys. It is used by
+ * {@link LSMFile} to answer the question "could this key be stored in the file?"
+ * without touching the index or the data file. A negative answer is always
+ * correct, a positive answer is wrong with a probability given by
+ * {@link #getExpectedFalsePositiveRate()}.
+ *
+ * The k bit positions of a key are derived from a single 64 bit hash using
+ * double hashing (Kirsch and Mitzenmacher).
+ */
+public class BloomFilter {
+
+    public static final int DEFAULT_BITS_PER_KEY = 10;
+
+    private static final int MAX_HASHES = 30;
+
+    private final long[] bits;
+    private final int numHashes;
+    private final int numKeys;
+
+    private BloomFilter(long[] bits, int numHashes, int numKeys) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+        this.numKeys = numKeys;
+    }
+
+    /**
+     * create a new filter from a list of precomputed key hashes
+     *
+     * @param hashes hashes of all keys, computed by {@link #hash(byte[])}
+     * @param count amount of valid entries in hashes
+     * @param bitsPerKey amount of filter bits to spend per key
+     *
+     * @return a filter containing all given keys
+     */
+    public static BloomFilter fromHashes(long[] hashes, int count, int bitsPerKey) {
+        long numBits = Math.max(64, (long) count * bitsPerKey);
+        long[] bits = new long[(int) ((numBits + 63) / 64)];
+        int numHashes = (int) Math.round(bitsPerKey * Math.log(2));
+        numHashes = Math.max(1, Math.min(MAX_HASHES, numHashes));
+
+        BloomFilter filter = new BloomFilter(bits, numHashes, count);
+        for (int i = 0; i < count; i++) {
+            filter.add(hashes[i]);
+        }
+        return filter;
+    }
+
+    private void add(long hash) {
+        long bitSize = (long) bits.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitSize;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * check if a key might be contained in this filter
+     *
+     * @param key key bytes to check
+     *
+     * @return false if the key is definitely not contained, true if it might be.
+     */
+    public boolean mightContain(byte[] key) {
+        return mightContain(hash(key));
+    }
+
+    /**
+     * check if a key might be contained in this filter, using the cached hash of the key
+     *
+     * @param key key to check
+     *
+     * @return false if the key is definitely not contained, true if it might be.
+     */
+    public boolean mightContain(Key key) {
+        return mightContain(key.filterHash());
+    }
+
+    private boolean mightContain(long hash) {
+        long bitSize = (long) bits.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitSize;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the false positive rate which is to be expected given the amount
+     * of keys, bits and hash functions of this filter
+     *
+     * @return probability of a false positive answer of {@link #mightContain(byte[])}
+     */
+    public double getExpectedFalsePositiveRate() {
+        double bitSize = (double) bits.length * 64;
+        return Math.pow(1 - Math.exp(-numHashes * numKeys / bitSize), numHashes);
+    }
+
+    /**
+     * @return size of the filter in bits
+     */
+    public long getNumBits() {
+        return (long) bits.length * 64;
+    }
+
+    /**
+     * @return amount of hash functions per key
+     */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * @return amount of keys which were added to the filter
+     */
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    /**
+     * 64 bit hash of a key (FNV-1a followed by the murmur3 finalizer to spread
+     * the bits over the whole long)
+     *
+     * @param key key bytes to hash
+     *
+     * @return hash value of the key
+     */
+    public static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * write the filter to an output stream
+     *
+     * The format is:
+     *
+     * 4 bytes number of hash functions
+     * 4 bytes number of keys
+     * 4 bytes number of longs n in the bit array
+     * n * 8 bytes bit array
+     *
+     * @param out stream to write to
+     *
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(numHashes);
+        dos.writeInt(numKeys);
+        dos.writeInt(bits.length);
+        for (long l : bits) {
+            dos.writeLong(l);
+        }
+        dos.flush();
+    }
+
+    /**
+     * read a filter previously written by {@link #writeTo(OutputStream)}
+     *
+     * @param in stream to read from
+     *
+     * @return the filter
+     *
+     * @throws IOException if reading from the stream fails
+     */
+    public static BloomFilter readFrom(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        int numHashes = dis.readInt();
+        int numKeys = dis.readInt();
+        int length = dis.readInt();
+        long[] bits = new long[length];
+        for (int i = 0; i < length; i++) {
+            bits[i] = dis.readLong();
+        }
+        return new BloomFilter(bits, numHashes, numKeys);
+    }
+}
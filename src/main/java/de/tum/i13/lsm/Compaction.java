@@ -0,0 +1,37 @@
+package de.tum.i13.lsm;
+
+import java.util.List;
+
+/**
+ * Compaction describes a single compaction job chosen by a {@link CompactionStrategy}:
+ * the input files which will be merged and where the merged output is placed.
+ */
+public class Compaction {
+
+    private final List<LSMFile> inputs;
+    private final int outputLevel;
+    private final long maxOutputFileSize;
+
+    /**
+     * @param inputs files to merge
+     * @param outputLevel level of the output files
+     * @param maxOutputFileSize size after which a new output file is started
+     */
+    public Compaction(List<LSMFile> inputs, int outputLevel, long maxOutputFileSize) {
+        this.inputs = inputs;
+        this.outputLevel = outputLevel;
+        this.maxOutputFileSize = maxOutputFileSize;
+    }
+
+    public List<LSMFile> getInputs() {
+        return inputs;
+    }
+
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public long getMaxOutputFileSize() {
+        return maxOutputFileSize;
+    }
+}
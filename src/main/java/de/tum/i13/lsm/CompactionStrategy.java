@@ -0,0 +1,42 @@
+package de.tum.i13.lsm;
+
+/**
+ * CompactionStrategy decides which {@link LSMFile}s should be merged next.
+ */
+public interface CompactionStrategy {
+
+    enum Type {
+        NONE() {
+            @Override
+            public CompactionStrategy build() {
+                return (version) -> null;
+            }
+        },
+        SIZE_TIERED() {
+            @Override
+            public CompactionStrategy build() {
+                return new SizeTieredCompactionStrategy();
+            }
+        },
+        LEVELED() {
+            @Override
+            public CompactionStrategy build() {
+                return new LeveledCompactionStrategy();
+            }
+        };
+
+        public abstract CompactionStrategy build();
+
+        Type() {
+        }
+    }
+
+    /**
+     * pick the next compaction
+     *
+     * @param version the current set of live files
+     *
+     * @return the next compaction or null if nothing needs to be compacted
+     */
+    Compaction pick(LSMVersion version);
+}
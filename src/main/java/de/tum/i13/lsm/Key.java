@@ -0,0 +1,142 @@
+package de.tum.i13.lsm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Key is the storage representation of a key: its UTF-8 bytes, ordered by
+ * comparing the bytes unsigned and lexicographically like the keys in the
+ * index and blocks of an {@link LSMFile}.
+ *
+ * A key is encoded once at the boundary of the storage layer and then passed
+ * down to the memtables, the bloom filters and the files, which all work on
+ * the same bytes. Its {@link BloomFilter} hash is computed once when the key
+ * is created and its hash code on first use, so checking the filters of many
+ * files hashes the key only once.
+ *
+ * {@link LSMItem}s in the log, the memtables and the LSMFiles hold Keys. Keys
+ * kept as Strings, e.g. the bounds of range tombstones and file key ranges,
+ * are ordered the same way by {@link #compare(String, String)} without
+ * encoding them.
+ */
+public final class Key implements Comparable<Key> {
+
+    /**
+     * maximum length of a key in bytes, longer keys can't be stored
+     */
+    public static final int MAX_LENGTH = LSMFile.KEY_LENGTH;
+
+    private final byte[] bytes;
+    // every key is either looked up in the bloom filters or added to one when it is flushed
+    private final long filterHash;
+
+    // computed lazily, racing threads compute the same value
+    private int hash;
+
+    private Key(byte[] bytes) {
+        this.bytes = bytes;
+        this.filterHash = BloomFilter.hash(bytes);
+    }
+
+    /**
+     * @param key the key as received from a client
+     *
+     * @return the key encoded as UTF-8
+     */
+    public static Key of(String key) {
+        return new Key(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * wrap key bytes without copying them
+     *
+     * @param bytes UTF-8 bytes of the key, which must not be changed afterwards
+     *
+     * @return the key
+     */
+    public static Key wrap(byte[] bytes) {
+        return new Key(bytes);
+    }
+
+    /**
+     * @return the bytes of the key. The array is shared and must not be changed.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return length of the key in bytes
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * @return the hash of the key used by bloom filters, see {@link BloomFilter#hash(byte[])}
+     */
+    public long filterHash() {
+        return filterHash;
+    }
+
+    @Override
+    public int compareTo(Key other) {
+        return Arrays.compareUnsigned(bytes, other.bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes));
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(bytes);
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return the key decoded from UTF-8
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * compare two keys given as Strings in the order of their UTF-8 bytes.
+     * This is the order of their code points, which only differs from
+     * {@link String#compareTo(String)} for characters outside of the basic
+     * multilingual plane, whose surrogates sort before U+E000 to U+FFFF in UTF-16.
+     *
+     * @param a first key
+     * @param b second key
+     *
+     * @return a negative value, zero or a positive value if the first key is
+     * smaller, equal to or larger than the second one
+     */
+    public static int compare(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 != c2) {
+                if (c1 >= Character.MIN_SURROGATE && c2 >= Character.MIN_SURROGATE) {
+                    // move the surrogates above the rest of the basic multilingual plane
+                    c1 = codePointOrder(c1);
+                    c2 = codePointOrder(c2);
+                }
+                return c1 - c2;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static char codePointOrder(char c) {
+        return (char) (Character.isSurrogate(c) ? c + 0x2000 : c - 0x800);
+    }
+}
@@ -0,0 +1,419 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * LSMBlock encodes and decodes the data blocks of v2 {@link LSMFile}s.
+ *
+ * A block holds a run of consecutive items. Every key only stores the suffix
+ * which differs from the previous key in the block, all lengths and timestamps
+ * are varints:
+ *
+ * varint shared prefix length with the previous key (0 for the first key)
+ * varint length of the key suffix
+ * key suffix bytes
+ * varint timestamp
+ * varint value length, shifted left by one bit which is set for tombstones
+ * value bytes (none for tombstones)
+ *
+ * Blocks of format version 2 files store the plain value length and no flag,
+ * their tombstones hold {@link Constants#DELETE_MARKER} as value.
+ *
+ * On disk, the encoded items are compressed with Deflate unless that doesn't
+ * make them smaller. Blocks are self delimiting, so they can be read both by
+ * position from the sparse index and sequentially:
+ *
+ * 1 byte compression type
+ * varint length of the decoded items
+ * varint length of the payload
+ * payload bytes
+ * 4 bytes CRC32C of everything before
+ */
+final class LSMBlock {
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATE = 1;
+
+    // type byte and two varints of at most 5 bytes each
+    private static final int MAX_HEADER_LENGTH = 11;
+    private static final int CRC_LENGTH = Integer.BYTES;
+
+    private LSMBlock() {
+    }
+
+    /**
+     * Builder collects the items of the block which is currently written
+     */
+    static class Builder {
+        private final Buffer items = new Buffer();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] lastKey = new byte[0];
+        private byte[] firstKey;
+        private int count;
+
+        /**
+         * append an item, which must not be smaller than the previous one
+         *
+         * @param item item to append
+         */
+        void add(LSMItem item) {
+            byte[] key = item.getKey().getBytes();
+            byte[] value = item.getValue();
+
+            int shared = 0;
+            int max = Math.min(key.length, lastKey.length);
+            while (shared < max && key[shared] == lastKey[shared]) {
+                shared++;
+            }
+
+            items.writeVarLong(shared);
+            items.writeVarLong(key.length - shared);
+            items.write(key, shared, key.length - shared);
+            items.writeVarLong(item.getTimestamp());
+            items.writeVarLong((long) value.length << 1 | (item.isTombstone() ? 1 : 0));
+            items.write(value, 0, value.length);
+
+            if (count == 0) {
+                firstKey = key;
+            }
+            lastKey = key;
+            count++;
+        }
+
+        /**
+         * @return true if no item has been added since the last block was finished
+         */
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        /**
+         * @return the first key of the current block
+         */
+        byte[] getFirstKey() {
+            return firstKey;
+        }
+
+        /**
+         * @return size of the encoded items before compression
+         */
+        int size() {
+            return items.size();
+        }
+
+        /**
+         * compress the current block and start a new one
+         *
+         * @return the block as stored on disk
+         */
+        byte[] finish() {
+            byte[] raw = items.array();
+            int rawLength = items.size();
+
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            Buffer compressed = new Buffer();
+            byte[] chunk = new byte[Math.max(64, rawLength / 2)];
+            while (!deflater.finished() && compressed.size() < rawLength) {
+                int n = deflater.deflate(chunk);
+                compressed.write(chunk, 0, n);
+            }
+
+            Buffer block = new Buffer();
+            if (deflater.finished() && compressed.size() < rawLength) {
+                block.write(DEFLATE);
+                block.writeVarLong(rawLength);
+                block.writeVarLong(compressed.size());
+                block.write(compressed.array(), 0, compressed.size());
+            } else {
+                block.write(RAW);
+                block.writeVarLong(rawLength);
+                block.writeVarLong(rawLength);
+                block.write(raw, 0, rawLength);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(block.array(), 0, block.size());
+            block.write(ByteBuffer.allocate(CRC_LENGTH).putInt((int) crc.getValue()).array(), 0, CRC_LENGTH);
+
+            items.reset();
+            lastKey = new byte[0];
+            firstKey = null;
+            count = 0;
+            return Arrays.copyOf(block.array(), block.size());
+        }
+
+        /**
+         * release the native resources of the compressor
+         */
+        void close() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * verify and decompress a block
+     *
+     * @param block the block as stored on disk
+     * @param fileName name of the LSMFile, for error messages
+     *
+     * @return the encoded items of the block
+     *
+     * @throws IOException if the block is truncated or corrupt
+     */
+    static byte[] decode(byte[] block, String fileName) throws IOException {
+        if (block.length < 3 + CRC_LENGTH) {
+            throw new EOFException("Truncated block in LSMFile " + fileName);
+        }
+        int crcPosition = block.length - CRC_LENGTH;
+        CRC32C crc = new CRC32C();
+        crc.update(block, 0, crcPosition);
+        if ((int) crc.getValue() != ByteBuffer.wrap(block, crcPosition, CRC_LENGTH).getInt()) {
+            throw new IOException("Checksum mismatch in block of LSMFile " + fileName);
+        }
+
+        int[] position = {1};
+        int rawLength = (int) readVarLong(block, position);
+        int payloadLength = (int) readVarLong(block, position);
+        if (position[0] + payloadLength != crcPosition) {
+            throw new IOException("Invalid block length in LSMFile " + fileName);
+        }
+
+        if (block[0] == RAW) {
+            return Arrays.copyOfRange(block, position[0], crcPosition);
+        }
+        if (block[0] != DEFLATE) {
+            throw new IOException("Unknown block compression " + block[0] + " in LSMFile " + fileName);
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block, position[0], payloadLength);
+            byte[] raw = new byte[rawLength];
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != rawLength) {
+                throw new IOException("Truncated block in LSMFile " + fileName);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in LSMFile " + fileName, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * read the next block from a stream positioned at the start of a block
+     *
+     * @param in stream to read from
+     *
+     * @return the block as stored on disk
+     *
+     * @throws IOException if the stream ends within the block
+     */
+    static byte[] readFrom(DataInputStream in) throws IOException {
+        Buffer header = new Buffer();
+        header.write(in.readByte());
+        copyVarLong(in, header);
+        long payloadLength = copyVarLong(in, header);
+        if (payloadLength < 0 || payloadLength > Integer.MAX_VALUE - MAX_HEADER_LENGTH - CRC_LENGTH) {
+            throw new IOException("Invalid block length " + payloadLength);
+        }
+
+        byte[] block = new byte[header.size() + (int) payloadLength + CRC_LENGTH];
+        System.arraycopy(header.array(), 0, block, 0, header.size());
+        in.readFully(block, header.size(), block.length - header.size());
+        return block;
+    }
+
+    private static long copyVarLong(DataInputStream in, Buffer out) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            out.write(b);
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * read a varint from a byte array
+     *
+     * @param bytes array to read from
+     * @param position position to read at, advanced past the varint
+     *
+     * @return the value
+     *
+     * @throws IOException if the varint exceeds the array
+     */
+    static long readVarLong(byte[] bytes, int[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new EOFException("Unexpected end of block");
+            }
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Cursor decodes the items of a decompressed block one by one
+     */
+    static class Cursor {
+        private final byte[] items;
+        private final boolean flagged;
+        private final int[] position = {0};
+        private byte[] key = new byte[32];
+        private int keyLength;
+        private long timestamp;
+        private int valueOffset;
+        private int valueLength;
+        private boolean tombstone;
+
+        /**
+         * @param items the encoded items of the block
+         * @param flagged true if the value lengths carry the tombstone flag,
+         *                false for blocks of format version 2
+         */
+        Cursor(byte[] items, boolean flagged) {
+            this.items = items;
+            this.flagged = flagged;
+        }
+
+        /**
+         * @return true if the block has more items
+         */
+        boolean hasNext() {
+            return position[0] < items.length;
+        }
+
+        /**
+         * decode the key and timestamp of the next item and skip its value
+         *
+         * @throws IOException if the item exceeds the block
+         */
+        void advance() throws IOException {
+            int shared = (int) readVarLong(items, position);
+            int unshared = (int) readVarLong(items, position);
+            if (shared > keyLength || unshared < 0 || position[0] + unshared > items.length) {
+                throw new IOException("Corrupt key in block");
+            }
+            if (shared + unshared > key.length) {
+                key = Arrays.copyOf(key, Math.max(2 * key.length, shared + unshared));
+            }
+            System.arraycopy(items, position[0], key, shared, unshared);
+            position[0] += unshared;
+            keyLength = shared + unshared;
+
+            timestamp = readVarLong(items, position);
+            long length = readVarLong(items, position);
+            tombstone = flagged && (length & 1) != 0;
+            valueLength = (int) (flagged ? length >>> 1 : length);
+            valueOffset = position[0];
+            if (valueLength < 0 || valueOffset + valueLength > items.length) {
+                throw new EOFException("Unexpected end of block");
+            }
+            position[0] += valueLength;
+        }
+
+        /**
+         * compare the current key with the given one
+         *
+         * @param other key bytes to compare with
+         *
+         * @return a negative value, zero or a positive value if the current key is smaller, equal or larger
+         */
+        int compareKey(byte[] other) {
+            return Arrays.compareUnsigned(key, 0, keyLength, other, 0, other.length);
+        }
+
+        /**
+         * @return the current key
+         */
+        String key() {
+            return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the current item, holding copies of the key and value bytes
+         */
+        LSMItem item() {
+            Key k = Key.wrap(Arrays.copyOf(key, keyLength));
+            if (tombstone) {
+                return LSMItem.tombstone(k, timestamp);
+            }
+            return LSMFile.decodeLSMItem(k, keyLength, items, valueOffset, valueLength, timestamp);
+        }
+    }
+
+    /**
+     * search a decompressed block for a key
+     *
+     * @param items the encoded items of the block
+     * @param flagged true if the value lengths carry the tombstone flag
+     * @param key key bytes to look for
+     *
+     * @return the item or null if the block doesn't contain the key
+     *
+     * @throws IOException if the block is corrupt
+     */
+    static LSMItem find(byte[] items, boolean flagged, byte[] key) throws IOException {
+        Cursor cursor = new Cursor(items, flagged);
+        while (cursor.hasNext()) {
+            cursor.advance();
+            int cmp = cursor.compareKey(key);
+            if (cmp == 0) {
+                return cursor.item();
+            }
+            if (cmp > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * byte array output stream with access to its internal array and varint support
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
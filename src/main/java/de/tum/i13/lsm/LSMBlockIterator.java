@@ -0,0 +1,114 @@
+package de.tum.i13.lsm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * LSMBlockIterator reads the items of a v2 {@link LSMFile} sequentially, one
+ * block at a time. Every block is verified and decompressed as a whole, items
+ * before the start or after the end of the range are dropped.
+ */
+public class LSMBlockIterator implements LSMIterator {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final String fileName;
+    private final boolean flagged;
+    private final byte[] from;
+    private final byte[] to;
+    private final Predicate<String> keyFilter;
+    private final RateLimiter rateLimiter;
+    private long remaining;
+    private LSMBlock.Cursor cursor;
+    private LSMItem next;
+
+    /**
+     * create a new iterator
+     *
+     * @param data data file of the LSMFile
+     * @param fileName name of the LSMFile, for error messages
+     * @param flagged true if the blocks carry tombstone flags, see {@link LSMBlock.Cursor}
+     * @param position position of the first block to read
+     * @param endPosition position after the last block to read
+     * @param from first key to return (inclusive), null to start at the first key
+     * @param to end of the range (exclusive), null to return all keys up to the end position
+     * @param keyFilter only items whose keys match are returned, may be null
+     * @param rateLimiter limiter charged for every byte read, may be null
+     *
+     * @throws IOException if the data file can't be opened or read
+     */
+    LSMBlockIterator(File data, String fileName, boolean flagged, long position, long endPosition, Key from, Key to,
+                     Predicate<String> keyFilter, RateLimiter rateLimiter) throws IOException {
+        FileInputStream fis = new FileInputStream(data);
+        fis.getChannel().position(position);
+        int bufferSize = (int) Math.max(1, Math.min(BUFFER_SIZE, endPosition - position));
+        this.in = new DataInputStream(new BufferedInputStream(fis, bufferSize));
+        this.fileName = fileName;
+        this.flagged = flagged;
+        this.from = from == null ? null : from.getBytes();
+        this.to = to == null ? null : to.getBytes();
+        this.keyFilter = keyFilter;
+        this.rateLimiter = rateLimiter;
+        this.remaining = endPosition - position;
+        advance();
+    }
+
+    private void advance() throws IOException {
+        next = null;
+        while (next == null) {
+            if (cursor == null || !cursor.hasNext()) {
+                if (remaining <= 0) {
+                    return;
+                }
+                byte[] block = LSMBlock.readFrom(in);
+                remaining -= block.length;
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(block.length);
+                }
+                cursor = new LSMBlock.Cursor(LSMBlock.decode(block, fileName), flagged);
+                continue;
+            }
+
+            cursor.advance();
+            // compare the key bytes, the key is only decoded for the key filter
+            if (from != null && cursor.compareKey(from) < 0) {
+                continue;
+            }
+            if (to != null && cursor.compareKey(to) >= 0) {
+                remaining = 0;
+                cursor = null;
+                return;
+            }
+            if (keyFilter == null || keyFilter.test(cursor.key())) {
+                next = cursor.item();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public LSMItem peek() {
+        return next;
+    }
+
+    @Override
+    public LSMItem next() throws IOException {
+        LSMItem current = next;
+        advance();
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
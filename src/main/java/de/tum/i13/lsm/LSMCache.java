@@ -1,37 +1,190 @@
 package de.tum.i13.lsm;
 
-import de.tum.i13.shared.Constants;
 import de.tum.i13.shared.KVItem;
 
+import java.util.AbstractCollection;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * LSMCache is the in memory store of our LSMTree implementation.
  * It holds a sorted map of key value items and provides put and get access
  * to the items in the cache.
+ *
+ * The items are stored in a {@link ConcurrentSkipListMap}, so puts, point reads
+ * and ordered iteration can run concurrently without locking. They are kept
+ * as {@link LSMItem}s, i.e. the bytes written to the log and flushed to the
+ * LSMFile, and are returned as such by point reads and iterators.
+ *
+ * The cache keeps track of the approximate amount of memory used by its
+ * items, so that it can be flushed once it reaches a certain size. Before it is
+ * flushed, the cache is frozen: writers register with
+ * {@link #tryAcquireWriter()}, which fails on a frozen cache, so the flusher
+ * only has to wait for the writers which were already running.
+ *
+ * Every version written by {@link LSMMemtables} gets a sequence number. A key
+ * maps to its newest version, which links to the older versions still needed by
+ * a live {@link LSMSnapshot}. Older versions nobody needs are dropped on the
+ * next write of the key, so without snapshots a key holds a single version.
  */
 public class LSMCache {
-    TreeMap<String, KVItem> lsmCache = new TreeMap<>();
 
-    final ReadWriteLock rwl = new ReentrantReadWriteLock();
+    // rough memory overhead of a map entry and an LSMItem besides key and value
+    private static final int ITEM_OVERHEAD = 64;
+
+    // set in the writer count once the cache is frozen
+    private static final int FROZEN = 1 << 30;
+
+    /**
+     * a version of an item and the older versions still needed by snapshots
+     */
+    private static final class Version {
+        private final LSMItem item;
+        private final long sequence;
+        private final Version older;
+
+        private Version(LSMItem item, long sequence, Version older) {
+            this.item = item;
+            this.sequence = sequence;
+            this.older = older;
+        }
+
+        /**
+         * @return the newest version which is part of a snapshot, or null if the key was written after it
+         */
+        private LSMItem visibleAt(long snapshot) {
+            Version v = this;
+            while (v != null && v.sequence > snapshot) {
+                v = v.older;
+            }
+            return v == null ? null : v.item;
+        }
+    }
+
+    // ordered like the keys of the LSMFiles, so caches and files can be merged
+    private final ConcurrentSkipListMap<Key, Version> lsmCache = new ConcurrentSkipListMap<>();
+
+    private final long segment;
+
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger writers = new AtomicInteger();
+
+    /**
+     * create a new cache which is not associated with a log segment
+     */
+    public LSMCache() {
+        this(0);
+    }
 
     /**
-     * put a new item to the cache.
+     * create a new cache whose items are logged in the given log segment
+     *
+     * @param segment number of the log segment
+     */
+    public LSMCache(long segment) {
+        this.segment = segment;
+    }
+
+    /**
+     * put a new item to the cache. The item doesn't get a sequence number and
+     * replaces all older versions of its key.
      *
      * @param item item is a KVItem which should be saved
      */
     public void put(KVItem item) {
-        try {
-            rwl.writeLock().lock();
+        put(LSMItem.of(item));
+    }
+
+    /**
+     * put a new item which is already encoded to the cache, see {@link #put(KVItem)}
+     *
+     * @param item the item to save
+     */
+    public void put(LSMItem item) {
+        put(item, null, null);
+    }
+
+    /**
+     * put a new version of an item to the cache. The caller makes sure that no
+     * snapshot is taken while the version is put.
+     *
+     * @param item the item to save
+     * @param sequence source of the sequence number of the new version, null to
+     *                 store the item without a sequence number
+     * @param snapshots sequence numbers of the live snapshots, older versions
+     *                  are kept if one of them needs it. May be null.
+     *
+     * @return the sequence number of the new version
+     */
+    long put(LSMItem item, AtomicLong sequence, NavigableMap<Long, Integer> snapshots) {
+        while (true) {
+            Version previous = lsmCache.get(item.getKey());
+            // take the number after reading the previous version, so versions of a key are always ordered
+            long number = sequence == null ? 0 : sequence.incrementAndGet();
+            Version version = new Version(item, number, retained(previous, number, snapshots));
+            if (previous == null) {
+                if (lsmCache.putIfAbsent(item.getKey(), version) != null) {
+                    continue;
+                }
+                count.incrementAndGet();
+            } else if (!lsmCache.replace(item.getKey(), previous, version)) {
+                continue;
+            }
+            sizeBytes.addAndGet(chainBytes(version) - chainBytes(previous));
+            return number;
+        }
+    }
+
+    /**
+     * @return the versions of a chain which are still needed by a snapshot, i.e.
+     * there is a snapshot taken after the version was written but before the
+     * next newer version was written
+     */
+    private static Version retained(Version previous, long newer, NavigableMap<Long, Integer> snapshots) {
+        if (previous == null || snapshots == null || snapshots.isEmpty()) {
+            return null;
+        }
+        Version older = retained(previous.older, previous.sequence, snapshots);
+        Long snapshot = snapshots.ceilingKey(previous.sequence);
+        if (snapshot == null || snapshot >= newer) {
+            return older;
+        }
+        return older == previous.older ? previous : new Version(previous.item, previous.sequence, older);
+    }
 
-            lsmCache.put(item.getKey(), item);
-        } finally {
-            rwl.writeLock().unlock();
+    private static long chainBytes(Version version) {
+        long bytes = 0;
+        for (Version v = version; v != null; v = v.older) {
+            bytes += itemBytes(v.item);
         }
+        return bytes;
+    }
+
+    private static long itemBytes(LSMItem item) {
+        return item.length() + ITEM_OVERHEAD;
+    }
+
+    /**
+     * get an item from the LSMCache, see {@link #get(Key)}
+     *
+     * @param key the key of the item to get
+     *
+     * @return the requested item or null if no such item is present in
+     * the cache.
+     */
+    public LSMItem get(String key) {
+        return get(Key.of(key));
     }
 
     /**
@@ -42,36 +195,151 @@ public class LSMCache {
      * @return the requested item or null if no such item is present in
      * the cache.
      */
-    public KVItem get(String key) {
-        try{
-            rwl.readLock().lock();
+    public LSMItem get(Key key) {
+        Version version = lsmCache.get(key);
+        return version == null ? null : version.item;
+    }
 
-            return lsmCache.get(key);
-        } finally {
-            rwl.readLock().unlock();
-        }
+    /**
+     * get an item as seen by a snapshot
+     *
+     * @param key the key of the item to get
+     * @param snapshot sequence number of the snapshot
+     *
+     * @return the newest version written before the snapshot was taken, or null
+     * if there is none
+     */
+    public LSMItem get(Key key, long snapshot) {
+        Version version = lsmCache.get(key);
+        return version == null ? null : version.visibleAt(snapshot);
+    }
+
+    public TreeMap<String, KVItem> getShallowLsmCopy() {
+        TreeMap<String, KVItem> copy = new TreeMap<>(Key::compare);
+        lsmCache.forEach((key, version) -> copy.put(key.toString(), version.item.toKVItem()));
+        return copy;
     }
 
     /**
-     * getSnapshot creates a current snapshot of the LSMCache and
-     * replaces the internal cache by a new TreeMap
+     * get the newest version of all items of the cache in key order, decoded
+     * while iterating. The view is weakly consistent while the cache still
+     * receives writes.
      *
-     * @return the current state of the cache
+     * @return unmodifiable view of the items of the cache
      */
-    public TreeMap<String, KVItem> getSnapshot() {
-        rwl.writeLock().lock();
+    public Collection<KVItem> getItems() {
+        return view(item -> item.toKVItem());
+    }
 
-        try {
-            TreeMap<String, KVItem> snapshot = lsmCache;
-            lsmCache = new TreeMap<>();
-            return snapshot;
-        } finally {
-            rwl.writeLock().unlock();
-        }
+    /**
+     * get the newest version of all items of the cache in key order without
+     * copying or decoding them, e.g. to flush them. The view is weakly
+     * consistent while the cache still receives writes.
+     *
+     * @return unmodifiable view of the items of the cache
+     */
+    public Collection<LSMItem> getLSMItems() {
+        return view(item -> item);
     }
 
-    public TreeMap<String, KVItem> getShallowLsmCopy() {
-        return new TreeMap<>(lsmCache);
+    private <T> Collection<T> view(Function<LSMItem, T> mapper) {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<Version> versions = lsmCache.values().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return versions.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return mapper.apply(versions.next().item);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return count.get();
+            }
+        };
+    }
+
+    /**
+     * iterate over the items of a key range in key order. The iterator is
+     * weakly consistent while the cache still receives writes.
+     *
+     * @param from first key of the range (inclusive), null to start at the first key
+     * @param to end of the range (exclusive), null to iterate up to the last key
+     * @param keyFilter only items whose keys match are returned, may be null
+     *
+     * @return an iterator over the items of the range
+     */
+    public LSMIterator iterator(Key from, Key to, Predicate<String> keyFilter) {
+        return iterator(from, to, keyFilter, Long.MAX_VALUE);
+    }
+
+    /**
+     * iterate over the items of a key range as seen by a snapshot, see
+     * {@link #iterator(Key, Key, Predicate)}
+     *
+     * @param from first key of the range (inclusive), null to start at the first key
+     * @param to end of the range (exclusive), null to iterate up to the last key
+     * @param keyFilter only items whose keys match are returned, may be null
+     * @param snapshot sequence number of the snapshot, newer versions are skipped
+     *
+     * @return an iterator over the items of the range
+     */
+    public LSMIterator iterator(Key from, Key to, Predicate<String> keyFilter, long snapshot) {
+        NavigableMap<Key, Version> range = lsmCache;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, false);
+        }
+        Iterator<Map.Entry<Key, Version>> entries = range.entrySet().iterator();
+
+        return new LSMIterator() {
+            private LSMItem next = advance();
+
+            private LSMItem advance() {
+                while (entries.hasNext()) {
+                    Map.Entry<Key, Version> entry = entries.next();
+                    if (keyFilter != null && !keyFilter.test(entry.getKey().toString())) {
+                        continue;
+                    }
+                    LSMItem item = entry.getValue().visibleAt(snapshot);
+                    if (item != null) {
+                        return item;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public LSMItem peek() {
+                return next;
+            }
+
+            @Override
+            public LSMItem next() {
+                LSMItem current = next;
+                next = advance();
+                return current;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
     }
 
     /**
@@ -80,7 +348,71 @@ public class LSMCache {
      * @return the amount of items in the cache.
      */
     public int size() {
-        return lsmCache.size();
+        return count.get();
+    }
+
+    /**
+     * get the approximate memory used by the items in the cache.
+     *
+     * @return size of all keys and values plus a fixed overhead per item, in bytes
+     */
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    /**
+     * @return number of the log segment the items of this cache are written to
+     */
+    public long getSegment() {
+        return segment;
+    }
+
+    /**
+     * register a writer of the cache
+     *
+     * @return false if the cache is frozen and doesn't accept writes anymore
+     */
+    boolean tryAcquireWriter() {
+        while (true) {
+            int w = writers.get();
+            if ((w & FROZEN) != 0) {
+                return false;
+            }
+            if (writers.compareAndSet(w, w + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * unregister a writer after its item was logged and put to the cache
+     */
+    void releaseWriter() {
+        writers.decrementAndGet();
+    }
+
+    /**
+     * reject all further writers. Writers which are already registered may
+     * still finish their put.
+     */
+    void freeze() {
+        writers.getAndUpdate(w -> w | FROZEN);
+    }
+
+    /**
+     * @return true if the cache has been frozen
+     */
+    public boolean isFrozen() {
+        return (writers.get() & FROZEN) != 0;
+    }
+
+    /**
+     * wait until all writers of a frozen cache are done, so the cache can be flushed
+     */
+    void awaitWriters() {
+        while (writers.get() != FROZEN) {
+            Thread.yield();
+        }
     }
 
     /**
@@ -91,16 +423,11 @@ public class LSMCache {
      */
     public Set<KVItem> scan (String key){
         Set<KVItem> matchingList = new HashSet<>();
-        try {
-            rwl.readLock().lock();
-            for (String k : this.lsmCache.keySet()){
-                if (k.contains(key) && !this.lsmCache.get(k).getValue().equals(Constants.DELETE_MARKER)){
-                    matchingList.add(this.lsmCache.get(k));
-                }
+        for (KVItem item : getItems()) {
+            if (item.getKey().contains(key) && !item.isTombstone()) {
+                matchingList.add(item);
             }
-            return matchingList;
-        } finally {
-            rwl.readLock().unlock();
         }
+        return matchingList;
     }
 }
@@ -0,0 +1,248 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An LSMCompactor runs in a separate worker thread and merges LSMFiles
+ * in the background, as chosen by a {@link CompactionStrategy}.
+ *
+ * The input files are merged with a k-way merge which keeps only the newest
+ * version of every key. Delete markers are dropped as soon as no file outside
+ * of the compaction can contain an older version of the key, items hidden by a
+ * range tombstone are dropped right away. All IO of the compactor is throttled
+ * by a {@link RateLimiter}.
+ */
+public class LSMCompactor extends Thread {
+
+    private static final Log logger = new Log(LSMCompactor.class);
+
+    private static final long COMPACTION_CHECK_FREQUENCY = 1000;
+
+    private final LSMManifest manifest;
+    private final Path lsmFileDir;
+    private final CompactionStrategy strategy;
+    private final RateLimiter rateLimiter;
+    private final int bloomBitsPerKey;
+    private final LSMFile.Format format;
+    private final int blockSize;
+    private final RangeTombstones rangeTombstones;
+
+    private volatile boolean shutDown = false;
+
+    /**
+     * create a new LSMCompactor
+     *
+     * @param manifest manifest holding the live files
+     * @param lsmFileDir directory where new LSMFiles should be stored
+     * @param strategy the strategy choosing the files to compact
+     * @param rateLimiter limiter for the compaction IO
+     * @param bloomBitsPerKey bits per key of the bloom filters of new LSMFiles
+     */
+    public LSMCompactor(LSMManifest manifest, Path lsmFileDir, CompactionStrategy strategy,
+                        RateLimiter rateLimiter, int bloomBitsPerKey) {
+        this(manifest, lsmFileDir, strategy, rateLimiter, bloomBitsPerKey, LSMFile.Format.V1, LSMFile.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * create a new LSMCompactor
+     *
+     * @param manifest manifest holding the live files
+     * @param lsmFileDir directory where new LSMFiles should be stored
+     * @param strategy the strategy choosing the files to compact
+     * @param rateLimiter limiter for the compaction IO
+     * @param bloomBitsPerKey bits per key of the bloom filters of new LSMFiles
+     * @param format format of new LSMFiles
+     * @param blockSize block size of new v2 LSMFiles in bytes
+     */
+    public LSMCompactor(LSMManifest manifest, Path lsmFileDir, CompactionStrategy strategy,
+                        RateLimiter rateLimiter, int bloomBitsPerKey, LSMFile.Format format, int blockSize) {
+        this(manifest, lsmFileDir, strategy, rateLimiter, bloomBitsPerKey, format, blockSize, null);
+    }
+
+    /**
+     * create a new LSMCompactor
+     *
+     * @param manifest manifest holding the live files
+     * @param lsmFileDir directory where new LSMFiles should be stored
+     * @param strategy the strategy choosing the files to compact
+     * @param rateLimiter limiter for the compaction IO
+     * @param bloomBitsPerKey bits per key of the bloom filters of new LSMFiles
+     * @param format format of new LSMFiles
+     * @param blockSize block size of new v2 LSMFiles in bytes
+     * @param rangeTombstones deleted key ranges of the store, may be null
+     */
+    public LSMCompactor(LSMManifest manifest, Path lsmFileDir, CompactionStrategy strategy,
+                        RateLimiter rateLimiter, int bloomBitsPerKey, LSMFile.Format format, int blockSize,
+                        RangeTombstones rangeTombstones) {
+        super("lsm-compactor");
+        setDaemon(true);
+        this.manifest = manifest;
+        this.lsmFileDir = lsmFileDir;
+        this.strategy = strategy;
+        this.rateLimiter = rateLimiter;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.format = format;
+        this.blockSize = blockSize;
+        this.rangeTombstones = rangeTombstones;
+    }
+
+    public void setShutDown(boolean sd) {
+        this.shutDown = sd;
+    }
+
+    /**
+     * start the worker thread
+     */
+    @Override
+    public void run() {
+        while (!shutDown) {
+            boolean compacted = false;
+            try {
+                compacted = compactOnce();
+            } catch (IOException e) {
+                logger.severe("Compaction failed", e);
+            }
+
+            if (!compacted) {
+                try {
+                    Thread.sleep(COMPACTION_CHECK_FREQUENCY);
+                } catch (InterruptedException e) {
+                    logger.info("LSM compactor interrupted");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * pick and run a single compaction
+     *
+     * @return true if a compaction was run
+     *
+     * @throws IOException if the compaction fails
+     */
+    public boolean compactOnce() throws IOException {
+        return compactOnce(strategy);
+    }
+
+    /**
+     * pick a single compaction with another strategy and run it, e.g. to
+     * compact files manually. Must not run concurrently with the worker
+     * thread, unless its strategy never picks a compaction.
+     *
+     * @param strategy the strategy choosing the files to compact
+     *
+     * @return true if a compaction was run
+     *
+     * @throws IOException if the compaction fails
+     */
+    public boolean compactOnce(CompactionStrategy strategy) throws IOException {
+        try (LSMVersion version = manifest.acquire()) {
+            Compaction compaction = strategy.pick(version);
+            if (compaction == null) {
+                return false;
+            }
+            compact(compaction, version);
+            return true;
+        }
+    }
+
+    private void compact(Compaction compaction, LSMVersion version) throws IOException {
+        long start = System.currentTimeMillis();
+        // merged newest first, so equally old versions of a key are ordered like in the version
+        List<LSMFile> inputs = new ArrayList<>(compaction.getInputs());
+        inputs.sort(Comparator.comparingInt(version.getFiles()::indexOf));
+        List<LSMFile> others = new ArrayList<>(version.getFiles());
+        others.removeAll(inputs);
+
+        List<LSMIterator> iterators = new ArrayList<>();
+        long inputBytes = 0;
+        for (LSMFile f : inputs) {
+            iterators.add(f.iterator(rateLimiter));
+            inputBytes += f.getSize();
+        }
+
+        List<LSMFile> outputs = new ArrayList<>();
+        LSMFile out = null;
+        long written = 0;
+        long items = 0;
+        long droppedMarkers = 0;
+        long droppedCovered = 0;
+        try (MergingIterator merged = new MergingIterator(iterators)) {
+            while (merged.hasNext()) {
+                LSMItem item = merged.next();
+                if (item.isTombstone() && !containedIn(others, item.getKey())) {
+                    droppedMarkers++;
+                    continue;
+                }
+                if (rangeTombstones != null && rangeTombstones.covers(item)) {
+                    droppedCovered++;
+                    continue;
+                }
+
+                if (out == null) {
+                    out = new LSMFile(lsmFileDir, bloomBitsPerKey, format, blockSize);
+                }
+                out.append(item);
+                long bytes = LSMFile.KEY_LENGTH + 3 * Long.BYTES + item.getValue().length;
+                rateLimiter.acquire(bytes);
+                written += bytes;
+                items++;
+
+                if (written >= compaction.getMaxOutputFileSize()) {
+                    outputs.add(finish(out, compaction.getOutputLevel()));
+                    out = null;
+                    written = 0;
+                }
+            }
+            if (out != null) {
+                outputs.add(finish(out, compaction.getOutputLevel()));
+                out = null;
+            }
+
+            manifest.apply(outputs, inputs);
+        } catch (IOException e) {
+            if (out != null) {
+                out.close();
+                out.delete();
+            }
+            for (LSMFile f : outputs) {
+                f.close();
+                f.delete();
+            }
+            throw e;
+        }
+
+        long outputBytes = outputs.stream().mapToLong(LSMFile::getSize).sum();
+        logger.info(String.format(
+                "Compacted %d files (%d bytes) into %d files (%d bytes) on level %d: %d items, %d delete markers and %d deleted items dropped, took %d ms",
+                inputs.size(), inputBytes, outputs.size(), outputBytes, compaction.getOutputLevel(),
+                items, droppedMarkers, droppedCovered, System.currentTimeMillis() - start
+        ));
+    }
+
+    private LSMFile finish(LSMFile out, int level) throws IOException {
+        out.close();
+        LSMFile result = manifest.open(out.getName());
+        result.setLevel(level);
+        return result;
+    }
+
+    /**
+     * check if any of the given files contains a key
+     */
+    private static boolean containedIn(List<LSMFile> files, Key key) throws IOException {
+        for (LSMFile f : files) {
+            if (f.mightContain(key) && f.contains(key.getBytes())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,41 +1,150 @@
 package de.tum.i13.lsm;
 
+import de.tum.i13.shared.Constants;
 import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * LSMFile provides an interface to LSMFiles on disk. An LSMFile is actually
  * a directory containing an index and a data file. The data file contains KVItems
  * while the index file only contains keys and for each key the position in the data
  * file where the item to the key is stored.
+ *
+ * LSMFiles are immutable once written. A file opened for reading therefore loads
+ * its index and bloom filter once and keeps them in memory, and reads items
+ * with positional reads so that a single instance can be shared by all readers.
+ * Shared instances are reference counted by the {@link LSMVersion}s containing
+ * them and are closed when the last version is released.
+ *
+ * Items can either be read with positional reads on a file channel or, if the
+ * file is opened with {@link ReadMode#MMAP}, decoded directly from a memory
+ * mapping of the data file.
+ *
+ * Files are written in one of two formats, see {@link Format}. Both can be read,
+ * the format of an existing file is recognized by its index file: v1 files have
+ * a dense index file, v2 files a sparse index file pointing at blocks.
+ *
+ * A file built outside of the store and ingested as a whole gets a global
+ * timestamp, which replaces the timestamps of all its items when they are read.
  */
 public class LSMFile implements Closeable {
 
+    /**
+     * the way a file opened for reading accesses its data file
+     */
+    public enum ReadMode {
+        /**
+         * positional reads on a file channel, every read is a system call
+         */
+        STREAM,
+        /**
+         * map the data and index file into memory and decode items straight
+         * from the mapping, reads of cached pages don't need a system call
+         */
+        MMAP
+    }
+
+    /**
+     * the layout of the data and index file
+     */
+    public enum Format {
+        /**
+         * every item is stored with its key padded to 20 bytes and fixed size
+         * lengths and timestamp, the index holds the position of every item
+         */
+        V1,
+        /**
+         * items are stored in compressed and checksummed blocks of
+         * prefix compressed keys and varint lengths, see {@link LSMBlock}.
+         * The index only holds the first key and position of every block.
+         */
+        V2
+    }
+
+    private static final Log logger = new Log(LSMFile.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+
     private static final String DATA_FILE_NAME = "data-";
     private static final String INDEX_FILE_NAME = "index-";
+    private static final String SPARSE_INDEX_FILE_NAME = "sparse-";
+    private static final String FILTER_FILE_NAME = "filter-";
+    private static final String TMP_SUFFIX = ".tmp";
     protected static final int KEY_LENGTH = 20; // Bytes
 
+    // v2 data files end with the last key and a footer of fixed length
+    private static final int FOOTER_LENGTH = 2 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int FORMAT_MAGIC = 0x4c534d32; // "LSM2"
+    private static final int FORMAT_VERSION = 3;
+    // blocks of version 2 files have no tombstone flag
+    private static final int UNFLAGGED_FORMAT_VERSION = 2;
+
+    // set in the key length field of a v1 or log record if the item is a tombstone
+    static final long TOMBSTONE_FLAG = Long.MIN_VALUE;
+    private static final byte[] DELETE_MARKER_BYTES = Constants.DELETE_MARKER.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_PADDING = new byte[KEY_LENGTH];
+
     private File data;
     private File index;
+    private File indexTmp;
+    private File filter;
 
     private FileOutputStream dataFOS;
     private FileOutputStream indexFOS;
 
-    private FileInputStream dataFIS;
-    private FileInputStream indexFIS;
+    private ReadMode readMode;
+    private FileChannel dataChannel;
+    private MappedByteBuffer dataMap;
+    private LSMIndex lsmIndex;
+
+    private Key currentKey;
+
+    private Format format = Format.V1;
+    private int blockSize;
+    private LSMBlock.Builder blockBuilder;
+    private long blocksEnd;
+    private long itemCount;
+    private byte[] lastKey;
+    private boolean flaggedBlocks = true;
+    private final AtomicLong readBytes = new AtomicLong();
 
-    private String currentKey;
+    private BlockCache blockCache;
+    private long fileId;
+
+    private int bloomBitsPerKey;
+    private long[] keyHashes;
+    private int keyCount;
+    private BloomFilter bloomFilter;
 
     private boolean closed;
 
+    private final AtomicInteger refs = new AtomicInteger();
+    private volatile boolean obsolete;
+
+    private int level;
+    private long globalTimestamp;
+
     /**
      * default constructor for subclasses
      */
@@ -43,14 +152,44 @@ public class LSMFile implements Closeable {
 
     }
 
+    /**
+     * Constructor for reading an existing LSMFile with positional reads
+     * @param directory location of the LSMFile (which is a directory containing data and index file)
+     * @param name name of the LSMFile
+     * @throws FileNotFoundException If the file can't be found
+     * @throws IOException If the index or filter of the file can't be read
+     */
+    public LSMFile(Path directory, String name) throws IOException {
+        this(directory, name, ReadMode.STREAM);
+    }
+
     /**
      * Constructor for reading an existing LSMFile
      * @param directory location of the LSMFile (which is a directory containing data and index file)
      * @param name name of the LSMFile
-     * @throws FileNotFoundException If the file can't be found or
+     * @param readMode how the data file is read
+     * @throws FileNotFoundException If the file can't be found
+     * @throws IOException If the index or filter of the file can't be read
      */
-    public LSMFile(Path directory, String name) throws FileNotFoundException {
+    public LSMFile(Path directory, String name, ReadMode readMode) throws IOException {
+        this(directory, name, readMode, null);
+    }
+
+    /**
+     * Constructor for reading an existing LSMFile whose decompressed blocks are
+     * cached in a shared block cache
+     * @param directory location of the LSMFile (which is a directory containing data and index file)
+     * @param name name of the LSMFile
+     * @param readMode how the data file is read
+     * @param blockCache cache for the blocks of v2 files, may be null
+     * @throws FileNotFoundException If the file can't be found
+     * @throws IOException If the index or filter of the file can't be read
+     */
+    public LSMFile(Path directory, String name, ReadMode readMode, BlockCache blockCache) throws IOException {
         closed = true;
+        this.readMode = readMode;
+        this.blockCache = blockCache;
+        this.fileId = BlockCache.newFileId();
         Path fp = Paths.get(directory.toString(), name);
         if (!Files.exists(fp)) {
             throw new FileNotFoundException();
@@ -59,18 +198,51 @@ public class LSMFile implements Closeable {
         String dataName = Paths.get(fp.toString(), DATA_FILE_NAME + name).toString();
         this.data = new File(dataName);
 
-        String indexName = Paths.get(fp.toString(), INDEX_FILE_NAME + name).toString();
-        this.index = new File(indexName);
+        File sparseIndex = Paths.get(fp.toString(), SPARSE_INDEX_FILE_NAME + name).toFile();
+        if (sparseIndex.exists()) {
+            this.format = Format.V2;
+            this.index = sparseIndex;
+        } else {
+            this.index = Paths.get(fp.toString(), INDEX_FILE_NAME + name).toFile();
+        }
+
+        String filterName = Paths.get(fp.toString(), FILTER_FILE_NAME + name).toString();
+        this.filter = new File(filterName);
 
         openRead();
     }
 
     /**
-     * Constructor to create a new LSMFile
+     * Constructor to create a new LSMFile using the default amount of
+     * bloom filter bits per key
      *
      * @param directory location where the LSMFile will be saved
      */
     public LSMFile(Path directory) throws IOException {
+        this(directory, BloomFilter.DEFAULT_BITS_PER_KEY);
+    }
+
+    /**
+     * Constructor to create a new LSMFile
+     *
+     * @param directory location where the LSMFile will be saved
+     * @param bloomBitsPerKey bits per key of the bloom filter which is written
+     *                        on close, 0 disables the filter
+     */
+    public LSMFile(Path directory, int bloomBitsPerKey) throws IOException {
+        this(directory, bloomBitsPerKey, Format.V1, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor to create a new LSMFile in the given format
+     *
+     * @param directory location where the LSMFile will be saved
+     * @param bloomBitsPerKey bits per key of the bloom filter which is written
+     *                        on close, 0 disables the filter
+     * @param format format of the new file
+     * @param blockSize size of the uncompressed blocks of a v2 file in bytes
+     */
+    public LSMFile(Path directory, int bloomBitsPerKey, Format format, int blockSize) throws IOException {
         if (!Files.exists(directory)) {
             Files.createDirectories(directory);
         }
@@ -85,8 +257,22 @@ public class LSMFile implements Closeable {
 
         this.data = new File(dataPath.toString());
 
-        String indexName = Paths.get(directory.toString(), name, INDEX_FILE_NAME + name).toString();
+        String indexPrefix = format == Format.V2 ? SPARSE_INDEX_FILE_NAME : INDEX_FILE_NAME;
+        String indexName = Paths.get(directory.toString(), name, indexPrefix + name).toString();
         this.index = new File(indexName);
+        this.indexTmp = new File(indexName + TMP_SUFFIX);
+
+        this.format = format;
+        this.blockSize = blockSize;
+        if (format == Format.V2) {
+            this.blockBuilder = new LSMBlock.Builder();
+        }
+
+        String filterName = Paths.get(directory.toString(), name, FILTER_FILE_NAME + name).toString();
+        this.filter = new File(filterName);
+
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.keyHashes = new long[64];
 
         openWrite();
     }
@@ -104,20 +290,70 @@ public class LSMFile implements Closeable {
         Files.createDirectories(Paths.get(data.getParent()));
 
         Files.createFile(Paths.get(data.getPath()));
-        Files.createFile(Paths.get(index.getPath()));
+        Files.createFile(Paths.get(indexTmp.getPath()));
 
         dataFOS = new FileOutputStream(data);
-        indexFOS = new FileOutputStream(index);
+        indexFOS = new FileOutputStream(indexTmp);
+    }
+
+    /**
+     * open the LSMFile for read access and load index and filter into memory
+     *
+     * @throws IOException if the file does not exist or can't be read
+     */
+    private void openRead() throws IOException {
+        if (!index.exists()) {
+            // the file is still being written
+            throw new FileNotFoundException("LSMFile " + getName() + " is incomplete");
+        }
+        dataChannel = FileChannel.open(data.toPath(), StandardOpenOption.READ);
+        if (readMode == ReadMode.MMAP && dataChannel.size() > Integer.MAX_VALUE) {
+            logger.warning("LSMFile " + getName() + " is too large to be mapped, falling back to stream reads");
+            readMode = ReadMode.STREAM;
+        }
+
+        if (readMode == ReadMode.MMAP) {
+            dataMap = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+            try (FileChannel indexChannel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+                lsmIndex = LSMIndex.read(indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size()));
+            }
+        } else {
+            lsmIndex = LSMIndex.read(index.toPath());
+        }
+        if (format == Format.V2) {
+            readFooter();
+        }
+        readFilter();
     }
 
     /**
-     * open the LSMFile for read access
+     * read the footer of a v2 data file: the last key, followed by the end
+     * of the blocks, the amount of items, the format version and a magic number
      *
-     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the footer is missing or invalid
      */
-    private void openRead() throws FileNotFoundException {
-        dataFIS = new FileInputStream(data);
-        indexFIS = new FileInputStream(index);
+    private void readFooter() throws IOException {
+        long length = dataChannel.size();
+        if (length < FOOTER_LENGTH) {
+            throw new IOException("LSMFile " + getName() + " has no footer");
+        }
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+        readFully(footer, length - FOOTER_LENGTH);
+        blocksEnd = footer.getLong(0);
+        itemCount = footer.getLong(Long.BYTES);
+        int version = footer.getInt(2 * Long.BYTES);
+        int magic = footer.getInt(2 * Long.BYTES + Integer.BYTES);
+        if (magic != FORMAT_MAGIC || (version != FORMAT_VERSION && version != UNFLAGGED_FORMAT_VERSION)) {
+            throw new IOException("LSMFile " + getName() + " has an unknown format");
+        }
+        flaggedBlocks = version != UNFLAGGED_FORMAT_VERSION;
+        long lastKeyLength = length - FOOTER_LENGTH - blocksEnd;
+        if (blocksEnd < 0 || lastKeyLength < 0 || lastKeyLength > Integer.MAX_VALUE) {
+            throw new IOException("LSMFile " + getName() + " has an invalid footer");
+        }
+        ByteBuffer key = ByteBuffer.allocate((int) lastKeyLength);
+        readFully(key, blocksEnd);
+        lastKey = key.array();
     }
 
     /**
@@ -137,9 +373,10 @@ public class LSMFile implements Closeable {
      * The data file has the following format for each item:
      *
      * 20 bytes "paddedKeyBytes" key
-     * 8 bytes "keyLengthBytes" indicating the actual key length (may be shorter than 20 bytes)
+     * 8 bytes "keyLengthBytes" indicating the actual key length (may be shorter than 20 bytes),
+     *         the highest bit is set for tombstones
      * 8 bytes "timestampBytes" timestamp
-     * 8 bytes "valueLengthBytes" indicating the length of the value
+     * 8 bytes "valueLengthBytes" indicating the length of the value (0 for tombstones)
      * valueLengthBytes bytes actual value
      *
      * The index file has the following format for each item:
@@ -155,29 +392,54 @@ public class LSMFile implements Closeable {
      * has already been saved to the file in the past. In this case, appending
      * this item would destroy the lexicographic sort order).
      *
+     * The index is written to a temporary file which is only renamed on close,
+     * so a file can't be opened for reading before it is complete.
+     *
+     * v2 files collect the items in blocks instead, see {@link Format#V2}. A
+     * block is written once it is full, the last one on close.
+     *
      * @throws IOException If some IOError occurs
      */
     public boolean append(KVItem item) throws IOException {
+        return append(LSMItem.of(item));
+    }
+
+    /**
+     * append an item which is already encoded, see {@link #append(KVItem)}
+     *
+     * @param item item to append
+     *
+     * @return true if the item was appended, false if the item is to late
+     *
+     * @throws IOException If some IOError occurs
+     */
+    public boolean append(LSMItem item) throws IOException {
         if (currentKey != null && currentKey.compareTo(item.getKey()) > 0) {
             return false;
         }
 
+        byte[] keyBytes = item.getKey().getBytes();
+        if (format == Format.V2) {
+            appendToBlock(item);
+            return true;
+        }
+
         long position = data.length();
 
-        byte[] paddedKeyBytes = padKey(item.getKey());
-        byte[] keyLengthBytes = longToBytes(item.getKey().getBytes().length);
+        int keyLength = keyBytes.length;
+        byte[] keyLengthBytes = longToBytes(keyLength);
         byte[] positionBytes = longToBytes(position);
 
         byte[] timestampBytes = longToBytes(item.getTimestamp());
-        byte[] valueBytes = item.getValue().getBytes();
+        byte[] valueBytes = item.getValue();
         byte[] valueLengthBytes = longToBytes(valueBytes.length);
 
-        indexFOS.write(paddedKeyBytes);
+        writePaddedKey(indexFOS, keyBytes);
         indexFOS.write(keyLengthBytes);
         indexFOS.write(positionBytes);
 
-        dataFOS.write(paddedKeyBytes);
-        dataFOS.write(keyLengthBytes);
+        writePaddedKey(dataFOS, keyBytes);
+        dataFOS.write(longToBytes(keyLengthField(item)));
         dataFOS.write(timestampBytes);
 
         dataFOS.write(valueLengthBytes);
@@ -186,72 +448,585 @@ public class LSMFile implements Closeable {
         indexFOS.flush();
         dataFOS.flush();
 
-        currentKey = item.getKey();
+        addKeyHash(item);
         return true;
     }
 
+    private void addKeyHash(LSMItem item) {
+        if (keyCount == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[keyCount++] = item.getKey().filterHash();
+
+        currentKey = item.getKey();
+    }
+
+    /**
+     * append an item to the current block of a v2 file and write the block
+     * once it reaches the block size
+     *
+     * @param item item to append
+     *
+     * @throws IOException if the block can't be written
+     */
+    private void appendToBlock(LSMItem item) throws IOException {
+        blockBuilder.add(item);
+        addKeyHash(item);
+        if (blockBuilder.size() >= blockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * compress the current block, write it to the data file and its first key
+     * and position to the sparse index
+     *
+     * @throws IOException if the block can't be written
+     */
+    private void writeBlock() throws IOException {
+        byte[] firstKey = blockBuilder.getFirstKey();
+        byte[] paddedKey = new byte[KEY_LENGTH];
+        System.arraycopy(firstKey, 0, paddedKey, 0, firstKey.length);
+        indexFOS.write(paddedKey);
+        indexFOS.write(longToBytes(firstKey.length));
+        indexFOS.write(longToBytes(blocksEnd));
+
+        byte[] block = blockBuilder.finish();
+        dataFOS.write(block);
+        blocksEnd += block.length;
+    }
+
+    /**
+     * write the last block and the footer of a v2 file
+     *
+     * @throws IOException if the data file can't be written
+     */
+    private void writeFooter() throws IOException {
+        if (!blockBuilder.isEmpty()) {
+            writeBlock();
+        }
+        blockBuilder.close();
+
+        byte[] last = currentKey == null ? new byte[0] : currentKey.getBytes();
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+        footer.putLong(blocksEnd);
+        footer.putLong(keyCount);
+        footer.putInt(FORMAT_VERSION);
+        footer.putInt(FORMAT_MAGIC);
+        dataFOS.write(last);
+        dataFOS.write(footer.array());
+    }
+
+    /**
+     * reads the bloom filter of an LSMFile. For a newly written file the filter
+     * is available after the file has been closed.
+     *
+     * @return the filter or null if the file was written without a filter
+     * @throws IOException when some IO Error occurs on reading the filter file
+     */
+    public BloomFilter readFilter() throws IOException {
+        if (bloomFilter != null || !filter.exists()) {
+            return bloomFilter;
+        }
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filter))) {
+            bloomFilter = BloomFilter.readFrom(in);
+            return bloomFilter;
+        }
+    }
+
+    /**
+     * write the bloom filter of all appended keys next to the data and index file
+     *
+     * @throws IOException if the filter file can't be written
+     */
+    private void writeFilter() throws IOException {
+        bloomFilter = BloomFilter.fromHashes(keyHashes, keyCount, bloomBitsPerKey);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filter))) {
+            bloomFilter.writeTo(out);
+        }
+    }
+
+    /**
+     * returns the resident index of an LSMFile. The index of a v1 file holds
+     * every key, the index of a v2 file only the first key of every block.
+     *
+     * @return the index or null if the file is a write only file
+     */
+    public LSMIndex getIndex() {
+        return lsmIndex;
+    }
+
     /**
      * reads the index of an LSMFile and returns it as a TreeMap
-     * from key to position in the data file
+     * from key to position in the data file. For v2 files, the map holds
+     * the first key and position of every block.
      *
      * @return TreeMap containing the index or null if the file is a write only file
-     * @throws IOException when some IO Error occurs on reading the index file
      */
-    public TreeMap<String, Long> readIndex() throws IOException {
-        if (indexFIS == null) {
+    public TreeMap<String, Long> readIndex() {
+        if (lsmIndex == null) {
             // reading on write only file
             return null;
         }
 
         TreeMap<String, Long> index = new TreeMap<>();
+        for (int i = 0; i < lsmIndex.size(); i++) {
+            index.put(lsmIndex.getKey(i), lsmIndex.getPosition(i));
+        }
+        return index;
+    }
+
+    /**
+     * iterate over all items of the file in key order
+     *
+     * @param rateLimiter limiter charged for every byte read, may be null
+     *
+     * @return an iterator over all items
+     *
+     * @throws IOException if the data file can't be opened
+     */
+    public LSMIterator iterator(RateLimiter rateLimiter) throws IOException {
+        return iterator(null, null, null, rateLimiter);
+    }
+
+    /**
+     * iterate over the items of a key range in key order. The start of the
+     * range is looked up in the index, items outside of the range are never read.
+     *
+     * @param from first key of the range (inclusive), null to start at the first key
+     * @param to end of the range (exclusive), null to iterate up to the last key
+     * @param keyFilter only items whose keys match are returned, may be null
+     * @param rateLimiter limiter charged for every byte read, may be null
+     *
+     * @return an iterator over the items of the range
+     *
+     * @throws IOException if the data file can't be opened
+     */
+    public LSMIterator iterator(Key from, Key to, Predicate<String> keyFilter, RateLimiter rateLimiter)
+            throws IOException {
+        LSMIterator iterator = itemIterator(from, to, keyFilter, rateLimiter);
+        return globalTimestamp == 0 ? iterator : new GlobalTimestampIterator(iterator, globalTimestamp);
+    }
 
-        while(indexFIS.available() > 0) {
-            byte[] key = new byte[KEY_LENGTH];
-            indexFIS.read(key, 0, KEY_LENGTH);
+    private LSMIterator itemIterator(Key from, Key to, Predicate<String> keyFilter, RateLimiter rateLimiter)
+            throws IOException {
+        if (format == Format.V2) {
+            return blockIterator(from, to, keyFilter, rateLimiter);
+        }
+
+        int start = from == null ? 0 : insertionPoint(lsmIndex.search(from.getBytes()));
+        int end = to == null ? lsmIndex.size() : insertionPoint(lsmIndex.search(to.getBytes()));
+        if (start >= end) {
+            return new LSMFileIterator(data, 0, 0, 0, null, null);
+        }
 
-            byte[] keyLengthBytes = new byte[Long.BYTES];
-            indexFIS.read(keyLengthBytes, 0, Long.BYTES);
-            int keyLength = (int) bytesToLong(keyLengthBytes);
+        long startPosition = lsmIndex.getPosition(start);
+        long endPosition = end < lsmIndex.size() ? lsmIndex.getPosition(end) : data.length();
+        return new LSMFileIterator(data, startPosition, endPosition, end - start, keyFilter, rateLimiter);
+    }
 
-            byte[] position = new byte[Long.BYTES];
-            indexFIS.read(position, 0, Long.BYTES);
-            index.put(new String(Arrays.copyOfRange(key, 0, keyLength)), bytesToLong(position));
+    /**
+     * iterate over the blocks of a v2 file which may contain keys of a range
+     */
+    private LSMIterator blockIterator(Key from, Key to, Predicate<String> keyFilter, RateLimiter rateLimiter)
+            throws IOException {
+        int start = from == null ? 0 : Math.max(0, blockOf(from.getBytes()));
+        int end = to == null ? lsmIndex.size() : insertionPoint(lsmIndex.search(to.getBytes()));
+        if (start >= end) {
+            return new LSMBlockIterator(data, getName(), flaggedBlocks, 0, 0, null, null, null, null);
         }
 
-        return index;
+        long startPosition = lsmIndex.getPosition(start);
+        long endPosition = blockEnd(end - 1);
+        return new LSMBlockIterator(data, getName(), flaggedBlocks, startPosition, endPosition, from, to, keyFilter, rateLimiter);
+    }
+
+    private static int insertionPoint(int searchResult) {
+        return searchResult >= 0 ? searchResult : -(searchResult + 1);
     }
 
     /**
-     * Read a value from the data file of an LSMFile
+     * find the block of a v2 file which would contain a key
+     *
+     * @return index of the last block whose first key is not larger than the key, or -1
+     */
+    private int blockOf(byte[] key) {
+        int i = lsmIndex.search(key);
+        return i >= 0 ? i : insertionPoint(i) - 1;
+    }
+
+    private long blockEnd(int block) {
+        return block + 1 < lsmIndex.size() ? lsmIndex.getPosition(block + 1) : blocksEnd;
+    }
+
+    /**
+     * read a single item. v1 files look up the position of the item in the index,
+     * v2 files look up the block which may contain the key and search it.
+     *
+     * @param key key bytes to look for
+     *
+     * @return the item or null if the file doesn't contain the key
+     *
+     * @throws IOException if the data file can't be read or a block is corrupt
+     */
+    public LSMItem get(Key key) throws IOException {
+        return get(key.getBytes());
+    }
+
+    /**
+     * read a single item, see {@link #get(Key)}
+     *
+     * @param key UTF-8 bytes of the key to look for
+     *
+     * @return the item or null if the file doesn't contain the key
+     *
+     * @throws IOException if the data file can't be read or a block is corrupt
+     */
+    public LSMItem get(byte[] key) throws IOException {
+        LSMItem item = find(key);
+        if (item != null && globalTimestamp != 0) {
+            return item.withTimestamp(globalTimestamp);
+        }
+        return item;
+    }
+
+    private LSMItem find(byte[] key) throws IOException {
+        if (format == Format.V1) {
+            long position = lsmIndex.find(key);
+            return position < 0 ? null : readValue(position);
+        }
+
+        int block = blockOf(key);
+        if (block < 0 || Arrays.compareUnsigned(key, lastKey) > 0) {
+            return null;
+        }
+        return LSMBlock.find(readBlock(block), flaggedBlocks, key);
+    }
+
+    /**
+     * check if the file contains a key. Unlike {@link #get(byte[])}, v1 files
+     * only need their index to answer.
+     *
+     * @param key key bytes to look for
+     *
+     * @return true if the file contains the key
+     *
+     * @throws IOException if a block of a v2 file can't be read
+     */
+    public boolean contains(byte[] key) throws IOException {
+        if (format == Format.V1) {
+            return lsmIndex.find(key) >= 0;
+        }
+        return get(key) != null;
+    }
+
+    /**
+     * read, verify and decompress a block of a v2 file, or get it from the block cache
+     *
+     * @param block index of the block in the sparse index
+     *
+     * @return the encoded items of the block
+     *
+     * @throws IOException if the block can't be read or is corrupt
+     */
+    private byte[] readBlock(int block) throws IOException {
+        long position = lsmIndex.getPosition(block);
+        if (blockCache != null) {
+            byte[] cached = blockCache.get(fileId, position);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long length = blockEnd(block) - position;
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid block in LSMFile " + getName());
+        }
+
+        byte[] bytes = new byte[(int) length];
+        MappedByteBuffer map = dataMap;
+        if (map != null) {
+            if (position + length > map.limit()) {
+                throw new EOFException("Unexpected end of LSMFile " + getName());
+            }
+            map.duplicate().position((int) position).get(bytes);
+        } else {
+            readFully(ByteBuffer.wrap(bytes), position);
+        }
+        readBytes.addAndGet(length);
+        byte[] items = LSMBlock.decode(bytes, getName());
+        if (blockCache != null) {
+            blockCache.put(fileId, position, items);
+        }
+        return items;
+    }
+
+    /**
+     * get all keys of the file in key order. v2 files have to read all blocks.
+     *
+     * @param predicate only keys matching the predicate are returned
+     *
+     * @return the matching keys
+     *
+     * @throws IOException if the data file can't be read
+     */
+    public List<String> getKeys(Predicate<String> predicate) throws IOException {
+        List<String> keys = new ArrayList<>();
+        if (format == Format.V1) {
+            for (int i = 0; i < lsmIndex.size(); i++) {
+                String key = lsmIndex.getKey(i);
+                if (predicate.test(key)) {
+                    keys.add(key);
+                }
+            }
+            return keys;
+        }
+
+        try (LSMIterator it = iterator(null, null, predicate, null)) {
+            while (it.hasNext()) {
+                keys.add(it.next().getKey().toString());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return amount of items in the file
+     */
+    public long getKeyCount() {
+        return format == Format.V1 ? lsmIndex.size() : itemCount;
+    }
+
+    /**
+     * @return format of the file
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * the amount of bytes read from the data file by point reads, which can be
+     * compared to the size of the items returned to get the read amplification
+     *
+     * @return bytes read by {@link #get(byte[])} and {@link #readValue(long)}
+     */
+    public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    /**
+     * @return the smallest key of the file or null if the file is empty
+     */
+    public String getFirstKey() {
+        return lsmIndex.size() == 0 ? null : lsmIndex.getKey(0);
+    }
+
+    /**
+     * @return the largest key of the file or null if the file is empty
+     */
+    public String getLastKey() {
+        if (lsmIndex.size() == 0) {
+            return null;
+        }
+        return format == Format.V1 ? lsmIndex.getKey(lsmIndex.size() - 1) : new String(lastKey, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return size of the data and index file in bytes
+     */
+    public long getSize() {
+        return data.length() + index.length();
+    }
+
+    /**
+     * the level of the file in the LSM tree. Newly flushed files are
+     * on level 0, compaction strategies may move files to higher levels.
+     *
+     * @return level of the file
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * the timestamp all items of an ingested file are read with, so the whole
+     * file is ordered against other writes at the time it was ingested.
+     * Compactions write the items with this timestamp into their new files.
+     *
+     * @return the global timestamp of the file, 0 if the items keep their own timestamps
+     */
+    public long getGlobalTimestamp() {
+        return globalTimestamp;
+    }
+
+    void setGlobalTimestamp(long globalTimestamp) {
+        this.globalTimestamp = globalTimestamp;
+    }
+
+    /**
+     * check the bloom filter of the file
+     *
+     * @param key key bytes to look for
+     *
+     * @return false if the key is not in this file, true if it might be
+     */
+    public boolean mightContain(byte[] key) {
+        return bloomFilter == null || bloomFilter.mightContain(key);
+    }
+
+    /**
+     * check the bloom filter of the file with the cached hash of a key
+     *
+     * @param key key to look for
+     *
+     * @return false if the key is not in this file, true if it might be
+     */
+    public boolean mightContain(Key key) {
+        return bloomFilter == null || bloomFilter.mightContain(key);
+    }
+
+    /**
+     * @return true if the file has a bloom filter
+     */
+    public boolean hasFilter() {
+        return bloomFilter != null;
+    }
+
+    /**
+     * Read a value from the data file of a v1 LSMFile
      *
      * @param position at which the value begins
      *
-     * @return the KVItem at the position in the data file
+     * @return the item at the position in the data file
      *
      * @throws IOException If some IO Error occurs while reading the data file
      */
-    public KVItem readValue(long position) throws IOException {
-        long skip = dataFIS.skip(position); // TODO: Maybe handle the result?
+    public LSMItem readValue(long position) throws IOException {
+        if (format == Format.V2) {
+            throw new IOException("LSMFile " + getName() + " stores items in blocks, use get instead");
+        }
+        if (dataMap != null) {
+            return readMappedValue((int) position);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(KEY_LENGTH + 3 * Long.BYTES);
+        readFully(header, position);
+
+        long keyLengthField = header.getLong(KEY_LENGTH);
+        int keyLength = (int) keyLengthField;
+        long timestamp = header.getLong(KEY_LENGTH + Long.BYTES);
+        int length = (int) header.getLong(KEY_LENGTH + 2 * Long.BYTES);
 
-        byte[] key = new byte[KEY_LENGTH];
-        dataFIS.read(key, 0, KEY_LENGTH);
+        ByteBuffer value = ByteBuffer.allocate(length);
+        readFully(value, position + header.capacity());
+        readBytes.addAndGet(header.capacity() + length);
 
-        byte[] keyLengthBytes = new byte[Long.BYTES];
-        dataFIS.read(keyLengthBytes, 0, Long.BYTES);
-        int keyLength = (int) bytesToLong(keyLengthBytes);
+        Key key = Key.wrap(Arrays.copyOf(header.array(), keyLength));
+        return decodeLSMItem(key, keyLengthField, value.array(), 0, length, timestamp);
+    }
 
-        byte[] timestampBytes = new byte[Long.BYTES];
-        dataFIS.read(timestampBytes, 0, Long.BYTES);
-        long timestamp = bytesToLong(timestampBytes);
+    /**
+     * decode an item from the mapped data file. The header fields are read with
+     * absolute gets, only the key and value bytes are copied out of the mapping.
+     *
+     * @param position at which the item begins
+     *
+     * @return the item at the position in the data file
+     *
+     * @throws IOException if the item exceeds the data file
+     */
+    private LSMItem readMappedValue(int position) throws IOException {
+        MappedByteBuffer map = dataMap;
+        if (map == null) {
+            throw new IOException("Read from closed LSMFile " + getName());
+        }
 
-        byte[] lengthBytes = new byte[Long.BYTES];
-        dataFIS.read(lengthBytes, 0, Long.BYTES);
+        int valuePosition = position + KEY_LENGTH + 3 * Long.BYTES;
+        if (position < 0 || valuePosition > map.limit()) {
+            throw new EOFException("Unexpected end of LSMFile " + getName());
+        }
+        long keyLengthField = map.getLong(position + KEY_LENGTH);
+        int keyLength = (int) keyLengthField;
+        long timestamp = map.getLong(position + KEY_LENGTH + Long.BYTES);
+        int length = (int) map.getLong(position + KEY_LENGTH + 2 * Long.BYTES);
+        if (length < 0 || valuePosition + length > map.limit()) {
+            throw new EOFException("Unexpected end of LSMFile " + getName());
+        }
 
-        int length = (int) bytesToLong(lengthBytes);
-        byte[] valueBytes = new byte[length];
-        dataFIS.read(valueBytes, 0, length);
+        // duplicate to read relative without touching the position of the shared buffer
+        ByteBuffer view = map.duplicate();
+        byte[] key = new byte[keyLength];
+        view.position(position).get(key);
+        byte[] value = new byte[length];
+        view.position(valuePosition).get(value);
+        readBytes.addAndGet(KEY_LENGTH + 3 * Long.BYTES + length);
+
+        return decodeLSMItem(Key.wrap(key), keyLengthField, value, 0, length, timestamp);
+    }
 
-        return new KVItem(new String(Arrays.copyOfRange(key, 0, keyLength)), new String(valueBytes), timestamp);
+    /**
+     * @return the key length field of a v1 or log record, flagged for tombstones
+     */
+    static long keyLengthField(LSMItem item) {
+        int keyLength = item.getKey().length();
+        return item.isTombstone() ? keyLength | TOMBSTONE_FLAG : keyLength;
+    }
+
+    /**
+     * decode an item of a v1 or log record. Files written before tombstones
+     * were flagged store them with {@link Constants#DELETE_MARKER} as value,
+     * which is compared byte wise.
+     *
+     * @param key the key
+     * @param keyLengthField the key length field, whose highest bit marks tombstones
+     * @param value array holding the value bytes. It is taken over without a
+     *              copy if it holds nothing but the value.
+     * @param offset position of the value in the array
+     * @param length length of the value
+     * @param timestamp the timestamp
+     *
+     * @return the item
+     */
+    static LSMItem decodeLSMItem(Key key, long keyLengthField, byte[] value, int offset, int length, long timestamp) {
+        if ((keyLengthField & TOMBSTONE_FLAG) != 0 || isDeleteMarker(value, offset, length)) {
+            return LSMItem.tombstone(key, timestamp);
+        }
+        byte[] bytes = offset == 0 && length == value.length ? value : Arrays.copyOfRange(value, offset, offset + length);
+        return new LSMItem(key, bytes, timestamp, false);
+    }
+
+    private static boolean isDeleteMarker(byte[] value, int offset, int length) {
+        return length == DELETE_MARKER_BYTES.length
+                && Arrays.equals(value, offset, offset + length, DELETE_MARKER_BYTES, 0, length);
+    }
+
+    /**
+     * @return the read mode of a file opened for reading
+     */
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    /**
+     * fill a buffer from the data file starting at the given position
+     *
+     * @param buffer buffer to fill
+     * @param position position in the data file
+     *
+     * @throws IOException if the data file ends before the buffer is full
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = dataChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of LSMFile " + getName());
+            }
+        }
     }
 
     /**
@@ -281,18 +1056,26 @@ public class LSMFile implements Closeable {
     }
 
     /**
-     * Write a key to a padded byte array of size LSMFile.KEY_LENGTH
+     * write a key padded with zeros to LSMFile.KEY_LENGTH bytes
      *
-     * @param key key to store in a byte array
+     * @param out stream to write to
+     * @param keyBytes UTF-8 bytes of the key
      *
-     * @return a byte array holding the padded key as bytes
+     * @throws IOException if the stream can't be written
      */
-    protected byte[] padKey(String key) {
-        byte[] res = new byte[LSMFile.KEY_LENGTH];
-        byte[] keyBytes = key.getBytes();
+    private static void writePaddedKey(OutputStream out, byte[] keyBytes) throws IOException {
+        out.write(keyBytes);
+        out.write(KEY_PADDING, 0, KEY_LENGTH - keyBytes.length);
+    }
 
-        System.arraycopy(keyBytes, 0, res, 0, keyBytes.length);
-        return res;
+    /**
+     * put a key padded with zeros to LSMFile.KEY_LENGTH bytes into a buffer
+     *
+     * @param buffer buffer to put the key into
+     * @param keyBytes UTF-8 bytes of the key
+     */
+    static void putPaddedKey(ByteBuffer buffer, byte[] keyBytes) {
+        buffer.put(keyBytes).put(KEY_PADDING, 0, KEY_LENGTH - keyBytes.length);
     }
 
     /**
@@ -302,21 +1085,78 @@ public class LSMFile implements Closeable {
      */
     @Override
     public void close() throws IOException {
+        if (dataFOS != null && !closed && format == Format.V2) {
+            writeFooter();
+        }
+        if (dataFOS != null && !closed && bloomBitsPerKey > 0) {
+            writeFilter();
+        }
         if (dataFOS != null) {
             dataFOS.close();
         }
         if (indexFOS != null) {
             indexFOS.close();
+            if (!closed) {
+                Files.move(indexTmp.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
         }
-        if (dataFIS != null) {
-            dataFIS.close();
+        if (dataChannel != null) {
+            dataChannel.close();
         }
-        if (indexFIS != null) {
-            indexFIS.close();
+        // the mapping is released once the buffer is garbage collected
+        dataMap = null;
+        if (blockCache != null) {
+            blockCache.invalidate(fileId);
         }
         closed = true;
     }
 
+    /**
+     * add a reference to this file
+     */
+    void ref() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * release a reference to this file. The file is closed when the last reference
+     * is gone and deleted from disk if it has been marked obsolete before.
+     */
+    void unref() {
+        if (refs.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            close();
+            if (obsolete) {
+                delete();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to release LSMFile " + getName(), e);
+        }
+    }
+
+    /**
+     * mark this file as obsolete, i.e. it is no longer part of the current
+     * version and will be deleted when the last reference is released.
+     */
+    void markObsolete() {
+        obsolete = true;
+    }
+
+    /**
+     * delete the directory of this LSMFile including all contained files
+     *
+     * @throws IOException if the files can't be deleted
+     */
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(Paths.get(data.getParent()))) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
     /**
      * returns the name of this LSMFile
      *
@@ -325,4 +1165,47 @@ public class LSMFile implements Closeable {
     public String getName() {
         return Paths.get(data.getParent()).getFileName().toString();
     }
+
+    /**
+     * replaces the timestamps of the items of an ingested file
+     */
+    private static class GlobalTimestampIterator implements LSMIterator {
+        private final LSMIterator iterator;
+        private final long timestamp;
+        // the peeked item of the source with the global timestamp, a merge peeks it repeatedly
+        private LSMItem next;
+
+        private GlobalTimestampIterator(LSMIterator iterator, long timestamp) {
+            this.iterator = iterator;
+            this.timestamp = timestamp;
+            this.next = stamp(iterator.peek());
+        }
+
+        private LSMItem stamp(LSMItem item) {
+            return item == null ? null : item.withTimestamp(timestamp);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public LSMItem peek() {
+            return next;
+        }
+
+        @Override
+        public LSMItem next() throws IOException {
+            LSMItem current = next;
+            iterator.next();
+            next = stamp(iterator.peek());
+            return current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            iterator.close();
+        }
+    }
 }
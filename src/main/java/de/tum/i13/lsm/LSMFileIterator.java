@@ -0,0 +1,165 @@
+package de.tum.i13.lsm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * LSMFileIterator reads the items of an {@link LSMFile} sequentially through
+ * a buffered stream. Since items are stored in key order, this is much cheaper
+ * than a positional read per item when a whole range of the file is needed.
+ *
+ * The iterator never reads beyond the end of its range, and the values of items
+ * whose keys are rejected by the key filter are skipped without decoding them.
+ */
+public class LSMFileIterator implements LSMIterator {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final Predicate<String> keyFilter;
+    private final RateLimiter rateLimiter;
+    private int remaining;
+    private LSMItem next;
+
+    /**
+     * create a new iterator
+     *
+     * @param data data file of the LSMFile
+     * @param position position of the first item to read
+     * @param endPosition position after the last item to read
+     * @param count amount of items to read
+     * @param keyFilter only items whose keys match are returned, may be null
+     * @param rateLimiter limiter charged for every byte read, may be null
+     *
+     * @throws IOException if the data file can't be opened or read
+     */
+    LSMFileIterator(File data, long position, long endPosition, int count, Predicate<String> keyFilter,
+                    RateLimiter rateLimiter) throws IOException {
+        FileInputStream fis = new FileInputStream(data);
+        fis.getChannel().position(position);
+        int bufferSize = (int) Math.max(1, Math.min(BUFFER_SIZE, endPosition - position));
+        this.in = new DataInputStream(new BufferedInputStream(new BoundedInputStream(fis, endPosition - position), bufferSize));
+        this.keyFilter = keyFilter;
+        this.rateLimiter = rateLimiter;
+        this.remaining = count;
+        advance();
+    }
+
+    private void advance() throws IOException {
+        next = null;
+        while (next == null && remaining > 0) {
+            remaining--;
+
+            byte[] key = new byte[LSMFile.KEY_LENGTH];
+            in.readFully(key);
+            long keyLengthField = in.readLong();
+            int keyLength = (int) keyLengthField;
+            long timestamp = in.readLong();
+            int length = (int) in.readLong();
+
+            if (rateLimiter != null) {
+                rateLimiter.acquire(LSMFile.KEY_LENGTH + 3 * Long.BYTES + length);
+            }
+
+            if (keyFilter != null && !keyFilter.test(new String(key, 0, keyLength, StandardCharsets.UTF_8))) {
+                skipFully(length);
+                continue;
+            }
+
+            byte[] value = new byte[length];
+            in.readFully(value);
+            Key k = Key.wrap(Arrays.copyOf(key, keyLength));
+            next = LSMFile.decodeLSMItem(k, keyLengthField, value, 0, length, timestamp);
+        }
+    }
+
+    private void skipFully(int length) throws IOException {
+        int skipped = 0;
+        while (skipped < length) {
+            int n = in.skipBytes(length - skipped);
+            if (n <= 0) {
+                in.readByte();
+                n = 1;
+            }
+            skipped += n;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public LSMItem peek() {
+        return next;
+    }
+
+    @Override
+    public LSMItem next() throws IOException {
+        LSMItem current = next;
+        advance();
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * stream returning end of file once a given amount of bytes has been read
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
@@ -1,47 +1,88 @@
 package de.tum.i13.lsm;
 
-import de.tum.i13.shared.Constants;
-import de.tum.i13.shared.KVItem;
 import de.tum.i13.shared.Log;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
- * An LSMFlusher can run in a separate worker thread and regularly
- * flushes a given LSMCache to a new LSMFile
+ * An LSMFlusher runs in a separate worker thread and flushes the immutable
+ * caches of {@link LSMMemtables} to new LSMFiles, oldest first. It is woken up
+ * as soon as a cache is swapped.
+ *
+ * A cache is only removed from the memtables after the new LSMFile has been
+ * added to the manifest, and its log segment is deleted afterwards.
  */
 public class LSMFlusher extends Thread {
 
     private static final Log logger = new Log(LSMFlusher.class);
 
-    private static final long CACHE_FLUSH_FREQUENCY = 10000;
-    private static final int MIN_FLUSH_SIZE = 200;
-    private final LSMCache lsmCache;
+    // pause before retrying a failed flush
+    private static final long RETRY_DELAY = 1000;
+
+    private final LSMMemtables memtables;
+    private final LSMManifest manifest;
     private final Path lsmFileDir;
     private final LSMLog lsmLog;
+    private final int bloomBitsPerKey;
+    private final LSMFile.Format format;
+    private final int blockSize;
 
-    private boolean shutDown = false;
+    private volatile boolean shutDown = false;
 
     /**
      * create a new LSMFLusher
      *
-     * @param lsmCache the cache which should be flushed regularly
+     * @param memtables the memtables whose immutable caches should be flushed
+     * @param manifest the manifest to which new LSMFiles are added
      * @param lsmFileDir The directory, where new LSMFiles should be stored
-     * @param lsmLog The log file, to which a cache-flush message will be written
+     * @param lsmLog The log, which is truncated after every flush
      */
-    public LSMFlusher(LSMCache lsmCache, Path lsmFileDir, LSMLog lsmLog) {
+    public LSMFlusher(LSMMemtables memtables, LSMManifest manifest, Path lsmFileDir, LSMLog lsmLog) {
+        this(memtables, manifest, lsmFileDir, lsmLog, BloomFilter.DEFAULT_BITS_PER_KEY);
+    }
+
+    /**
+     * create a new LSMFLusher
+     *
+     * @param memtables the memtables whose immutable caches should be flushed
+     * @param manifest the manifest to which new LSMFiles are added
+     * @param lsmFileDir The directory, where new LSMFiles should be stored
+     * @param lsmLog The log, which is truncated after every flush
+     * @param bloomBitsPerKey bits per key of the bloom filters of new LSMFiles
+     */
+    public LSMFlusher(LSMMemtables memtables, LSMManifest manifest, Path lsmFileDir, LSMLog lsmLog,
+                      int bloomBitsPerKey) {
+        this(memtables, manifest, lsmFileDir, lsmLog, bloomBitsPerKey, LSMFile.Format.V1, LSMFile.DEFAULT_BLOCK_SIZE);
+    }
 
-        this.lsmCache = lsmCache;
+    /**
+     * create a new LSMFLusher
+     *
+     * @param memtables the memtables whose immutable caches should be flushed
+     * @param manifest the manifest to which new LSMFiles are added
+     * @param lsmFileDir The directory, where new LSMFiles should be stored
+     * @param lsmLog The log, which is truncated after every flush
+     * @param bloomBitsPerKey bits per key of the bloom filters of new LSMFiles
+     * @param format format of new LSMFiles
+     * @param blockSize block size of new v2 LSMFiles in bytes
+     */
+    public LSMFlusher(LSMMemtables memtables, LSMManifest manifest, Path lsmFileDir, LSMLog lsmLog,
+                      int bloomBitsPerKey, LSMFile.Format format, int blockSize) {
+        super("lsm-flusher");
+        setDaemon(true);
+        this.memtables = memtables;
+        this.manifest = manifest;
         this.lsmFileDir = lsmFileDir;
         this.lsmLog = lsmLog;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.format = format;
+        this.blockSize = blockSize;
     }
 
-    // TODO: Does this makes sense?
     public void setShutDown(boolean sd) {
         this.shutDown = sd;
+        interrupt();
     }
 
     /**
@@ -51,28 +92,78 @@ public class LSMFlusher extends Thread {
     public void run() {
 
         while (!shutDown) {
-            if (lsmCache.size() <= MIN_FLUSH_SIZE) {
-                // nothing to flush here
+            LSMMemtables.Immutable immutable;
+            try {
+                immutable = memtables.awaitOldest();
+            } catch (InterruptedException e) {
+                logger.info("LSM Flusher interrupted");
+                return;
+            }
+
+            try {
+                flush(immutable);
+            } catch (IOException e) {
+                logger.severe("Failed to flush cache", e);
                 try {
-                    Thread.sleep(CACHE_FLUSH_FREQUENCY);
-                    continue;
-                } catch (InterruptedException e) {
-                    logger.severe("LSM Flusher interrupted", e);
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    logger.info("LSM Flusher interrupted");
+                    return;
                 }
             }
-            logger.info("Trying to flush cache");
-            TreeMap<String, KVItem> snapshot = lsmCache.getSnapshot();
+        }
+
+    }
+
+    /**
+     * write an immutable cache to a new LSMFile
+     *
+     * @param immutable the cache to flush
+     *
+     * @throws IOException if the file can't be written
+     */
+    private void flush(LSMMemtables.Immutable immutable) throws IOException {
+        long start = System.currentTimeMillis();
+        lsmLog.seal(immutable.getSegment());
+
+        LSMFile lsmFile = new LSMFile(lsmFileDir, bloomBitsPerKey, format, blockSize);
+        try {
+            for (LSMItem item : immutable.getCache().getLSMItems()) {
+                lsmFile.append(item);
+            }
+            lsmFile.close();
+            manifest.add(manifest.open(lsmFile.getName()));
+        } catch (IOException e) {
             try {
-                LSMFile lsmFile = new LSMFile(lsmFileDir);
-                for (Map.Entry<String, KVItem> e : snapshot.entrySet()) {
-                    lsmFile.append(e.getValue());
-                }
                 lsmFile.close();
-                lsmLog.append(new KVItem(Constants.FLUSH_MESSAGE, "", 0));
-            } catch (IOException e) {
-                logger.severe("Failed to flush cache", e);
+                lsmFile.delete();
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
             }
+            throw e;
         }
+        logFilter(lsmFile);
+
+        memtables.remove(immutable);
+        lsmLog.truncate(immutable.getSegment());
+        logger.info(String.format("Flushed %d items to %s (%s, %d bytes) in %d ms",
+                immutable.getCache().size(), lsmFile.getName(), format, lsmFile.getSize(),
+                System.currentTimeMillis() - start));
+    }
 
+    private void logFilter(LSMFile lsmFile) throws IOException {
+        BloomFilter filter = lsmFile.readFilter();
+        if (filter == null) {
+            logger.info("Flushed " + lsmFile.getName() + " without bloom filter");
+            return;
+        }
+        logger.info(String.format(
+                "Flushed %s: bloom filter with %d keys, %d bits, %d hashes, expected false positive rate %.4f",
+                lsmFile.getName(),
+                filter.getNumKeys(),
+                filter.getNumBits(),
+                filter.getNumHashes(),
+                filter.getExpectedFalsePositiveRate()
+        ));
     }
 }
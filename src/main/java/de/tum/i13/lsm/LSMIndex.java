@@ -0,0 +1,154 @@
+package de.tum.i13.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * LSMIndex is the in memory representation of the index file of an {@link LSMFile}.
+ *
+ * Since LSMFiles are immutable, the index is read only once and kept for the
+ * life time of the file. To keep the memory footprint small, all keys are stored
+ * back to back in a single byte array, together with an int array of key offsets
+ * and a long array holding the position of each item in the data file. Lookups use
+ * a binary search over the sorted keys and don't allocate.
+ */
+public class LSMIndex {
+
+    private static final int ENTRY_LENGTH = LSMFile.KEY_LENGTH + 2 * Long.BYTES;
+
+    // rough size of an array object header on a 64 bit JVM
+    private static final int ARRAY_OVERHEAD = 16;
+
+    private final byte[] keys;
+    private final int[] keyOffsets;
+    private final long[] positions;
+
+    private LSMIndex(byte[] keys, int[] keyOffsets, long[] positions) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.positions = positions;
+    }
+
+    /**
+     * read an index file written by {@link LSMFile#append(de.tum.i13.shared.KVItem)}
+     *
+     * @param indexFile path of the index file
+     *
+     * @return the index
+     *
+     * @throws IOException if the file can't be read
+     */
+    public static LSMIndex read(Path indexFile) throws IOException {
+        return read(ByteBuffer.wrap(Files.readAllBytes(indexFile)));
+    }
+
+    /**
+     * read an index from the content of an index file, e.g. a memory mapping
+     *
+     * @param buffer content of the index file
+     *
+     * @return the index
+     */
+    public static LSMIndex read(ByteBuffer buffer) {
+        int count = buffer.remaining() / ENTRY_LENGTH;
+
+        byte[] keys = new byte[count * LSMFile.KEY_LENGTH];
+        int[] keyOffsets = new int[count + 1];
+        long[] positions = new long[count];
+
+        int keysLength = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = i * ENTRY_LENGTH;
+            int keyLength = (int) buffer.getLong(entry + LSMFile.KEY_LENGTH);
+            buffer.position(entry);
+            buffer.get(keys, keysLength, keyLength);
+            keyOffsets[i] = keysLength;
+            keysLength += keyLength;
+            positions[i] = buffer.getLong(entry + LSMFile.KEY_LENGTH + Long.BYTES);
+        }
+        keyOffsets[count] = keysLength;
+
+        return new LSMIndex(Arrays.copyOf(keys, keysLength), keyOffsets, positions);
+    }
+
+    /**
+     * find the position of a key in the data file
+     *
+     * @param key key bytes to look up
+     *
+     * @return position of the item in the data file or -1 if the key is not in the index
+     */
+    public long find(byte[] key) {
+        int i = search(key);
+        return i < 0 ? -1 : positions[i];
+    }
+
+    /**
+     * binary search for a key
+     *
+     * @param key key bytes to look for
+     *
+     * @return the index of the key if it's contained, otherwise (-(insertion point) - 1)
+     */
+    public int search(byte[] key) {
+        int low = 0;
+        int high = positions.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(int i, byte[] key) {
+        return Arrays.compareUnsigned(keys, keyOffsets[i], keyOffsets[i + 1], key, 0, key.length);
+    }
+
+    /**
+     * @return amount of keys in the index
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * @param i index of the entry
+     *
+     * @return the i-th key in sort order
+     */
+    public String getKey(int i) {
+        return new String(keys, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param i index of the entry
+     *
+     * @return position of the i-th item in the data file
+     */
+    public long getPosition(int i) {
+        return positions[i];
+    }
+
+    /**
+     * estimate the heap memory used by this index
+     *
+     * @return approximate size of the index in bytes
+     */
+    public long heapBytes() {
+        return 3L * ARRAY_OVERHEAD
+                + keys.length
+                + (long) keyOffsets.length * Integer.BYTES
+                + (long) positions.length * Long.BYTES;
+    }
+}
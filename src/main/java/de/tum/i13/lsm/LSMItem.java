@@ -0,0 +1,113 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LSMItem is the storage representation of an item: its {@link Key} and the
+ * UTF-8 bytes of its value, in the form they are written to the log and the
+ * LSM files.
+ *
+ * A written item is encoded once and then passed as is to the log, the
+ * memtables and the flushed LSMFile. Items read from the memtables and the
+ * LSMFiles keep their bytes through merges and compactions as well, they are
+ * only decoded into a {@link KVItem} when the store returns them.
+ */
+public final class LSMItem {
+
+    static final byte[] NO_VALUE = new byte[0];
+
+    private final Key key;
+    private final byte[] value;
+    private final long timestamp;
+    private final boolean tombstone;
+
+    /**
+     * create a new item without copying the bytes
+     *
+     * @param key the key
+     * @param value UTF-8 bytes of the value, empty for tombstones. Must not be changed afterwards.
+     * @param timestamp the timestamp
+     * @param tombstone true if the item marks the deletion of the key
+     */
+    public LSMItem(Key key, byte[] value, long timestamp, boolean tombstone) {
+        this.key = key;
+        this.value = value;
+        this.timestamp = timestamp;
+        this.tombstone = tombstone;
+    }
+
+    /**
+     * @param key the key
+     * @param timestamp the timestamp
+     *
+     * @return a tombstone for the key
+     */
+    public static LSMItem tombstone(Key key, long timestamp) {
+        return new LSMItem(key, NO_VALUE, timestamp, true);
+    }
+
+    /**
+     * @param item item as received from a client
+     *
+     * @return the item encoded as UTF-8
+     */
+    public static LSMItem of(KVItem item) {
+        byte[] value = item.isTombstone() ? NO_VALUE : item.getValue().getBytes(StandardCharsets.UTF_8);
+        return new LSMItem(Key.of(item.getKey()), value, item.getTimestamp(), item.isTombstone());
+    }
+
+    /**
+     * @return the key
+     */
+    public Key getKey() {
+        return key;
+    }
+
+    /**
+     * @return UTF-8 bytes of the value, empty for tombstones. The array is shared and must not be changed.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isTombstone() {
+        return tombstone;
+    }
+
+    /**
+     * @param newTimestamp timestamp of the copy
+     *
+     * @return a copy of the item with another timestamp, sharing the bytes
+     */
+    public LSMItem withTimestamp(long newTimestamp) {
+        return new LSMItem(key, value, newTimestamp, tombstone);
+    }
+
+    /**
+     * @return length of the key and the value in bytes
+     */
+    public int length() {
+        return key.length() + value.length;
+    }
+
+    /**
+     * @return the item decoded from UTF-8
+     */
+    public KVItem toKVItem() {
+        if (tombstone) {
+            return KVItem.tombstone(key.toString(), timestamp);
+        }
+        return new KVItem(key.toString(), new String(value, StandardCharsets.UTF_8), timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return toKVItem().toString();
+    }
+}
@@ -0,0 +1,29 @@
+package de.tum.i13.lsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * LSMIterator iterates over {@link LSMItem}s in ascending key order.
+ */
+public interface LSMIterator extends Closeable {
+
+    /**
+     * @return true if there is another item
+     */
+    boolean hasNext();
+
+    /**
+     * @return the next item without advancing the iterator, null if there is none
+     */
+    LSMItem peek();
+
+    /**
+     * return the next item and advance the iterator
+     *
+     * @return the next item
+     *
+     * @throws IOException if reading the following item fails
+     */
+    LSMItem next() throws IOException;
+}
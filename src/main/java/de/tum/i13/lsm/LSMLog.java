@@ -2,49 +2,219 @@ package de.tum.i13.lsm;
 
 import de.tum.i13.shared.Constants;
 import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * LSMLog provides access to an append log file for KVItem operations
+ * LSMLog provides access to an append log for KVItem operations
+ *
+ * The log is a directory of numbered segments. Every memtable has its own
+ * segment, items are appended to the segment of the memtable they are put to.
+ * Once a memtable is frozen for a flush, its segment is sealed with
+ * {@link #seal(long)} and can be deleted with {@link #truncate(long)} as soon as
+ * the items are safely stored in an LSMFile. On restart, only the remaining
+ * segments have to be replayed.
+ *
+ * Appending threads don't write to the file themselves. They encode their record
+ * and put it into a queue, from which a single writer thread takes all pending
+ * records and writes them with one write call (group commit). The
+ * {@link SyncMode} decides whether and when the file is synced to disk and
+ * when the appending threads are acknowledged.
+ *
+ * Every segment starts with a magic number and every record ends with a CRC32C
+ * checksum. On restart, the segments are streamed through large buffers into
+ * the memtable, up to the first torn or corrupt record of the whole log.
+ * Segments written before records were checksummed have no magic number and
+ * are read without verification.
  */
 public class LSMLog extends LSMFile {
 
-    private int size;
+    /**
+     * durability of appended items
+     */
+    public enum SyncMode {
+        /**
+         * acknowledge as soon as the group was written to the file, never sync.
+         * Items survive a crash of the process, but not of the machine.
+         */
+        NONE,
+        /**
+         * sync the file once per group and acknowledge all items of the group afterwards
+         */
+        BATCH,
+        /**
+         * sync the file after every single item before acknowledging it
+         */
+        ALWAYS
+    }
+
+    private static final Log logger = new Log(LSMLog.class);
+
+    private static final String SEGMENT_FILE_NAME = "log-";
+
+    // upper bound of the bytes written with a single write call
+    private static final int MAX_GROUP_BYTES = 4 * 1024 * 1024;
+
+    // first bytes of every segment with checksummed records, "\0LSMLOG2"
+    private static final long SEGMENT_MAGIC = 0x004c534d4c4f4732L;
+    private static final int HEADER_LENGTH = KEY_LENGTH + 3 * Long.BYTES;
+    private static final int CRC_LENGTH = Integer.BYTES;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int REPLAY_BATCH_SIZE = 256;
+    // upper bound of the bytes of items read but not replayed yet
+    private static final int REPLAY_BUFFER_BYTES = 32 * 1024 * 1024;
+    private static final String SKIPPED_SUFFIX = ".skipped";
+    // key of the flush messages written by older versions
+    private static final Key FLUSH_KEY = Key.of(Constants.FLUSH_MESSAGE);
+
+    private static class Record {
+        // null if the segment is sealed
+        private final byte[] bytes;
+        private final long segment;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Record(byte[] bytes, long segment) {
+            this.bytes = bytes;
+            this.segment = segment;
+        }
+    }
+
+    private static final Record SHUTDOWN = new Record(new byte[0], -1);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Path dir;
+    private final SyncMode syncMode;
+
+    // open segments, only modified by the writer thread after the constructor
+    private final Map<Long, FileChannel> channels = new ConcurrentSkipListMap<>();
+    // newest segment
+    private volatile long segment;
 
-    private FileOutputStream out;
-    private FileInputStream in;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
 
-    private final ReadWriteLock rwl = new ReentrantReadWriteLock();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
 
     /**
-     * open a new LSMLog-file
+     * open a new LSMLog which is synced once per group
      *
-     * @param dir where to find or create the log file
+     * @param dir where to find or create the log directory
      *
-     * @throws IOException if an error occurs when accessing the file
+     * @throws IOException if an error occurs when accessing the directory
      */
     public LSMLog(Path dir) throws IOException {
-        Path file = dir;
-        if(!dir.toFile().exists()) {
-            file = Files.createFile(dir).toAbsolutePath();
+        this(dir, SyncMode.BATCH);
+    }
+
+    /**
+     * open a new LSMLog. New items are written to a new segment, existing
+     * segments are kept until they are truncated.
+     *
+     * A log file written by older versions, which didn't use segments yet, is
+     * moved into the directory as the first segment.
+     *
+     * @param dir where to find or create the log directory
+     * @param syncMode when the log is synced to disk
+     *
+     * @throws IOException if an error occurs when accessing the directory
+     */
+    public LSMLog(Path dir, SyncMode syncMode) throws IOException {
+        this.dir = dir;
+        this.syncMode = syncMode;
+
+        if (Files.isRegularFile(dir)) {
+            Path legacy = Paths.get(dir.toString() + ".legacy");
+            Files.move(dir, legacy);
+            Files.createDirectories(dir);
+            Files.move(legacy, segmentPath(0));
+            logger.info("Moved log file " + dir + " into the first log segment");
         }
-        Path logFile = file;
+        Files.createDirectories(dir);
 
-        this.out = new FileOutputStream(logFile.toFile(), true);
-        this.in = new FileInputStream(logFile.toFile());
+        List<Long> segments = listSegments();
+        this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        channels.put(segment, openSegment(segment));
+
+        this.writer = new Thread(this::writeGroups, "lsm-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private Path segmentPath(long number) {
+        return Paths.get(dir.toString(), SEGMENT_FILE_NAME + number);
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            ByteBuffer magic = ByteBuffer.allocate(Long.BYTES).putLong(SEGMENT_MAGIC).flip();
+            while (magic.hasRemaining()) {
+                channel.write(magic);
+            }
+        }
+        return channel;
     }
 
     /**
-     * append a KVItem to the end of the log file
+     * list the numbers of all segments in the log directory
+     *
+     * @return segment numbers in ascending order
+     *
+     * @throws IOException if the directory can't be read
+     */
+    List<Long> listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths
+                    .map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_FILE_NAME))
+                    .map(n -> n.substring(SEGMENT_FILE_NAME.length()))
+                    .filter(n -> n.chars().allMatch(Character::isDigit) && !n.isEmpty())
+                    .map(Long::parseLong)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * append a KVItem to the end of the newest segment. Blocks until the
+     * item is as durable as required by the sync mode of the log.
      *
      * @param kvItem KVItem to append
      *
@@ -53,88 +223,692 @@ public class LSMLog extends LSMFile {
      */
     @Override
     public boolean append(KVItem kvItem) throws IOException {
+        return append(kvItem, segment);
+    }
+
+    /**
+     * append a KVItem to the end of a segment. A segment newer than all existing
+     * segments is created on the first append. Blocks until the item is as
+     * durable as required by the sync mode of the log.
+     *
+     * @param kvItem KVItem to append
+     * @param segment number of the segment
+     *
+     * @return true
+     * @throws IOException if the segment has been sealed already or there's some IO Error
+     */
+    public boolean append(KVItem kvItem, long segment) throws IOException {
+        return append(LSMItem.of(kvItem), segment);
+    }
+
+    /**
+     * append an item which is already encoded to the end of the newest segment,
+     * see {@link #append(KVItem)}
+     *
+     * @param item item to append
+     *
+     * @return true
+     * @throws IOException throws an exception if there's some IO Error
+     */
+    @Override
+    public boolean append(LSMItem item) throws IOException {
+        return append(item, segment);
+    }
+
+    /**
+     * append an item which is already encoded to the end of a segment, see
+     * {@link #append(KVItem, long)}
+     *
+     * @param item item to append
+     * @param segment number of the segment
+     *
+     * @return true
+     * @throws IOException if the segment has been sealed already or there's some IO Error
+     */
+    public boolean append(LSMItem item, long segment) throws IOException {
+        submit(new Record(encode(item), segment));
+        size.incrementAndGet();
+
+        return true;
+    }
+
+    /**
+     * close a segment after all items of its memtable have been appended.
+     * Further appends to the segment fail.
+     *
+     * @param segment number of the segment
+     *
+     * @throws IOException if the segment can't be closed
+     */
+    public void seal(long segment) throws IOException {
+        submit(new Record(null, segment));
+    }
+
+    /**
+     * delete all segments up to and including the given segment, after all
+     * their items have been written to an LSMFile
+     *
+     * @param upTo number of the last segment to delete
+     *
+     * @throws IOException if a segment can't be deleted
+     */
+    public void truncate(long upTo) throws IOException {
+        for (long number : listSegments()) {
+            if (number <= upTo && !channels.containsKey(number)) {
+                Files.deleteIfExists(segmentPath(number));
+            }
+        }
+    }
 
-        rwl.writeLock().lock();
+    private void submit(Record record) throws IOException {
+        if (closed) {
+            throw new IOException("Append to closed log");
+        }
+
+        queue.add(record);
         try {
-            byte[] paddedKeyBytes = padKey(kvItem.getKey());
-            byte[] keyLengthBytes = longToBytes(kvItem.getKey().getBytes().length);
-            byte[] timestampBytes = longToBytes(kvItem.getTimestamp());
-            byte[] valueBytes = kvItem.getValue().getBytes();
-            byte[] valueLengthBytes = longToBytes(valueBytes.length);
+            record.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the log");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to append to log", e.getCause());
+        }
+    }
 
-            out.write(paddedKeyBytes);
-            out.write(keyLengthBytes);
-            out.write(timestampBytes);
+    /**
+     * encode an item in the log record format
+     *
+     * 20 bytes "paddedKeyBytes" key
+     * 8 bytes "keyLengthBytes" indicating the actual key length, the highest bit is set for tombstones
+     * 8 bytes "timestampBytes" timestamp
+     * 8 bytes "valueLengthBytes" indicating the length of the value (0 for tombstones)
+     * valueLengthBytes bytes actual value
+     * 4 bytes CRC32C of everything before
+     */
+    private byte[] encode(LSMItem item) {
+        byte[] valueBytes = item.getValue();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + valueBytes.length + CRC_LENGTH);
+        putPaddedKey(buffer, item.getKey().getBytes());
+        buffer.putLong(keyLengthField(item));
+        buffer.putLong(item.getTimestamp());
+        buffer.putLong(valueBytes.length);
+        buffer.put(valueBytes);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
 
-            out.write(valueLengthBytes);
-            out.write(valueBytes);
+    /**
+     * main loop of the writer thread: wait for records, then write all
+     * records which are pending at that time as one group
+     */
+    private void writeGroups() {
+        List<Record> group = new ArrayList<>();
+        List<Record> pending = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        boolean shutDown = false;
 
-            out.flush();
-            size++;
-        } finally {
-            rwl.writeLock().unlock();
+        while (!shutDown) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group);
+
+            int start = 0;
+            while (start < group.size()) {
+                // the group may be split if it's too large for a single write
+                int end = start;
+                int bytes = 0;
+                while (end < group.size() && (end == start || bytes + length(group.get(end)) <= MAX_GROUP_BYTES)) {
+                    bytes += length(group.get(end));
+                    end++;
+                }
+
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocate(Integer.highestOneBit(bytes) << 1);
+                }
+                buffer.clear();
+
+                List<Record> batch = group.subList(start, end);
+                for (Record r : batch) {
+                    try {
+                        if (r == SHUTDOWN) {
+                            shutDown = true;
+                            continue;
+                        }
+                        // a buffer only holds records of a single segment
+                        if (!pending.isEmpty() && pending.get(0).segment != r.segment) {
+                            commit(buffer, pending);
+                        }
+                        if (r.bytes == null) {
+                            commit(buffer, pending);
+                            FileChannel channel = channels.remove(r.segment);
+                            if (channel != null) {
+                                channel.close();
+                            }
+                            r.done.complete(null);
+                        } else {
+                            buffer.put(r.bytes);
+                            pending.add(r);
+                            if (syncMode == SyncMode.ALWAYS) {
+                                commit(buffer, pending);
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.severe("Failed to write log", e);
+                        for (Record p : pending) {
+                            p.done.completeExceptionally(e);
+                        }
+                        r.done.completeExceptionally(e);
+                        buffer.clear();
+                        pending.clear();
+                    }
+                }
+                try {
+                    commit(buffer, pending);
+                } catch (IOException e) {
+                    logger.severe("Failed to write log", e);
+                    for (Record p : pending) {
+                        p.done.completeExceptionally(e);
+                    }
+                    buffer.clear();
+                    pending.clear();
+                }
+                start = end;
+            }
+            group.clear();
         }
 
-        return true;
+        // fail appends which raced with close
+        queue.drainTo(group);
+        for (Record r : group) {
+            r.done.completeExceptionally(new IOException("Log closed"));
+        }
+    }
+
+    /**
+     * get the channel of an open segment or create a new segment
+     */
+    private FileChannel channel(long number) throws IOException {
+        FileChannel channel = channels.get(number);
+        if (channel != null) {
+            return channel;
+        }
+        if (number <= segment) {
+            throw new IOException("Log segment " + number + " is sealed");
+        }
+        channel = openSegment(number);
+        channels.put(number, channel);
+        segment = number;
+        return channel;
+    }
+
+    private static int length(Record r) {
+        return r.bytes == null ? 0 : r.bytes.length;
+    }
+
+    /**
+     * write the buffered records, sync them as required and acknowledge them
+     */
+    private void commit(ByteBuffer buffer, List<Record> pending) throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        FileChannel out = channel(pending.get(0).segment);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        if (syncMode != SyncMode.NONE) {
+            out.force(false);
+            syncs.incrementAndGet();
+        }
+        groups.incrementAndGet();
+
+        for (Record r : pending) {
+            r.done.complete(null);
+        }
+        pending.clear();
     }
 
     /**
-     * read all entries from the log file since the last Constants.FLUSH_MESSAGE
-     * has been written to the log
+     * read all entries from all segments of the log. Items in a segment before
+     * a Constants.FLUSH_MESSAGE, which was written by older versions, had
+     * already been flushed and are skipped.
      *
-     * @return a TreeMap containing all the items since the last flush message
+     * @return a TreeMap containing all items which have not been flushed yet
      *
-     * @throws IOException if an IO Error occurs while accessing the log file
+     * @throws IOException if an IO Error occurs while accessing the log
      */
     public TreeMap<String, KVItem> readAllSinceFlush() throws IOException {
+        TreeMap<String, KVItem> map = new TreeMap<>(Key::compare);
+        replay(item -> map.put(item.getKey().toString(), item.toKVItem()), 1);
+        return map;
+    }
 
-        rwl.readLock().lock();
+    /**
+     * replay all items of the log which have not been flushed yet.
+     *
+     * The segments are read one record after the other and the records are
+     * verified while reading. The items are partitioned by key and passed to
+     * one thread per partition through a queue, so the items of a key are
+     * passed to the consumer in log order by a single thread, while items of
+     * different keys are passed concurrently. Roughly {@link #REPLAY_BUFFER_BYTES}
+     * bytes of items are read ahead of the consumer at most, however large the log is.
+     *
+     * The replay stops at the first torn or corrupt record. Items written after
+     * it could depend on the lost one, so the rest of its segment is cut off
+     * and all later segments are renamed with the suffix {@value #SKIPPED_SUFFIX}
+     * and not replayed again. New items written after the recovery are thus
+     * replayed on the next restart.
+     *
+     * @param consumer receives the items, must be thread safe if the parallelism is larger than 1
+     * @param parallelism amount of threads replaying partitions
+     *
+     * @return amount of replayed items
+     *
+     * @throws IOException if a segment can't be read
+     */
+    public long replay(Consumer<LSMItem> consumer, int parallelism) throws IOException {
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        int threads = Math.max(1, parallelism);
+        long[] flush = findLegacyFlush(segments);
+        int first = (int) flush[0];
+
+        Replay replay = new Replay(consumer, threads);
+        long count = 0;
         try {
-            TreeMap<String, KVItem> map = new TreeMap<>();
+            for (int i = first; i < segments.size(); i++) {
+                long number = segments.get(i);
+                try (SegmentReader reader = new SegmentReader(number)) {
+                    LSMItem item;
+                    while ((item = reader.next()) != null) {
+                        if (i == first && reader.offset <= flush[1]) {
+                            // already flushed by an older version
+                            continue;
+                        }
+                        replay.accept(item);
+                        count++;
+                    }
+                    if (reader.broken) {
+                        skip(number, reader.offset, segments.subList(i + 1, segments.size()));
+                        break;
+                    }
+                }
+            }
+            replay.finish();
+        } finally {
+            replay.close();
+        }
 
-            while (in.available() > 0) {
-                byte[] keyBytes = new byte[KEY_LENGTH];
-                in.read(keyBytes, 0, KEY_LENGTH);
+        if (count > 0) {
+            logger.info(String.format("Replayed %d items from %d log segments with %d threads in %d ms",
+                    count, segments.size() - first, threads, System.currentTimeMillis() - start));
+        }
+        return count;
+    }
 
-                byte[] keyLengthBytes = new byte[Long.BYTES];
-                in.read(keyLengthBytes, 0, Long.BYTES);
-                int keyLength = (int) bytesToLong(keyLengthBytes);
+    /**
+     * find the last flush message written by older versions. Only segments
+     * without checksums and segment 0, which is a moved log file of an older
+     * version, can contain one.
+     *
+     * @return index of the segment and offset after the flush message, {0, -1} if there is none
+     */
+    private long[] findLegacyFlush(List<Long> segments) throws IOException {
+        long[] flush = {0, -1};
+        for (int i = 0; i < segments.size(); i++) {
+            try (SegmentReader reader = new SegmentReader(segments.get(i))) {
+                if (reader.checksummed && segments.get(i) != 0) {
+                    continue;
+                }
+                LSMItem item;
+                while ((item = reader.next()) != null) {
+                    if (item.getKey().equals(FLUSH_KEY)) {
+                        flush[0] = i;
+                        flush[1] = reader.offset;
+                    }
+                }
+            }
+        }
+        return flush;
+    }
 
-                byte[] timestampBytes = new byte[Long.BYTES];
-                in.read(timestampBytes, 0, Long.BYTES);
-                long timestamp = bytesToLong(timestampBytes);
+    /**
+     * cut off a segment at a torn or corrupt record and move all later
+     * segments out of the way, so the next replay ends at the same item
+     *
+     * @param number segment containing the bad record
+     * @param offset position of the bad record
+     * @param later segments after it
+     */
+    private void skip(long number, long offset, List<Long> later) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.WRITE)) {
+            logger.warning("Cutting off " + (channel.size() - offset) + " bytes after the torn or corrupt record at "
+                    + offset + " of log segment " + number);
+            channel.truncate(offset);
+            channel.force(true);
+        }
+        for (long n : later) {
+            // the segment of new items is still empty
+            if (n == segment) {
+                continue;
+            }
+            Path path = segmentPath(n);
+            Files.move(path, Paths.get(path.toString() + SKIPPED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            logger.warning("Skipped log segment " + n + " written after the torn or corrupt record");
+        }
+    }
+
+    private static long weight(LSMItem item) {
+        // roughly the heap used by the item
+        return 64 + item.length();
+    }
 
-                byte[] lengthBytes = new byte[Long.BYTES];
-                in.read(lengthBytes, 0, Long.BYTES);
+    /**
+     * passes items to the consumer directly, or to one thread per partition
+     * of the keys through queues holding batches of items
+     */
+    private static class Replay implements Closeable {
+        private static final List<LSMItem> END = List.of();
 
-                int length = (int) bytesToLong(lengthBytes);
-                byte[] valueBytes = new byte[length];
-                in.read(valueBytes, 0, length);
+        private final Consumer<LSMItem> consumer;
+        private final int threads;
+        private final ExecutorService executor;
+        private final List<BlockingQueue<List<LSMItem>>> queues = new ArrayList<>();
+        private final List<List<LSMItem>> batches = new ArrayList<>();
+        private final List<Future<?>> workers = new ArrayList<>();
+        // bytes of items read but not replayed yet
+        private final Semaphore buffered = new Semaphore(REPLAY_BUFFER_BYTES);
+        private boolean ended;
 
-                String key = new String(Arrays.copyOfRange(keyBytes, 0, keyLength));
+        private Replay(Consumer<LSMItem> consumer, int threads) {
+            this.consumer = consumer;
+            this.threads = threads;
+            if (threads == 1) {
+                this.executor = null;
+                return;
+            }
+            this.executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "lsm-log-recovery");
+                t.setDaemon(true);
+                return t;
+            });
+            for (int i = 0; i < threads; i++) {
+                BlockingQueue<List<LSMItem>> queue = new LinkedBlockingQueue<>();
+                queues.add(queue);
+                batches.add(new ArrayList<>());
+                workers.add(executor.submit(() -> work(queue)));
+            }
+        }
 
-                if (key.equals(Constants.FLUSH_MESSAGE)) {
-                    // Everything read so far had already been flushed and can thus be discarded
-                    map = new TreeMap<>();
+        private Void work(BlockingQueue<List<LSMItem>> queue) throws InterruptedException {
+            RuntimeException failure = null;
+            while (true) {
+                List<LSMItem> batch = queue.take();
+                if (batch == END) {
+                    break;
+                }
+                int bytes = 0;
+                for (LSMItem item : batch) {
+                    // keep taking batches after a failure, so the reader isn't blocked
+                    if (failure == null) {
+                        try {
+                            consumer.accept(item);
+                        } catch (RuntimeException e) {
+                            failure = e;
+                        }
+                    }
+                    bytes += permits(item);
+                }
+                buffered.release(bytes);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+
+        private static int permits(LSMItem item) {
+            return (int) Math.min(REPLAY_BUFFER_BYTES, weight(item));
+        }
+
+        private void accept(LSMItem item) throws IOException {
+            if (threads == 1) {
+                consumer.accept(item);
+                return;
+            }
+            int permits = permits(item);
+            if (!buffered.tryAcquire(permits)) {
+                // the workers can only free the bytes of batches they got
+                sendAll();
+                try {
+                    buffered.acquire(permits);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while replaying the log");
+                }
+            }
+            int partition = Math.floorMod(item.getKey().hashCode(), threads);
+            List<LSMItem> batch = batches.get(partition);
+            batch.add(item);
+            if (batch.size() >= REPLAY_BATCH_SIZE) {
+                send(partition);
+            }
+        }
+
+        private void send(int partition) {
+            if (!batches.get(partition).isEmpty()) {
+                queues.get(partition).add(batches.get(partition));
+                batches.set(partition, new ArrayList<>());
+            }
+        }
+
+        private void sendAll() {
+            for (int i = 0; i < queues.size(); i++) {
+                send(i);
+            }
+        }
+
+        /**
+         * pass the remaining items and wait until all are replayed
+         */
+        private void finish() throws IOException {
+            sendAll();
+            end();
+            for (Future<?> f : workers) {
+                await(f);
+            }
+        }
+
+        private void end() {
+            if (!ended) {
+                ended = true;
+                for (BlockingQueue<List<LSMItem>> queue : queues) {
+                    queue.add(END);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (executor != null) {
+                end();
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying the log");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to replay the log", e.getCause());
+        }
+    }
+
+    /**
+     * reads the records of a segment one after the other, up to the first
+     * torn or corrupt record
+     */
+    private class SegmentReader implements Closeable {
+        private final long number;
+        private final long size;
+        private final DataInputStream in;
+        private final boolean checksummed;
+        // position of the next record
+        private long offset;
+        // true if reading stopped at a torn or corrupt record
+        private boolean broken;
+
+        private byte[] record = new byte[HEADER_LENGTH + 256];
+        private ByteBuffer header = ByteBuffer.wrap(record);
+        private final CRC32C crc = new CRC32C();
+
+        private SegmentReader(long number) throws IOException {
+            this.number = number;
+            Path path = segmentPath(number);
+            this.size = Files.size(path);
+            int bufferSize = (int) Math.max(1, Math.min(READ_BUFFER_SIZE, size));
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), bufferSize));
+            boolean magic = false;
+            if (size >= Long.BYTES) {
+                in.mark(Long.BYTES);
+                magic = in.readLong() == SEGMENT_MAGIC;
+                if (magic) {
+                    offset = Long.BYTES;
                 } else {
-                    KVItem kvItem = new KVItem(new String(Arrays.copyOfRange(keyBytes, 0, keyLength)), new String(valueBytes), timestamp);
-                    map.put(kvItem.getKey(), kvItem);
+                    in.reset();
                 }
             }
+            this.checksummed = magic;
+        }
 
-            return map;
-        } finally {
-            rwl.readLock().unlock();
+        /**
+         * @return the next item, or null at the end of the segment or at a torn or corrupt record
+         */
+        private LSMItem next() throws IOException {
+            if (broken || offset >= size) {
+                return null;
+            }
+            if (size - offset < HEADER_LENGTH) {
+                return stop("Ignoring incomplete record at the end of log segment " + number);
+            }
+            in.readFully(record, 0, HEADER_LENGTH);
+            long keyLengthField = header.getLong(KEY_LENGTH);
+            int keyLength = (int) keyLengthField;
+            long timestamp = header.getLong(KEY_LENGTH + Long.BYTES);
+            long length = header.getLong(KEY_LENGTH + 2 * Long.BYTES);
+            long recordLength = HEADER_LENGTH + length + (checksummed ? CRC_LENGTH : 0);
+            if (keyLength < 0 || keyLength > KEY_LENGTH || length < 0 || length > size - offset) {
+                return stop("Ignoring torn record at " + offset + " of log segment " + number);
+            }
+            if (offset + recordLength > size) {
+                return stop("Ignoring incomplete record at the end of log segment " + number);
+            }
+            if (record.length < HEADER_LENGTH + length) {
+                record = Arrays.copyOf(record, (int) (HEADER_LENGTH + length));
+                header = ByteBuffer.wrap(record);
+            }
+            in.readFully(record, HEADER_LENGTH, (int) length);
+            if (checksummed) {
+                crc.reset();
+                crc.update(record, 0, HEADER_LENGTH + (int) length);
+                if ((int) crc.getValue() != in.readInt()) {
+                    return stop("Ignoring corrupt record at " + offset + " of log segment " + number);
+                }
+            }
+            offset += recordLength;
+
+            return decodeLSMItem(Key.wrap(Arrays.copyOf(record, keyLength)), keyLengthField,
+                    record, HEADER_LENGTH, (int) length, timestamp);
+        }
+
+        private LSMItem stop(String message) {
+            logger.warning(message);
+            broken = true;
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
         }
     }
 
     /**
-     * returns the current count of items written to the log file
+     * returns the count of items written to the log since it was opened
      *
      * @return count of items in the log
      */
     public int size() {
-        return size;
+        return size.get();
+    }
+
+    /**
+     * @return the sync mode of the log
+     */
+    public SyncMode getSyncMode() {
+        return syncMode;
     }
 
+    /**
+     * @return number of the newest segment
+     */
+    public long getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return amount of groups written so far, each with a single write call
+     */
+    public long getGroupCount() {
+        return groups.get();
+    }
+
+    /**
+     * @return amount of syncs of the log so far
+     */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    /**
+     * write all pending items, stop the writer thread and close the log
+     *
+     * @throws IOException if the current segment can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (FileChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+    }
 }
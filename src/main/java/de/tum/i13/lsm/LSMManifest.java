@@ -0,0 +1,473 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * LSMManifest keeps track of the set of live {@link LSMFile}s.
+ *
+ * The set is persisted in a MANIFEST file in the LSMFile directory and held in
+ * memory as an immutable, reference counted {@link LSMVersion}. Every change of
+ * the set (a flush adding a file, a compaction replacing files) is first written
+ * to disk and then installed atomically as the new current version. Readers take
+ * a consistent snapshot with {@link #acquire()} without touching the file system.
+ *
+ * The MANIFEST file is a text file with the following format:
+ *
+ * version [version number]
+ * ingested [timestamp]
+ * file [name] [level] [global timestamp]
+ * ...
+ *
+ * with one file line per live LSMFile, newest file first. The ingested line
+ * holds the timestamp of the newest file ingested with {@link #ingest(LSMFile, long)},
+ * it is left out if no file was ever ingested. The global timestamp is only
+ * written for ingested files which haven't been compacted yet.
+ */
+public class LSMManifest {
+
+    private static final Log logger = new Log(LSMManifest.class);
+
+    static final String MANIFEST_FILE_NAME = "MANIFEST";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int OPEN_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final Path lsmFileDir;
+    private final Path manifestFile;
+    private final LSMFile.ReadMode readMode;
+    private final BlockCache blockCache;
+
+    private volatile LSMVersion current;
+    private volatile long ingestedTimestamp;
+
+    /**
+     * open the manifest of a LSMFile directory and open all live LSMFiles
+     * with positional reads.
+     *
+     * @param lsmFileDir directory containing the LSMFiles
+     *
+     * @throws IOException if the manifest or one of the files can't be read
+     */
+    public LSMManifest(Path lsmFileDir) throws IOException {
+        this(lsmFileDir, LSMFile.ReadMode.STREAM);
+    }
+
+    /**
+     * open the manifest of a LSMFile directory and open all live LSMFiles.
+     *
+     * If there is no MANIFEST file yet, the directory is scanned once and a new
+     * manifest containing all complete LSMFiles is written. Directories which are
+     * not listed in the manifest are left overs of interrupted flushes and are deleted.
+     *
+     * @param lsmFileDir directory containing the LSMFiles
+     * @param readMode read mode of all files opened by this manifest
+     *
+     * @throws IOException if the manifest or one of the files can't be read
+     */
+    public LSMManifest(Path lsmFileDir, LSMFile.ReadMode readMode) throws IOException {
+        this(lsmFileDir, readMode, null);
+    }
+
+    /**
+     * open the manifest of a LSMFile directory and open all live LSMFiles
+     * with a shared block cache, see {@link #LSMManifest(Path, LSMFile.ReadMode)}
+     *
+     * @param lsmFileDir directory containing the LSMFiles
+     * @param readMode read mode of all files opened by this manifest
+     * @param blockCache block cache shared by all files opened by this manifest, may be null
+     *
+     * @throws IOException if the manifest or one of the files can't be read
+     */
+    public LSMManifest(Path lsmFileDir, LSMFile.ReadMode readMode, BlockCache blockCache) throws IOException {
+        this.lsmFileDir = lsmFileDir;
+        this.readMode = readMode;
+        this.blockCache = blockCache;
+        this.manifestFile = Paths.get(lsmFileDir.toString(), MANIFEST_FILE_NAME);
+
+        if (!Files.exists(lsmFileDir)) {
+            Files.createDirectories(lsmFileDir);
+        }
+
+        if (Files.exists(manifestFile)) {
+            recover();
+        } else {
+            migrate();
+        }
+    }
+
+    /**
+     * read the MANIFEST file and open all listed files
+     *
+     * @throws IOException if the manifest or one of the files can't be read
+     */
+    private void recover() throws IOException {
+        long start = System.currentTimeMillis();
+        List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+        long number = 0;
+        List<String> names = new ArrayList<>();
+        List<Integer> levels = new ArrayList<>();
+        List<Long> globalTimestamps = new ArrayList<>();
+        for (String line : lines) {
+            String[] parts = line.trim().split(" ");
+            if (parts[0].equals("version")) {
+                number = Long.parseLong(parts[1]);
+            } else if (parts[0].equals("ingested")) {
+                ingestedTimestamp = Long.parseLong(parts[1]);
+            } else if (parts[0].equals("file")) {
+                names.add(parts[1]);
+                levels.add(parts.length > 2 ? Integer.parseInt(parts[2]) : 0);
+                globalTimestamps.add(parts.length > 3 ? Long.parseLong(parts[3]) : 0);
+            }
+        }
+        List<LSMFile> files = openAll(names);
+        for (int i = 0; i < files.size(); i++) {
+            files.get(i).setLevel(levels.get(i));
+            files.get(i).setGlobalTimestamp(globalTimestamps.get(i));
+        }
+        current = new LSMVersion(number, files);
+
+        Set<String> live = files.stream().map(LSMFile::getName).collect(Collectors.toSet());
+        for (Path p : listDirectories()) {
+            String name = p.getFileName().toString();
+            if (!live.contains(name)) {
+                logger.info("Deleting LSMFile " + name + " which is not part of the manifest");
+                try (Stream<Path> paths = Files.walk(p)) {
+                    for (Path f : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.deleteIfExists(f);
+                    }
+                }
+            }
+        }
+        logger.info("Recovered manifest version " + number + " with " + files.size() + " files in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * open files concurrently, so their indexes and filters are read in parallel
+     *
+     * @param names names of the files
+     *
+     * @return the opened files in the order of the names
+     *
+     * @throws IOException if one of the files can't be opened, all others are closed again
+     */
+    private List<LSMFile> openAll(List<String> names) throws IOException {
+        int threads = Math.min(names.size(), OPEN_THREADS);
+        if (threads <= 1) {
+            List<LSMFile> files = new ArrayList<>();
+            for (String name : names) {
+                files.add(open(name));
+            }
+            return files;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "lsm-manifest-open");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<LSMFile>> futures = new ArrayList<>();
+            for (String name : names) {
+                futures.add(executor.submit(() -> open(name)));
+            }
+            List<LSMFile> files = new ArrayList<>();
+            IOException failure = null;
+            for (Future<LSMFile> f : futures) {
+                try {
+                    files.add(f.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new InterruptedIOException("Interrupted while opening LSMFiles");
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException("Failed to open LSMFile", e.getCause());
+                }
+            }
+            if (failure != null) {
+                for (LSMFile f : files) {
+                    f.close();
+                }
+                throw failure;
+            }
+            return files;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * create the first manifest of a directory written by an older version
+     * which didn't keep a manifest yet
+     *
+     * @throws IOException if the files can't be read or the manifest can't be written
+     */
+    private void migrate() throws IOException {
+        List<LSMFile> files = new ArrayList<>();
+        for (Path p : listDirectories()) {
+            try {
+                files.add(open(p.getFileName().toString()));
+            } catch (FileNotFoundException e) {
+                logger.warning("Skipping incomplete LSMFile " + p.getFileName());
+            }
+        }
+        write(manifestFile, 1, 0, files);
+        current = new LSMVersion(1, files);
+        logger.info("Created manifest with " + files.size() + " existing files");
+    }
+
+    private List<Path> listDirectories() throws IOException {
+        try (Stream<Path> paths = Files.list(lsmFileDir)) {
+            return paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * open a complete LSMFile of the directory of this manifest for reading,
+     * using the configured read mode and block cache
+     *
+     * @param name name of the LSMFile
+     *
+     * @return the opened file
+     *
+     * @throws IOException if the file can't be opened
+     */
+    public LSMFile open(String name) throws IOException {
+        return new LSMFile(lsmFileDir, name, readMode, blockCache);
+    }
+
+    /**
+     * acquire the current version. The caller has to close the returned version
+     * once it's done reading.
+     *
+     * @return the current set of live files
+     */
+    public LSMVersion acquire() {
+        while (true) {
+            LSMVersion version = current;
+            if (version.tryRef()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * add a new file, e.g. after a flush
+     *
+     * @param added the new file, opened for reading
+     *
+     * @throws IOException if the manifest can't be written
+     */
+    public void add(LSMFile added) throws IOException {
+        apply(List.of(added), List.of());
+    }
+
+    /**
+     * hard link a complete LSMFile written somewhere else into the directory of
+     * this manifest and open it. The file keeps its name and isn't live until
+     * it's added with {@link #ingest(LSMFile, long)}; if it's never added, it
+     * has to be deleted again.
+     *
+     * @param fileDir the directory of the LSMFile
+     *
+     * @return the linked file, opened for reading
+     *
+     * @throws java.nio.file.FileAlreadyExistsException if this directory already contains a file of that name
+     * @throws IOException if the file can't be linked or opened
+     */
+    public LSMFile importFile(Path fileDir) throws IOException {
+        String name = fileDir.getFileName().toString();
+        Path target = Paths.get(lsmFileDir.toString(), name);
+        Files.createDirectory(target);
+        try {
+            try (Stream<Path> paths = Files.list(fileDir)) {
+                for (Path p : (Iterable<Path>) paths::iterator) {
+                    link(p, target.resolve(p.getFileName()));
+                }
+            }
+            return open(name);
+        } catch (IOException e) {
+            try (Stream<Path> paths = Files.walk(target)) {
+                for (Path f : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(f);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * add a file built outside of the store. All items of the file are read
+     * with the given timestamp from now on, see {@link LSMFile#getGlobalTimestamp()}.
+     *
+     * @param added the new file, opened for reading
+     * @param timestamp timestamp of the ingestion, which orders the items of the
+     *                  file against all other versions of their keys
+     *
+     * @throws IOException if the manifest can't be written
+     */
+    public synchronized void ingest(LSMFile added, long timestamp) throws IOException {
+        long previous = ingestedTimestamp;
+        added.setGlobalTimestamp(timestamp);
+        ingestedTimestamp = Math.max(previous, timestamp);
+        try {
+            apply(List.of(added), List.of());
+        } catch (IOException e) {
+            ingestedTimestamp = previous;
+            throw e;
+        }
+    }
+
+    /**
+     * @return timestamp of the newest ingested file, 0 if no file was ingested.
+     * Items which are older may be hidden by an ingested file.
+     */
+    public long getIngestedTimestamp() {
+        return ingestedTimestamp;
+    }
+
+    /**
+     * atomically replace a set of files by another set of files, e.g. after
+     * a compaction. Removed files are deleted as soon as no reader references
+     * them anymore.
+     *
+     * Versions of a key with the same timestamp are ordered by the position
+     * of their files, so the order of the files must stay the order of the
+     * writes. New files without removed files, i.e. flushed or ingested ones,
+     * are inserted before all existing files. Compaction outputs take the
+     * place of the newest removed file, compactions merge only adjacent files
+     * of a level. Files of a lower level are always newer than overlapping
+     * files of a higher level, so the files are kept ordered by level.
+     *
+     * @param added new files, opened for reading
+     * @param removed files to remove
+     *
+     * @throws IOException if the manifest can't be written
+     */
+    public synchronized void apply(List<LSMFile> added, List<LSMFile> removed) throws IOException {
+        LSMVersion old = current;
+
+        List<LSMFile> files = new ArrayList<>();
+        int position = -1;
+        for (LSMFile f : old.getFiles()) {
+            if (!removed.contains(f)) {
+                files.add(f);
+            } else if (position < 0) {
+                position = files.size();
+            }
+        }
+        files.addAll(Math.max(position, 0), added);
+        // stable, so the files of a level keep their order
+        files.sort(Comparator.comparingInt(LSMFile::getLevel));
+
+        long number = old.getNumber() + 1;
+        write(manifestFile, number, ingestedTimestamp, files);
+
+        current = new LSMVersion(number, files);
+        for (LSMFile f : removed) {
+            f.markObsolete();
+        }
+        old.close();
+    }
+
+    /**
+     * hard link the files of a version into another directory and write a
+     * manifest listing them, so that directory can be opened on its own. The
+     * LSMFiles are immutable, so linking them takes the same time whatever their
+     * size. Files are copied if the file system doesn't support hard links.
+     *
+     * @param version the version to export, which must stay acquired until this returns
+     * @param targetDir directory of the copy, created if it doesn't exist
+     *
+     * @throws IOException if a file can't be linked or the manifest can't be written
+     */
+    public void checkpoint(LSMVersion version, Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        for (LSMFile f : version.getFiles()) {
+            Path source = Paths.get(lsmFileDir.toString(), f.getName());
+            Path target = Paths.get(targetDir.toString(), f.getName());
+            Files.createDirectory(target);
+            try (Stream<Path> paths = Files.list(source)) {
+                for (Path p : (Iterable<Path>) paths::iterator) {
+                    link(p, target.resolve(p.getFileName()));
+                }
+            }
+        }
+        write(Paths.get(targetDir.toString(), MANIFEST_FILE_NAME), version.getNumber(), ingestedTimestamp,
+                version.getFiles());
+    }
+
+    /**
+     * hard link a file, or copy it if the file system can't link it
+     *
+     * @param source existing file
+     * @param target path of the link
+     *
+     * @throws IOException if the file can neither be linked nor copied
+     */
+    static void link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(source, target);
+        }
+    }
+
+    /**
+     * write a manifest to a temporary file, sync it and move it over the old one
+     *
+     * @param manifestFile path of the manifest
+     * @param number version number
+     * @param ingestedTimestamp timestamp of the newest ingested file, 0 if there is none
+     * @param files live files
+     *
+     * @throws IOException if the file can't be written
+     */
+    private static void write(Path manifestFile, long number, long ingestedTimestamp, List<LSMFile> files)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("version ").append(number).append('\n');
+        if (ingestedTimestamp > 0) {
+            sb.append("ingested ").append(ingestedTimestamp).append('\n');
+        }
+        for (LSMFile f : files) {
+            sb.append("file ").append(f.getName()).append(' ').append(f.getLevel());
+            if (f.getGlobalTimestamp() != 0) {
+                sb.append(' ').append(f.getGlobalTimestamp());
+            }
+            sb.append('\n');
+        }
+
+        Path tmp = Paths.get(manifestFile.toString() + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, manifestFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
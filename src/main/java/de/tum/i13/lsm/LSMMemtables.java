@@ -0,0 +1,397 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LSMMemtables holds the in memory part of the LSM tree: the active
+ * {@link LSMCache}, to which all writes go, and a queue of immutable caches
+ * which are full and wait to be flushed by the {@link LSMFlusher}.
+ *
+ * Every item is written to the log segment of the active cache in the
+ * {@link LSMLog} before it is put into the cache. Once the active cache exceeds
+ * its size limit, it is frozen, moved to the queue and replaced by a new cache
+ * with the next log segment. Freezing doesn't block writers: they register with
+ * the cache they write to, and the flusher waits for the writers of a frozen
+ * cache to finish before flushing it. Reads consult the active cache and then
+ * the immutable caches, newest first, so items stay visible until the flushed
+ * LSMFile is part of the manifest.
+ *
+ * If the flusher can't keep up, writers are slowed down once the queue is almost
+ * full and stalled while it is full.
+ *
+ * Every write gets a sequence number, which orders the versions of a key in the
+ * caches. An {@link LSMSnapshot} pins the last sequence number and the caches
+ * and files of the moment it was taken. Writers share a lock while they number
+ * and insert their item, a snapshot takes it exclusively for a moment, so it
+ * never sees a write half done.
+ */
+public class LSMMemtables {
+
+    private static final Log logger = new Log(LSMMemtables.class);
+
+    public static final long DEFAULT_MEMTABLE_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_IMMUTABLE_MEMTABLES = 4;
+
+    // delay of each write while the queue of immutable caches is almost full
+    private static final long SLOWDOWN_MILLIS = 1;
+
+    private static final int RECOVERY_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * a full cache waiting to be flushed
+     */
+    public static class Immutable {
+        private final LSMCache cache;
+
+        private Immutable(LSMCache cache) {
+            this.cache = cache;
+        }
+
+        /**
+         * @return the items to flush
+         */
+        public LSMCache getCache() {
+            return cache;
+        }
+
+        /**
+         * @return number of the log segment which holds the items of the cache
+         */
+        public long getSegment() {
+            return cache.getSegment();
+        }
+    }
+
+    private final LSMLog lsmLog;
+    private final long memtableBytes;
+    private final int maxImmutables;
+
+    private volatile LSMCache active;
+    // newest first, replaced on every change
+    private volatile List<Immutable> immutables = Collections.emptyList();
+
+    private final AtomicLong sequence = new AtomicLong();
+    // sequence numbers of the live snapshots and how many snapshots share them
+    private final ConcurrentSkipListMap<Long, Integer> snapshots = new ConcurrentSkipListMap<>();
+    private final ReadWriteLock sequenceLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong slowdowns = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+
+    /**
+     * create the memtables and recover all items from the log which haven't
+     * been flushed yet. The log is replayed into the cache by one thread per
+     * processor, each responsible for a partition of the keys.
+     *
+     * @param lsmLog log to which every item is written
+     * @param memtableBytes size in bytes at which the active cache is swapped
+     * @param maxImmutables amount of immutable caches at which writers are stalled
+     *
+     * @throws IOException if the log can't be read
+     */
+    public LSMMemtables(LSMLog lsmLog, long memtableBytes, int maxImmutables) throws IOException {
+        this.lsmLog = lsmLog;
+        this.memtableBytes = memtableBytes;
+        this.maxImmutables = maxImmutables;
+
+        // the recovered items stay in their old segments, which are truncated with the new one
+        this.active = new LSMCache(lsmLog.getSegment());
+        lsmLog.replay(active::put, RECOVERY_THREADS);
+    }
+
+    /**
+     * write an item to the log and the active cache. Blocks while too many
+     * caches are waiting to be flushed.
+     *
+     * @param item item to write
+     *
+     * @throws IOException if the item can't be written to the log
+     */
+    public void put(KVItem item) throws IOException {
+        put(LSMItem.of(item));
+    }
+
+    /**
+     * write an item which is already encoded, see {@link #put(KVItem)}
+     *
+     * @param stored item to write, as it is written to the log and the cache
+     *
+     * @throws IOException if the item can't be written to the log
+     */
+    public void put(LSMItem stored) throws IOException {
+        throttle();
+
+        LSMCache cache = active;
+        while (!cache.tryAcquireWriter()) {
+            // the cache has just been frozen and is about to be replaced
+            Thread.onSpinWait();
+            cache = active;
+        }
+        try {
+            lsmLog.append(stored, cache.getSegment());
+            sequenceLock.readLock().lock();
+            try {
+                cache.put(stored, sequence, snapshots);
+            } finally {
+                sequenceLock.readLock().unlock();
+            }
+        } finally {
+            cache.releaseWriter();
+        }
+
+        if (cache.getSizeBytes() >= memtableBytes) {
+            swap(cache);
+        }
+    }
+
+    /**
+     * slow down or stall the calling writer if the flusher is behind
+     */
+    private void throttle() throws IOException {
+        int queued = immutables.size();
+        if (queued >= maxImmutables) {
+            stalls.incrementAndGet();
+            long start = System.currentTimeMillis();
+            synchronized (this) {
+                while (immutables.size() >= maxImmutables) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while stalled");
+                    }
+                }
+            }
+            logger.fine("Write stalled for " + (System.currentTimeMillis() - start) + " ms");
+        } else if (maxImmutables > 1 && queued >= maxImmutables - 1) {
+            slowdowns.incrementAndGet();
+            try {
+                Thread.sleep(SLOWDOWN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while slowed down");
+            }
+        }
+    }
+
+    /**
+     * freeze the active cache, move it to the queue of immutable caches and
+     * signal the flusher, even if it isn't full yet
+     */
+    public void swap() {
+        LSMCache cache = active;
+        if (cache.size() > 0) {
+            swap(cache);
+        }
+    }
+
+    /**
+     * swap the active cache and wait until it and all older caches are flushed
+     *
+     * @param timeoutMillis maximum time to wait for the flusher
+     *
+     * @return true if all caches were flushed in time
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long segment = active.getSegment();
+        swap();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            // the oldest cache comes last
+            while (!immutables.isEmpty() && immutables.get(immutables.size() - 1).getSegment() <= segment) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * freeze a cache, move it to the queue of immutable caches and signal the flusher
+     *
+     * @param full the cache to swap, nothing happens if another writer swapped it already
+     */
+    private void swap(LSMCache full) {
+        synchronized (this) {
+            if (active != full) {
+                return;
+            }
+            full.freeze();
+
+            List<Immutable> queue = new ArrayList<>(immutables.size() + 1);
+            queue.add(new Immutable(full));
+            queue.addAll(immutables);
+            // publish the queue before replacing the active cache, so readers never miss it
+            immutables = Collections.unmodifiableList(queue);
+            active = new LSMCache(full.getSegment() + 1);
+            notifyAll();
+        }
+        logger.info(String.format("Swapped memtable with %d items (%d bytes), %d memtables waiting for flush",
+                full.size(), full.getSizeBytes(), immutables.size()));
+    }
+
+    /**
+     * get the newest version of an item from the caches, see {@link #get(Key)}
+     *
+     * @param key key of the item
+     *
+     * @return the item, which might be a delete marker, or null if no cache contains the key
+     */
+    public LSMItem get(String key) {
+        return get(Key.of(key));
+    }
+
+    /**
+     * get the newest version of an item from the caches
+     *
+     * @param key key of the item
+     *
+     * @return the item, which might be a delete marker, or null if no cache contains the key
+     */
+    public LSMItem get(Key key) {
+        LSMItem item = active.get(key);
+        if (item != null) {
+            return item;
+        }
+        for (Immutable m : immutables) {
+            item = m.cache.get(key);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the active cache followed by all immutable caches, newest first
+     */
+    public List<LSMCache> getCaches() {
+        LSMCache current = active;
+        List<Immutable> queue = immutables;
+        List<LSMCache> caches = new ArrayList<>(queue.size() + 1);
+        caches.add(current);
+        for (Immutable m : queue) {
+            caches.add(m.cache);
+        }
+        return caches;
+    }
+
+    /**
+     * take a snapshot of the caches and the live files of a manifest. The
+     * caller has to close the snapshot once it's done reading.
+     *
+     * @param manifest manifest of the files flushed from these memtables
+     *
+     * @return the snapshot
+     */
+    public LSMSnapshot snapshot(LSMManifest manifest) {
+        sequenceLock.writeLock().lock();
+        try {
+            long last = sequence.get();
+            // a cache is only removed after its file was added, so taking the caches first misses nothing
+            List<LSMCache> caches = getCaches();
+            LSMVersion version = manifest.acquire();
+            snapshots.merge(last, 1, Integer::sum);
+            return new LSMSnapshot(this, last, caches, version);
+        } finally {
+            sequenceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * forget a released snapshot
+     *
+     * @param snapshot sequence number of the snapshot
+     */
+    void release(long snapshot) {
+        snapshots.computeIfPresent(snapshot, (s, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * @return amount of snapshots which haven't been released yet
+     */
+    public int getSnapshotCount() {
+        int count = 0;
+        for (int c : snapshots.values()) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * @return sequence number of the last write
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * wait until an immutable cache is waiting to be flushed
+     *
+     * @return the oldest immutable cache
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Immutable awaitOldest() throws InterruptedException {
+        Immutable oldest;
+        synchronized (this) {
+            while (immutables.isEmpty()) {
+                wait();
+            }
+            oldest = immutables.get(immutables.size() - 1);
+        }
+        // writers which registered before the freeze may still be running
+        oldest.cache.awaitWriters();
+        return oldest;
+    }
+
+    /**
+     * remove a cache from the queue after it was flushed and the new LSMFile
+     * was added to the manifest
+     *
+     * @param flushed the flushed cache
+     */
+    public synchronized void remove(Immutable flushed) {
+        List<Immutable> queue = new ArrayList<>(immutables);
+        queue.remove(flushed);
+        immutables = Collections.unmodifiableList(queue);
+        notifyAll();
+    }
+
+    /**
+     * @return amount of immutable caches waiting to be flushed
+     */
+    public int getImmutableCount() {
+        return immutables.size();
+    }
+
+    /**
+     * @return amount of writes which were delayed because the flusher was behind
+     */
+    public long getSlowdownCount() {
+        return slowdowns.get();
+    }
+
+    /**
+     * @return amount of writes which were stalled until a flush finished
+     */
+    public long getStallCount() {
+        return stalls.get();
+    }
+}
@@ -0,0 +1,100 @@
+package de.tum.i13.lsm;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * LSMSnapshot is a consistent point in time view of the LSM tree, taken with
+ * {@link LSMMemtables#snapshot(LSMManifest)} and released by closing it.
+ *
+ * A snapshot pins the sequence number of the last write, the caches of the
+ * memtables and the {@link LSMVersion} of the live files at the time it was
+ * taken. Versions written later are skipped when reading the caches, files
+ * added later are not part of the pinned version. Writers are never blocked by
+ * an open snapshot: the caches keep the older versions of a key the snapshot
+ * still needs, and files replaced by a compaction are only deleted once all
+ * snapshots referencing them are released.
+ *
+ * Open snapshots keep flushed caches in memory and compacted files on disk,
+ * so they should be released as soon as possible.
+ */
+public class LSMSnapshot implements Closeable {
+
+    private final LSMMemtables memtables;
+    private final long sequence;
+    private final List<LSMCache> caches;
+    private final LSMVersion version;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    LSMSnapshot(LSMMemtables memtables, long sequence, List<LSMCache> caches, LSMVersion version) {
+        this.memtables = memtables;
+        this.sequence = sequence;
+        this.caches = Collections.unmodifiableList(caches);
+        this.version = version;
+    }
+
+    /**
+     * @return sequence number of the last write which is part of the snapshot
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the caches of the memtables at the time the snapshot was taken, newest first
+     */
+    public List<LSMCache> getCaches() {
+        return caches;
+    }
+
+    /**
+     * @return the live files at the time the snapshot was taken
+     */
+    public LSMVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * get the newest version of an item from the pinned caches, see {@link #get(Key)}
+     *
+     * @param key key of the item
+     *
+     * @return the item, which might be a delete marker, or null if no cache
+     * contained the key when the snapshot was taken
+     */
+    public LSMItem get(String key) {
+        return get(Key.of(key));
+    }
+
+    /**
+     * get the newest version of an item from the pinned caches
+     *
+     * @param key key of the item
+     *
+     * @return the item, which might be a delete marker, or null if no cache
+     * contained the key when the snapshot was taken
+     */
+    public LSMItem get(Key key) {
+        for (LSMCache cache : caches) {
+            LSMItem item = cache.get(key, sequence);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * release the snapshot, so the versions and files only it needs can be dropped
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            version.close();
+            memtables.release(sequence);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.tum.i13.lsm;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LSMVersion is an immutable snapshot of the set of live {@link LSMFile}s.
+ *
+ * Readers acquire the current version from {@link LSMManifest#acquire()} and
+ * release it by closing it. As long as a version is referenced, none of its
+ * files will be closed or deleted, even if they have been replaced by a newer
+ * version in the meantime.
+ */
+public class LSMVersion implements Closeable {
+
+    private final long number;
+    private final List<LSMFile> files;
+
+    // the manifest holds one reference as long as this is the current version
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    LSMVersion(long number, List<LSMFile> files) {
+        this.number = number;
+        this.files = Collections.unmodifiableList(files);
+        for (LSMFile f : files) {
+            f.ref();
+        }
+    }
+
+    /**
+     * @return the version number, which increases with every change of the file set
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * @return all live LSMFiles of this version, newest file first
+     */
+    public List<LSMFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * add a reference to this version unless it has already been released completely
+     *
+     * @return true if a reference was added
+     */
+    boolean tryRef() {
+        int current = refs.get();
+        while (current > 0) {
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = refs.get();
+        }
+        return false;
+    }
+
+    /**
+     * release a reference to this version. When the last reference is gone,
+     * the references to all files are released as well.
+     */
+    @Override
+    public void close() {
+        if (refs.decrementAndGet() == 0) {
+            for (LSMFile f : files) {
+                f.unref();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.tum.i13.lsm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LeveledCompactionStrategy organizes files in levels as in LevelDB.
+ *
+ * Flushed files are placed on level 0 and may overlap. Once there are enough
+ * files on level 0, they are merged with all overlapping files of level 1.
+ * Files on level 1 and above never overlap, so a read has to check at most one
+ * file per level. Each level may hold ten times the data of the level before;
+ * if a level grows beyond its limit, one of its files is merged into the next level.
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+
+    static final int LEVEL0_TRIGGER = 4;
+    static final long LEVEL1_MAX_BYTES = 10 * 1024 * 1024;
+    private static final int LEVEL_SIZE_MULTIPLIER = 10;
+    static final long TARGET_FILE_SIZE = 2 * 1024 * 1024;
+
+    // the key after which the next compaction of a level starts
+    private final Map<Integer, String> compactPointers = new HashMap<>();
+
+    @Override
+    public Compaction pick(LSMVersion version) {
+        Map<Integer, List<LSMFile>> levels = new HashMap<>();
+        int maxLevel = 0;
+        for (LSMFile f : version.getFiles()) {
+            levels.computeIfAbsent(f.getLevel(), (l) -> new ArrayList<>()).add(f);
+            maxLevel = Math.max(maxLevel, f.getLevel());
+        }
+
+        List<LSMFile> level0 = levels.getOrDefault(0, List.of());
+        if (level0.size() >= LEVEL0_TRIGGER) {
+            List<LSMFile> inputs = new ArrayList<>(level0);
+            String first = null;
+            String last = null;
+            for (LSMFile f : level0) {
+                first = min(first, f.getFirstKey());
+                last = max(last, f.getLastKey());
+            }
+            inputs.addAll(overlapping(levels.getOrDefault(1, List.of()), first, last));
+            return new Compaction(inputs, 1, TARGET_FILE_SIZE);
+        }
+
+        long maxBytes = LEVEL1_MAX_BYTES;
+        for (int level = 1; level <= maxLevel; level++) {
+            List<LSMFile> files = levels.getOrDefault(level, List.of());
+            long size = files.stream().mapToLong(LSMFile::getSize).sum();
+            if (size > maxBytes) {
+                LSMFile picked = nextFile(level, files);
+                List<LSMFile> inputs = new ArrayList<>();
+                inputs.add(picked);
+                inputs.addAll(overlapping(levels.getOrDefault(level + 1, List.of()), picked.getFirstKey(), picked.getLastKey()));
+                compactPointers.put(level, picked.getLastKey());
+                return new Compaction(inputs, level + 1, TARGET_FILE_SIZE);
+            }
+            maxBytes *= LEVEL_SIZE_MULTIPLIER;
+        }
+        return null;
+    }
+
+    /**
+     * choose the file of a level which is compacted next. Files are chosen round
+     * robin over the key space, so that every part of a level gets compacted.
+     */
+    private LSMFile nextFile(int level, List<LSMFile> files) {
+        String pointer = compactPointers.get(level);
+        LSMFile next = null;
+        LSMFile first = null;
+        for (LSMFile f : files) {
+            if (f.getFirstKey() == null) {
+                return f;
+            }
+            if (first == null || Key.compare(f.getFirstKey(), first.getFirstKey()) < 0) {
+                first = f;
+            }
+            if (pointer != null && Key.compare(f.getFirstKey(), pointer) > 0
+                    && (next == null || Key.compare(f.getFirstKey(), next.getFirstKey()) < 0)) {
+                next = f;
+            }
+        }
+        return next != null ? next : first;
+    }
+
+    private static List<LSMFile> overlapping(List<LSMFile> files, String first, String last) {
+        List<LSMFile> result = new ArrayList<>();
+        if (first == null) {
+            return result;
+        }
+        for (LSMFile f : files) {
+            if (f.getFirstKey() != null
+                    && Key.compare(f.getFirstKey(), last) <= 0
+                    && Key.compare(f.getLastKey(), first) >= 0) {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    private static String min(String a, String b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || Key.compare(a, b) <= 0 ? a : b;
+    }
+
+    private static String max(String a, String b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || Key.compare(a, b) >= 0 ? a : b;
+    }
+}
@@ -0,0 +1,115 @@
+package de.tum.i13.lsm;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * MergingIterator is a k-way merge over several sorted {@link LSMIterator}s.
+ *
+ * Every key is returned only once, in the newest version as ordered by
+ * {@link #NEWEST_FIRST}. If two sources hold the same key with the same
+ * timestamp, the source which comes first in the list of sources wins, so
+ * sources should be given newest first. Delete markers are returned like any other item, it's up to the
+ * caller to decide whether they can be dropped.
+ */
+public class MergingIterator implements LSMIterator {
+
+    /**
+     * orders versions of the same key newest first, by their timestamps. A value
+     * relocated by the {@link ValueLogGarbageCollector} keeps the timestamp of
+     * the version it replaces, which may end up in a file that is ordered
+     * before the relocated one, e.g. after a compaction. So of two value
+     * pointers with the same timestamp the one appended later wins.
+     */
+    public static final Comparator<LSMItem> NEWEST_FIRST = (a, b) -> {
+        int result = Long.compare(b.getTimestamp(), a.getTimestamp());
+        if (result != 0 || !ValuePointer.isPointer(a.getValue()) || !ValuePointer.isPointer(b.getValue())) {
+            return result;
+        }
+        try {
+            return ValuePointer.decode(b.getValue()).compareTo(ValuePointer.decode(a.getValue()));
+        } catch (IllegalArgumentException e) {
+            // a plain value which only looks like a pointer
+            return 0;
+        }
+    };
+
+    private static class Source {
+        private final LSMIterator iterator;
+        private final int rank;
+
+        private Source(LSMIterator iterator, int rank) {
+            this.iterator = iterator;
+            this.rank = rank;
+        }
+    }
+
+    private static final Comparator<Source> ORDER = Comparator
+            .comparing((Source s) -> s.iterator.peek().getKey())
+            .thenComparing((Source s) -> s.iterator.peek(), NEWEST_FIRST)
+            .thenComparingInt(s -> s.rank);
+
+    private final List<? extends LSMIterator> iterators;
+    private final PriorityQueue<Source> queue = new PriorityQueue<>(ORDER);
+
+    /**
+     * create a new merging iterator
+     *
+     * @param iterators the sources to merge, newest first
+     */
+    public MergingIterator(List<? extends LSMIterator> iterators) {
+        this.iterators = iterators;
+        for (int i = 0; i < iterators.size(); i++) {
+            if (iterators.get(i).hasNext()) {
+                queue.add(new Source(iterators.get(i), i));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public LSMItem peek() {
+        Source source = queue.peek();
+        return source == null ? null : source.iterator.peek();
+    }
+
+    @Override
+    public LSMItem next() throws IOException {
+        Source source = queue.poll();
+        LSMItem result = source.iterator.next();
+        if (source.iterator.hasNext()) {
+            queue.add(source);
+        }
+
+        // skip all older versions of the same key
+        while (!queue.isEmpty() && queue.peek().iterator.peek().getKey().equals(result.getKey())) {
+            Source older = queue.poll();
+            older.iterator.next();
+            if (older.iterator.hasNext()) {
+                queue.add(older);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (LSMIterator it : iterators) {
+            try {
+                it.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * RangeTombstones holds the deletions of whole key ranges. A range tombstone
+ * hides every item of its range which isn't newer than the tombstone, so a
+ * range is deleted by writing a single record instead of one tombstone per key.
+ *
+ * There are only few range tombstones, they are kept in memory and persisted
+ * in an append only file:
+ *
+ * 4 bytes length of the first key of the range
+ * first key bytes
+ * 4 bytes length of the end of the range (exclusive), -1 if there is no end
+ * end bytes
+ * 8 bytes timestamp
+ * 4 bytes CRC32C of everything before
+ *
+ * Reading stops at a torn record at the end of the file. Items hidden by a
+ * range tombstone are dropped by the {@link LSMCompactor}, the tombstones
+ * themselves are kept.
+ *
+ * Lookups run on every read and write, so they don't go through all
+ * tombstones. The ranges are split at all their bounds into disjoint
+ * fragments sorted by key, which are rebuilt whenever a range is added. A key
+ * is looked up by a binary search for its fragment, which knows the newest
+ * tombstone covering it.
+ */
+public class RangeTombstones implements Closeable {
+
+    private static final Log logger = new Log(RangeTombstones.class);
+
+    private static final int CRC_LENGTH = Integer.BYTES;
+
+    /**
+     * a deleted key range
+     */
+    public static final class Range {
+        private final String from;
+        private final String to;
+        private final long timestamp;
+
+        private Range(String from, String to, long timestamp) {
+            this.from = from;
+            this.to = to;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return first key of the range (inclusive)
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        /**
+         * @return end of the range (exclusive), null if the range has no end
+         */
+        public String getTo() {
+            return to;
+        }
+
+        /**
+         * @return time of the deletion
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return true if the key is part of the range
+         */
+        public boolean contains(String key) {
+            return Key.compare(key, from) >= 0 && (to == null || Key.compare(key, to) < 0);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + from + ", " + (to == null ? "" : to) + ")@" + timestamp;
+        }
+    }
+
+    /**
+     * the key ranges of the tombstones split into disjoint fragments
+     */
+    private static final class Fragments {
+        private static final Fragments EMPTY = new Fragments(List.of());
+
+        // amount of tombstones the fragments were built from
+        private final int size;
+        // fragment i starts at starts[i] and ends where the next one starts
+        private final String[] starts;
+        // indexes of the tombstones covering each fragment, ascending
+        private final int[][] covering;
+        // newest[i][j] is the newest timestamp of the first j + 1 tombstones of covering[i]
+        private final long[][] newest;
+
+        private Fragments(List<Range> ranges) {
+            TreeSet<String> bounds = new TreeSet<>(Key::compare);
+            for (Range range : ranges) {
+                bounds.add(range.from);
+                if (range.to != null) {
+                    bounds.add(range.to);
+                }
+            }
+            this.size = ranges.size();
+            this.starts = bounds.toArray(new String[0]);
+
+            List<List<Integer>> indexes = new ArrayList<>();
+            for (int i = 0; i < starts.length; i++) {
+                indexes.add(new ArrayList<>());
+            }
+            for (int r = 0; r < ranges.size(); r++) {
+                Range range = ranges.get(r);
+                int end = range.to == null ? starts.length : Arrays.binarySearch(starts, range.to, Key::compare);
+                for (int i = Arrays.binarySearch(starts, range.from, Key::compare); i < end; i++) {
+                    indexes.get(i).add(r);
+                }
+            }
+
+            this.covering = new int[starts.length][];
+            this.newest = new long[starts.length][];
+            for (int i = 0; i < starts.length; i++) {
+                List<Integer> list = indexes.get(i);
+                covering[i] = new int[list.size()];
+                newest[i] = new long[list.size()];
+                long timestamp = Long.MIN_VALUE;
+                for (int j = 0; j < list.size(); j++) {
+                    covering[i][j] = list.get(j);
+                    timestamp = Math.max(timestamp, ranges.get(list.get(j)).timestamp);
+                    newest[i][j] = timestamp;
+                }
+            }
+        }
+
+        private long deletedAt(String key, int count) {
+            int i = Arrays.binarySearch(starts, key, Key::compare);
+            if (i < 0) {
+                // the fragment starting before the key
+                i = -i - 2;
+                if (i < 0) {
+                    return Long.MIN_VALUE;
+                }
+            }
+            // the tombstones covering the fragment which are among the first count ones
+            int j = count >= size ? covering[i].length : Arrays.binarySearch(covering[i], count);
+            if (j < 0) {
+                j = -j - 1;
+            }
+            return j == 0 ? Long.MIN_VALUE : newest[i][j - 1];
+        }
+    }
+
+    private final Path path;
+    private final LSMLog.SyncMode syncMode;
+    private final List<Range> ranges = new CopyOnWriteArrayList<>();
+    private volatile Fragments fragments = Fragments.EMPTY;
+    private FileChannel out;
+
+    /**
+     * open the range tombstones stored in a file
+     *
+     * @param path the file, created if it doesn't exist
+     * @param syncMode whether added tombstones are synced to disk
+     *
+     * @throws IOException if the file can't be read or created
+     */
+    public RangeTombstones(Path path, LSMLog.SyncMode syncMode) throws IOException {
+        this.path = path;
+        this.syncMode = syncMode;
+        long end = read();
+        this.out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // cut off a torn record, so new records can be read again
+        out.truncate(end);
+        out.position(end);
+        fragments = new Fragments(ranges);
+        if (!ranges.isEmpty()) {
+            logger.info("Loaded " + ranges.size() + " range tombstones");
+        }
+    }
+
+    /**
+     * read all complete records of the file
+     *
+     * @return position after the last complete record
+     */
+    private long read() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long position = 0;
+        try (InputStream fis = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fis))) {
+            while (true) {
+                byte[] from;
+                byte[] to;
+                long timestamp;
+                int crc;
+                try {
+                    from = readBytes(in);
+                    to = readBytes(in);
+                    timestamp = in.readLong();
+                    crc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (from == null) {
+                    logger.warning("Ignoring corrupt range tombstone at " + position);
+                    break;
+                }
+                byte[] record = encode(from, to, timestamp);
+                if (crc != ByteBuffer.wrap(record, record.length - CRC_LENGTH, CRC_LENGTH).getInt()) {
+                    logger.warning("Ignoring corrupt range tombstone at " + position);
+                    break;
+                }
+                ranges.add(new Range(new String(from, StandardCharsets.UTF_8),
+                        to == null ? null : new String(to, StandardCharsets.UTF_8), timestamp));
+                position += record.length;
+            }
+        }
+        return position;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] encode(byte[] from, byte[] to, long timestamp) {
+        int toLength = to == null ? 0 : to.length;
+        ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + from.length + toLength + Long.BYTES + CRC_LENGTH);
+        record.putInt(from.length).put(from);
+        if (to == null) {
+            record.putInt(-1);
+        } else {
+            record.putInt(to.length).put(to);
+        }
+        record.putLong(timestamp);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * delete a key range
+     *
+     * @param from first key of the range (inclusive)
+     * @param to end of the range (exclusive), null to delete all keys from the first one on
+     * @param timestamp time of the deletion, items which aren't newer are deleted
+     *
+     * @throws IOException if the tombstone can't be written or synced
+     */
+    public synchronized void add(String from, String to, long timestamp) throws IOException {
+        if (out == null) {
+            throw new IOException("Add to closed range tombstones");
+        }
+        ByteBuffer record = ByteBuffer.wrap(encode(from.getBytes(StandardCharsets.UTF_8),
+                to == null ? null : to.getBytes(StandardCharsets.UTF_8), timestamp));
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+        if (syncMode != LSMLog.SyncMode.NONE) {
+            out.force(false);
+        }
+        ranges.add(new Range(from, to, timestamp));
+        fragments = new Fragments(ranges);
+    }
+
+    /**
+     * @param key key to check
+     *
+     * @return the timestamp of the newest range tombstone containing the key,
+     * or Long.MIN_VALUE if the key isn't part of a deleted range
+     */
+    public long deletedAt(String key) {
+        Fragments f = fragments;
+        return f.deletedAt(key, f.size);
+    }
+
+    /**
+     * @param key key to check
+     * @param count only the first count range tombstones are checked, e.g. the
+     *              ones which existed when a snapshot was taken
+     *
+     * @return the timestamp of the newest of these range tombstones containing
+     * the key, or Long.MIN_VALUE if the key isn't part of one of these ranges
+     */
+    public long deletedAt(String key, int count) {
+        return count <= 0 ? Long.MIN_VALUE : fragments.deletedAt(key, count);
+    }
+
+    /**
+     * @param item item to check
+     *
+     * @return true if a range tombstone which isn't older than the item contains it
+     */
+    public boolean covers(LSMItem item) {
+        return covers(item, size());
+    }
+
+    /**
+     * @param item item to check
+     * @param count only the first count range tombstones are checked, see {@link #deletedAt(String, int)}
+     *
+     * @return true if one of these range tombstones which isn't older than the item contains it
+     */
+    public boolean covers(LSMItem item, int count) {
+        // the key is only decoded if there are ranges to check
+        return count > 0 && item.getTimestamp() <= deletedAt(item.getKey().toString(), count);
+    }
+
+    /**
+     * @return amount of range tombstones. Tombstones are only ever appended, so
+     * the first ones never change.
+     */
+    public int size() {
+        return fragments.size;
+    }
+
+    /**
+     * @return all range tombstones in the order they were added
+     */
+    public List<Range> getRanges() {
+        return List.copyOf(ranges);
+    }
+
+    /**
+     * @return true if no range was deleted
+     */
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package de.tum.i13.lsm;
+
+/**
+ * RateLimiter limits the throughput of background IO, e.g. compaction,
+ * to a fixed amount of bytes per second so that it doesn't starve
+ * foreground requests.
+ *
+ * The limiter works like a token bucket which is refilled continuously and
+ * may hold at most one second worth of tokens.
+ */
+public class RateLimiter {
+
+    private final long bytesPerSecond;
+
+    private double available;
+    private long lastRefill;
+
+    /**
+     * create a new rate limiter
+     *
+     * @param bytesPerSecond maximum throughput, a value of 0 or less disables the limit
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * acquire the permission to read or write some bytes. Blocks until enough
+     * tokens are available.
+     *
+     * @param bytes amount of bytes to read or write
+     */
+    public synchronized void acquire(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+
+        refill();
+        available -= bytes;
+        if (available < 0) {
+            long waitNanos = (long) (-available * 1_000_000_000L / bytesPerSecond);
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refill();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(bytesPerSecond, available + (now - lastRefill) * (double) bytesPerSecond / 1_000_000_000L);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,60 @@
+package de.tum.i13.lsm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SizeTieredCompactionStrategy groups files of similar size into buckets and
+ * merges a bucket once it contains enough files. All files stay on level 0.
+ *
+ * A bucket is a run of adjacent files in the order of the version, so the
+ * output of a compaction can take the place of its inputs without reordering
+ * versions of a key that have the same timestamp.
+ *
+ * This strategy keeps write amplification low, but a key may be contained in
+ * several files, so reads have to check more files than with
+ * {@link LeveledCompactionStrategy}.
+ */
+public class SizeTieredCompactionStrategy implements CompactionStrategy {
+
+    static final int MIN_THRESHOLD = 4;
+    static final int MAX_THRESHOLD = 32;
+    private static final double BUCKET_LOW = 0.5;
+    private static final double BUCKET_HIGH = 1.5;
+    // all files smaller than this are put into the same bucket
+    private static final long MIN_FILE_SIZE = 1024 * 1024;
+
+    @Override
+    public Compaction pick(LSMVersion version) {
+        List<List<LSMFile>> buckets = new ArrayList<>();
+        List<LSMFile> bucket = new ArrayList<>();
+        long bucketSize = 0;
+        for (LSMFile f : version.getFiles()) {
+            double avg = bucket.isEmpty() ? 0 : (double) bucketSize / bucket.size();
+            boolean fits = bucket.isEmpty()
+                    || (f.getSize() >= avg * BUCKET_LOW && f.getSize() <= avg * BUCKET_HIGH)
+                    || (f.getSize() < MIN_FILE_SIZE && avg < MIN_FILE_SIZE);
+            if (!fits || bucket.size() == MAX_THRESHOLD) {
+                buckets.add(bucket);
+                bucket = new ArrayList<>();
+                bucketSize = 0;
+            }
+            bucket.add(f);
+            bucketSize += f.getSize();
+        }
+        buckets.add(bucket);
+
+        // merge the eligible bucket with the smallest files first, it is the cheapest one
+        List<LSMFile> picked = null;
+        for (List<LSMFile> b : buckets) {
+            if (b.size() >= MIN_THRESHOLD && (picked == null || averageSize(b) < averageSize(picked))) {
+                picked = b;
+            }
+        }
+        return picked == null ? null : new Compaction(picked, 0, Long.MAX_VALUE);
+    }
+
+    private static double averageSize(List<LSMFile> files) {
+        return files.stream().mapToLong(LSMFile::getSize).average().orElse(0);
+    }
+}
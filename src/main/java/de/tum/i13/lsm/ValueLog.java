@@ -0,0 +1,410 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * ValueLog stores large values outside of the LSM tree, so flushes and
+ * compactions only have to copy small {@link ValuePointer}s instead of the
+ * values themselves.
+ *
+ * Like {@link LSMLog}, the value log is a directory of numbered, append only
+ * segments. A new segment is started on every open and whenever the current
+ * one exceeds its size limit. Every record holds the key, so the
+ * {@link ValueLogGarbageCollector} can find out whether it's still live:
+ *
+ * 4 bytes key length
+ * 4 bytes value length
+ * key bytes
+ * value bytes
+ * 4 bytes CRC32C of everything before
+ *
+ * Appends are synced according to the {@link LSMLog.SyncMode}. Concurrent
+ * appenders share syncs: the first one to sync covers all records written
+ * before, the others only have to wait for it.
+ */
+public class ValueLog implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final Log logger = new Log(ValueLog.class);
+
+    private static final String SEGMENT_FILE_NAME = "vlog-";
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final int CRC_LENGTH = Integer.BYTES;
+
+    /**
+     * receives the records of a segment
+     */
+    public interface RecordVisitor {
+        void visit(Key key, ValuePointer pointer, byte[] value) throws IOException;
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final LSMLog.SyncMode syncMode;
+
+    // guards segment, out and position
+    private final Object writeLock = new Object();
+    private long segment;
+    private FileChannel out;
+    private long position;
+
+    // everything before (syncedSegment, syncedPosition) is on disk
+    private final Object syncLock = new Object();
+    private long syncedSegment;
+    private long syncedPosition;
+
+    private final Map<Long, FileChannel> readers = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * open the value log in the given directory and start a new segment
+     *
+     * @param dir directory of the value log, created if it doesn't exist
+     * @param segmentBytes size in bytes at which a new segment is started
+     * @param syncMode when appended values are synced to disk
+     *
+     * @throws IOException if the directory or the new segment can't be created
+     */
+    public ValueLog(Path dir, long segmentBytes, LSMLog.SyncMode syncMode) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.syncMode = syncMode;
+
+        Files.createDirectories(dir);
+        List<Long> segments = getSegments();
+        this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        this.out = openSegment(segment);
+        this.syncedSegment = segment;
+    }
+
+    private Path segmentPath(long number) {
+        return Paths.get(dir.toString(), SEGMENT_FILE_NAME + number);
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * list the numbers of all segments, including the one currently written
+     *
+     * @return segment numbers in ascending order
+     *
+     * @throws IOException if the directory can't be read
+     */
+    public List<Long> getSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths
+                    .map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_FILE_NAME))
+                    .map(n -> n.substring(SEGMENT_FILE_NAME.length()))
+                    .filter(n -> n.chars().allMatch(Character::isDigit) && !n.isEmpty())
+                    .map(Long::parseLong)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return number of the segment new values are appended to
+     */
+    public long getActiveSegment() {
+        synchronized (writeLock) {
+            return segment;
+        }
+    }
+
+    /**
+     * append a value to the current segment
+     *
+     * @param key key of the value, kept for garbage collection
+     * @param v UTF-8 bytes of the value
+     *
+     * @return pointer to the value
+     *
+     * @throws IOException if the value can't be written or synced
+     */
+    public ValuePointer append(Key key, byte[] v) throws IOException {
+        byte[] k = key.getBytes();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + k.length + v.length + CRC_LENGTH);
+        record.putInt(k.length).putInt(v.length).put(k).put(v);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long recordSegment;
+        long recordOffset;
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("Append to closed value log");
+            }
+            if (position > 0 && position + record.remaining() > segmentBytes) {
+                roll();
+            }
+            recordSegment = segment;
+            recordOffset = position;
+            while (record.hasRemaining()) {
+                position += out.write(record, position);
+            }
+        }
+
+        if (syncMode != LSMLog.SyncMode.NONE) {
+            sync(recordSegment, recordOffset + record.limit());
+        }
+        return new ValuePointer(recordSegment, recordOffset, v.length);
+    }
+
+    /**
+     * sync the current segment and start a new one. The caller holds the write lock.
+     */
+    private void roll() throws IOException {
+        if (syncMode != LSMLog.SyncMode.NONE) {
+            out.force(false);
+        }
+        out.close();
+        segment++;
+        out = openSegment(segment);
+        position = 0;
+    }
+
+    /**
+     * make sure everything up to the given position is on disk
+     */
+    private void sync(long recordSegment, long end) throws IOException {
+        synchronized (syncLock) {
+            if (recordSegment < syncedSegment || (recordSegment == syncedSegment && end <= syncedPosition)) {
+                return;
+            }
+
+            long current;
+            long written;
+            FileChannel channel;
+            synchronized (writeLock) {
+                current = segment;
+                written = position;
+                channel = out;
+            }
+            if (current == recordSegment) {
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    // rolled over in the meantime, which syncs the segment
+                    if (closed) {
+                        throw e;
+                    }
+                }
+            }
+            // older segments are synced when they are rolled over
+            syncedSegment = current;
+            syncedPosition = current == recordSegment ? written : 0;
+        }
+    }
+
+    /**
+     * read a value
+     *
+     * @param key key the value was written for
+     * @param pointer pointer to the value
+     *
+     * @return UTF-8 bytes of the value
+     *
+     * @throws IOException if the segment doesn't exist, the record is corrupt
+     * or it holds the value of another key
+     */
+    public byte[] read(Key key, ValuePointer pointer) throws IOException {
+        FileChannel channel = reader(pointer.getSegment());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(channel, header, pointer.getOffset());
+        int keyLength = header.getInt(0);
+        int valueLength = header.getInt(Integer.BYTES);
+        if (keyLength < 0 || valueLength != pointer.getLength()) {
+            throw new IOException("Invalid value log record at " + pointer);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + keyLength + valueLength + CRC_LENGTH);
+        readFully(channel, record, pointer.getOffset());
+        int crcPosition = record.capacity() - CRC_LENGTH;
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, crcPosition);
+        if ((int) crc.getValue() != record.getInt(crcPosition)) {
+            throw new IOException("Checksum mismatch in value log record at " + pointer);
+        }
+        byte[] keyBytes = key.getBytes();
+        if (!Arrays.equals(record.array(), HEADER_LENGTH, HEADER_LENGTH + keyLength, keyBytes, 0, keyBytes.length)) {
+            throw new IOException("Value log record at " + pointer + " doesn't belong to key " + key);
+        }
+        int valueOffset = HEADER_LENGTH + keyLength;
+        return Arrays.copyOfRange(record.array(), valueOffset, valueOffset + valueLength);
+    }
+
+    private FileChannel reader(long number) throws IOException {
+        if (closed) {
+            throw new IOException("Read from closed value log");
+        }
+        FileChannel channel = readers.get(number);
+        if (channel != null) {
+            return channel;
+        }
+        try {
+            channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new IOException("Value log segment " + number + " can't be opened", e);
+        }
+        FileChannel existing = readers.putIfAbsent(number, channel);
+        if (existing != null) {
+            channel.close();
+            return existing;
+        }
+        return channel;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of value log segment");
+            }
+        }
+    }
+
+    /**
+     * read all records of a segment in order. Reading stops at a torn or
+     * corrupt record at the end of the segment.
+     *
+     * @param number number of the segment
+     * @param visitor receives every record
+     *
+     * @throws IOException if the segment can't be read or the visitor fails
+     */
+    public void scan(long number, RecordVisitor visitor) throws IOException {
+        try (InputStream fis = Files.newInputStream(segmentPath(number));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fis, 64 * 1024))) {
+            long offset = 0;
+            while (true) {
+                byte[] record;
+                int keyLength;
+                int valueLength;
+                try {
+                    keyLength = in.readInt();
+                    valueLength = in.readInt();
+                    if (keyLength < 0 || valueLength < 0) {
+                        logger.warning("Invalid record in value log segment " + number + " at " + offset);
+                        return;
+                    }
+                    record = new byte[HEADER_LENGTH + keyLength + valueLength + CRC_LENGTH];
+                    in.readFully(record, HEADER_LENGTH, record.length - HEADER_LENGTH);
+                } catch (EOFException e) {
+                    return;
+                }
+                ByteBuffer.wrap(record).putInt(keyLength).putInt(valueLength);
+
+                int crcPosition = record.length - CRC_LENGTH;
+                CRC32C crc = new CRC32C();
+                crc.update(record, 0, crcPosition);
+                if ((int) crc.getValue() != ByteBuffer.wrap(record, crcPosition, CRC_LENGTH).getInt()) {
+                    logger.warning("Checksum mismatch in value log segment " + number + " at " + offset);
+                    return;
+                }
+
+                int valueOffset = HEADER_LENGTH + keyLength;
+                visitor.visit(Key.wrap(Arrays.copyOfRange(record, HEADER_LENGTH, valueOffset)),
+                        new ValuePointer(number, offset, valueLength),
+                        Arrays.copyOfRange(record, valueOffset, valueOffset + valueLength));
+                offset += record.length;
+            }
+        }
+    }
+
+    /**
+     * @param number number of the segment
+     *
+     * @return size of the segment in bytes
+     *
+     * @throws IOException if the size can't be read
+     */
+    public long getSegmentSize(long number) throws IOException {
+        return Files.size(segmentPath(number));
+    }
+
+    /**
+     * delete a segment which doesn't contain live values anymore
+     *
+     * @param number number of the segment, must not be the active one
+     *
+     * @throws IOException if the segment can't be deleted
+     */
+    public void delete(long number) throws IOException {
+        if (number == getActiveSegment()) {
+            throw new IOException("The active value log segment can't be deleted");
+        }
+        FileChannel channel = readers.remove(number);
+        if (channel != null) {
+            channel.close();
+        }
+        Files.deleteIfExists(segmentPath(number));
+    }
+
+    /**
+     * export the value log into another directory. Sealed segments are hard
+     * linked, only the segment currently written is copied.
+     *
+     * @param targetDir directory of the copy, created if it doesn't exist
+     *
+     * @throws IOException if a segment can't be linked or copied
+     */
+    public void checkpoint(Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        long active = getActiveSegment();
+        for (long number : getSegments()) {
+            Path source = segmentPath(number);
+            Path target = targetDir.resolve(source.getFileName());
+            if (number < active) {
+                LSMManifest.link(source, target);
+            } else {
+                Files.copy(source, target);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (syncMode != LSMLog.SyncMode.NONE) {
+                out.force(false);
+            }
+            out.close();
+        }
+        for (FileChannel channel : readers.values()) {
+            channel.close();
+        }
+        readers.clear();
+    }
+}
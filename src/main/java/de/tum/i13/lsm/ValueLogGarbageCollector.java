@@ -0,0 +1,175 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ValueLogGarbageCollector runs in a separate worker thread and reclaims the
+ * space of overwritten and deleted values in the {@link ValueLog}.
+ *
+ * It checks one segment per round, going through the segments round robin.
+ * A value is live if the newest version of its key in the LSM tree still points
+ * to it. If the share of dead bytes in a segment reaches the configured ratio,
+ * the live values are appended to the current segment again and their keys are
+ * updated to point there. The old segment is deleted in the next round, so
+ * readers which looked up an old pointer just before the relocation can still
+ * read it. While snapshots are open, old segments are kept until a later round.
+ */
+public class ValueLogGarbageCollector extends Thread {
+
+    private static final Log logger = new Log(ValueLogGarbageCollector.class);
+
+    private static final long GC_CHECK_FREQUENCY = 10000;
+
+    public static final double DEFAULT_DISCARD_RATIO = 0.5;
+
+    /**
+     * access to the LSM tree which references the values
+     */
+    public interface Index {
+        /**
+         * @return true if the newest version of the key points to the value
+         */
+        boolean isLive(Key key, ValuePointer pointer) throws IOException;
+
+        /**
+         * move a value to a new location if the newest version of the key still points
+         * to the old one. Checking and updating the key must be atomic with regard to
+         * other writes of the key.
+         *
+         * @return true if the value was live and has been moved
+         */
+        boolean relocate(Key key, ValuePointer pointer, byte[] value) throws IOException;
+
+        /**
+         * @return true if a snapshot of the LSM tree is open, which might still
+         * read a value from its old location
+         */
+        boolean hasSnapshots();
+    }
+
+    private final ValueLog valueLog;
+    private final Index index;
+    private final double discardRatio;
+
+    private final List<Long> obsolete = new ArrayList<>();
+    private long lastChecked;
+
+    private volatile boolean shutDown = false;
+
+    /**
+     * create a new garbage collector
+     *
+     * @param valueLog the value log to collect
+     * @param index the LSM tree referencing the values
+     * @param discardRatio share of dead bytes at which a segment is collected
+     */
+    public ValueLogGarbageCollector(ValueLog valueLog, Index index, double discardRatio) {
+        super("value-log-gc");
+        setDaemon(true);
+        this.valueLog = valueLog;
+        this.index = index;
+        this.discardRatio = discardRatio;
+    }
+
+    public void setShutDown(boolean sd) {
+        this.shutDown = sd;
+    }
+
+    /**
+     * start the worker thread
+     */
+    @Override
+    public void run() {
+        while (!shutDown) {
+            try {
+                collectOnce();
+            } catch (IOException e) {
+                logger.severe("Value log garbage collection failed", e);
+            }
+
+            try {
+                Thread.sleep(GC_CHECK_FREQUENCY);
+            } catch (InterruptedException e) {
+                logger.info("Value log garbage collector interrupted");
+                return;
+            }
+        }
+    }
+
+    /**
+     * delete the segments collected in the previous round, then check the next
+     * segment and collect it if enough of its values are dead
+     *
+     * @return true if a segment was collected
+     *
+     * @throws IOException if the value log can't be read or written
+     */
+    public boolean collectOnce() throws IOException {
+        if (!index.hasSnapshots()) {
+            for (long number : obsolete) {
+                valueLog.delete(number);
+                logger.info("Deleted value log segment " + number);
+            }
+            obsolete.clear();
+        }
+
+        long candidate = nextCandidate();
+        if (candidate < 0) {
+            return false;
+        }
+        lastChecked = candidate;
+
+        long[] bytes = new long[2];
+        valueLog.scan(candidate, (key, pointer, value) -> {
+            bytes[0] += pointer.getLength();
+            if (index.isLive(key, pointer)) {
+                bytes[1] += pointer.getLength();
+            }
+        });
+        long total = bytes[0];
+        long live = bytes[1];
+        if (total > 0 && total - live < total * discardRatio) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        long[] moved = new long[2];
+        valueLog.scan(candidate, (key, pointer, value) -> {
+            if (index.relocate(key, pointer, value)) {
+                moved[0]++;
+                moved[1] += pointer.getLength();
+            }
+        });
+        obsolete.add(candidate);
+        logger.info(String.format("Collected value log segment %d: %d of %d value bytes live, moved %d values (%d bytes) in %d ms",
+                candidate, live, total, moved[0], moved[1], System.currentTimeMillis() - start));
+        return true;
+    }
+
+    /**
+     * @return the next sealed segment after the last checked one, or -1 if there is none
+     */
+    private long nextCandidate() throws IOException {
+        long active = valueLog.getActiveSegment();
+        List<Long> sealed = new ArrayList<>();
+        for (long number : valueLog.getSegments()) {
+            // segments already collected are only waiting to be deleted
+            if (number < active && !obsolete.contains(number)) {
+                sealed.add(number);
+            }
+        }
+        if (sealed.isEmpty()) {
+            return -1;
+        }
+        for (long number : sealed) {
+            if (number > lastChecked) {
+                return number;
+            }
+        }
+        return sealed.get(0);
+    }
+}
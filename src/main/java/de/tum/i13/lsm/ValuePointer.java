@@ -0,0 +1,132 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Constants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ValuePointer is the location of a value in the {@link ValueLog}. Items whose
+ * values were moved to the value log store the encoded pointer as their value
+ * in the LSM tree, marked by {@link Constants#VALUE_POINTER_MARKER}.
+ *
+ * Pointers are ordered by their position in the value log. Values are only
+ * appended, so a later pointer always refers to a later write.
+ */
+public final class ValuePointer implements Comparable<ValuePointer> {
+
+    private static final byte[] MARKER_BYTES = Constants.VALUE_POINTER_MARKER.getBytes(StandardCharsets.UTF_8);
+
+    private final long segment;
+    private final long offset;
+    private final int length;
+
+    /**
+     * create a new pointer
+     *
+     * @param segment number of the value log segment
+     * @param offset position of the record in the segment
+     * @param length length of the value in bytes
+     */
+    public ValuePointer(long segment, long offset, int length) {
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * check if a value stored in the LSM tree is a pointer
+     *
+     * @param value value to check
+     *
+     * @return true if the value is an encoded pointer
+     */
+    public static boolean isPointer(String value) {
+        return value != null && value.startsWith(Constants.VALUE_POINTER_MARKER);
+    }
+
+    /**
+     * check if the UTF-8 bytes of a value stored in the LSM tree are a pointer
+     *
+     * @param value value bytes to check
+     *
+     * @return true if the value is an encoded pointer
+     */
+    public static boolean isPointer(byte[] value) {
+        return value != null && value.length >= MARKER_BYTES.length
+                && Arrays.equals(value, 0, MARKER_BYTES.length, MARKER_BYTES, 0, MARKER_BYTES.length);
+    }
+
+    /**
+     * decode a pointer stored in the LSM tree, see {@link #decode(String)}
+     *
+     * @param value UTF-8 bytes of the encoded pointer
+     *
+     * @return the pointer
+     *
+     * @throws IllegalArgumentException if the value is not a valid pointer
+     */
+    public static ValuePointer decode(byte[] value) {
+        if (!isPointer(value)) {
+            throw new IllegalArgumentException("Not a value pointer");
+        }
+        return decode(new String(value, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * decode a pointer stored in the LSM tree
+     *
+     * @param value the encoded pointer
+     *
+     * @return the pointer
+     *
+     * @throws IllegalArgumentException if the value is not a valid pointer
+     */
+    public static ValuePointer decode(String value) {
+        if (!isPointer(value)) {
+            throw new IllegalArgumentException("Not a value pointer");
+        }
+        String[] parts = value.substring(Constants.VALUE_POINTER_MARKER.length()).split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid value pointer " + value);
+        }
+        return new ValuePointer(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    /**
+     * @return the pointer as stored in the LSM tree
+     */
+    public String encode() {
+        return Constants.VALUE_POINTER_MARKER + segment + ":" + offset + ":" + length;
+    }
+
+    /**
+     * @return UTF-8 bytes of the pointer as stored in the LSM tree
+     */
+    public byte[] toBytes() {
+        return encode().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public long getSegment() {
+        return segment;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int compareTo(ValuePointer other) {
+        int result = Long.compare(segment, other.segment);
+        return result != 0 ? result : Long.compare(offset, other.offset);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
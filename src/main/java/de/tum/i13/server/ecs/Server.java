@@ -5,6 +5,7 @@ import de.tum.i13.kvtp2.middleware.DefaultError;
 import de.tum.i13.kvtp2.middleware.LogRequest;
 import de.tum.i13.server.ecs.handlers.AddressConverter;
 import de.tum.i13.server.ecs.handlers.Finish;
+import de.tum.i13.server.ecs.handlers.HandoffFailed;
 import de.tum.i13.server.ecs.handlers.Register;
 import de.tum.i13.server.ecs.handlers.Shutdown;
 import de.tum.i13.shared.Log;
@@ -44,6 +45,12 @@ public class Server {
                 new Finish(ssm)
                 )
         );
+        kvtp2Server.handle(
+                "handoff_failed",
+                new LogRequest(logger).next(
+                new HandoffFailed()
+                )
+        );
 
         AddressConverter addressConverter = new AddressConverter(ssm);
         kvtp2Server.handle(
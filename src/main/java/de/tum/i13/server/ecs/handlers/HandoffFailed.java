@@ -0,0 +1,29 @@
+package de.tum.i13.server.ecs.handlers;
+
+import de.tum.i13.kvtp2.Message;
+import de.tum.i13.kvtp2.MessageWriter;
+import de.tum.i13.kvtp2.middleware.Handler;
+import de.tum.i13.shared.Log;
+
+import java.net.InetSocketAddress;
+
+/**
+ * HandoffFailed is sent by a KVServer instead of finish, if it could not read
+ * the items it had to hand off. The lock of the server is not released, so it
+ * doesn't accept writes for keys it may not hold all items of.
+ */
+public class HandoffFailed implements Handler {
+
+    public static final Log logger = new Log(HandoffFailed.class);
+
+    @Override
+    public void handle(MessageWriter messageWriter, Message message) {
+        InetSocketAddress src = new InetSocketAddress(message.getSrc().getHostString(), Integer.parseInt(message.get("ecsport")));
+
+        logger.warning("KVServer at " + src + " aborted the handoff of its items, keeping it locked: " + message.get("error"));
+
+        Message response = Message.getResponse(message);
+        response.setCommand("ok");
+        messageWriter.write(response);
+    }
+}
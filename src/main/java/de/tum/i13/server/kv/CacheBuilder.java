@@ -3,6 +3,13 @@ package de.tum.i13.server.kv;
 import de.tum.i13.server.kv.caches.FIFOCache;
 import de.tum.i13.server.kv.caches.LFUCache;
 import de.tum.i13.server.kv.caches.LRUCache;
+import de.tum.i13.server.kv.caches.OffHeapCache;
+import de.tum.i13.server.kv.caches.StripedLRUCache;
+import de.tum.i13.server.kv.caches.TinyLFUCache;
+import de.tum.i13.server.kv.caches.TracingCache;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * CacheBuilder configures and builds a new cache instance
@@ -16,24 +23,51 @@ public final class CacheBuilder {
     public enum Algorithm {
         FIFO() {
             @Override
-            public KVCache buildCache(int size) {
-                return new FIFOCache(size);
+            public KVCache buildCache(int size, long maxWeight, Weigher weigher) {
+                return new FIFOCache(size, maxWeight, weigher);
             }
         },
         LRU() {
             @Override
-            public KVCache buildCache(int size) {
-                return new LRUCache(size);
+            public KVCache buildCache(int size, long maxWeight, Weigher weigher) {
+                return new LRUCache(size, maxWeight, weigher);
             }
         },
         LFU() {
             @Override
-            public KVCache buildCache(int size) {
-                return new LFUCache(size);
+            public KVCache buildCache(int size, long maxWeight, Weigher weigher) {
+                return new LFUCache(size, maxWeight, weigher);
+            }
+        },
+        STRIPED_LRU() {
+            @Override
+            public KVCache buildCache(int size, long maxWeight, Weigher weigher) {
+                return new StripedLRUCache(size, maxWeight, weigher);
+            }
+        },
+        TINYLFU() {
+            @Override
+            public KVCache buildCache(int size, long maxWeight, Weigher weigher) {
+                return new TinyLFUCache(size, maxWeight, weigher);
+            }
+        },
+        OFF_HEAP() {
+            @Override
+            public KVCache buildCache(int size, long maxWeight, Weigher weigher) {
+                return new OffHeapCache(size, maxWeight, weigher);
             }
         };
 
-        public abstract KVCache buildCache(int size);
+        /**
+         * @param size maximum amount of items
+         * @param maxWeight maximum sum of the item weights, 0 for no limit
+         * @param weigher computes the weight of an item
+         */
+        public abstract KVCache buildCache(int size, long maxWeight, Weigher weigher);
+
+        public KVCache buildCache(int size) {
+            return buildCache(size, 0, Weigher.ITEM_BYTES);
+        }
 
         Algorithm() {
         }
@@ -41,6 +75,9 @@ public final class CacheBuilder {
 
     private int size;
     private Algorithm algorithm;
+    private long maxWeight;
+    private Weigher weigher = Weigher.ITEM_BYTES;
+    private Path traceFile;
 
     public static CacheBuilder newBuilder() {
         return new CacheBuilder();
@@ -56,8 +93,42 @@ public final class CacheBuilder {
         return this;
     }
 
-    public KVCache build() {
-        return this.algorithm.buildCache(this.size);
+    /**
+     * limit the cache by the weight of its items instead of their amount
+     *
+     * @param maxWeight maximum sum of the item weights, 0 to limit the amount of items by the size
+     */
+    public CacheBuilder maxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        return this;
+    }
+
+    /**
+     * @param weigher computes the weight of an item, by default its size in bytes
+     */
+    public CacheBuilder weigher(Weigher weigher) {
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * record the keys of all gets to a file, see {@link TracingCache}
+     *
+     * @param traceFile file the trace is appended to, null to disable it
+     */
+    public CacheBuilder trace(Path traceFile) {
+        this.traceFile = traceFile;
+        return this;
+    }
+
+    public KVCache build() throws IOException {
+        KVCache cache = this.maxWeight > 0
+                ? this.algorithm.buildCache(Integer.MAX_VALUE, this.maxWeight, this.weigher)
+                : this.algorithm.buildCache(this.size, 0, this.weigher);
+        if (this.traceFile != null) {
+            cache = new TracingCache(cache, this.traceFile);
+        }
+        return cache;
     }
 
 }
@@ -0,0 +1,57 @@
+package de.tum.i13.server.kv;
+
+/**
+ * CacheStats is a snapshot of the size of a {@link KVCache}.
+ */
+public final class CacheStats {
+
+    private final long entries;
+    private final long weight;
+    private final long maxWeight;
+    private final long evictions;
+
+    public CacheStats(long entries, long weight, long maxWeight, long evictions) {
+        this.entries = entries;
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @return amount of cached items
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return sum of the weights of the cached items
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return maximum weight of the cache, 0 if only the amount of items is limited
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return amount of items evicted to make space for others since the cache was created
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "entries=" + entries +
+                ", weight=" + weight +
+                ", maxWeight=" + maxWeight +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
@@ -65,6 +65,20 @@ public class ECSServer {
                 )
         );
 
+        ecsServer.handle(
+                "checkpoint",
+                new LogRequest(logger).next(
+                        new Checkpoint(kvServer)
+                )
+        );
+
+        ecsServer.handle(
+                "ingest",
+                new LogRequest(logger).next(
+                        new Ingest(kvServer)
+                )
+        );
+
         ecsServer.setDefaultHandler(new DefaultError());
     }
 
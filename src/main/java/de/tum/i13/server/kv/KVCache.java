@@ -4,7 +4,11 @@ import de.tum.i13.shared.KVItem;
 import java.util.Set;
 
 /**
- * KVCache provides a common interface for different caching mechanisms
+ * KVCache provides a common interface for different caching mechanisms.
+ *
+ * A cache is limited by the amount of items and optionally by the sum of the
+ * weights of its items, usually their size in bytes, see {@link Weigher}.
+ * Items heavier than the maximum weight are not cached at all.
  */
 public interface KVCache {
 
@@ -38,4 +42,9 @@ public interface KVCache {
      * @return set of partially key matched items
      */
     Set<KVItem> scan(String key);
+
+    /**
+     * @return the current size of the cache
+     */
+    CacheStats stats();
 }
\ No newline at end of file
@@ -5,15 +5,21 @@ import de.tum.i13.kvtp2.KVTP2Server;
 import de.tum.i13.kvtp2.Message;
 import de.tum.i13.kvtp2.MessageWriter;
 import de.tum.i13.kvtp2.middleware.LogRequest;
+import de.tum.i13.lsm.CompactionStrategy;
+import de.tum.i13.lsm.LSMFile;
+import de.tum.i13.lsm.LSMLog;
+import de.tum.i13.server.kv.caches.NegativeLookupCache;
 import de.tum.i13.server.kv.handlers.kv.*;
 import de.tum.i13.server.kv.pubsub.SubscriptionService;
 import de.tum.i13.server.kv.replication.Replicator;
-import de.tum.i13.server.kv.stores.LSMStore;
+import de.tum.i13.server.kv.stores.LSMStoreBuilder;
 import de.tum.i13.shared.*;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -30,6 +36,7 @@ public class KVServer {
     private final KVTP2Server kvtp2Server;
     private KVStore kvStore;
     private KVCache kvCache;
+    private NegativeLookupCache negativeCache;
     private Replicator replicator;
     private final Config config;
 
@@ -55,11 +62,27 @@ public class KVServer {
         this.config = cfg;
         kvtp2Server = new KVTP2Server();
 
-        kvStore = new LSMStore(cfg.dataDir);
+        kvStore = LSMStoreBuilder.newBuilder()
+                .dataDir(cfg.dataDir)
+                .bloomBitsPerKey(cfg.bloomBitsPerKey)
+                .compactionStrategy(CompactionStrategy.Type.valueOf(cfg.compactionStrategy))
+                .compactionRateLimit(cfg.compactionRate * 1024L * 1024L)
+                .readMode(LSMFile.ReadMode.valueOf(cfg.readMode))
+                .logSyncMode(LSMLog.SyncMode.valueOf(cfg.logSyncMode))
+                .memtableSize(cfg.memtableSize * 1024L)
+                .maxImmutableMemtables(cfg.maxImmutableMemtables)
+                .fileFormat(LSMFile.Format.valueOf(cfg.fileFormat))
+                .blockSize(cfg.blockSize * 1024)
+                .blockCacheSize(cfg.blockCacheSize * 1024L * 1024L)
+                .valueThreshold(cfg.valueThreshold)
+                .build();
         kvCache = CacheBuilder.newBuilder()
                 .size(cfg.cachesize)
                 .algorithm(CacheBuilder.Algorithm.valueOf(cfg.cachedisplacement))
+                .maxWeight(cfg.cacheMaxWeight)
+                .trace(cfg.cacheTrace)
                 .build();
+        negativeCache = new NegativeLookupCache(cfg.negativeCacheSize);
 
         this.replicator = new Replicator(
                 taskRunner,
@@ -87,7 +110,7 @@ public class KVServer {
         kvtp2Server.handle(
                 "health",
                 new LogRequest(logger).next(
-                    new Health(serverStoppedHandlerWrapper, serverWriteLockHandler)
+                    new Health(serverStoppedHandlerWrapper, serverWriteLockHandler, kvCache)
                 )
         );
 
@@ -112,7 +135,7 @@ public class KVServer {
                 new LogRequest(logger).next(
                 serverStoppedHandlerWrapper.next(
                 responsibilityHandler.next(
-                        new Get(kvCache, kvStore)
+                        new Get(kvCache, negativeCache, kvStore)
                 )))
         );
 
@@ -238,6 +261,8 @@ public class KVServer {
 
     public void setKeyRange(ConsistentHashMap keyRange) {
         this.keyRangeHandler.setKeyRange(keyRange);
+        // keys handed over by other servers may have been remembered as missing
+        this.negativeCache.clear();
         final ConsistentHashMap replicated = keyRange.getInstanceWithReplica();
         this.keyRangeReadHandler.setKeyRangeRead(replicated);
         this.subscriptionService.takeResponsibility(keyRange, this.address);
@@ -267,7 +292,32 @@ public class KVServer {
     }
 
     public String put(KVItem kvItem, boolean ensureCache) throws IOException {
-        final String res = kvStore.put(kvItem);
+        return put(kvItem, ensureCache, config.blindWrites);
+    }
+
+    /**
+     * store an item
+     *
+     * @param kvItem the item
+     * @param ensureCache add the item to the cache even if the key isn't cached yet
+     * @param blind skip the lookup of the previous version in the store. Whether
+     *              the put was an update is then only estimated from the cache,
+     *              the memtables and the bloom filters and may be a false positive.
+     *
+     * @return "success" if a new item was added, "update" if an item was updated
+     *
+     * @throws IOException if the item can't be stored
+     */
+    public String put(KVItem kvItem, boolean ensureCache, boolean blind) throws IOException {
+        final String res;
+        if (blind) {
+            boolean present = kvCache.get(kvItem.getKey()) != null || kvStore.mightContain(kvItem.getKey());
+            kvStore.putBlind(kvItem);
+            res = present ? "update" : "success";
+        } else {
+            res = kvStore.put(kvItem);
+        }
+        negativeCache.invalidate(kvItem.getKey());
         if (ensureCache || kvCache.get(kvItem.getKey()) != null) {
             kvCache.put(kvItem);
         }
@@ -275,13 +325,28 @@ public class KVServer {
     }
 
     public boolean delete(String key) throws IOException {
-        if (kvStore.get(key) != null) {
-            KVItem kvItem = new KVItem(key, Constants.DELETE_MARKER);
-            kvStore.put(kvItem);
-            kvCache.delete(kvItem.getKey());
-            return true;
+        return delete(key, config.blindWrites);
+    }
+
+    /**
+     * delete an item
+     *
+     * @param key key of the item
+     * @param blind only check the cache, the memtables and the bloom filters
+     *              whether the item exists instead of reading it from the store
+     *
+     * @return false if the item didn't exist
+     *
+     * @throws IOException if the deletion can't be stored
+     */
+    public boolean delete(String key, boolean blind) throws IOException {
+        if (kvCache.get(key) == null && (blind ? !kvStore.mightContain(key) : kvStore.get(key) == null)) {
+            return false;
         }
-        return false;
+        kvStore.delete(key);
+        negativeCache.invalidate(key);
+        kvCache.delete(key);
+        return true;
     }
 
     public void start() throws IOException {
@@ -307,12 +372,54 @@ public class KVServer {
             logger.info("shutdown announcement response: " + send.toString());
         });
         taskRunner.shutdown();
+        if (kvCache instanceof Closeable) {
+            ((Closeable) kvCache).close();
+        }
     }
 
     public KVItem getItem(String key) throws IOException {
         return kvStore.get(key);
     }
 
+    /**
+     * take a consistent snapshot of the store, e.g. to hand off a key range
+     *
+     * @return the snapshot, which has to be closed after reading
+     *
+     * @throws IOException if the snapshot can't be taken
+     */
+    public KVStore.Snapshot snapshot() throws IOException {
+        return kvStore.snapshot();
+    }
+
+    /**
+     * write a consistent copy of the store into a new directory, e.g. as a
+     * backup or to bootstrap a new server
+     *
+     * @param targetDir directory of the copy, must not exist yet
+     *
+     * @throws IOException if the copy can't be written
+     */
+    public void checkpoint(Path targetDir) throws IOException {
+        kvStore.checkpoint(targetDir);
+    }
+
+    /**
+     * bulk load a sorted file of items into the store, see {@link KVStore#ingest(Path)}
+     *
+     * @param fileDir directory of the file
+     *
+     * @throws IOException if the file can't be ingested
+     */
+    public void ingest(Path fileDir) throws IOException {
+        kvStore.ingest(fileDir);
+        negativeCache.clear();
+        // the cache may hold older versions of ingested keys
+        for (KVItem cached : kvCache.scan("")) {
+            kvCache.delete(cached.getKey());
+        }
+    }
+
     public void setLocked(boolean locked) {
         this.serverWriteLockHandler.setLocked(locked);
     }
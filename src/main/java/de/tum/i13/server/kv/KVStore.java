@@ -2,7 +2,10 @@ package de.tum.i13.server.kv;
 
 import de.tum.i13.shared.KVItem;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -12,6 +15,61 @@ import java.util.function.Predicate;
  */
 public interface KVStore {
 
+    /**
+     * a consistent, read only view of the store at the time it was taken.
+     * Reads are repeatable, writes to the store after the snapshot was taken
+     * are not visible. A snapshot has to be closed once it's done reading.
+     */
+    interface Snapshot extends Closeable {
+
+        /**
+         * get a value as it was when the snapshot was taken.
+         *
+         * @param key key of the requested item
+         *
+         * @return the requested item or null if no such item was present
+         *
+         * @throws IOException if some error occurs on IO
+         */
+        KVItem get(String key) throws IOException;
+
+        /**
+         * get the keys of all items matching a predicate. The keys of deleted
+         * items may be included.
+         *
+         * @param predicate predicate on the keys
+         *
+         * @return the matching keys
+         *
+         * @throws IOException if some error occurs on IO
+         */
+        Set<String> getAllKeys(Predicate<String> predicate) throws IOException;
+
+        /**
+         * get all items whose keys match a predicate in ascending key order.
+         *
+         * @param predicate predicate on the keys
+         *
+         * @return the matching items
+         *
+         * @throws IOException if some error occurs on IO
+         */
+        List<KVItem> getAll(Predicate<String> predicate) throws IOException;
+
+        /**
+         * get all items of a key range in ascending key order.
+         *
+         * @param from first key of the range (inclusive)
+         * @param to end of the range (exclusive), null for no upper bound
+         * @param limit maximum amount of items to return, 0 or less for no limit
+         *
+         * @return the items of the range
+         *
+         * @throws IOException if some error occurs on IO
+         */
+        List<KVItem> rangeScan(String from, String to, int limit) throws IOException;
+    }
+
     /**
      * put stores a new or updated KVItem in the persistent storage.
      *
@@ -23,6 +81,28 @@ public interface KVStore {
      */
     String put(KVItem item) throws IOException;
 
+    /**
+     * putBlind stores a new or updated KVItem without checking whether the key
+     * existed before.
+     *
+     * @param item item to store or update
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    void putBlind(KVItem item) throws IOException;
+
+    /**
+     * cheaply check whether an item might be present, without reading it from
+     * the persistent storage. The answer may be a false positive.
+     *
+     * @param key key of the item
+     *
+     * @return false if the item is certainly not present
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    boolean mightContain(String key) throws IOException;
+
     /**
      * get a value from a persistent storage.
      *
@@ -34,6 +114,25 @@ public interface KVStore {
      */
     KVItem get(String key) throws IOException;
 
+    /**
+     * delete an item from a persistent storage. The item doesn't have to exist.
+     *
+     * @param key key of the item to delete
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * delete all items of a key range.
+     *
+     * @param from first key of the range (inclusive)
+     * @param to end of the range (exclusive), null for no upper bound
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    void deleteRange(String from, String to) throws IOException;
+
     Set<String> getAllKeys(Predicate<String> predicate) throws IOException;
 
     /**
@@ -46,4 +145,59 @@ public interface KVStore {
      * @throws IOException if some error occurs on IO
      */
     Set<KVItem> scan(String key) throws IOException;
+
+    /**
+     * get all items of a key range in ascending key order.
+     *
+     * @param from first key of the range (inclusive)
+     * @param to end of the range (exclusive), null for no upper bound
+     * @param limit maximum amount of items to return, 0 or less for no limit
+     *
+     * @return the items of the range
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    List<KVItem> rangeScan(String from, String to, int limit) throws IOException;
+
+    /**
+     * get all items whose keys start with a prefix in ascending key order.
+     *
+     * @param prefix prefix of the keys
+     * @param limit maximum amount of items to return, 0 or less for no limit
+     *
+     * @return the matching items
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    List<KVItem> prefixScan(String prefix, int limit) throws IOException;
+
+    /**
+     * take a snapshot of the store. Taking a snapshot is cheap and doesn't
+     * block writers.
+     *
+     * @return the snapshot, which has to be closed after reading
+     *
+     * @throws IOException if some error occurs on IO
+     */
+    Snapshot snapshot() throws IOException;
+
+    /**
+     * write a consistent copy of the store into a new directory, which can be
+     * used as the data directory of another server.
+     *
+     * @param targetDir directory of the copy, must not exist yet
+     *
+     * @throws IOException if the copy can't be written
+     */
+    void checkpoint(Path targetDir) throws IOException;
+
+    /**
+     * bulk load a sorted file of items built outside of the store. The items
+     * replace all versions written before the ingestion.
+     *
+     * @param fileDir directory of the file
+     *
+     * @throws IOException if the file can't be read or added to the store
+     */
+    void ingest(Path fileDir) throws IOException;
 }
@@ -0,0 +1,45 @@
+package de.tum.i13.server.kv;
+
+import de.tum.i13.shared.KVItem;
+
+/**
+ * Weigher computes the weight of a cached item, which is counted against the
+ * maximum weight of a {@link KVCache}.
+ */
+@FunctionalInterface
+public interface Weigher {
+
+    /**
+     * weighs an item by the UTF-8 encoded size of its key and value in bytes
+     */
+    Weigher ITEM_BYTES = item -> utf8Length(item.getKey()) + utf8Length(item.getValue());
+
+    /**
+     * @param item the item to weigh
+     *
+     * @return weight of the item, not negative
+     */
+    int weigh(KVItem item);
+
+    /**
+     * @param s a String or null
+     *
+     * @return length of the String encoded as UTF-8, without encoding it
+     */
+    static int utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // three bytes, or four for a surrogate pair of two chars
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,87 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheBuilder;
+import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.shared.KVItem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CacheSimulator replays a trace of get keys, as recorded by a
+ * {@link TracingCache}, against every cache algorithm and prints the hit
+ * ratios. Like the get handler of the server, every miss is followed by a
+ * put of the item.
+ *
+ * Usage: CacheSimulator traceFile size...
+ */
+public class CacheSimulator {
+
+    private CacheSimulator() {
+    }
+
+    /**
+     * @param algorithm cache algorithm to simulate
+     * @param size size of the cache
+     * @param trace keys of the gets in order
+     *
+     * @return share of the gets which were hits
+     */
+    public static double hitRatio(CacheBuilder.Algorithm algorithm, int size, List<String> trace) {
+        KVCache cache = algorithm.buildCache(size);
+        long hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(new KVItem(key, ""));
+            }
+        }
+        return trace.isEmpty() ? 0 : (double) hits / trace.size();
+    }
+
+    /**
+     * @param traceFile trace recorded by a {@link TracingCache}
+     *
+     * @return keys of the gets in order
+     */
+    public static List<String> readTrace(Path traceFile) throws IOException {
+        return Files.readAllLines(traceFile, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: CacheSimulator traceFile size...");
+            System.exit(-1);
+        }
+        // some caches log every access
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        List<String> trace = readTrace(Paths.get(args[0]));
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            sizes.add(Integer.parseInt(args[i]));
+        }
+
+        System.out.println(trace.size() + " gets of " + trace.stream().distinct().count() + " keys");
+        System.out.printf("%-12s", "size");
+        for (int size : sizes) {
+            System.out.printf("%10d", size);
+        }
+        System.out.println();
+        for (CacheBuilder.Algorithm algorithm : CacheBuilder.Algorithm.values()) {
+            System.out.printf("%-12s", algorithm);
+            for (int size : sizes) {
+                System.out.printf("%9.2f%%", 100 * hitRatio(algorithm, size, trace));
+            }
+            System.out.println();
+        }
+    }
+}
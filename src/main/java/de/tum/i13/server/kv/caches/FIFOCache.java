@@ -1,6 +1,8 @@
 package de.tum.i13.server.kv.caches;
 
+import de.tum.i13.server.kv.CacheStats;
 import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
 import de.tum.i13.shared.KVItem;
 
 import java.util.*;
@@ -13,6 +15,10 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class FIFOCache implements KVCache {
 
     private final int size;
+    private final long maxWeight;
+    private final Weigher weigher;
+    private long weight;
+    private long evictions;
 
     private final ReadWriteLock rwl = new ReentrantReadWriteLock();
 
@@ -20,7 +26,18 @@ public class FIFOCache implements KVCache {
     private final Queue<String> fifo;
 
     public FIFOCache(int size) {
+        this(size, 0, Weigher.ITEM_BYTES);
+    }
+
+    /**
+     * @param size maximum amount of items, 0 for no limit
+     * @param maxWeight maximum sum of the item weights, 0 for no limit
+     * @param weigher computes the weight of an item
+     */
+    public FIFOCache(int size, long maxWeight, Weigher weigher) {
         this.size = size;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
         this.cache = new HashMap<>();
         this.fifo = new LinkedList<>();
     }
@@ -56,17 +73,26 @@ public class FIFOCache implements KVCache {
             rwl.writeLock().lock();
 
             String key = item.getKey();
-            if (cache.containsKey(key)) {
-                cache.put(key, item);
+            int itemWeight = weigher.weigh(item);
+            if (maxWeight > 0 && itemWeight > maxWeight) {
+                // never fits, drop an older version instead of keeping it stale
+                remove(key);
                 return;
             }
 
-            if (fifo.size() >= size && size > 0) {
+            KVItem previous = cache.put(key, item);
+            if (previous != null) {
+                weight += itemWeight - weigher.weigh(previous);
+            } else {
+                fifo.add(key);
+                weight += itemWeight;
+            }
+
+            while ((fifo.size() > size && size > 0) || (maxWeight > 0 && weight > maxWeight)) {
                 String removed = fifo.remove();
-                cache.remove(removed);
+                weight -= weigher.weigh(cache.remove(removed));
+                evictions++;
             }
-            cache.put(key, item);
-            fifo.add(key);
         } finally {
             rwl.writeLock().unlock();
         }
@@ -81,13 +107,20 @@ public class FIFOCache implements KVCache {
     public void delete(String key) {
         try {
             rwl.writeLock().lock();
-            cache.remove(key);
-            fifo.remove(key);
+            remove(key);
         } finally {
             rwl.writeLock().unlock();
         }
     }
 
+    private void remove(String key) {
+        KVItem removed = cache.remove(key);
+        if (removed != null) {
+            fifo.remove(key);
+            weight -= weigher.weigh(removed);
+        }
+    }
+
     /**
      * Get a partial key matching item set form a cache
      *
@@ -109,4 +142,14 @@ public class FIFOCache implements KVCache {
             rwl.readLock().unlock();
         }
     }
+
+    @Override
+    public CacheStats stats() {
+        try {
+            rwl.readLock().lock();
+            return new CacheStats(cache.size(), weight, maxWeight, evictions);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
 }
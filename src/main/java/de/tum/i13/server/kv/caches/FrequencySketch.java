@@ -0,0 +1,118 @@
+package de.tum.i13.server.kv.caches;
+
+/**
+ * FrequencySketch estimates how often keys were accessed recently. It is a
+ * count-min sketch with four rows of 4 bit counters, sixteen of which are
+ * packed into a long, so it needs about 8 bytes per cached item.
+ *
+ * The estimate of a key is the minimum of its four counters and never lower
+ * than the true count. The counters saturate at 15. After ten accesses per
+ * cached item all counters are halved, so old frequencies fade and keys
+ * which were popular long ago can be replaced by new ones.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * @param capacity amount of items the frequencies are tracked for
+     */
+    FrequencySketch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * grow the sketch if it is too small for the given amount of items. This
+     * clears all counters.
+     *
+     * @param capacity amount of items the frequencies are tracked for
+     */
+    void ensureCapacity(int capacity) {
+        int maximum = Math.max(1, Math.min(capacity, 1 << 30));
+        int length = Math.max(8, Integer.highestOneBit(maximum - 1) << 1);
+        if (table != null && table.length >= length) {
+            return;
+        }
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = maximum <= Integer.MAX_VALUE / 10 ? 10 * maximum : Integer.MAX_VALUE;
+        this.size = 0;
+    }
+
+    /**
+     * @param key key of the item
+     *
+     * @return estimated accesses of the key, 0 to 15
+     */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * count an access of the key and halve all counters once enough accesses
+     * were counted
+     *
+     * @param key key of the item
+     */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    // increment the j-th counter of the long at index unless it is saturated
+    private boolean incrementAt(int index, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    // halve all counters, dropping the odd ones from the sample size
+    void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
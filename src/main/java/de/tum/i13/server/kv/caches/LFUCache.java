@@ -1,12 +1,15 @@
 package de.tum.i13.server.kv.caches;
 
+import de.tum.i13.server.kv.CacheStats;
 import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
 import de.tum.i13.shared.KVItem;
 import de.tum.i13.shared.Log;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -21,6 +24,10 @@ public class LFUCache implements KVCache {
     private final int size;
     private int currentNoOfElements;
     private int minFrequency = 0;
+    private final long maxWeight;
+    private final Weigher weigher;
+    private long weight;
+    private long evictions;
     private final HashMap <String,KVItem> cache;
     private final HashMap <String, Integer> frequency;
     private final HashMap <Integer, LinkedHashSet<String>> frequencyLists;
@@ -31,7 +38,18 @@ public class LFUCache implements KVCache {
     private final Log logger = new Log(LFUCache.class);
 
     public LFUCache (int size) {
+        this(size, 0, Weigher.ITEM_BYTES);
+    }
+
+    /**
+     * @param size maximum amount of items
+     * @param maxWeight maximum sum of the item weights, 0 for no limit
+     * @param weigher computes the weight of an item
+     */
+    public LFUCache (int size, long maxWeight, Weigher weigher) {
         this.size = size;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
         this.currentNoOfElements = 0;
         this.cache = new HashMap<>();
         this.frequency = new HashMap<>();
@@ -48,7 +66,8 @@ public class LFUCache implements KVCache {
     public KVItem get(String key) {
 
         try {
-            rwl.readLock().lock();
+            // a hit changes the replacement order, so it needs the write lock
+            rwl.writeLock().lock();
 
             if (this.cache.containsKey(key)){
                 increaseFrequency(key);
@@ -56,7 +75,7 @@ public class LFUCache implements KVCache {
                 return this.cache.get(key);
             }
         }finally {
-            rwl.readLock().unlock();
+            rwl.writeLock().unlock();
         }
         logger.info("Requested item is not found in the cache");
         return null;
@@ -75,25 +94,30 @@ public class LFUCache implements KVCache {
             rwl.writeLock().lock();
 
             String key = item.getKey();
+            int itemWeight = this.weigher.weigh(item);
+            if (this.maxWeight > 0 && itemWeight > this.maxWeight) {
+                // never fits, drop an older version instead of keeping it stale
+                remove(key);
+                return;
+            }
             if (this.cache.containsKey(key)){
                 increaseFrequency(key);
-                this.cache.replace(key,item);
+                this.weight += itemWeight - this.weigher.weigh(this.cache.replace(key,item));
+                // a heavier version may push out other items, but not itself
+                while (this.maxWeight > 0 && this.weight > this.maxWeight && evictLeastFrequent(key)) {
+                    this.evictions ++;
+                }
             }else{
-                if (this.currentNoOfElements < this.size){
-                    this.currentNoOfElements ++;
-                    increaseFrequency(key);
-                    this.cache.put(key,item);
-                }else {
-                    LinkedHashSet<String> keyList = this.frequencyLists.get(this.minFrequency);
-                    if ( keyList != null && keyList.iterator().hasNext()) {
-                        String replaceKey = this.frequencyLists.get(this.minFrequency).iterator().next();
-                        this.frequencyLists.get(this.minFrequency).remove(replaceKey);
-                        this.frequency.remove(replaceKey);
-                        this.cache.remove(replaceKey);
-                        increaseFrequency(item.getKey());
-                        this.cache.put(key, item);
-                    }
+                // evict before adding the new item, which has the lowest frequency
+                while ((this.currentNoOfElements >= this.size
+                        || (this.maxWeight > 0 && this.weight + itemWeight > this.maxWeight))
+                        && evictLeastFrequent(null)) {
+                    this.evictions ++;
                 }
+                this.currentNoOfElements ++;
+                increaseFrequency(key);
+                this.cache.put(key,item);
+                this.weight += itemWeight;
             }
             logger.info("new KVItem added to the cache");
         }finally {
@@ -130,6 +154,56 @@ public class LFUCache implements KVCache {
         this.frequencyLists.get(currentFrequency+1).add(key);
     }
 
+    /**
+     * evictLeastFrequent removes the least recently used item of the lowest frequency
+     * @param keep : key which must not be evicted, or null
+     * @return : true if an item was evicted
+     */
+    private boolean evictLeastFrequent(String keep) {
+        String replaceKey = firstKey(this.frequencyLists.get(this.minFrequency), keep);
+        if (replaceKey == null) {
+            // the minimum is not tracked exactly after deletes, search it
+            int lowest = Integer.MAX_VALUE;
+            for (Map.Entry<Integer, LinkedHashSet<String>> entry : this.frequencyLists.entrySet()) {
+                String candidate = entry.getKey() < lowest ? firstKey(entry.getValue(), keep) : null;
+                if (candidate != null) {
+                    lowest = entry.getKey();
+                    replaceKey = candidate;
+                }
+            }
+            if (replaceKey == null) {
+                return false;
+            }
+            if (keep == null) {
+                this.minFrequency = lowest;
+            }
+        }
+        remove(replaceKey);
+        return true;
+    }
+
+    private static String firstKey(LinkedHashSet<String> keyList, String keep) {
+        if (keyList != null) {
+            for (String key : keyList) {
+                if (!key.equals(keep)) {
+                    return key;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean remove(String key) {
+        KVItem removed = this.cache.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        this.currentNoOfElements --;
+        this.frequencyLists.get(this.frequency.remove(key)).remove(key);
+        this.weight -= this.weigher.weigh(removed);
+        return true;
+    }
+
     /**
      * delete method deletes given item from the cache
      * @param key : KVItem object that need to delete from the cache
@@ -139,11 +213,7 @@ public class LFUCache implements KVCache {
         try {
             rwl.writeLock().lock();
 
-            if (this.cache.containsKey(key)){
-                this.currentNoOfElements --;
-                this.frequencyLists.get(this.frequency.get(key)).remove(key);
-                this.frequency.remove(key);
-                this.cache.remove(key);
+            if (remove(key)){
                 logger.info("KVItem is deleted from the cache");
             }
 
@@ -173,4 +243,14 @@ public class LFUCache implements KVCache {
             rwl.readLock().unlock();
         }
     }
+
+    @Override
+    public CacheStats stats() {
+        try {
+            rwl.readLock().lock();
+            return new CacheStats(this.currentNoOfElements, this.weight, this.maxWeight, this.evictions);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package de.tum.i13.server.kv.caches;
 
+import de.tum.i13.server.kv.CacheStats;
 import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
 import de.tum.i13.shared.KVItem;
 import de.tum.i13.shared.Log;
 
@@ -19,6 +21,10 @@ public class LRUCache implements KVCache {
 
     private final int size;
     private int currentNoOfElements;
+    private final long maxWeight;
+    private final Weigher weigher;
+    private long weight;
+    private long evictions;
     private final HashMap<String,KVItem> cache;
     private final LinkedList <String> lru;
 
@@ -27,7 +33,18 @@ public class LRUCache implements KVCache {
     private final Log logger = new Log(LRUCache.class);
 
     public LRUCache(int size){
+        this(size, 0, Weigher.ITEM_BYTES);
+    }
+
+    /**
+     * @param size maximum amount of items
+     * @param maxWeight maximum sum of the item weights, 0 for no limit
+     * @param weigher computes the weight of an item
+     */
+    public LRUCache(int size, long maxWeight, Weigher weigher){
         this.size = size;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
         this.currentNoOfElements = 0;
         this.cache= new HashMap<>();
         this.lru = new LinkedList<>();
@@ -42,7 +59,8 @@ public class LRUCache implements KVCache {
     @Override
     public KVItem get(String key) {
         try {
-            rwl.readLock().lock();
+            // a hit changes the replacement order, so it needs the write lock
+            rwl.writeLock().lock();
 
             if(this.cache.containsKey(key)) {
                 this.lru.remove(key);
@@ -51,7 +69,7 @@ public class LRUCache implements KVCache {
                 return this.cache.get(key);
             }
         }finally {
-            rwl.readLock().unlock();
+            rwl.writeLock().unlock();
         }
         logger.info("Requested item is not found in the cache");
         return null;
@@ -70,19 +88,27 @@ public class LRUCache implements KVCache {
             rwl.writeLock().lock();
 
             String key = item.getKey();
+            int itemWeight = this.weigher.weigh(item);
+            if (this.maxWeight > 0 && itemWeight > this.maxWeight) {
+                // never fits, drop an older version instead of keeping it stale
+                remove(key);
+                return;
+            }
             if (this.cache.containsKey(key)){
                 this.lru.remove(key);
                 this.lru.addFirst(key);
-                this.cache.replace(key,item);
+                this.weight += itemWeight - this.weigher.weigh(this.cache.replace(key,item));
             }else{
-                if (this.currentNoOfElements < this.size){
-                    this.currentNoOfElements ++;
-                }else {
-                    String replaceKey =  this.lru.removeLast();
-                    this.cache.remove(replaceKey);
-                }
+                this.currentNoOfElements ++;
                 this.lru.addFirst(key);
                 this.cache.put(key,item);
+                this.weight += itemWeight;
+            }
+            while (this.currentNoOfElements > this.size || (this.maxWeight > 0 && this.weight > this.maxWeight)) {
+                String replaceKey = this.lru.removeLast();
+                this.weight -= this.weigher.weigh(this.cache.remove(replaceKey));
+                this.currentNoOfElements --;
+                this.evictions ++;
             }
             logger.info("new KVItem added to the cache");
         } finally {
@@ -99,10 +125,7 @@ public class LRUCache implements KVCache {
         try {
             rwl.writeLock().lock();
 
-            if (this.cache.containsKey(key)){
-                this.currentNoOfElements --;
-                this.lru.remove(key);
-                this.cache.remove(key);
+            if (remove(key)){
                 logger.info("KVItem is deleted from the cache");
             }
         }finally {
@@ -110,6 +133,17 @@ public class LRUCache implements KVCache {
         }
     }
 
+    private boolean remove(String key) {
+        KVItem removed = this.cache.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        this.currentNoOfElements --;
+        this.lru.remove(key);
+        this.weight -= this.weigher.weigh(removed);
+        return true;
+    }
+
     /**
      * Get a partial key matching item set form a cache
      *
@@ -131,4 +165,14 @@ public class LRUCache implements KVCache {
             rwl.readLock().unlock();
         }
     }
+
+    @Override
+    public CacheStats stats() {
+        try {
+            rwl.readLock().lock();
+            return new CacheStats(this.currentNoOfElements, this.weight, this.maxWeight, this.evictions);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
 }
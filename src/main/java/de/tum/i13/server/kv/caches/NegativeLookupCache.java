@@ -0,0 +1,121 @@
+package de.tum.i13.server.kv.caches;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * NegativeLookupCache remembers keys which were recently not found in the
+ * store, so repeated gets of absent keys are answered without searching the
+ * LSM files again. The oldest keys are dropped first when it is full.
+ *
+ * A put or delete of a key must invalidate it after the store was changed.
+ * A miss races with such a write: the lookup may have read the store before
+ * the write and add the key after it was invalidated. So a miss is added with
+ * a stamp taken before the lookup, and is discarded if a key of the same
+ * stripe was invalidated in between.
+ */
+public class NegativeLookupCache {
+
+    private static final int STRIPES = 64;
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Boolean> keys = new ConcurrentHashMap<>();
+    // insertion order, may still hold invalidated keys
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ordered = new AtomicInteger();
+    // invalidations per stripe of keys
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    /**
+     * @param capacity maximum amount of remembered keys, 0 disables the cache
+     */
+    public NegativeLookupCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * @param key key which is looked up next
+     *
+     * @return stamp to pass to {@link #add(String, long)} if the key is not found
+     */
+    public long stamp(String key) {
+        return invalidations.get(stripe(key));
+    }
+
+    /**
+     * remember that a key was not found
+     *
+     * @param key the key
+     * @param stamp stamp taken before the key was looked up
+     */
+    public void add(String key, long stamp) {
+        if (capacity == 0) {
+            return;
+        }
+        if (keys.putIfAbsent(key, Boolean.TRUE) == null) {
+            order.add(key);
+            ordered.incrementAndGet();
+        }
+        if (invalidations.get(stripe(key)) != stamp) {
+            // a write may have happened after the lookup
+            keys.remove(key);
+        }
+        // also bound the invalidated keys left in the queue
+        while (keys.size() > capacity || ordered.get() > 2 * capacity) {
+            String oldest = order.poll();
+            if (oldest == null) {
+                break;
+            }
+            ordered.decrementAndGet();
+            keys.remove(oldest);
+        }
+    }
+
+    /**
+     * @param key the key
+     *
+     * @return true if the key was not found recently and not written since
+     */
+    public boolean contains(String key) {
+        return capacity > 0 && keys.containsKey(key);
+    }
+
+    /**
+     * forget a key after it was written
+     *
+     * @param key the key
+     */
+    public void invalidate(String key) {
+        // count first, so a concurrent add either sees it or is removed below
+        invalidations.incrementAndGet(stripe(key));
+        keys.remove(key);
+    }
+
+    /**
+     * forget all keys, e.g. when the server becomes responsible for other keys
+     */
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+        keys.clear();
+        while (order.poll() != null) {
+            ordered.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return amount of remembered keys
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,407 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
+import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * OffHeapCache keeps the cached items outside of the Java heap, so a large
+ * cache neither grows the old generation nor makes the garbage collector
+ * trace and copy the values.
+ *
+ * The items are appended as records of key, value and timestamp to slabs of
+ * direct memory, which are used as a ring. An open addressing hash table of
+ * primitive arrays maps the 64 bit hash of a key to the slab and offset of
+ * its record. A get decodes a copy of the value.
+ *
+ * When the ring is full, the oldest slab is reclaimed for new records: the
+ * records in it which were read since they were written get a second chance
+ * and are moved to its start, all others are evicted. The slabs are
+ * allocated once and reused, so eviction creates no garbage.
+ *
+ * The cache is limited by the bytes of its records. Without a maximum weight
+ * the arena is sized for the given amount of items of 1 KB. Records larger
+ * than a slab are not cached. The weigher is not used, the weight of an item
+ * is the size of its record.
+ */
+public class OffHeapCache implements KVCache {
+
+    // key length, value length and timestamp
+    private static final int RECORD_HEADER = 2 * Integer.BYTES + Long.BYTES;
+    private static final long ITEM_SIZE = 1024;
+    // large enough for a key and value of maximum size
+    private static final int MIN_SLAB_SIZE = 256 * 1024;
+    private static final int MAX_SLAB_SIZE = 64 * 1024 * 1024;
+    private static final int SLAB_COUNT = 64;
+
+    private final Log logger = new Log(OffHeapCache.class);
+
+    private final ReadWriteLock rwl = new ReentrantReadWriteLock();
+
+    private final long capacity;
+    private final int slabSize;
+    private final ByteBuffer[] slabs;
+    private final int[] slabEnd;
+    // used to move records and read keys while reclaiming a slab
+    private final byte[] scratch;
+    private int head;
+    private int headOffset;
+
+    // hash table, a hash of 0 marks an empty slot
+    private long[] hashes;
+    private long[] locations;
+    private byte[] accessed;
+    private int mask;
+    private int entries;
+
+    private long weight;
+    private long evictions;
+
+    public OffHeapCache(int size) {
+        this(size, 0, Weigher.ITEM_BYTES);
+    }
+
+    /**
+     * @param size amount of items of 1 KB the arena is sized for if there is no maximum weight
+     * @param maxWeight size of the arena in bytes, 0 to size it by the amount of items
+     * @param weigher not used, records are weighed by their size
+     */
+    public OffHeapCache(int size, long maxWeight, Weigher weigher) {
+        this.capacity = maxWeight > 0 ? maxWeight : Math.max(0, size) * ITEM_SIZE;
+        long slab = Math.min(MAX_SLAB_SIZE, Math.max(MIN_SLAB_SIZE, capacity / SLAB_COUNT));
+        this.slabSize = (int) Math.min(slab, capacity);
+        int count = slabSize > 0 ? (int) ((capacity + slabSize - 1) / slabSize) : 0;
+        this.slabs = new ByteBuffer[count];
+        this.slabEnd = new int[count];
+        this.scratch = new byte[slabSize];
+        resize(16);
+        logger.info("Cache is initialized to off-heap cache of " + count + " slabs of " + slabSize + " bytes");
+    }
+
+    /**
+     * get method used to get a KVItem from a cache
+     * @param key : key of the required item
+     * @return : KVItem object of requested key or null
+     */
+    @Override
+    public KVItem get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            rwl.readLock().lock();
+
+            int slot = find(keyBytes, hash(keyBytes, 0, keyBytes.length));
+            if (slot < 0) {
+                return null;
+            }
+            // only a hint for reclaiming, a lost or late update does no harm
+            accessed[slot] = 1;
+
+            ByteBuffer view = slabs[slabOf(locations[slot])].duplicate();
+            view.position(offsetOf(locations[slot]));
+            int keyLength = view.getInt();
+            byte[] value = new byte[view.getInt()];
+            long timestamp = view.getLong();
+            view.position(view.position() + keyLength);
+            view.get(value);
+            return new KVItem(key, new String(value, StandardCharsets.UTF_8), timestamp);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    /**
+     * put method update the cache
+     * @param item : KVItem that need to put to the cache
+     */
+    @Override
+    public void put(KVItem item) {
+        byte[] keyBytes = item.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = item.getValue() != null ? item.getValue().getBytes(StandardCharsets.UTF_8) : null;
+        int length = RECORD_HEADER + keyBytes.length + (value != null ? value.length : 0);
+        long hash = hash(keyBytes, 0, keyBytes.length);
+        try {
+            rwl.writeLock().lock();
+
+            int slot = find(keyBytes, hash);
+            if (slot >= 0) {
+                weight -= recordLength(locations[slot]);
+                deleteSlot(slot);
+            }
+            if (value == null || length > slabSize) {
+                // deleted items and records larger than a slab are not cached
+                return;
+            }
+
+            if (slabs[head] == null) {
+                slabs[head] = ByteBuffer.allocateDirect(slabSize);
+            }
+            while (slabSize - headOffset < length) {
+                advance();
+            }
+            ByteBuffer view = slabs[head].duplicate();
+            view.position(headOffset);
+            view.putInt(keyBytes.length);
+            view.putInt(value.length);
+            view.putLong(item.getTimestamp());
+            view.put(keyBytes);
+            view.put(value);
+            insert(hash, location(head, headOffset));
+            headOffset += length;
+            weight += length;
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * delete method deletes given item from the cache
+     * @param key : key of the item that need to delete from the cache
+     */
+    @Override
+    public void delete(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            rwl.writeLock().lock();
+
+            int slot = find(keyBytes, hash(keyBytes, 0, keyBytes.length));
+            if (slot >= 0) {
+                // the record stays in its slab until the slab is reclaimed
+                weight -= recordLength(locations[slot]);
+                deleteSlot(slot);
+            }
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get a partial key matching item set form a cache
+     *
+     * @param key : partial key
+     * @return : set of partially key matched items
+     */
+    @Override
+    public Set<KVItem> scan(String key) {
+        Set<KVItem> matchingList = new HashSet<>();
+        try {
+            rwl.readLock().lock();
+            for (int slot = 0; slot < hashes.length; slot++) {
+                if (hashes[slot] == 0) {
+                    continue;
+                }
+                ByteBuffer view = slabs[slabOf(locations[slot])].duplicate();
+                view.position(offsetOf(locations[slot]));
+                byte[] k = new byte[view.getInt()];
+                byte[] value = new byte[view.getInt()];
+                long timestamp = view.getLong();
+                view.get(k);
+                String itemKey = new String(k, StandardCharsets.UTF_8);
+                if (itemKey.contains(key)) {
+                    view.get(value);
+                    matchingList.add(new KVItem(itemKey, new String(value, StandardCharsets.UTF_8), timestamp));
+                }
+            }
+            return matchingList;
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CacheStats stats() {
+        try {
+            rwl.readLock().lock();
+            return new CacheStats(entries, weight, capacity, evictions);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    // continue writing in the next slab of the ring, reclaiming it if it is in use
+    private void advance() {
+        slabEnd[head] = headOffset;
+        head = (head + 1) % slabs.length;
+        if (slabs[head] == null) {
+            slabs[head] = ByteBuffer.allocateDirect(slabSize);
+            headOffset = 0;
+        } else {
+            headOffset = reclaim(head);
+        }
+    }
+
+    /**
+     * evict the records of a slab which were not read since they were
+     * written or last moved, and move the others to the start of the slab
+     *
+     * @return end of the moved records
+     */
+    private int reclaim(int slab) {
+        ByteBuffer view = slabs[slab].duplicate();
+        int end = slabEnd[slab];
+        int offset = 0;
+        int kept = 0;
+        while (offset < end) {
+            view.position(offset);
+            int keyLength = view.getInt();
+            int length = RECORD_HEADER + keyLength + view.getInt();
+            view.position(offset + RECORD_HEADER);
+            view.get(scratch, 0, keyLength);
+            int slot = findLocation(hash(scratch, 0, keyLength), location(slab, offset));
+            if (slot >= 0 && accessed[slot] != 0) {
+                if (kept != offset) {
+                    view.position(offset);
+                    view.get(scratch, 0, length);
+                    view.position(kept);
+                    view.put(scratch, 0, length);
+                    locations[slot] = location(slab, kept);
+                }
+                accessed[slot] = 0;
+                kept += length;
+            } else if (slot >= 0) {
+                weight -= length;
+                evictions++;
+                deleteSlot(slot);
+            }
+            offset += length;
+        }
+        slabEnd[slab] = kept;
+        return kept;
+    }
+
+    private int recordLength(long location) {
+        ByteBuffer slab = slabs[slabOf(location)];
+        int offset = offsetOf(location);
+        return RECORD_HEADER + slab.getInt(offset) + slab.getInt(offset + Integer.BYTES);
+    }
+
+    // slot of the key or -1
+    private int find(byte[] key, long hash) {
+        for (int slot = (int) hash & mask; hashes[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && keyEquals(locations[slot], key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // slot of the record at the location or -1 if the record is dead
+    private int findLocation(long hash, long location) {
+        for (int slot = (int) hash & mask; hashes[slot] != 0; slot = (slot + 1) & mask) {
+            if (locations[slot] == location) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(long location, byte[] key) {
+        ByteBuffer slab = slabs[slabOf(location)];
+        int offset = offsetOf(location);
+        if (slab.getInt(offset) != key.length) {
+            return false;
+        }
+        offset += RECORD_HEADER;
+        for (int i = 0; i < key.length; i++) {
+            if (slab.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(long hash, long location) {
+        if (2 * (entries + 1) > hashes.length) {
+            resize(2 * hashes.length);
+        }
+        int slot = (int) hash & mask;
+        while (hashes[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        locations[slot] = location;
+        accessed[slot] = 0;
+        entries++;
+    }
+
+    // remove the entry and shift the following entries of its probe sequence back
+    private void deleteSlot(int slot) {
+        int free = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (hashes[next] == 0) {
+                break;
+            }
+            int home = (int) hashes[next] & mask;
+            // the entry may move to the free slot if that is not before its home slot
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                hashes[free] = hashes[next];
+                locations[free] = locations[next];
+                accessed[free] = accessed[next];
+                free = next;
+            }
+        }
+        hashes[free] = 0;
+        locations[free] = 0;
+        accessed[free] = 0;
+        entries--;
+    }
+
+    private void resize(int length) {
+        long[] oldHashes = hashes;
+        long[] oldLocations = locations;
+        byte[] oldAccessed = accessed;
+        hashes = new long[length];
+        locations = new long[length];
+        accessed = new byte[length];
+        mask = length - 1;
+        if (oldHashes == null) {
+            return;
+        }
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                int slot = (int) oldHashes[i] & mask;
+                while (hashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                locations[slot] = oldLocations[i];
+                accessed[slot] = oldAccessed[i];
+            }
+        }
+    }
+
+    private static long location(int slab, int offset) {
+        return ((long) slab << 32) | offset;
+    }
+
+    private static int slabOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    // 64 bit FNV-1a with a final mix, never 0
+    private static long hash(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+}
@@ -0,0 +1,324 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
+import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * StripedLRUCache is an LRU cache for many concurrent readers. The keys are
+ * spread over stripes by their hash, each stripe evicts its least recently
+ * used item on its own and there is no lock shared by all stripes.
+ *
+ * A get only reads a ConcurrentHashMap and records the hit in a small lossy
+ * ring buffer of its stripe, without taking a lock. The recorded hits are
+ * replayed on the recency list of the stripe in batches, by the reader which
+ * fills the buffer if the stripe lock is free, or else by the next write.
+ * Moving a hit item to the front of the intrusive list is O(1). Hits that
+ * arrive while the buffer is full are dropped, so the order is an
+ * approximation of LRU under heavy load.
+ *
+ * The amount of items and the maximum weight are split evenly between the
+ * stripes.
+ */
+public class StripedLRUCache implements KVCache {
+
+    private static final int MAX_STRIPES = 16;
+    // fewer items per stripe make the eviction order less like LRU
+    private static final int MIN_STRIPE_SIZE = 16;
+    // recorded hits per stripe, a power of two
+    private static final int BUFFER_SIZE = 32;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    private final Log logger = new Log(StripedLRUCache.class);
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long maxWeight;
+
+    public StripedLRUCache(int size) {
+        this(size, 0, Weigher.ITEM_BYTES);
+    }
+
+    /**
+     * @param size maximum amount of items
+     * @param maxWeight maximum sum of the item weights, 0 for no limit
+     * @param weigher computes the weight of an item
+     */
+    public StripedLRUCache(int size, long maxWeight, Weigher weigher) {
+        // a power of two to pick stripes by mask
+        int count = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, size / MIN_STRIPE_SIZE)));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            int capacity = Math.max(0, size / count + (i < size % count ? 1 : 0));
+            long stripeWeight = maxWeight > 0 ? Math.max(1, maxWeight / count + (i < maxWeight % count ? 1 : 0)) : 0;
+            this.stripes[i] = new Stripe(capacity, stripeWeight, weigher);
+        }
+        this.stripeMask = count - 1;
+        this.maxWeight = maxWeight;
+        logger.info("Cache is initialized to striped LRU cache with " + count + " stripes");
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        // spread the high bits, ConcurrentHashMap uses the low ones
+        h ^= (h >>> 16) ^ (h >>> 8);
+        return stripes[h & stripeMask];
+    }
+
+    /**
+     * get method used to get a KVItem from a cache
+     * @param key : key of the required item
+     * @return : KVItem object of requested key or null
+     */
+    @Override
+    public KVItem get(String key) {
+        Stripe stripe = stripe(key);
+        Node node = stripe.map.get(key);
+        if (node == null) {
+            return null;
+        }
+        stripe.recordHit(node);
+        return node.item;
+    }
+
+    /**
+     * put method update the cache
+     * @param item : KVItem that need to put to the cache
+     */
+    @Override
+    public void put(KVItem item) {
+        stripe(item.getKey()).put(item);
+    }
+
+    /**
+     * delete method deletes given item from the cache
+     * @param key : key of the item that need to delete from the cache
+     */
+    @Override
+    public void delete(String key) {
+        stripe(key).delete(key);
+    }
+
+    /**
+     * Get a partial key matching item set form a cache
+     *
+     * @param key : partial key
+     * @return : set of partially key matched items
+     */
+    @Override
+    public Set<KVItem> scan(String key) {
+        Set<KVItem> matchingList = new HashSet<>();
+        for (Stripe stripe : stripes) {
+            for (Node node : stripe.map.values()) {
+                if (node.key.contains(key)) {
+                    matchingList.add(node.item);
+                }
+            }
+        }
+        return matchingList;
+    }
+
+    /**
+     * @return number of cached items
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.map.size();
+        }
+        return size;
+    }
+
+    @Override
+    public CacheStats stats() {
+        long entries = 0;
+        long weight = 0;
+        long evictions = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                entries += stripe.map.size();
+                weight += stripe.weight;
+                evictions += stripe.evictions;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return new CacheStats(entries, weight, maxWeight, evictions);
+    }
+
+    private static final class Node {
+        private final String key;
+        private volatile KVItem item;
+        // guarded by the stripe lock
+        private int weight;
+        private Node prev;
+        private Node next;
+        private boolean linked;
+
+        private Node(KVItem item, int weight) {
+            this.key = item.getKey();
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Stripe {
+        private final int capacity;
+        private final long maxWeight;
+        private final Weigher weigher;
+        private final ConcurrentHashMap<String, Node> map = new ConcurrentHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // recency list, head is the most recently used node, guarded by lock
+        private Node head;
+        private Node tail;
+        private long weight;
+        private long evictions;
+
+        private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        private final AtomicLong recorded = new AtomicLong();
+        // only written while holding lock
+        private volatile long drained;
+
+        private Stripe(int capacity, long maxWeight, Weigher weigher) {
+            this.capacity = capacity;
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+        }
+
+        private void recordHit(Node node) {
+            long index = recorded.get();
+            long pending = index - drained;
+            if (pending < BUFFER_SIZE && recorded.compareAndSet(index, index + 1)) {
+                buffer.lazySet((int) (index & BUFFER_MASK), node);
+                pending++;
+            }
+            if (pending >= DRAIN_THRESHOLD && lock.tryLock()) {
+                try {
+                    drain();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // apply the recorded hits to the recency list, must hold lock
+        private void drain() {
+            long index = drained;
+            long end = recorded.get();
+            for (; index < end; index++) {
+                int slot = (int) (index & BUFFER_MASK);
+                Node node = buffer.get(slot);
+                if (node == null) {
+                    // the reader has claimed the slot but not written it yet
+                    break;
+                }
+                buffer.lazySet(slot, null);
+                if (node.linked) {
+                    moveToFront(node);
+                }
+            }
+            drained = index;
+        }
+
+        private void put(KVItem item) {
+            if (capacity <= 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                drain();
+                int itemWeight = weigher.weigh(item);
+                if (maxWeight > 0 && itemWeight > maxWeight) {
+                    // never fits, drop an older version instead of keeping it stale
+                    remove(item.getKey());
+                    return;
+                }
+                Node node = map.get(item.getKey());
+                if (node != null) {
+                    weight += itemWeight - node.weight;
+                    node.item = item;
+                    node.weight = itemWeight;
+                    moveToFront(node);
+                } else {
+                    node = new Node(item, itemWeight);
+                    linkFirst(node);
+                    map.put(node.key, node);
+                    weight += itemWeight;
+                }
+                // the new item is at the front and fits, so it is never evicted
+                while (map.size() > capacity || (maxWeight > 0 && weight > maxWeight)) {
+                    remove(tail.key);
+                    evictions++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void delete(String key) {
+            lock.lock();
+            try {
+                drain();
+                remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // must hold lock
+        private void remove(String key) {
+            Node node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+                weight -= node.weight;
+            }
+        }
+
+        private void moveToFront(Node node) {
+            if (head != node) {
+                unlink(node);
+                linkFirst(node);
+            }
+        }
+
+        private void linkFirst(Node node) {
+            node.prev = null;
+            node.next = head;
+            if (head != null) {
+                head.prev = node;
+            } else {
+                tail = node;
+            }
+            head = node;
+            node.linked = true;
+        }
+
+        private void unlink(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.linked = false;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
+import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TinyLFUCache implements the W-TinyLFU policy. New items enter a small LRU
+ * window of 1% of the cache. Items leaving the window are only admitted to
+ * the main region if a {@link FrequencySketch} estimates that they were
+ * accessed more often than the item the main region would evict, so one-off
+ * accesses like scans pass through the window without replacing popular
+ * items. The frequencies are halved periodically, so the cache adapts when
+ * the popular keys change.
+ *
+ * The main region is a segmented LRU: admitted items start on probation and
+ * move to the protected segment of 80% of the main region on their next hit.
+ * Items falling out of the protected segment go back on probation, where the
+ * victims are taken from.
+ *
+ * With a maximum weight, the window and the segments are limited by the same
+ * shares of the weight as well.
+ */
+public class TinyLFUCache implements KVCache {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Log logger = new Log(TinyLFUCache.class);
+
+    private final HashMap<String, Node> cache = new HashMap<>();
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+    private final int windowSize;
+    private final int mainSize;
+    private final int protectedSize;
+
+    private final Weigher weigher;
+    private final long maxWeight;
+    private final long windowWeight;
+    private final long mainWeight;
+    private final long protectedWeight;
+    private long evictions;
+
+    public TinyLFUCache(int size) {
+        this(size, 0, Weigher.ITEM_BYTES);
+    }
+
+    /**
+     * @param size maximum amount of items
+     * @param maxWeight maximum sum of the item weights, 0 for no limit
+     * @param weigher computes the weight of an item
+     */
+    public TinyLFUCache(int size, long maxWeight, Weigher weigher) {
+        int capacity = Math.max(0, size);
+        this.windowSize = Math.min(capacity, Math.max(1, (int) ((long) capacity * WINDOW_PERCENT / 100)));
+        this.mainSize = capacity - windowSize;
+        this.protectedSize = (int) ((long) mainSize * PROTECTED_PERCENT / 100);
+        this.weigher = weigher;
+        this.maxWeight = Math.max(0, maxWeight);
+        this.windowWeight = this.maxWeight > 0 ? Math.max(1, this.maxWeight * WINDOW_PERCENT / 100) : 0;
+        this.mainWeight = this.maxWeight - windowWeight;
+        this.protectedWeight = mainWeight * PROTECTED_PERCENT / 100;
+        // grows with the amount of items if only the weight is limited
+        this.sketch = new FrequencySketch(Math.min(capacity, 1024));
+        logger.info("Cache is initialized to TinyLFU cache");
+    }
+
+    /**
+     * get method used to get a KVItem from a cache
+     * @param key : key of the required item
+     * @return : KVItem object of requested key or null
+     */
+    @Override
+    public KVItem get(String key) {
+        lock.lock();
+        try {
+            // misses count as well, an item is admitted if it was requested often
+            sketch.increment(key);
+            Node node = cache.get(key);
+            if (node == null) {
+                return null;
+            }
+            onHit(node);
+            return node.item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * put method update the cache
+     * @param item : KVItem that need to put to the cache
+     */
+    @Override
+    public void put(KVItem item) {
+        if (windowSize <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            int itemWeight = weigher.weigh(item);
+            if (maxWeight > 0 && itemWeight > maxWeight) {
+                // never fits, drop an older version instead of keeping it stale
+                remove(item.getKey());
+                return;
+            }
+            Node node = cache.get(item.getKey());
+            if (node != null) {
+                node.queue.reweigh(node, itemWeight);
+                node.item = item;
+                onHit(node);
+                // a heavier version can push other items out of the cache
+                while (maxWeight > 0 && weight() > maxWeight) {
+                    evict(probation.head != null ? probation.head
+                            : protectedQueue.head != null ? protectedQueue.head : window.head);
+                }
+                return;
+            }
+            node = new Node(item, itemWeight);
+            cache.put(node.key, node);
+            sketch.ensureCapacity(cache.size());
+            window.addLast(node);
+            while (window.head != null && isFull(window, windowSize, windowWeight)) {
+                admit(window.removeFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * delete method deletes given item from the cache
+     * @param key : key of the item that need to delete from the cache
+     */
+    @Override
+    public void delete(String key) {
+        lock.lock();
+        try {
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key) {
+        Node node = cache.remove(key);
+        if (node != null) {
+            node.queue.remove(node);
+        }
+    }
+
+    private void evict(Node node) {
+        remove(node.key);
+        evictions++;
+    }
+
+    private long weight() {
+        return window.weight + probation.weight + protectedQueue.weight;
+    }
+
+    private boolean isFull(Queue queue, int size, long weight) {
+        return queue.size > size || (maxWeight > 0 && queue.weight > weight);
+    }
+
+    @Override
+    public CacheStats stats() {
+        lock.lock();
+        try {
+            return new CacheStats(cache.size(), weight(), maxWeight, evictions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a partial key matching item set form a cache
+     *
+     * @param key : partial key
+     * @return : set of partially key matched items
+     */
+    @Override
+    public Set<KVItem> scan(String key) {
+        Set<KVItem> matchingList = new HashSet<>();
+        lock.lock();
+        try {
+            for (Node node : cache.values()) {
+                if (node.key.contains(key)) {
+                    matchingList.add(node.item);
+                }
+            }
+            return matchingList;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onHit(Node node) {
+        if (node.queue == probation) {
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            while (protectedQueue.head != node && isFull(protectedQueue, protectedSize, protectedWeight)) {
+                probation.addLast(protectedQueue.removeFirst());
+            }
+        } else {
+            node.queue.moveToLast(node);
+        }
+    }
+
+    // move the candidate evicted from the window into the main region or drop it
+    private void admit(Node candidate) {
+        probation.addLast(candidate);
+        while (probation.size + protectedQueue.size > mainSize
+                || (maxWeight > 0 && probation.weight + protectedQueue.weight > mainWeight)) {
+            Node victim = probation.head != candidate ? probation.head : protectedQueue.head;
+            if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+                return;
+            }
+        }
+    }
+
+    private static final class Node {
+        private final String key;
+        private KVItem item;
+        private int weight;
+        private Queue queue;
+        private Node prev;
+        private Node next;
+
+        private Node(KVItem item, int weight) {
+            this.key = item.getKey();
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    // intrusive LRU list, the head is evicted first
+    private static final class Queue {
+        private Node head;
+        private Node tail;
+        private int size;
+        private long weight;
+
+        private void addLast(Node node) {
+            node.queue = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail != null) {
+                tail.next = node;
+            } else {
+                head = node;
+            }
+            tail = node;
+            size++;
+            weight += node.weight;
+        }
+
+        private Node removeFirst() {
+            Node node = head;
+            remove(node);
+            return node;
+        }
+
+        private void moveToLast(Node node) {
+            if (tail != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = null;
+            size--;
+            weight -= node.weight;
+        }
+
+        private void reweigh(Node node, int newWeight) {
+            weight += newWeight - node.weight;
+            node.weight = newWeight;
+        }
+    }
+}
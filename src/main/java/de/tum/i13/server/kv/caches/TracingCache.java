@@ -0,0 +1,91 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * TracingCache wraps a cache and appends the key of every get to a trace
+ * file, one key per line. The trace can be replayed against every cache
+ * algorithm with the {@link CacheSimulator} to compare their hit ratios on a
+ * real workload.
+ */
+public class TracingCache implements KVCache, Closeable {
+
+    // flush regularly, a server is usually stopped without closing the cache
+    private static final int FLUSH_INTERVAL = 1024;
+
+    private final Log logger = new Log(TracingCache.class);
+
+    private final KVCache cache;
+    private final BufferedWriter writer;
+    private int unflushed;
+    private boolean failed;
+
+    public TracingCache(KVCache cache, Path traceFile) throws IOException {
+        this.cache = cache;
+        this.writer = Files.newBufferedWriter(traceFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        logger.info("Recording cache trace to " + traceFile);
+    }
+
+    @Override
+    public KVItem get(String key) {
+        record(key);
+        return cache.get(key);
+    }
+
+    @Override
+    public void put(KVItem item) {
+        cache.put(item);
+    }
+
+    @Override
+    public void delete(String key) {
+        cache.delete(key);
+    }
+
+    @Override
+    public Set<KVItem> scan(String key) {
+        return cache.scan(key);
+    }
+
+    @Override
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private synchronized void record(String key) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.write(key);
+            writer.newLine();
+            if (++unflushed >= FLUSH_INTERVAL) {
+                writer.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            // the trace is only diagnostic, keep serving from the cache
+            logger.warning("could not write cache trace, stop recording", e);
+            failed = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        failed = true;
+    }
+}
@@ -0,0 +1,56 @@
+package de.tum.i13.server.kv.handlers.ecs;
+
+import de.tum.i13.kvtp2.Message;
+import de.tum.i13.kvtp2.MessageWriter;
+import de.tum.i13.kvtp2.middleware.Handler;
+import de.tum.i13.server.kv.KVServer;
+import de.tum.i13.shared.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Checkpoint is an admin command which writes a consistent copy of the store
+ * into the directory given in the "dir" field, e.g. for a backup or to
+ * bootstrap a new server. The directory must not exist yet.
+ */
+public class Checkpoint implements Handler {
+
+    public static final Log logger = new Log(Checkpoint.class);
+
+    private final KVServer kvServer;
+
+    public Checkpoint(KVServer kvServer) {
+        this.kvServer = kvServer;
+    }
+
+    @Override
+    public void handle(MessageWriter messageWriter, Message message) {
+        String dir = message.get("dir");
+        Message response = Message.getResponse(message);
+        if (dir == null || dir.isEmpty()) {
+            response.setCommand("error");
+            response.put("msg", "missing checkpoint directory");
+            messageWriter.write(response);
+            return;
+        }
+
+        Path targetDir = Paths.get(dir);
+        long start = System.currentTimeMillis();
+        try {
+            kvServer.checkpoint(targetDir);
+        } catch (IOException e) {
+            logger.warning("checkpoint failed", e);
+            response.setCommand("error");
+            response.put("msg", e.getMessage());
+            messageWriter.write(response);
+            return;
+        }
+
+        response.setCommand("ok");
+        response.put("dir", targetDir.toAbsolutePath().toString());
+        response.put("ms", Long.toString(System.currentTimeMillis() - start));
+        messageWriter.write(response);
+    }
+}
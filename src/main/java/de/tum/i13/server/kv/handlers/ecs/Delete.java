@@ -23,7 +23,8 @@ public class Delete implements Handler {
         String key = message.get("key");
 
         try {
-            kvServer.delete(key);
+            // the reply doesn't tell whether the key existed, so don't look it up
+            kvServer.delete(key, true);
         } catch (IOException e) {
             logger.warning("deletion failed", e);
             Message response = Message.getResponse(message);
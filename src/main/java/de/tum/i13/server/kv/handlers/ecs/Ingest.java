@@ -0,0 +1,56 @@
+package de.tum.i13.server.kv.handlers.ecs;
+
+import de.tum.i13.kvtp2.Message;
+import de.tum.i13.kvtp2.MessageWriter;
+import de.tum.i13.kvtp2.middleware.Handler;
+import de.tum.i13.server.kv.KVServer;
+import de.tum.i13.shared.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Ingest is an admin command which bulk loads a sorted LSMFile, built by a
+ * client or tool on the same machine, from the directory given in the "dir"
+ * field. The items of the file replace all versions written before.
+ */
+public class Ingest implements Handler {
+
+    public static final Log logger = new Log(Ingest.class);
+
+    private final KVServer kvServer;
+
+    public Ingest(KVServer kvServer) {
+        this.kvServer = kvServer;
+    }
+
+    @Override
+    public void handle(MessageWriter messageWriter, Message message) {
+        String dir = message.get("dir");
+        Message response = Message.getResponse(message);
+        if (dir == null || dir.isEmpty()) {
+            response.setCommand("error");
+            response.put("msg", "missing file directory");
+            messageWriter.write(response);
+            return;
+        }
+
+        Path fileDir = Paths.get(dir);
+        long start = System.currentTimeMillis();
+        try {
+            kvServer.ingest(fileDir);
+        } catch (IOException e) {
+            logger.warning("ingest failed", e);
+            response.setCommand("error");
+            response.put("msg", e.getMessage());
+            messageWriter.write(response);
+            return;
+        }
+
+        response.setCommand("ok");
+        response.put("dir", fileDir.toAbsolutePath().toString());
+        response.put("ms", Long.toString(System.currentTimeMillis() - start));
+        messageWriter.write(response);
+    }
+}
@@ -5,6 +5,7 @@ import de.tum.i13.kvtp2.Message;
 import de.tum.i13.kvtp2.MessageWriter;
 import de.tum.i13.kvtp2.middleware.Handler;
 import de.tum.i13.server.kv.KVServer;
+import de.tum.i13.server.kv.KVStore;
 import de.tum.i13.shared.ConsistentHashMap;
 import de.tum.i13.shared.KVItem;
 import de.tum.i13.shared.Log;
@@ -39,80 +40,108 @@ public class KeyRange implements Handler {
         InetSocketAddress newPredecessor = newKeyRange.getPredecessor(kvServer.getAddress());
 
         if (oldPredecessor != null && !oldPredecessor.equals(newPredecessor)) {
-            Set<String> oldKeys = kvServer.getAllKeys((s) ->
-                    !newKeyRange
-                            .getSuccessor(s)
-                            .equals(kvServer.getAddress())
-            );
+            // hand off the items as they are now, they are read in the background
+            KVStore.Snapshot snapshot;
+            try {
+                snapshot = kvServer.snapshot();
+            } catch (IOException e) {
+                logger.severe("failed to take a snapshot of the items to hand off", e);
+                kvServer.executeTask(() -> abortHandoff("could not take a snapshot of the items to hand off"));
+                respond(messageWriter, message);
+                return;
+            }
 
             kvServer.executeTask(() -> {
-                KVTP2Client ecsClient = null;
                 try {
-                    ecsClient = kvServer.getBlockingECSClient();
-                } catch (IOException e) {
-                    logger.severe("failed to get ecs client", e);
-                }
-                Message KVToECSMsg = new Message("kv_to_ecs");
-                KVToECSMsg.put("kvip", newPredecessor.getHostString());
-                KVToECSMsg.put("kvport", Integer.toString(newPredecessor.getPort()));
+                    Set<String> oldKeys;
+                    try {
+                        oldKeys = snapshot.getAllKeys((s) ->
+                                !newKeyRange
+                                        .getSuccessor(s)
+                                        .equals(kvServer.getAddress())
+                        );
+                    } catch (IOException e) {
+                        // sending finish now would release the lock without the items
+                        logger.severe("could not read the keys to hand off", e);
+                        nextKeyRange = null;
+                        abortHandoff("could not read the keys to hand off");
+                        return;
+                    }
 
-                String predecessorIP = "";
-                int predecessorPort = 0;
-                try {
-                    Message KVToECSResponse = ecsClient.send(KVToECSMsg);
-                    if (!KVToECSResponse.getCommand().equals("error")) {
-                        predecessorIP = KVToECSResponse.get("ecsip");
-                        predecessorPort = Integer.parseInt(KVToECSResponse.get("ecsport"));
-                    } else {
-                        logger.warning("Could not get ecs api address for kv server at " + newPredecessor);
+                    KVTP2Client ecsClient = null;
+                    try {
+                        ecsClient = kvServer.getBlockingECSClient();
+                    } catch (IOException e) {
+                        logger.severe("failed to get ecs client", e);
                     }
-                } catch (IOException e) {
-                    // TODO: Handle the error, maybe try again. Tell ecs?
-                    logger.warning("Could not get ecs api address for kv server at " + newPredecessor, e);
-                }
+                    Message KVToECSMsg = new Message("kv_to_ecs");
+                    KVToECSMsg.put("kvip", newPredecessor.getHostString());
+                    KVToECSMsg.put("kvport", Integer.toString(newPredecessor.getPort()));
 
-                KVTP2Client kvtp2Client = new KVTP2Client(predecessorIP, predecessorPort);
-                try {
-                    kvtp2Client.connect();
-                    List<Future<String>> futures = kvServer.executeAllTasks(
-                            oldKeys.stream().map((k) -> (Callable<String>) () -> {
-                                Message put = new Message("put");
-                                KVItem item = null;
-                                try {
-                                    item = kvServer.getItem(k);
-                                    put.put("key", item.getKey());
-                                    put.put("value", item.getValue());
-                                    kvtp2Client.send(put);
-                                } catch (IOException e) {
-                                    logger.warning("could not put item to new predecessor: " + item, e);
-                                }
-                                return null;
-                            }).collect(Collectors.toSet())
-                    );
-                    futures.forEach((f) -> {
-                        try {
-                            f.get();
-                        } catch (InterruptedException | ExecutionException e) {
-                            logger.warning("failed to finish putting value to new predecessor", e);
+                    String predecessorIP = "";
+                    int predecessorPort = 0;
+                    try {
+                        Message KVToECSResponse = ecsClient.send(KVToECSMsg);
+                        if (!KVToECSResponse.getCommand().equals("error")) {
+                            predecessorIP = KVToECSResponse.get("ecsip");
+                            predecessorPort = Integer.parseInt(KVToECSResponse.get("ecsport"));
+                        } else {
+                            logger.warning("Could not get ecs api address for kv server at " + newPredecessor);
                         }
-                    });
-                    kvtp2Client.close();
-                } catch (InterruptedException e) {
-                    logger.warning("interrupted while putting values to new predecessor");
-                } catch (IOException e) {
-                    logger.warning("Failed to transfer elements", e);
-                }
+                    } catch (IOException e) {
+                        // TODO: Handle the error, maybe try again. Tell ecs?
+                        logger.warning("Could not get ecs api address for kv server at " + newPredecessor, e);
+                    }
 
-                Message finish = new Message("finish");
-                finish.put("ecsip", kvServer.getControlAPIServerAddress().getHostString());
-                finish.put("ecsport", Integer.toString(kvServer.getControlAPIServerAddress().getPort()));
-                try {
-                    Message res = ecsClient.send(finish);
-                    if (res.getCommand().equals("release_lock")) {
-                        kvServer.setLocked(false);
+                    KVTP2Client kvtp2Client = new KVTP2Client(predecessorIP, predecessorPort);
+                    try {
+                        kvtp2Client.connect();
+                        List<Future<String>> futures = kvServer.executeAllTasks(
+                                oldKeys.stream().map((k) -> (Callable<String>) () -> {
+                                    Message put = new Message("put");
+                                    KVItem item = null;
+                                    try {
+                                        // values are read one by one, only the keys are held in memory
+                                        item = snapshot.get(k);
+                                        if (item == null) {
+                                            return null;
+                                        }
+                                        put.put("key", item.getKey());
+                                        put.put("value", item.getValue());
+                                        kvtp2Client.send(put);
+                                    } catch (IOException e) {
+                                        logger.warning("could not put item to new predecessor: " + item, e);
+                                    }
+                                    return null;
+                                }).collect(Collectors.toSet())
+                        );
+                        futures.forEach((f) -> {
+                            try {
+                                f.get();
+                            } catch (InterruptedException | ExecutionException e) {
+                                logger.warning("failed to finish putting value to new predecessor", e);
+                            }
+                        });
+                        kvtp2Client.close();
+                    } catch (InterruptedException e) {
+                        logger.warning("interrupted while putting values to new predecessor");
+                    } catch (IOException e) {
+                        logger.warning("Failed to transfer elements", e);
                     }
-                } catch (IOException e) {
-                    logger.warning("failed to send finish to ecs", e);
+
+                    Message finish = new Message("finish");
+                    finish.put("ecsip", kvServer.getControlAPIServerAddress().getHostString());
+                    finish.put("ecsport", Integer.toString(kvServer.getControlAPIServerAddress().getPort()));
+                    try {
+                        Message res = ecsClient.send(finish);
+                        if (res.getCommand().equals("release_lock")) {
+                            kvServer.setLocked(false);
+                        }
+                    } catch (IOException e) {
+                        logger.warning("failed to send finish to ecs", e);
+                    }
+                } finally {
+                    close(snapshot);
                 }
             });
             nextKeyRange = newKeyRange;
@@ -122,9 +151,40 @@ public class KeyRange implements Handler {
                 nextKeyRange = null;
             });
         }
+        respond(messageWriter, message);
+    }
+
+    private void respond(MessageWriter messageWriter, Message message) {
         Message response = Message.getResponse(message);
         response.setCommand("ok");
         messageWriter.write(response);
         kvServer.setStopped(false);
     }
+
+    /**
+     * tell the ecs that the items couldn't be handed off instead of sending
+     * finish, so the lock of this server is not released and the new key
+     * range is not applied.
+     *
+     * @param error description of the failure
+     */
+    private void abortHandoff(String error) {
+        Message handoffFailed = new Message("handoff_failed");
+        handoffFailed.put("ecsip", kvServer.getControlAPIServerAddress().getHostString());
+        handoffFailed.put("ecsport", Integer.toString(kvServer.getControlAPIServerAddress().getPort()));
+        handoffFailed.put("error", error);
+        try {
+            kvServer.getBlockingECSClient().send(handoffFailed);
+        } catch (IOException e) {
+            logger.warning("failed to report the aborted handoff to ecs", e);
+        }
+    }
+
+    private static void close(KVStore.Snapshot snapshot) {
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            logger.warning("Could not release the snapshot of the handed off items", e);
+        }
+    }
 }
@@ -26,7 +26,8 @@ public class Put implements Handler {
         KVItem item = new KVItem(key, value);
 
         try {
-            kvServer.put(item, false);
+            // the reply doesn't tell whether the key existed, so don't look it up
+            kvServer.put(item, false, true);
         } catch (IOException e) {
             logger.warning("could not put value to store: " + item, e);
             Message response = Message.getResponse(message);
@@ -5,6 +5,7 @@ import de.tum.i13.kvtp2.Message;
 import de.tum.i13.kvtp2.MessageWriter;
 import de.tum.i13.kvtp2.middleware.Handler;
 import de.tum.i13.server.kv.KVServer;
+import de.tum.i13.server.kv.KVStore;
 import de.tum.i13.shared.ConsistentHashMap;
 import de.tum.i13.shared.KVItem;
 import de.tum.i13.shared.Log;
@@ -15,6 +16,7 @@ import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
@@ -58,56 +60,88 @@ public class ShutdownKeyRange implements Handler {
         kvServer.executeTask(() -> {
             Map<InetSocketAddress, KVTP2Client> clients = new HashMap<>();
 
-            try {
-                List<Future<String>> futures = kvServer.executeAllTasks(
-                        kvServer.getAllKeys((k) -> true).stream().map((k) -> (Callable<String>) () -> {
-                            Message put = new Message("put");
-                            KVItem item = null;
-                            try {
-                                item = kvServer.getItem(k);
-                                put.put("key", item.getKey());
-                                put.put("value", item.getValue());
-                                InetSocketAddress successor = newKeyRange.getSuccessor(item.getKey());
-
-                                if (!clients.containsKey(successor)) {
-                                    Message KVToECSMsg = new Message("kv_to_ecs");
-                                    KVToECSMsg.put("kvip", successor.getHostString());
-                                    KVToECSMsg.put("kvport", Integer.toString(successor.getPort()));
-                                    Message kvToEcs = finalEcsClient.send(KVToECSMsg);
-                                    if (kvToEcs.getCommand().equals("error")) {
-                                        logger.warning("could not get ecs address, can't put values to successor");
-                                    } else {
-                                        String ip = kvToEcs.get("ecsip");
-                                        int port = Integer.parseInt(kvToEcs.get("ecsport"));
-                                        KVTP2Client kvtp2Client = new KVTP2Client(ip, port);
-                                        kvtp2Client.connect();
-                                        clients.put(successor, kvtp2Client);
+            try (KVStore.Snapshot snapshot = kvServer.snapshot()) {
+                Set<String> keys;
+                try {
+                    keys = snapshot.getAllKeys((k) -> true);
+                } catch (IOException e) {
+                    // sending finish now would let the server go without its items
+                    logger.severe("could not read the keys to hand off", e);
+                    abortHandoff(finalEcsClient, "could not read the keys to hand off");
+                    return;
+                }
+
+                try {
+                    List<Future<String>> futures = kvServer.executeAllTasks(
+                            keys.stream().map((k) -> (Callable<String>) () -> {
+                                Message put = new Message("put");
+                                KVItem item = null;
+                                try {
+                                    // values are read one by one, only the keys are held in memory
+                                    item = snapshot.get(k);
+                                    if (item == null) {
+                                        return null;
+                                    }
+                                    put.put("key", item.getKey());
+                                    put.put("value", item.getValue());
+                                    InetSocketAddress successor = newKeyRange.getSuccessor(item.getKey());
+
+                                    if (!clients.containsKey(successor)) {
+                                        Message KVToECSMsg = new Message("kv_to_ecs");
+                                        KVToECSMsg.put("kvip", successor.getHostString());
+                                        KVToECSMsg.put("kvport", Integer.toString(successor.getPort()));
+                                        Message kvToEcs = finalEcsClient.send(KVToECSMsg);
+                                        if (kvToEcs.getCommand().equals("error")) {
+                                            logger.warning("could not get ecs address, can't put values to successor");
+                                        } else {
+                                            String ip = kvToEcs.get("ecsip");
+                                            int port = Integer.parseInt(kvToEcs.get("ecsport"));
+                                            KVTP2Client kvtp2Client = new KVTP2Client(ip, port);
+                                            kvtp2Client.connect();
+                                            clients.put(successor, kvtp2Client);
+                                        }
                                     }
-                                }
-
-                                clients.get(successor).send(put);
-                            } catch (IOException e) {
-                                logger.warning("could not put item to new KVServer: " + item, e);
-                            }
-                            return null;
-                        }).collect(Collectors.toSet())
-                );
-
-                futures.forEach((f) -> {
-                    try {
-                        f.get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        logger.warning("failed to finish putting value to new predecessor", e);
-                    }
-                });
 
-                sendFinish(finalEcsClient);
-            } catch (InterruptedException e) {
-                logger.warning("interrupted while putting values to new predecessor");
+                                    clients.get(successor).send(put);
+                                } catch (IOException e) {
+                                    logger.warning("could not put item to new KVServer: " + item, e);
+                                }
+                                return null;
+                            }).collect(Collectors.toSet())
+                    );
+
+                    futures.forEach((f) -> {
+                        try {
+                            f.get();
+                        } catch (InterruptedException | ExecutionException e) {
+                            logger.warning("failed to finish putting value to new predecessor", e);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    logger.warning("interrupted while putting values to new predecessor");
+                    return;
+                }
+            } catch (IOException e) {
+                logger.severe("could not read the items to hand off", e);
+                abortHandoff(finalEcsClient, "could not read the items to hand off");
+                return;
             }
+            sendFinish(finalEcsClient);
         });
     }
 
+    private void abortHandoff(KVTP2Client ecsClient, String error) {
+        Message handoffFailed = new Message("handoff_failed");
+        handoffFailed.put("ecsip", kvServer.getControlAPIServerAddress().getHostString());
+        handoffFailed.put("ecsport", Integer.toString(kvServer.getControlAPIServerAddress().getPort()));
+        handoffFailed.put("error", error);
+        try {
+            ecsClient.send(handoffFailed);
+        } catch (IOException e) {
+            logger.warning("failed to report the aborted handoff for shutdown to ecs", e);
+        }
+    }
+
     private void sendFinish(KVTP2Client ecsClient) {
         Message finish = new Message("finish");
         finish.put("ecsip", kvServer.getControlAPIServerAddress().getHostString());
@@ -5,6 +5,7 @@ import de.tum.i13.kvtp2.MessageWriter;
 import de.tum.i13.kvtp2.middleware.Handler;
 import de.tum.i13.server.kv.KVCache;
 import de.tum.i13.server.kv.KVStore;
+import de.tum.i13.server.kv.caches.NegativeLookupCache;
 import de.tum.i13.shared.KVItem;
 import de.tum.i13.shared.Log;
 
@@ -15,10 +16,12 @@ public class Get implements Handler {
     public static final Log logger = new Log(Get.class);
 
     private final KVCache kvCache;
+    private final NegativeLookupCache negativeCache;
     private final KVStore kvStore;
 
-    public Get(KVCache kvCache, KVStore kvStore) {
+    public Get(KVCache kvCache, NegativeLookupCache negativeCache, KVStore kvStore) {
         this.kvCache = kvCache;
+        this.negativeCache = negativeCache;
         this.kvStore = kvStore;
     }
 
@@ -48,7 +51,12 @@ public class Get implements Handler {
             writeFound(messageWriter, message, kvItem);
             return;
         }
+        if (negativeCache.contains(key)) {
+            writeError(messageWriter, message, key, "not found");
+            return;
+        }
 
+        long stamp = negativeCache.stamp(key);
         KVItem result;
         try {
             result = kvStore.get(key);
@@ -64,6 +72,7 @@ public class Get implements Handler {
             return;
         }
 
+        negativeCache.add(key, stamp);
         writeError(messageWriter, message, key, "not found");
     }
 }
@@ -3,15 +3,19 @@ package de.tum.i13.server.kv.handlers.kv;
 import de.tum.i13.kvtp2.Message;
 import de.tum.i13.kvtp2.MessageWriter;
 import de.tum.i13.kvtp2.middleware.Handler;
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.KVCache;
 
 public class Health implements Handler {
 
     private ServerStoppedHandler serverStoppedHandler;
     private ServerWriteLockHandler serverWriteLockHandler;
+    private KVCache kvCache;
 
-    public Health(ServerStoppedHandler serverStoppedHandler, ServerWriteLockHandler serverWriteLockHandler) {
+    public Health(ServerStoppedHandler serverStoppedHandler, ServerWriteLockHandler serverWriteLockHandler, KVCache kvCache) {
         this.serverStoppedHandler = serverStoppedHandler;
         this.serverWriteLockHandler = serverWriteLockHandler;
+        this.kvCache = kvCache;
     }
 
     @Override
@@ -20,6 +24,11 @@ public class Health implements Handler {
         response.put("status", "pass");
         response.put("server_stopped", serverStoppedHandler.getServerStopped() ? "true" : "false");
         response.put("server_write_lock", serverWriteLockHandler.getLocked() ? "true" : "false");
+        CacheStats cacheStats = kvCache.stats();
+        response.put("cache_entries", Long.toString(cacheStats.getEntries()));
+        response.put("cache_weight", Long.toString(cacheStats.getWeight()));
+        response.put("cache_max_weight", Long.toString(cacheStats.getMaxWeight()));
+        response.put("cache_evictions", Long.toString(cacheStats.getEvictions()));
         writer.write(response);
     }
 }
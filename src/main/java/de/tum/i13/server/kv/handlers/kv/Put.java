@@ -42,9 +42,13 @@ public class Put implements Handler {
         String key = message.get("key");
         String value = message.get("value");
         KVItem item = new KVItem(key, value);
+        // clients may choose per request whether the reply has to be exact
+        String blind = message.get("blind");
 
         try {
-            String result = kvServer.put(item, true);
+            String result = blind == null
+                    ? kvServer.put(item, true)
+                    : kvServer.put(item, true, Boolean.parseBoolean(blind));
             writeSuccess(messageWriter, message, result, item);
         } catch (IOException e) {
             logger.severe("Could not put value to Database", e);
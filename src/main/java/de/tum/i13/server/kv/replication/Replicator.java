@@ -136,15 +136,19 @@ public class Replicator {
     }
 
     private void replicateAllAt(ConsistentHashMap keyRange, InetSocketAddress replica) throws IOException {
-        Set<String> allKeys = store.getAllKeys((k) -> keyRange.getSuccessor(k).equals(address));
-        allKeys.forEach(k -> {
-            try {
-                replicateAt(store.get(k), replica);
-            } catch (InterruptedException e) {
-                logger.warning("Interrupted while replicating full keyset", e);
-            } catch (IOException e) {
-                logger.warning("Could not fetch value for replication of key", e);
+        try (KVStore.Snapshot snapshot = store.snapshot()) {
+            // only the keys are held in memory, the values are read one by one
+            for (String key : snapshot.getAllKeys((k) -> keyRange.getSuccessor(k).equals(address))) {
+                KVItem item = snapshot.get(key);
+                if (item == null) {
+                    continue;
+                }
+                try {
+                    replicateAt(item, replica);
+                } catch (InterruptedException e) {
+                    logger.warning("Interrupted while replicating full keyset", e);
+                }
             }
-        });
+        }
     }
 }
@@ -1,21 +1,49 @@
 package de.tum.i13.server.kv.stores;
 
 import de.tum.i13.server.kv.KVStore;
+import de.tum.i13.lsm.BlockCache;
+import de.tum.i13.lsm.BloomFilter;
+import de.tum.i13.lsm.CompactionStrategy;
+import de.tum.i13.lsm.Key;
 import de.tum.i13.lsm.LSMCache;
+import de.tum.i13.lsm.LSMCompactor;
 import de.tum.i13.lsm.LSMFile;
 import de.tum.i13.lsm.LSMFlusher;
+import de.tum.i13.lsm.LSMIndex;
+import de.tum.i13.lsm.LSMItem;
+import de.tum.i13.lsm.LSMIterator;
 import de.tum.i13.lsm.LSMLog;
+import de.tum.i13.lsm.LSMManifest;
+import de.tum.i13.lsm.LSMMemtables;
+import de.tum.i13.lsm.LSMVersion;
+import de.tum.i13.lsm.MergingIterator;
+import de.tum.i13.lsm.RangeTombstones;
+import de.tum.i13.lsm.LSMSnapshot;
+import de.tum.i13.lsm.RateLimiter;
+import de.tum.i13.lsm.ValueLog;
+import de.tum.i13.lsm.ValueLogGarbageCollector;
+import de.tum.i13.lsm.ValuePointer;
 import de.tum.i13.shared.Constants;
 import de.tum.i13.shared.KVItem;
+import de.tum.i13.shared.Log;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -23,18 +51,76 @@ import java.util.stream.Stream;
  * The LSM-tree is inspired by the implementations in BigTable and HBase.
  *
  * {@link LSMCache} is used as in in-memory store to
- * which new data is written. A separate worker thread running
- * {@link LSMFlusher} stores the cache in a new {@link LSMFile}. To prevent
+ * which new data is written. Once the cache reaches its size limit,
+ * {@link LSMMemtables} swaps it into a queue of immutable caches and a separate
+ * worker thread running {@link LSMFlusher} stores it in a new {@link LSMFile}.
+ * Reads consult the queued caches until the flush is done. To prevent
  * losing items on server crashes we write every change to {@link LSMLog}
  * before saving it in the cache and try to recover the cache from that log
- * on restart.
+ * on restart. The log is rotated whenever the cache is swapped for a flush and
+ * old segments are deleted once they are flushed, so a restart only replays
+ * items which are not in an LSMFile yet.
+ *
+ * The set of live LSMFiles is tracked by {@link LSMManifest}. Every LSMFile is
+ * opened once and keeps its {@link LSMIndex} and {@link BloomFilter} in memory.
+ * Readers work on a reference counted {@link LSMVersion} of the file set and never
+ * touch the file system to find files. The filters allow point lookups to skip
+ * all files which can't contain the requested key.
+ *
+ * A second worker thread running {@link LSMCompactor} merges LSMFiles in the
+ * background to bound the number of files a read has to check and to reclaim
+ * the space of overwritten and deleted items.
+ *
+ * Deletes write a tombstone without reading the key first. Whole key ranges are
+ * deleted with a single {@link RangeTombstones} record, which hides all older
+ * items of the range until the compactor drops them.
+ *
+ * Scans and handoffs read from an {@link LSMSnapshot}, which pins the
+ * memtables and the live LSMFiles at a sequence number, so they see a
+ * consistent state of the store while writes, flushes and compactions go on.
+ * A checkpoint exports such a snapshot into a directory which can be opened as
+ * a store of its own, hard linking the LSMFiles instead of copying them.
+ *
+ * Large, sorted data sets can be bulk loaded by building an LSMFile outside of
+ * the store and ingesting it. The items of an ingested file are ordered against
+ * other writes by the time of the ingestion, so the memtables only answer a read
+ * on their own if their item isn't older than the newest ingestion.
+ *
+ * Optionally, values larger than a threshold are stored in a {@link ValueLog}
+ * and the LSM tree only holds a {@link ValuePointer} to them, so flushes and
+ * compactions don't have to copy large values again and again. A third worker
+ * thread running {@link ValueLogGarbageCollector} moves the live values out of
+ * mostly dead value log segments.
  */
-public class LSMStore implements KVStore {
+public class LSMStore implements KVStore, Closeable {
+
+    private static final Log logger = new Log(LSMStore.class);
+
+    private static final long FILTER_STATS_LOG_INTERVAL = 100000;
+
+    // how long a checkpoint waits for the memtable to be flushed
+    private static final long CHECKPOINT_FLUSH_TIMEOUT = 10000;
 
     private LSMLog lsmLog;
-    private LSMCache lsmCache;
+    private final LSMMemtables memtables;
+    private final LSMFlusher lsmFlusher;
+    private final LSMCompactor lsmCompactor;
     private final Path lsmFileDir;
 
+    private final LSMManifest manifest;
+    private final BlockCache blockCache;
+    private final RangeTombstones rangeTombstones;
+
+    private final ValueLog valueLog;
+    private final ValueLogGarbageCollector valueLogGC;
+    private final int valueThreshold;
+    // writes share the lock, the garbage collector takes it exclusively to relocate a value
+    private final ReadWriteLock relocationLock = new ReentrantReadWriteLock();
+    private final AtomicLong filterNegatives = new AtomicLong();
+    private final AtomicLong filterFalsePositives = new AtomicLong();
+    private final AtomicLong fileBytesRead = new AtomicLong();
+    private final AtomicLong itemBytesRead = new AtomicLong();
+
     /**
      * create a new LSMStore and save all data in the given directory
      *
@@ -43,6 +129,20 @@ public class LSMStore implements KVStore {
      * @throws IOException If there's some error accessing the given directory
      */
     public LSMStore(Path dataDir) throws IOException {
+        this(LSMStoreBuilder.newBuilder().dataDir(dataDir));
+    }
+
+    /**
+     * create a new LSMStore as configured by a builder
+     *
+     * @param builder the configuration of the store
+     *
+     * @throws IOException If there's some error accessing the data directory
+     */
+    LSMStore(LSMStoreBuilder builder) throws IOException {
+        long start = System.currentTimeMillis();
+        Path dataDir = builder.getDataDir();
+        int bloomBitsPerKey = builder.getBloomBitsPerKey();
 
         Path lsmLogFileDir = Paths.get(dataDir.toString(), "log");
         this.lsmFileDir = Paths.get(dataDir.toString(), "data");
@@ -51,34 +151,99 @@ public class LSMStore implements KVStore {
             lsmFileDir.toFile().mkdir();
         }
 
-        this.lsmLog = new LSMLog(lsmLogFileDir);
-        TreeMap<String, KVItem> log = lsmLog.readAllSinceFlush();
+        this.blockCache = builder.getBlockCacheBytes() > 0 ? new BlockCache(builder.getBlockCacheBytes()) : null;
+        this.manifest = new LSMManifest(lsmFileDir, builder.getReadMode(), blockCache);
+        logIndexSizes();
 
-        this.lsmCache = new LSMCache();
+        this.rangeTombstones = new RangeTombstones(Paths.get(dataDir.toString(), "rangetombstones"),
+                builder.getLogSyncMode());
 
-        log.forEach((s, i) -> lsmCache.put(i));
+        this.lsmLog = new LSMLog(lsmLogFileDir, builder.getLogSyncMode());
+        this.memtables = new LSMMemtables(lsmLog, builder.getMemtableBytes(), builder.getMaxImmutableMemtables());
 
-        LSMFlusher lsmFlusher = new LSMFlusher(lsmCache, lsmFileDir, lsmLog);
+        this.lsmFlusher = new LSMFlusher(memtables, manifest, lsmFileDir, lsmLog, bloomBitsPerKey,
+                builder.getFileFormat(), builder.getBlockSize());
         lsmFlusher.start();
+
+        this.lsmCompactor = new LSMCompactor(
+                manifest,
+                lsmFileDir,
+                builder.getCompactionStrategy().build(),
+                new RateLimiter(builder.getCompactionBytesPerSecond()),
+                bloomBitsPerKey,
+                builder.getFileFormat(),
+                builder.getBlockSize(),
+                rangeTombstones
+        );
+        lsmCompactor.start();
+
+        // keep reading an existing value log even if no new values are written to it
+        Path valueLogDir = Paths.get(dataDir.toString(), "vlog");
+        this.valueThreshold = builder.getValueThreshold();
+        if (valueThreshold > 0 || Files.exists(valueLogDir)) {
+            this.valueLog = new ValueLog(valueLogDir, builder.getValueLogSegmentBytes(), builder.getLogSyncMode());
+            this.valueLogGC = new ValueLogGarbageCollector(valueLog, new ValueLogIndex(), builder.getValueLogDiscardRatio());
+            valueLogGC.start();
+        } else {
+            this.valueLog = null;
+            this.valueLogGC = null;
+        }
+        logger.info("Opened LSMStore in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     /**
-     * list all LSMFiles in a given directory
+     * stop the flusher and the compactor and close the log. Items which
+     * haven't been flushed yet are recovered from the log on the next start.
      *
-     * @param lsmFileDir directory to look for LSMFiles
-     *
-     * @return a list of all LSMFiles in that directory
-     * @throws IOException
+     * @throws IOException if the log can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lsmFlusher.setShutDown(true);
+        lsmCompactor.setShutDown(true);
+        lsmCompactor.interrupt();
+        if (valueLogGC != null) {
+            valueLogGC.setShutDown(true);
+            valueLogGC.interrupt();
+        }
+        try {
+            lsmFlusher.join();
+            lsmCompactor.join();
+            if (valueLogGC != null) {
+                valueLogGC.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lsmLog.close();
+        rangeTombstones.close();
+        if (valueLog != null) {
+            valueLog.close();
+        }
+    }
+
+    /**
+     * log the heap memory used by the resident indexes of all live files
+     * and the disk space used by the files of each format
      */
-    private List<LSMFile> listLSMFiles(Path lsmFileDir) throws IOException {
-        List<LSMFile> lsmFiles = new ArrayList<>();
-        try (Stream<Path> paths = Files.list(lsmFileDir)) {
-            List<Path> files = paths.collect(Collectors.toList());
-            for (Path f : files) {
-                lsmFiles.add(new LSMFile(f.getParent(), f.getFileName().toString()));
+    private void logIndexSizes() {
+        try (LSMVersion version = manifest.acquire()) {
+            long keys = 0;
+            long bytes = 0;
+            Map<LSMFile.Format, Long> diskBytes = new EnumMap<>(LSMFile.Format.class);
+            for (LSMFile f : version.getFiles()) {
+                keys += f.getKeyCount();
+                bytes += f.getIndex().heapBytes();
+                diskBytes.merge(f.getFormat(), f.getSize(), Long::sum);
             }
+            logger.info(String.format("Loaded %d LSMFiles, indexes: %d keys, %d bytes on heap (%.1f bytes per key), bytes on disk: %s",
+                    version.getFiles().size(),
+                    keys,
+                    bytes,
+                    keys == 0 ? 0 : (double) bytes / keys,
+                    diskBytes
+            ));
         }
-        return lsmFiles;
     }
 
     /**
@@ -92,30 +257,168 @@ public class LSMStore implements KVStore {
      */
     @Override
     public String put(KVItem item) throws IOException {
+        LSMItem stored = LSMItem.of(prepare(item));
+        String result = isVisible(getNewest(stored.getKey())) ? "update" : "success";
+        write(store(stored));
+        return result;
+    }
+
+    /**
+     * put a new item to the LSMStore without looking up the previous version,
+     * so the cost of a write doesn't depend on the amount of LSMFiles
+     *
+     * @param item item to store or update
+     *
+     * @throws IOException if there's a problem writing to the LSMLog
+     */
+    @Override
+    public void putBlind(KVItem item) throws IOException {
+        write(store(LSMItem.of(prepare(item))));
+    }
+
+    /**
+     * check whether an item might be present using only the memtables and the
+     * bloom filters of the LSMFiles. No data file is read.
+     *
+     * @param key key of the item
+     *
+     * @return false if the item is certainly not present
+     */
+    @Override
+    public boolean mightContain(String key) {
+        Key k = Key.of(key);
+        LSMItem cachedItem = memtables.get(k);
+        if (isNewest(cachedItem)) {
+            return isVisible(cachedItem);
+        }
+
+        try (LSMVersion version = manifest.acquire()) {
+            for (LSMFile f : version.getFiles()) {
+                if (mightContain(f, k)) {
+                    return true;
+                }
+            }
+        }
+        return isVisible(cachedItem);
+    }
+
+    /**
+     * set the timestamp of a new item and turn legacy delete markers into tombstones
+     *
+     * @throws IOException if the key is too long to be stored or the value
+     * could be mistaken for a value pointer
+     */
+    private KVItem prepare(KVItem item) throws IOException {
+        checkKey(item.getKey());
+        if (!item.isTombstone() && ValuePointer.isPointer(item.getValue())) {
+            throw new IOException("Values must not start with " + Constants.VALUE_POINTER_MARKER);
+        }
         if (item.getTimestamp() == 0) {
-            item.setTimestamp(Instant.now().toEpochMilli());
+            item.setTimestamp(now());
         }
-        String result = "success";
-        if (get(item.getKey()) != null) {
-            result = "update";
+        if (!item.isTombstone() && Constants.DELETE_MARKER.equals(item.getValue())) {
+            item = KVItem.tombstone(item.getKey(), item.getTimestamp());
         }
-        lsmLog.append(item);
-        lsmCache.put(item);
-        return result;
+        // don't let a range deleted within the same millisecond hide the new item
+        long deletedAt = rangeTombstones.deletedAt(item.getKey());
+        if (item.getTimestamp() <= deletedAt) {
+            item.setTimestamp(deletedAt + 1);
+        }
+        return item;
     }
 
     /**
-     * helper class to lookup the position of a KVItem in an LSMFile
+     * @return the item as stored in the LSM tree, holding a value pointer if
+     * its value is moved to the value log
+     */
+    private LSMItem store(LSMItem item) throws IOException {
+        if (valueThreshold > 0 && !item.isTombstone() && item.getValue().length > valueThreshold) {
+            ValuePointer pointer = valueLog.append(item.getKey(), item.getValue());
+            return new LSMItem(item.getKey(), pointer.toBytes(), item.getTimestamp(), false);
+        }
+        return item;
+    }
+
+    /**
+     * delete an item by writing a tombstone. The key isn't looked up first.
+     *
+     * @param key key of the item to delete
+     *
+     * @throws IOException if there's a problem writing to the LSMLog
+     */
+    @Override
+    public void delete(String key) throws IOException {
+        checkKey(key);
+        write(LSMItem.tombstone(Key.of(key), now()));
+    }
+
+    /**
+     * @throws IOException if the key is longer than the LSM files can store
+     */
+    private static void checkKey(String key) throws IOException {
+        if (key.getBytes(StandardCharsets.UTF_8).length > Key.MAX_LENGTH) {
+            throw new IOException("Key is longer than " + Key.MAX_LENGTH + " bytes: " + key);
+        }
+    }
+
+    /**
+     * delete all items of a key range with a single range tombstone
+     *
+     * @param from first key of the range (inclusive)
+     * @param to end of the range (exclusive), null for no upper bound
+     *
+     * @throws IOException if the range tombstone can't be written
      */
-    private static class Lookup {
+    @Override
+    public void deleteRange(String from, String to) throws IOException {
+        if (to != null && Key.compare(from, to) >= 0) {
+            return;
+        }
+        rangeTombstones.add(from, to, now());
+    }
 
-        private final LSMFile lsmFile;
-        private final long position;
+    /**
+     * @return the timestamp of a new write: the current time, but newer than
+     * the last ingested file, so the write replaces the ingested version
+     */
+    private long now() {
+        return Math.max(Instant.now().toEpochMilli(), manifest.getIngestedTimestamp() + 1);
+    }
 
-        private Lookup(LSMFile lsmFile, long position) {
-            this.lsmFile = lsmFile;
-            this.position = position;
+    /**
+     * write an item to the memtables, sharing the lock with other writes if
+     * values may be relocated by the value log garbage collector
+     */
+    private void write(LSMItem item) throws IOException {
+        if (valueLog == null) {
+            memtables.put(item);
+            return;
         }
+        relocationLock.readLock().lock();
+        try {
+            memtables.put(item);
+        } finally {
+            relocationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param item newest version of a key as stored in the LSM tree, may be null
+     *
+     * @return true if the item exists and is neither a tombstone nor in a deleted range
+     */
+    private boolean isVisible(LSMItem item) {
+        return isVisible(item, rangeTombstones.size());
+    }
+
+    /**
+     * @param item newest version of a key as stored in the LSM tree, may be null
+     * @param rangeTombstoneCount amount of range tombstones to check, see {@link RangeTombstones#covers(LSMItem, int)}
+     *
+     * @return true if the item exists and is neither a tombstone nor in one of these deleted ranges
+     */
+    private boolean isVisible(LSMItem item, int rangeTombstoneCount) {
+        return item != null && !item.isTombstone() && !rangeTombstones.covers(item, rangeTombstoneCount);
     }
 
     /**
@@ -131,75 +434,267 @@ public class LSMStore implements KVStore {
      */
     @Override
     public KVItem get(String key) throws IOException {
+        LSMItem item = getNewest(Key.of(key));
+        if (!isVisible(item)) {
+            return null;
+        }
+        return resolve(item);
+    }
 
-        KVItem cachedItem = lsmCache.get(key);
-        if (cachedItem != null) {
-            if (!cachedItem.getValue().equals(Constants.DELETE_MARKER)) {
-                return cachedItem;
-            }
+    /**
+     * get the newest version of an item as stored in the LSM tree
+     *
+     * @param key key of the item
+     *
+     * @return the item, which might be a delete marker or hold a value pointer,
+     * or null if the key was never written
+     *
+     * @throws IOException if an IO error occurs on reading the LSMFiles
+     */
+    private LSMItem getNewest(Key key) throws IOException {
+        // the key is encoded and hashed once for the caches and all files
+        LSMItem cachedItem = memtables.get(key);
+        if (isNewest(cachedItem)) {
+            return cachedItem;
         }
 
-        ArrayList<Lookup> lookUps = new ArrayList<>();
-        List<LSMFile> lsmFiles = listLSMFiles(lsmFileDir);
+        try (LSMVersion version = manifest.acquire()) {
+            return newer(cachedItem, getNewest(key, version));
+        }
+    }
 
-        for (LSMFile f : lsmFiles) {
-            Long position = f.readIndex().get(key);
-            if (position != null) {
-                lookUps.add(new Lookup(f, position));
-            } else {
-                f.close();
-            }
+    /**
+     * get the newest version of an item as seen by a snapshot
+     */
+    private LSMItem getNewest(Key key, LSMSnapshot snapshot) throws IOException {
+        LSMItem cachedItem = snapshot.get(key);
+        if (isNewest(cachedItem)) {
+            return cachedItem;
         }
+        return newer(cachedItem, getNewest(key, snapshot.getVersion()));
+    }
 
-        TreeMap<Long, KVItem> items = new TreeMap<>();
-        for (Lookup l : lookUps) {
-            KVItem kvItem = l.lsmFile.readValue(l.position);
-            if (kvItem != null) {
-                items.put(kvItem.getTimestamp(), kvItem);
-            }
-            l.lsmFile.close();
+    /**
+     * the caches hold the most recent version of a key, unless a file with a
+     * newer version was ingested after the item was written
+     *
+     * @param cachedItem item read from the caches, may be null
+     *
+     * @return true if no LSMFile can hold a newer version of the key
+     */
+    private boolean isNewest(LSMItem cachedItem) {
+        return cachedItem != null && cachedItem.getTimestamp() >= manifest.getIngestedTimestamp();
+    }
+
+    /**
+     * @return the newer of an item from the caches and one from the LSMFiles,
+     * the cached item if both are equally new. Both may be null.
+     */
+    private static LSMItem newer(LSMItem cachedItem, LSMItem storedItem) {
+        if (cachedItem == null || (storedItem != null && MergingIterator.NEWEST_FIRST.compare(storedItem, cachedItem) < 0)) {
+            return storedItem;
         }
+        return cachedItem;
+    }
 
-        if (items.size() > 0) {
-            KVItem result = items.lastEntry().getValue();
-            if (!result.getValue().equals(Constants.DELETE_MARKER)) {
-                return result;
+    /**
+     * get the newest version of an item from the files of a version
+     */
+    private LSMItem getNewest(Key k, LSMVersion version) throws IOException {
+        LSMItem result = null;
+
+        for (LSMFile f : version.getFiles()) {
+            if (!mightContain(f, k)) {
+                continue;
+            }
+            long readBytes = f.getReadBytes();
+            LSMItem item = f.get(k);
+            fileBytesRead.addAndGet(f.getReadBytes() - readBytes);
+            if (item == null) {
+                if (f.hasFilter()) {
+                    filterFalsePositives.incrementAndGet();
+                }
+                continue;
+            }
+            itemBytesRead.addAndGet(item.length());
+            if (result == null || MergingIterator.NEWEST_FIRST.compare(item, result) < 0) {
+                result = item;
             }
         }
 
-        return null;
+        return result;
     }
 
-    @Override
-    public Set<String> getAllKeys(Predicate<String> predicate) throws IOException {
+    /**
+     * decode an item read from the LSM tree to return it, replacing a value
+     * pointer by the value from the value log
+     *
+     * @param item item read from the LSM tree
+     *
+     * @return the item with its actual value
+     *
+     * @throws IOException if the value can't be read from the value log
+     */
+    private KVItem resolve(LSMItem item) throws IOException {
+        if (valueLog == null || !ValuePointer.isPointer(item.getValue())) {
+            return item.toKVItem();
+        }
+        ValuePointer pointer;
+        try {
+            pointer = ValuePointer.decode(item.getValue());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid value pointer at key " + item.getKey(), e);
+        }
+        byte[] value = valueLog.read(item.getKey(), pointer);
+        return new KVItem(item.getKey().toString(), new String(value, StandardCharsets.UTF_8), item.getTimestamp());
+    }
+
+    /**
+     * run a single round of the value log garbage collector
+     *
+     * @return true if a segment was collected
+     */
+    boolean collectValueLog() throws IOException {
+        return valueLogGC != null && valueLogGC.collectOnce();
+    }
+
+    /**
+     * swap the memtable and wait until it is flushed
+     *
+     * @return true if it was flushed in time
+     */
+    boolean flush() throws InterruptedException {
+        return memtables.flush(CHECKPOINT_FLUSH_TIMEOUT);
+    }
+
+    /**
+     * run a single compaction picked by the given strategy instead of the configured one
+     *
+     * @return true if a compaction was run
+     */
+    boolean compact(CompactionStrategy strategy) throws IOException {
+        return lsmCompactor.compactOnce(strategy);
+    }
+
+    /**
+     * the LSM tree as seen by the value log garbage collector.
+     *
+     * A relocated value keeps the timestamp of the version it replaces, it
+     * only wins over the old pointer by its later position in the value log,
+     * see {@link MergingIterator#NEWEST_FIRST}.
+     *
+     * The value is appended to the value log before the relocation lock is
+     * taken, so writers aren't stalled while it is synced. If the key was
+     * written in the meantime, the appended copy is garbage and collected later.
+     */
+    private class ValueLogIndex implements ValueLogGarbageCollector.Index {
 
-        TreeMap<String, KVItem> cacheSnapshot = lsmCache.getShallowLsmCopy();
+        @Override
+        public boolean isLive(Key key, ValuePointer pointer) throws IOException {
+            LSMItem item = getNewest(key);
+            return isVisible(item) && Arrays.equals(item.getValue(), pointer.toBytes());
+        }
+
+        @Override
+        public boolean relocate(Key key, ValuePointer pointer, byte[] value) throws IOException {
+            if (!isLive(key, pointer)) {
+                return false;
+            }
+            ValuePointer moved = valueLog.append(key, value);
 
-        Set<String> matchingKeys = cacheSnapshot.keySet()
-                .stream()
-                .filter(predicate)
-                .collect(Collectors.toSet());
+            relocationLock.writeLock().lock();
+            try {
+                // the key may have been written while the value was appended
+                LSMItem item = getNewest(key);
+                if (!isVisible(item) || !Arrays.equals(item.getValue(), pointer.toBytes())) {
+                    return false;
+                }
+                memtables.put(new LSMItem(key, moved.toBytes(), item.getTimestamp(), false));
+                return true;
+            } finally {
+                relocationLock.writeLock().unlock();
+            }
+        }
 
-        List<LSMFile> lsmFiles = listLSMFiles(lsmFileDir);
+        @Override
+        public boolean hasSnapshots() {
+            return memtables.getSnapshotCount() > 0;
+        }
+    }
 
-        for (LSMFile f : lsmFiles) {
-            TreeMap<String, Long> node = f.readIndex();
-            matchingKeys.addAll(
-                    node.keySet()
-                            .stream()
-                            .filter(predicate)
-                            .collect(Collectors.toSet())
-            );
-            f.close();
+    /**
+     * check the bloom filter of an LSMFile and count negative answers
+     *
+     * @param f file to check
+     * @param key key to look for
+     *
+     * @return false if the file does not contain the key, true if it might
+     */
+    private boolean mightContain(LSMFile f, Key key) {
+        if (f.mightContain(key)) {
+            return true;
         }
 
-        return matchingKeys;
+        if (filterNegatives.incrementAndGet() % FILTER_STATS_LOG_INTERVAL == 0) {
+            logger.info(String.format("bloom filter false positive rate: %.4f (%d false positives), read amplification: %.2f, %s",
+                    getBloomFilterFalsePositiveRate(), filterFalsePositives.get(), getReadAmplification(), blockCache));
+        }
+        return false;
     }
 
     /**
-     * scan tries to get partially matched item set from the LSMTree by first looking if it is
-     * in the LSMCache and if it is not querying all LSMFiles and finding the
-     * most recent version.
+     * the observed false positive rate of the bloom filters, i.e. how often a
+     * filter answered "might contain" for a file which didn't contain the key.
+     *
+     * @return false positive rate since the store was started
+     */
+    public double getBloomFilterFalsePositiveRate() {
+        long falsePositives = filterFalsePositives.get();
+        long negatives = falsePositives + filterNegatives.get();
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+
+    /**
+     * the read amplification of point reads on LSMFiles, i.e. the bytes read
+     * from the data files per byte of the items found. Point reads on v2 files
+     * read whole blocks, also for keys which turn out to be missing.
+     *
+     * @return read amplification since the store was started
+     */
+    public double getReadAmplification() {
+        long items = itemBytesRead.get();
+        return items == 0 ? 0 : (double) fileBytesRead.get() / items;
+    }
+
+    /**
+     * @return the cache for decompressed blocks shared by all LSMFiles, or null if it is disabled
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * get the keys of all items matching a predicate from a snapshot of the
+     * store. Only the indexes of the LSMFiles are read, so the keys of deleted
+     * items may be included.
+     *
+     * @param predicate predicate on the keys
+     *
+     * @return the matching keys
+     *
+     * @throws IOException if an IO error occurs on reading the LSMFiles
+     */
+    @Override
+    public Set<String> getAllKeys(Predicate<String> predicate) throws IOException {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.getAllKeys(predicate);
+        }
+    }
+
+    /**
+     * scan gets all items whose keys contain the given partial key. All memtables
+     * and LSMFiles of a snapshot are merged in a single pass in key order, values
+     * of items whose keys don't match are skipped.
      *
      * @param key partial key
      *
@@ -209,49 +704,366 @@ public class LSMStore implements KVStore {
      */
     @Override
     public Set<KVItem> scan (String key) throws IOException{
-        Set<KVItem> cachedSet = lsmCache.scan(key);
-        Set<KVItem> totalSet = new HashSet<>(cachedSet);
-        Set<KVItem> lsmSet = new HashSet<>();
-        List<LSMFile> lsmFiles = listLSMFiles(lsmFileDir);
-        Set<String> totalKeySet =  new HashSet<>();
-        Set<KVItem> matchingSet = new HashSet<>();
-
-        for (LSMFile f: lsmFiles){
-           totalKeySet.addAll(f.readIndex().keySet());
-        }
-        ArrayList<Lookup> lookUp = new ArrayList<>();
-        for (String k : totalKeySet){
-            lookUp.clear();
-            for (LSMFile f: lsmFiles){
-                Long position = f.readIndex().get(k);
-                if (position != null) {
-                    lookUp.add(new Lookup(f, position));
-                } else {
-                    f.close();
+        try (Snapshot snapshot = snapshot()) {
+            return new HashSet<>(snapshot.getAll(k -> k.contains(key)));
+        }
+    }
+
+    /**
+     * get all items of a key range in ascending key order. The start of the
+     * range is looked up in the sorted index of every LSMFile, items outside of
+     * the range are never read.
+     *
+     * @param from first key of the range (inclusive)
+     * @param to end of the range (exclusive), null for no upper bound
+     * @param limit maximum amount of items to return, 0 or less for no limit
+     *
+     * @return the items of the range
+     *
+     * @throws IOException if an IO error occurs on reading the LSMFiles
+     */
+    @Override
+    public List<KVItem> rangeScan(String from, String to, int limit) throws IOException {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.rangeScan(from, to, limit);
+        }
+    }
+
+    /**
+     * get all items whose keys start with a prefix in ascending key order
+     *
+     * @param prefix prefix of the keys
+     * @param limit maximum amount of items to return, 0 or less for no limit
+     *
+     * @return the matching items
+     *
+     * @throws IOException if an IO error occurs on reading the LSMFiles
+     */
+    @Override
+    public List<KVItem> prefixScan(String prefix, int limit) throws IOException {
+        try (StoreSnapshot snapshot = takeSnapshot()) {
+            return snapshot.merge(Key.of(prefix), prefixEnd(prefix), null, limit);
+        }
+    }
+
+    /**
+     * the smallest key which is larger than all keys starting with the prefix,
+     * in the order of their UTF-8 bytes: the last byte which isn't 0xFF is
+     * incremented and everything after it is dropped. The end doesn't have to
+     * be valid UTF-8, it is only compared with the bytes of other keys.
+     *
+     * @return the end of the prefix range or null if there is no such key
+     */
+    static Key prefixEnd(String prefix) {
+        byte[] bytes = Key.of(prefix).getBytes();
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] == (byte) 0xFF) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        byte[] result = Arrays.copyOf(bytes, end);
+        result[end - 1]++;
+        return Key.wrap(result);
+    }
+
+    /**
+     * take a snapshot of the memtables, the live LSMFiles and the range
+     * tombstones. It only pins the current state, nothing is copied.
+     *
+     * @return the snapshot, which has to be closed after reading
+     */
+    @Override
+    public Snapshot snapshot() {
+        return takeSnapshot();
+    }
+
+    private StoreSnapshot takeSnapshot() {
+        int rangeTombstoneCount = rangeTombstones.size();
+        return new StoreSnapshot(memtables.snapshot(manifest), rangeTombstoneCount);
+    }
+
+    /**
+     * write a consistent copy of the store into a new directory, which can be
+     * opened as an LSMStore of its own, e.g. as a backup or to bootstrap a new node.
+     *
+     * The memtable is flushed first, then a snapshot is taken. Its LSMFiles and
+     * the sealed value log segments are hard linked, so the checkpoint takes the
+     * same time whatever the amount of data. Only the items written since the
+     * flush are copied, into the log of the checkpoint. The checkpoint is built
+     * next to the target and moved there once it's complete and synced.
+     *
+     * @param targetDir directory of the checkpoint, must not exist yet
+     *
+     * @throws IOException if the target exists or the checkpoint can't be written
+     */
+    @Override
+    public void checkpoint(Path targetDir) throws IOException {
+        checkpoint(targetDir, true);
+    }
+
+    /**
+     * write a consistent copy of the store into a new directory, see {@link #checkpoint(Path)}
+     *
+     * @param targetDir directory of the checkpoint, must not exist yet
+     * @param flush flush the memtable first. Otherwise the checkpoint doesn't
+     *              wait for the flusher, but all items of the memtables are
+     *              copied into its log.
+     *
+     * @throws IOException if the target exists or the checkpoint can't be written
+     */
+    public void checkpoint(Path targetDir, boolean flush) throws IOException {
+        long start = System.currentTimeMillis();
+        if (Files.exists(targetDir)) {
+            throw new FileAlreadyExistsException(targetDir.toString());
+        }
+        Path tmp = Paths.get(targetDir.toString() + ".tmp");
+        deleteAll(tmp);
+
+        try {
+            if (flush && !memtables.flush(CHECKPOINT_FLUSH_TIMEOUT)) {
+                // the snapshot is still consistent, the checkpoint only gets a longer log
+                logger.warning("Memtable not flushed in time, writing all memtables to the checkpoint log");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing for a checkpoint");
+        }
+
+        long items = 0;
+        int rangeTombstoneCount = rangeTombstones.size();
+        try (LSMSnapshot snapshot = memtables.snapshot(manifest)) {
+            manifest.checkpoint(snapshot.getVersion(), Paths.get(tmp.toString(), "data"));
+
+            try (LSMLog log = new LSMLog(Paths.get(tmp.toString(), "log"), LSMLog.SyncMode.NONE)) {
+                // oldest cache first, so newer versions are replayed last
+                List<LSMCache> caches = new ArrayList<>(snapshot.getCaches());
+                Collections.reverse(caches);
+                for (LSMCache cache : caches) {
+                    try (LSMIterator it = cache.iterator(null, null, null, snapshot.getSequence())) {
+                        while (it.hasNext()) {
+                            log.append(it.next());
+                            items++;
+                        }
+                    }
+                }
+            }
+
+            if (rangeTombstoneCount > 0) {
+                try (RangeTombstones ranges = new RangeTombstones(Paths.get(tmp.toString(), "rangetombstones"),
+                        LSMLog.SyncMode.NONE)) {
+                    for (RangeTombstones.Range r : rangeTombstones.getRanges().subList(0, rangeTombstoneCount)) {
+                        ranges.add(r.getFrom(), r.getTo(), r.getTimestamp());
+                    }
+                }
+            }
+
+            if (valueLog != null) {
+                valueLog.checkpoint(Paths.get(tmp.toString(), "vlog"));
+            }
+            syncAll(tmp);
+            Files.move(tmp, targetDir, StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info(String.format("Wrote checkpoint %s with %d LSMFiles and %d logged items in %d ms",
+                    targetDir, snapshot.getVersion().getFiles().size(), items, System.currentTimeMillis() - start));
+        } catch (IOException e) {
+            try {
+                deleteAll(tmp);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * ingest a sorted LSMFile built outside of the store, e.g. to bulk load a
+     * large data set without writing every item to the log and the memtable.
+     *
+     * The file is hard linked into the store, checked and added to the live
+     * files in a single manifest change. All its items get the time of the
+     * ingestion as their timestamp: they replace every version written before
+     * and are replaced by every version written after, whether the older
+     * versions are still in the memtables or already flushed. The source
+     * directory must not be changed afterwards, it can be deleted.
+     *
+     * @param fileDir directory of a complete LSMFile, as written by {@link LSMFile#close()}
+     *
+     * @throws IOException if the store already contains a file of that name, the
+     * file can't be linked or read, or its keys aren't sorted
+     */
+    @Override
+    public void ingest(Path fileDir) throws IOException {
+        long start = System.currentTimeMillis();
+        LSMFile file = manifest.importFile(fileDir);
+        long items = 0;
+        try {
+            try (LSMIterator it = file.iterator(null)) {
+                Key previous = null;
+                while (it.hasNext()) {
+                    LSMItem item = it.next();
+                    if (previous != null && previous.compareTo(item.getKey()) >= 0) {
+                        throw new IOException("LSMFile " + file.getName() + " is not sorted at key " + item.getKey());
+                    }
+                    if (ValuePointer.isPointer(item.getValue())) {
+                        throw new IOException("LSMFile " + file.getName() + " contains a value pointer at key " + item.getKey());
+                    }
+                    previous = item.getKey();
+                    items++;
                 }
             }
-            TreeMap<Long, KVItem> items = new TreeMap<>();
-            for (Lookup l : lookUp) {
-                KVItem kvItem = l.lsmFile.readValue(l.position);
-                if (kvItem != null) {
-                    items.put(kvItem.getTimestamp(), kvItem);
+            syncAll(Paths.get(lsmFileDir.toString(), file.getName()));
+            manifest.ingest(file, ingestionTimestamp());
+        } catch (IOException e) {
+            try {
+                file.close();
+                file.delete();
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+        logger.info(String.format("Ingested LSMFile %s with %d items in %d ms",
+                file.getName(), items, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * @return a timestamp which orders an ingested file after all earlier
+     * writes, ingestions and range deletions
+     */
+    private long ingestionTimestamp() {
+        // writes of the current millisecond are older than the ingestion
+        long timestamp = now() + 1;
+        for (RangeTombstones.Range range : rangeTombstones.getRanges()) {
+            timestamp = Math.max(timestamp, range.getTimestamp() + 1);
+        }
+        return timestamp;
+    }
+
+    /**
+     * sync all files of a directory to disk
+     */
+    private static void syncAll(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                try (FileChannel channel = FileChannel.open(p, StandardOpenOption.WRITE)) {
+                    channel.force(true);
                 }
-                l.lsmFile.close();
             }
-            if (items.size() > 0) {
-                KVItem lastEntry = items.lastEntry().getValue();
-                if (!lastEntry.getValue().equals(Constants.DELETE_MARKER)) {
-                    lsmSet.add(lastEntry);
+        }
+    }
+
+    /**
+     * delete a directory including all contained files, if it exists
+     */
+    private static void deleteAll(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * a snapshot of the store, which reads the pinned caches and files and
+     * ignores range tombstones added after it was taken
+     */
+    private class StoreSnapshot implements Snapshot {
+        private final LSMSnapshot snapshot;
+        private final int rangeTombstoneCount;
+
+        private StoreSnapshot(LSMSnapshot snapshot, int rangeTombstoneCount) {
+            this.snapshot = snapshot;
+            this.rangeTombstoneCount = rangeTombstoneCount;
+        }
+
+        @Override
+        public KVItem get(String key) throws IOException {
+            LSMItem item = getNewest(Key.of(key), snapshot);
+            if (!isVisible(item, rangeTombstoneCount)) {
+                return null;
+            }
+            return resolve(item);
+        }
+
+        @Override
+        public Set<String> getAllKeys(Predicate<String> predicate) throws IOException {
+            Set<String> matchingKeys = new HashSet<>();
+            for (LSMCache cache : snapshot.getCaches()) {
+                try (LSMIterator it = cache.iterator(null, null, predicate, snapshot.getSequence())) {
+                    while (it.hasNext()) {
+                        matchingKeys.add(it.next().getKey().toString());
+                    }
                 }
             }
+            for (LSMFile f : snapshot.getVersion().getFiles()) {
+                matchingKeys.addAll(f.getKeys(predicate));
+            }
+            return matchingKeys;
+        }
+
+        @Override
+        public List<KVItem> getAll(Predicate<String> predicate) throws IOException {
+            return merge(null, null, predicate, 0);
+        }
+
+        @Override
+        public List<KVItem> rangeScan(String from, String to, int limit) throws IOException {
+            return merge(from == null ? null : Key.of(from), to == null ? null : Key.of(to), null, limit);
         }
-        totalSet.addAll(lsmSet);
 
-        for (KVItem item: totalSet){
-            if (item.getKey().contains(key)){
-                matchingSet.add(item);
+        /**
+         * merge the items of a key range of all pinned caches and LSMFiles. Every
+         * key is returned once in its newest version, deleted keys are left out.
+         *
+         * @param from first key of the range (inclusive), null to start at the first key
+         * @param to end of the range (exclusive), null for no upper bound
+         * @param keyFilter only items whose keys match are returned, may be null
+         * @param limit maximum amount of items to return, 0 or less for no limit
+         *
+         * @return the items in ascending key order
+         *
+         * @throws IOException if an IO error occurs on reading the LSMFiles
+         */
+        private List<KVItem> merge(Key from, Key to, Predicate<String> keyFilter, int limit) throws IOException {
+            List<KVItem> result = new ArrayList<>();
+            if (from != null && to != null && from.compareTo(to) >= 0) {
+                return result;
+            }
+            // sources newest first, so that the memtables win on equal timestamps
+            List<LSMIterator> sources = new ArrayList<>();
+            try {
+                for (LSMCache cache : snapshot.getCaches()) {
+                    sources.add(cache.iterator(from, to, keyFilter, snapshot.getSequence()));
+                }
+                for (LSMFile f : snapshot.getVersion().getFiles()) {
+                    sources.add(f.iterator(from, to, keyFilter, null));
+                }
+            } catch (IOException e) {
+                for (LSMIterator it : sources) {
+                    it.close();
+                }
+                throw e;
             }
+
+            try (MergingIterator merged = new MergingIterator(sources)) {
+                while (merged.hasNext() && (limit <= 0 || result.size() < limit)) {
+                    LSMItem item = merged.next();
+                    if (isVisible(item, rangeTombstoneCount)) {
+                        result.add(resolve(item));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void close() {
+            snapshot.close();
         }
-        return matchingSet;
     }
 }
@@ -0,0 +1,198 @@
+package de.tum.i13.server.kv.stores;
+
+import de.tum.i13.lsm.BloomFilter;
+import de.tum.i13.lsm.CompactionStrategy;
+import de.tum.i13.lsm.LSMFile;
+import de.tum.i13.lsm.LSMLog;
+import de.tum.i13.lsm.LSMMemtables;
+import de.tum.i13.lsm.ValueLog;
+import de.tum.i13.lsm.ValueLogGarbageCollector;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * LSMStoreBuilder configures and builds a new {@link LSMStore}. The config
+ * methods return the builder instance, so the calls can be chained and the
+ * store will only be built and returned when the build method is called.
+ */
+public final class LSMStoreBuilder {
+
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private Path dataDir;
+    private int bloomBitsPerKey = BloomFilter.DEFAULT_BITS_PER_KEY;
+    private CompactionStrategy.Type compactionStrategy = CompactionStrategy.Type.LEVELED;
+    private long compactionBytesPerSecond = 0;
+    private LSMFile.ReadMode readMode = LSMFile.ReadMode.STREAM;
+    private LSMLog.SyncMode logSyncMode = LSMLog.SyncMode.BATCH;
+    private long memtableBytes = LSMMemtables.DEFAULT_MEMTABLE_BYTES;
+    private int maxImmutableMemtables = LSMMemtables.DEFAULT_MAX_IMMUTABLE_MEMTABLES;
+    private LSMFile.Format fileFormat = LSMFile.Format.V2;
+    private int blockSize = LSMFile.DEFAULT_BLOCK_SIZE;
+    private long blockCacheBytes = DEFAULT_BLOCK_CACHE_BYTES;
+    private int valueThreshold = 0;
+    private long valueLogSegmentBytes = ValueLog.DEFAULT_SEGMENT_BYTES;
+    private double valueLogDiscardRatio = ValueLogGarbageCollector.DEFAULT_DISCARD_RATIO;
+
+    public static LSMStoreBuilder newBuilder() {
+        return new LSMStoreBuilder();
+    }
+
+    public LSMStoreBuilder dataDir(Path dataDir) {
+        this.dataDir = dataDir;
+        return this;
+    }
+
+    public LSMStoreBuilder bloomBitsPerKey(int bloomBitsPerKey) {
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        return this;
+    }
+
+    public LSMStoreBuilder compactionStrategy(CompactionStrategy.Type compactionStrategy) {
+        this.compactionStrategy = compactionStrategy;
+        return this;
+    }
+
+    /**
+     * @param compactionBytesPerSecond IO limit of the background compaction, 0 for no limit
+     */
+    public LSMStoreBuilder compactionRateLimit(long compactionBytesPerSecond) {
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+        return this;
+    }
+
+    public LSMStoreBuilder readMode(LSMFile.ReadMode readMode) {
+        this.readMode = readMode;
+        return this;
+    }
+
+    public LSMStoreBuilder logSyncMode(LSMLog.SyncMode logSyncMode) {
+        this.logSyncMode = logSyncMode;
+        return this;
+    }
+
+    /**
+     * @param memtableBytes size in bytes at which the memtable is flushed
+     */
+    public LSMStoreBuilder memtableSize(long memtableBytes) {
+        this.memtableBytes = memtableBytes;
+        return this;
+    }
+
+    /**
+     * @param maxImmutableMemtables amount of memtables waiting for flush at which writes are stalled
+     */
+    public LSMStoreBuilder maxImmutableMemtables(int maxImmutableMemtables) {
+        this.maxImmutableMemtables = maxImmutableMemtables;
+        return this;
+    }
+
+    /**
+     * @param fileFormat format of newly written LSMFiles, existing files are read in any format
+     */
+    public LSMStoreBuilder fileFormat(LSMFile.Format fileFormat) {
+        this.fileFormat = fileFormat;
+        return this;
+    }
+
+    /**
+     * @param blockSize size in bytes of the uncompressed blocks of v2 LSMFiles
+     */
+    public LSMStoreBuilder blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * @param blockCacheBytes size in bytes of the cache for decompressed blocks, 0 disables the cache
+     */
+    public LSMStoreBuilder blockCacheSize(long blockCacheBytes) {
+        this.blockCacheBytes = blockCacheBytes;
+        return this;
+    }
+
+    /**
+     * @param valueThreshold values longer than this are stored in the value log, 0 keeps all values in the LSM tree
+     */
+    public LSMStoreBuilder valueThreshold(int valueThreshold) {
+        this.valueThreshold = valueThreshold;
+        return this;
+    }
+
+    /**
+     * @param valueLogSegmentBytes size in bytes at which a new value log segment is started
+     */
+    public LSMStoreBuilder valueLogSegmentSize(long valueLogSegmentBytes) {
+        this.valueLogSegmentBytes = valueLogSegmentBytes;
+        return this;
+    }
+
+    /**
+     * @param valueLogDiscardRatio share of dead bytes at which a value log segment is collected
+     */
+    public LSMStoreBuilder valueLogDiscardRatio(double valueLogDiscardRatio) {
+        this.valueLogDiscardRatio = valueLogDiscardRatio;
+        return this;
+    }
+
+    Path getDataDir() {
+        return dataDir;
+    }
+
+    int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    CompactionStrategy.Type getCompactionStrategy() {
+        return compactionStrategy;
+    }
+
+    long getCompactionBytesPerSecond() {
+        return compactionBytesPerSecond;
+    }
+
+    LSMFile.ReadMode getReadMode() {
+        return readMode;
+    }
+
+    LSMLog.SyncMode getLogSyncMode() {
+        return logSyncMode;
+    }
+
+    long getMemtableBytes() {
+        return memtableBytes;
+    }
+
+    int getMaxImmutableMemtables() {
+        return maxImmutableMemtables;
+    }
+
+    LSMFile.Format getFileFormat() {
+        return fileFormat;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    int getValueThreshold() {
+        return valueThreshold;
+    }
+
+    long getValueLogSegmentBytes() {
+        return valueLogSegmentBytes;
+    }
+
+    double getValueLogDiscardRatio() {
+        return valueLogDiscardRatio;
+    }
+
+    public LSMStore build() throws IOException {
+        return new LSMStore(this);
+    }
+}
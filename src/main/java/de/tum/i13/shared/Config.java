@@ -29,9 +29,54 @@ public class Config {
     @CommandLine.Option(names = "-c", description = "Sets the cachesize, e.g., 100 keys", defaultValue = "3")
     public int cachesize;
 
-    @CommandLine.Option(names = "-s", description = "Sets the cache displacement strategy, FIFO, LRU, LFU", defaultValue = "LFU")
+    @CommandLine.Option(names = "-s", description = "Sets the cache displacement strategy, FIFO, LRU, LFU, STRIPED_LRU, TINYLFU, OFF_HEAP", defaultValue = "LFU")
     public String cachedisplacement;
 
+    @CommandLine.Option(names = "-cw", description = "Limits the cache by the size of the cached keys and values in bytes instead of the amount of items set by -c, 0 to disable", defaultValue = "0")
+    public long cacheMaxWeight;
+
+    @CommandLine.Option(names = "-nc", description = "Amount of keys not found in the store which are remembered to answer repeated gets without reading the store, 0 disables it", defaultValue = "10000")
+    public int negativeCacheSize;
+
+    @CommandLine.Option(names = "-ct", description = "Appends the keys of all cache gets to this file, to be replayed by the CacheSimulator")
+    public Path cacheTrace;
+
+    @CommandLine.Option(names = "-bf", description = "Sets the bloom filter bits per key of new LSM files, 0 disables the filters", defaultValue = "10")
+    public int bloomBitsPerKey;
+
+    @CommandLine.Option(names = "-cs", description = "Sets the LSM compaction strategy, NONE, SIZE_TIERED, LEVELED", defaultValue = "LEVELED")
+    public String compactionStrategy;
+
+    @CommandLine.Option(names = "-cr", description = "Limits the IO of the LSM compaction, in MB per second, 0 for no limit", defaultValue = "32")
+    public int compactionRate;
+
+    @CommandLine.Option(names = "-rm", description = "Read mode of the LSM data files: STREAM or MMAP", defaultValue = "STREAM")
+    public String readMode;
+
+    @CommandLine.Option(names = "-ls", description = "Sync mode of the write ahead log: NONE, BATCH (sync per group commit) or ALWAYS (sync per item)", defaultValue = "BATCH")
+    public String logSyncMode;
+
+    @CommandLine.Option(names = "-mt", description = "Size of the LSM memtable in KB, it is flushed when full", defaultValue = "4096")
+    public int memtableSize;
+
+    @CommandLine.Option(names = "-mi", description = "Amount of full memtables waiting for flush at which writes are stalled", defaultValue = "4")
+    public int maxImmutableMemtables;
+
+    @CommandLine.Option(names = "-ff", description = "Format of new LSM data files: V1 (fixed size records) or V2 (compressed blocks)", defaultValue = "V2")
+    public String fileFormat;
+
+    @CommandLine.Option(names = "-bs", description = "Size of the uncompressed blocks of V2 LSM data files in KB", defaultValue = "4")
+    public int blockSize;
+
+    @CommandLine.Option(names = "-bc", description = "Size of the cache for decompressed blocks of LSM data files in MB, 0 disables it", defaultValue = "8")
+    public int blockCacheSize;
+
+    @CommandLine.Option(names = "-vt", description = "Values longer than this many bytes are stored in a separate value log, 0 disables the value log", defaultValue = "0")
+    public int valueThreshold;
+
+    @CommandLine.Option(names = "-bw", description = "Skips the lookup of existing items on put and delete, the reply is estimated from the caches and bloom filters instead")
+    public boolean blindWrites;
+
     @CommandLine.Option(names = "-h", description = "Displays help", usageHelp = true)
     public boolean usagehelp;
 
@@ -77,6 +122,21 @@ public class Config {
                 ", loglevel='" + loglevel + '\'' +
                 ", cachesize=" + cachesize +
                 ", cachedisplacement='" + cachedisplacement + '\'' +
+                ", cacheMaxWeight=" + cacheMaxWeight +
+                ", cacheTrace=" + cacheTrace +
+                ", negativeCacheSize=" + negativeCacheSize +
+                ", bloomBitsPerKey=" + bloomBitsPerKey +
+                ", compactionStrategy='" + compactionStrategy + '\'' +
+                ", compactionRate=" + compactionRate +
+                ", readMode='" + readMode + '\'' +
+                ", logSyncMode='" + logSyncMode + '\'' +
+                ", memtableSize=" + memtableSize +
+                ", maxImmutableMemtables=" + maxImmutableMemtables +
+                ", fileFormat=" + fileFormat +
+                ", blockSize=" + blockSize +
+                ", blockCacheSize=" + blockCacheSize +
+                ", valueThreshold=" + valueThreshold +
+                ", blindWrites=" + blindWrites +
                 ", usagehelp=" + usagehelp + '\'' +
                 '}';
     }
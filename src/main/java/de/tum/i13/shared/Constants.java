@@ -8,6 +8,7 @@ public class Constants {
     public static final String DELETE_MARKER = "KVSTORE::DELETE_MARKER";
     public static final String FLUSH_MESSAGE = "KVSTORE::CACHE_FLUSH";
     public static final String REPLICATION_STOP_MARKER = "KVSTORE::REPLICATION_STOP_MARKER";
+    public static final String VALUE_POINTER_MARKER = "KVSTORE::VALUE_POINTER::";
 
     public static final int PING_TIMEOUT = 700;
 
@@ -1,9 +1,14 @@
 package de.tum.i13.shared;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 
 /**
  * Holds a key-value pair. The value is optional and defaults to null.
+ *
+ * A tombstone marks the deletion of a key in a store. Its value is
+ * {@link Constants#DELETE_MARKER} for code which only looks at values, but
+ * stores check {@link #isTombstone()} instead of comparing the value.
  */
 public class KVItem {
     private final String key;
@@ -11,6 +16,7 @@ public class KVItem {
     private static final int KEY_MAX_BYTES = 20;
     private static final int VAL_MAX_BYTES = 120000;
     private long timestamp;
+    private boolean tombstone = false;
 
     public KVItem(String key) {
         this.key = key;
@@ -27,15 +33,33 @@ public class KVItem {
         this.timestamp = timestamp;
     }
 
+    /**
+     * create a tombstone which marks the key as deleted
+     *
+     * @param key the deleted key
+     * @param timestamp time of the deletion
+     *
+     * @return the tombstone
+     */
+    public static KVItem tombstone(String key, long timestamp) {
+        KVItem item = new KVItem(key, Constants.DELETE_MARKER, timestamp);
+        item.tombstone = true;
+        return item;
+    }
+
+    public boolean isTombstone() {
+        return tombstone;
+    }
+
     public boolean
     isValid() {
         if (this.key == null || this.key.isEmpty()) {
             return false;
         }
-        if (this.key.getBytes().length > KEY_MAX_BYTES) {
+        if (this.key.getBytes(StandardCharsets.UTF_8).length > KEY_MAX_BYTES) {
             return false;
         }
-        return this.value == null || this.value.getBytes().length <= VAL_MAX_BYTES;
+        return this.value == null || this.value.getBytes(StandardCharsets.UTF_8).length <= VAL_MAX_BYTES;
     }
 
     public String getKey() {
@@ -52,7 +76,7 @@ public class KVItem {
 
     public String getValueAs64() {
         if (hasValue()) {
-            return Base64.getEncoder().encodeToString(value.getBytes());
+            return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
         }
         return null;
     }
@@ -63,7 +87,7 @@ public class KVItem {
 
     public void setValueFrom64(String rawInput) {
         if (rawInput != null) {
-            this.value = new String(Base64.getDecoder().decode(rawInput.getBytes()));
+            this.value = new String(Base64.getDecoder().decode(rawInput), StandardCharsets.UTF_8);
         } else {
             this.value = null;
         }
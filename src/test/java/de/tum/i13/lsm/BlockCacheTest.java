@@ -0,0 +1,99 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCacheTest {
+
+    private static final String TEST_DIR = "blockcachetest";
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        if (!Files.exists(Paths.get(TEST_DIR))) {
+            return;
+        }
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Test
+    public void testGetAndPut() {
+        BlockCache cache = new BlockCache(64 * 1024, 4);
+        byte[] block = new byte[1000];
+
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, block);
+        assertSame(block, cache.get(1, 0));
+        assertNull(cache.get(2, 0));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.getSize() >= 1000);
+
+        cache.invalidate(1);
+        assertNull(cache.get(1, 0));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        BlockCache cache = new BlockCache(16 * 1024, 1);
+        for (int i = 0; i < 100; i++) {
+            cache.put(1, i * 1000L, new byte[1000]);
+        }
+        assertTrue(cache.getSize() <= 16 * 1024);
+        assertTrue(cache.getEvictionCount() > 80);
+        assertNotNull(cache.get(1, 99 * 1000L));
+        assertNull(cache.get(1, 0));
+    }
+
+    @Test
+    public void testScanDoesNotEvictHotBlocks() {
+        BlockCache cache = new BlockCache(20 * 1024, 1);
+        // hot blocks are read twice and promoted
+        for (int i = 0; i < 10; i++) {
+            cache.put(1, i, new byte[1000]);
+            cache.get(1, i);
+        }
+        // a scan reads many blocks once
+        for (int i = 0; i < 1000; i++) {
+            cache.put(2, i, new byte[1000]);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get(1, i));
+        }
+    }
+
+    @Test
+    public void testLSMFileUsesCache() throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR), BloomFilter.DEFAULT_BITS_PER_KEY, LSMFile.Format.V2, 1024);
+        for (int i = 0; i < 100; i++) {
+            lsmFile.append(new KVItem(String.format("key%03d", i), "value" + i, i));
+        }
+        lsmFile.close();
+
+        BlockCache cache = new BlockCache(1024 * 1024);
+        try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), lsmFile.getName(), LSMFile.ReadMode.STREAM, cache)) {
+            assertEquals("value5", readFile.get("key005".getBytes()).toKVItem().getValue());
+            long readBytes = readFile.getReadBytes();
+            assertEquals("value6", readFile.get("key006".getBytes()).toKVItem().getValue());
+
+            assertEquals(readBytes, readFile.getReadBytes());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        }
+        assertEquals(0, cache.getSize());
+    }
+}
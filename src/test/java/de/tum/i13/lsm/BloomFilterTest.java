@@ -0,0 +1,56 @@
+package de.tum.i13.lsm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    private static BloomFilter filterOf(int count, int bitsPerKey) {
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = BloomFilter.hash(("key" + i).getBytes());
+        }
+        return BloomFilter.fromHashes(hashes, count, bitsPerKey);
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = filterOf(1000, 10);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = filterOf(10000, 10);
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(("other" + i).getBytes())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives / 10000.0 < 0.02);
+        assertTrue(filter.getExpectedFalsePositiveRate() < 0.01);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        BloomFilter filter = filterOf(100, 8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+
+        BloomFilter read = BloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(filter.getNumBits(), read.getNumBits());
+        assertEquals(filter.getNumHashes(), read.getNumHashes());
+        assertEquals(100, read.getNumKeys());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(read.mightContain(("key" + i).getBytes()));
+        }
+    }
+}
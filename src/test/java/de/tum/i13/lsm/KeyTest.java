@@ -0,0 +1,88 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyTest {
+
+    private static final String TEST_DIR = "keytest";
+
+    // ascii, latin-1, the end of the basic multilingual plane and a surrogate pair
+    private static final List<String> KEYS = List.of("", "a", "ab", "b", "caf\u00e9", "\uE000", "\uFFFD", "\uD83D\uDE00");
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        if (!Files.exists(Paths.get(TEST_DIR))) {
+            return;
+        }
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Test
+    public void testCompareMatchesBytes() {
+        for (String a : KEYS) {
+            for (String b : KEYS) {
+                assertEquals(Integer.signum(Key.of(a).compareTo(Key.of(b))), Integer.signum(Key.compare(a, b)), a + " " + b);
+            }
+        }
+        // UTF-16 orders the surrogate pair first, UTF-8 last
+        assertTrue("\uD83D\uDE00".compareTo("\uE000") < 0);
+        assertTrue(Key.compare("\uD83D\uDE00", "\uE000") > 0);
+    }
+
+    @Test
+    public void testEqualsAndHashes() {
+        Key key = Key.of("caf\u00e9");
+        Key wrapped = Key.wrap("caf\u00e9".getBytes(StandardCharsets.UTF_8));
+        assertEquals(key, wrapped);
+        assertEquals(key.hashCode(), wrapped.hashCode());
+        assertEquals(5, key.length());
+        assertEquals("caf\u00e9", key.toString());
+        assertEquals(BloomFilter.hash(key.getBytes()), key.filterHash());
+        assertNotEquals(key, Key.of("cafe"));
+    }
+
+    @Test
+    public void testFileUsesKeyOrder() throws IOException {
+        List<String> sorted = new ArrayList<>(KEYS.subList(1, KEYS.size()));
+        sorted.sort(Key::compare);
+
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR), BloomFilter.DEFAULT_BITS_PER_KEY, LSMFile.Format.V2, 64);
+        for (String key : sorted) {
+            assertTrue(lsmFile.append(new KVItem(key, "value " + key, 1)));
+        }
+        lsmFile.close();
+
+        try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), lsmFile.getName())) {
+            for (String key : sorted) {
+                assertTrue(readFile.mightContain(Key.of(key)));
+                assertEquals("value " + key, readFile.get(Key.of(key)).toKVItem().getValue());
+            }
+            assertEquals("\uD83D\uDE00", readFile.getLastKey());
+
+            List<String> range = new ArrayList<>();
+            try (LSMIterator it = readFile.iterator(Key.of("caf\u00e9"), Key.of("\uFFFD"), null, null)) {
+                while (it.hasNext()) {
+                    range.add(it.next().getKey().toString());
+                }
+            }
+            assertEquals(List.of("caf\u00e9", "\uE000"), range);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.Constants;
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LSMCompactorTest {
+
+    private static final String TEST_DIR = "compactiontest";
+
+    private LSMManifest manifest;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        manifest = new LSMManifest(Paths.get(TEST_DIR));
+    }
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private void flush(KVItem... items) throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR));
+        for (KVItem item : items) {
+            lsmFile.append(item);
+        }
+        lsmFile.close();
+        manifest.add(new LSMFile(Paths.get(TEST_DIR), lsmFile.getName()));
+    }
+
+    private void flushTestFiles() throws IOException {
+        flush(new KVItem("a", "a1", 1), new KVItem("b", "b1", 1), new KVItem("c", "c1", 1));
+        flush(new KVItem("a", "a2", 2), new KVItem("d", "d2", 2));
+        flush(new KVItem("b", Constants.DELETE_MARKER, 3), new KVItem("e", "e3", 3));
+        flush(new KVItem("c", "c4", 4), new KVItem("e", Constants.DELETE_MARKER, 4));
+    }
+
+    private List<KVItem> readAll(LSMVersion version) throws IOException {
+        List<LSMIterator> iterators = new ArrayList<>();
+        for (LSMFile f : version.getFiles()) {
+            iterators.add(f.iterator(null));
+        }
+        List<KVItem> items = new ArrayList<>();
+        try (MergingIterator it = new MergingIterator(iterators)) {
+            while (it.hasNext()) {
+                items.add(it.next().toKVItem());
+            }
+        }
+        return items;
+    }
+
+    private void assertMerged(List<KVItem> items) {
+        assertEquals(3, items.size());
+        assertEquals("a2", items.get(0).getValue());
+        assertEquals("c4", items.get(1).getValue());
+        assertEquals("d2", items.get(2).getValue());
+    }
+
+    @Test
+    public void testMergingIteratorKeepsNewestVersion() throws IOException {
+        flushTestFiles();
+        try (LSMVersion version = manifest.acquire()) {
+            List<KVItem> items = readAll(version);
+            assertEquals(5, items.size());
+            assertEquals("a2", items.get(0).getValue());
+            assertEquals(Constants.DELETE_MARKER, items.get(1).getValue());
+            assertEquals("c4", items.get(2).getValue());
+            assertEquals("d2", items.get(3).getValue());
+            assertEquals(Constants.DELETE_MARKER, items.get(4).getValue());
+        }
+    }
+
+    @Test
+    public void testSizeTieredCompaction() throws IOException {
+        flushTestFiles();
+        LSMCompactor compactor = new LSMCompactor(manifest, Paths.get(TEST_DIR),
+                CompactionStrategy.Type.SIZE_TIERED.build(), new RateLimiter(0), 10);
+
+        assertTrue(compactor.compactOnce());
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(1, version.getFiles().size());
+            assertEquals(0, version.getFiles().get(0).getLevel());
+            // delete markers are dropped since no other file contains the keys
+            assertMerged(readAll(version));
+        }
+        assertFalse(compactor.compactOnce());
+    }
+
+    @Test
+    public void testLeveledCompaction() throws IOException {
+        flushTestFiles();
+        LSMCompactor compactor = new LSMCompactor(manifest, Paths.get(TEST_DIR),
+                CompactionStrategy.Type.LEVELED.build(), new RateLimiter(0), 10);
+
+        assertTrue(compactor.compactOnce());
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(1, version.getFiles().size());
+            assertEquals(1, version.getFiles().get(0).getLevel());
+            assertMerged(readAll(version));
+        }
+        assertFalse(compactor.compactOnce());
+
+        // new level 0 files are merged with the overlapping level 1 file
+        flush(new KVItem("a", "a5", 5));
+        flush(new KVItem("f", "f6", 6));
+        flush(new KVItem("g", "g7", 7));
+        flush(new KVItem("h", "h8", 8));
+        assertTrue(compactor.compactOnce());
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(1, version.getFiles().size());
+            List<KVItem> items = readAll(version);
+            assertEquals(6, items.size());
+            assertEquals("a5", items.get(0).getValue());
+        }
+    }
+
+    @Test
+    public void testDeleteMarkerIsKeptIfOlderVersionExistsOutsideCompaction() throws IOException {
+        flush(new KVItem("x", "x0", 0));
+        // make the files big enough to end up in a different bucket than the first one
+        String value = "v".repeat(1100 * 1024);
+        for (int i = 1; i <= 4; i++) {
+            flush(new KVItem("k" + i, value, i), new KVItem("x", Constants.DELETE_MARKER, i));
+        }
+
+        LSMCompactor compactor = new LSMCompactor(manifest, Paths.get(TEST_DIR),
+                CompactionStrategy.Type.SIZE_TIERED.build(), new RateLimiter(0), 10);
+        assertTrue(compactor.compactOnce());
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(2, version.getFiles().size());
+            List<KVItem> items = readAll(version);
+            assertEquals(Constants.DELETE_MARKER, items.get(items.size() - 1).getValue());
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsFileOrderForEqualTimestamps() throws IOException {
+        flush(new KVItem("k", "old", 5));
+        flush(new KVItem("k", "new", 5));
+        LSMFile older;
+        try (LSMVersion version = manifest.acquire()) {
+            older = version.getFiles().get(1);
+        }
+
+        LSMCompactor compactor = new LSMCompactor(manifest, Paths.get(TEST_DIR),
+                CompactionStrategy.Type.SIZE_TIERED.build(), new RateLimiter(0), 10);
+        assertTrue(compactor.compactOnce(v -> new Compaction(List.of(older), 0, Long.MAX_VALUE)));
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(2, version.getFiles().size());
+            assertEquals("new", readAll(version).get(0).getValue());
+        }
+    }
+
+    @Test
+    public void testSizeTieredCompactionMergesOnlyAdjacentFiles() throws IOException {
+        String value = "v".repeat(1100 * 1024);
+        flush(new KVItem("a", "a1", 1));
+        flush(new KVItem("b", "b2", 2));
+        flush(new KVItem("k", value, 3));
+        flush(new KVItem("c", "c4", 4));
+        flush(new KVItem("d", "d5", 5));
+        flush(new KVItem("e", "e6", 6));
+
+        // the big file splits the small files into two runs that are too short
+        try (LSMVersion version = manifest.acquire()) {
+            assertNull(CompactionStrategy.Type.SIZE_TIERED.build().pick(version));
+        }
+
+        flush(new KVItem("f", "f7", 7));
+        try (LSMVersion version = manifest.acquire()) {
+            Compaction compaction = CompactionStrategy.Type.SIZE_TIERED.build().pick(version);
+            assertEquals(version.getFiles().subList(0, 4), compaction.getInputs());
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package de.tum.i13.lsm;
 
+import de.tum.i13.shared.Constants;
 import de.tum.i13.shared.KVItem;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.io.RandomAccessFile;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeMap;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -56,15 +61,172 @@ class LSMFileTest {
         assertEquals(kvItem2.getKey(), index.lastKey());
         assertEquals(49, index.get(kvItem2.getKey()));
 
-        KVItem receivedItem1 = lsmFile.readValue(index.firstEntry().getValue());
+        KVItem receivedItem1 = lsmFile.readValue(index.firstEntry().getValue()).toKVItem();
         assertEquals(kvItem1.getKey(), receivedItem1.getKey());
         assertEquals(kvItem1.getValue(), receivedItem1.getValue());
         assertEquals(kvItem1.getTimestamp(), receivedItem1.getTimestamp());
 
-        KVItem receivedItem2 = lsmFile.readValue(index.firstEntry().getValue());
+        KVItem receivedItem2 = lsmFile.readValue(index.lastEntry().getValue()).toKVItem();
         assertEquals(kvItem2.getKey(), receivedItem2.getKey());
         assertEquals(kvItem2.getValue(), receivedItem2.getValue());
         assertEquals(kvItem2.getTimestamp(), receivedItem2.getTimestamp());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testTombstones() throws IOException {
+        for (LSMFile.Format format : LSMFile.Format.values()) {
+            LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR), BloomFilter.DEFAULT_BITS_PER_KEY, format, 1024);
+            lsmFile.append(new KVItem("a", "value", 1));
+            lsmFile.append(KVItem.tombstone("b", 2));
+            lsmFile.append(new KVItem("c", Constants.DELETE_MARKER, 3));
+            lsmFile.close();
+
+            try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), lsmFile.getName())) {
+                assertFalse(readFile.get("a".getBytes()).isTombstone());
+                KVItem deleted = readFile.get("b".getBytes()).toKVItem();
+                assertTrue(deleted.isTombstone());
+                assertEquals(2, deleted.getTimestamp());
+                assertEquals(Constants.DELETE_MARKER, deleted.getValue());
+                // items written with the marker as value are still recognized
+                assertTrue(readFile.get("c".getBytes()).isTombstone());
+
+                List<Boolean> tombstones = new ArrayList<>();
+                try (LSMIterator it = readFile.iterator(null)) {
+                    while (it.hasNext()) {
+                        tombstones.add(it.next().isTombstone());
+                    }
+                }
+                assertEquals(List.of(false, true, true), tombstones);
+            }
+        }
+    }
+
+    @Test
+    public void testReadMappedLSMFile() throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR));
+        String name = lsmFile.getName();
+        KVItem kvItem1 = new KVItem("key", "value", Instant.now().toEpochMilli());
+        KVItem kvItem2 = new KVItem("key2", "", Instant.now().toEpochMilli());
+        lsmFile.append(kvItem1);
+        lsmFile.append(kvItem2);
+        lsmFile.close();
+
+        try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), name, LSMFile.ReadMode.MMAP)) {
+            assertEquals(LSMFile.ReadMode.MMAP, readFile.getReadMode());
+            assertEquals(2, readFile.getIndex().size());
+
+            KVItem receivedItem1 = readFile.readValue(readFile.getIndex().find("key".getBytes())).toKVItem();
+            assertEquals(kvItem1.getKey(), receivedItem1.getKey());
+            assertEquals(kvItem1.getValue(), receivedItem1.getValue());
+            assertEquals(kvItem1.getTimestamp(), receivedItem1.getTimestamp());
+
+            KVItem receivedItem2 = readFile.readValue(readFile.getIndex().find("key2".getBytes())).toKVItem();
+            assertEquals(kvItem2.getKey(), receivedItem2.getKey());
+            assertEquals(kvItem2.getValue(), receivedItem2.getValue());
+
+            assertThrows(EOFException.class, () -> readFile.readValue(1000));
+        }
+    }
+
+    @Test
+    public void testReadFilter() throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR));
+        String name = lsmFile.getName();
+        lsmFile.append(new KVItem("key", "value", Instant.now().toEpochMilli()));
+        lsmFile.close();
+
+        try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), name)) {
+            BloomFilter filter = readFile.readFilter();
+            assertNotNull(filter);
+            assertEquals(1, filter.getNumKeys());
+            assertTrue(filter.mightContain("key".getBytes()));
+        }
+    }
+
+    private static String value(int i) {
+        return "Message-ID: <" + i + ".JavaMail.evans@thyme>\nSubject: Re: meeting " + (i % 7) + "\n" +
+                "Please let me know if you have any questions about the schedule.".repeat(1 + i % 3);
+    }
+
+    private LSMFile writeFile(LSMFile.Format format, int count) throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR), BloomFilter.DEFAULT_BITS_PER_KEY, format, 1024);
+        for (int i = 0; i < count; i++) {
+            lsmFile.append(new KVItem(String.format("key%05d", i * 2), value(i), i));
+        }
+        lsmFile.close();
+        return lsmFile;
+    }
+
+    @Test
+    public void testReadBlockLSMFile() throws IOException {
+        String name = writeFile(LSMFile.Format.V2, 500).getName();
+
+        for (LSMFile.ReadMode readMode : LSMFile.ReadMode.values()) {
+            try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), name, readMode)) {
+                assertEquals(LSMFile.Format.V2, readFile.getFormat());
+                assertEquals(500, readFile.getKeyCount());
+                assertEquals("key00000", readFile.getFirstKey());
+                assertEquals("key00998", readFile.getLastKey());
+                assertTrue(readFile.getIndex().size() > 1);
+
+                for (int i = 0; i < 500; i++) {
+                    KVItem item = readFile.get(String.format("key%05d", i * 2).getBytes()).toKVItem();
+                    assertNotNull(item);
+                    assertEquals(value(i), item.getValue());
+                    assertEquals(i, item.getTimestamp());
+                    assertNull(readFile.get(String.format("key%05d", i * 2 + 1).getBytes()));
+                }
+                assertNull(readFile.get("a".getBytes()));
+                assertNull(readFile.get("z".getBytes()));
+                assertThrows(IOException.class, () -> readFile.readValue(0));
+            }
+        }
+    }
+
+    @Test
+    public void testIterateBlockLSMFile() throws IOException {
+        String name = writeFile(LSMFile.Format.V2, 500).getName();
+
+        try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), name)) {
+            List<String> keys = new ArrayList<>();
+            try (LSMIterator it = readFile.iterator(Key.of("key00101"), Key.of("key00111"), null, null)) {
+                while (it.hasNext()) {
+                    keys.add(it.next().getKey().toString());
+                }
+            }
+            assertEquals(List.of("key00102", "key00104", "key00106", "key00108", "key00110"), keys);
+
+            assertEquals(500, readFile.getKeys(k -> true).size());
+            assertEquals(List.of("key00998"), readFile.getKeys(k -> k.endsWith("998")));
+        }
+    }
+
+    @Test
+    public void testBlockChecksum() throws IOException {
+        String name = writeFile(LSMFile.Format.V2, 100).getName();
+
+        try (RandomAccessFile data = new RandomAccessFile(Paths.get(TEST_DIR, name, "data-" + name).toFile(), "rw")) {
+            data.seek(10);
+            int b = data.read();
+            data.seek(10);
+            data.write(b ^ 0xff);
+        }
+
+        try (LSMFile readFile = new LSMFile(Paths.get(TEST_DIR), name)) {
+            assertThrows(IOException.class, () -> readFile.get("key00000".getBytes()));
+        }
+    }
+
+    @Test
+    public void testBlockFormatIsSmaller() throws IOException {
+        LSMFile v1 = writeFile(LSMFile.Format.V1, 500);
+        LSMFile v2 = writeFile(LSMFile.Format.V2, 500);
+
+        try (LSMFile readV1 = new LSMFile(Paths.get(TEST_DIR), v1.getName());
+             LSMFile readV2 = new LSMFile(Paths.get(TEST_DIR), v2.getName())) {
+            assertEquals(LSMFile.Format.V1, readV1.getFormat());
+            assertTrue(readV2.getSize() * 2 < readV1.getSize());
+            assertArrayEquals(readV1.get("key00500".getBytes()).getValue(), readV2.get("key00500".getBytes()).getValue());
+        }
+    }
+}
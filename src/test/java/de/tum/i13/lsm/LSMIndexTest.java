@@ -0,0 +1,86 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LSMIndexTest {
+
+    private static final String TEST_DIR = "indextest";
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private LSMFile writeFile(int count) throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR));
+        String name = lsmFile.getName();
+        for (int i = 0; i < count; i++) {
+            lsmFile.append(new KVItem(String.format("key%05d", i), "value" + i, i));
+        }
+        lsmFile.close();
+        return new LSMFile(Paths.get(TEST_DIR), name);
+    }
+
+    @Test
+    public void testFind() throws IOException {
+        try (LSMFile lsmFile = writeFile(1000)) {
+            LSMIndex index = lsmFile.getIndex();
+            assertEquals(1000, index.size());
+
+            for (int i = 0; i < 1000; i++) {
+                String key = String.format("key%05d", i);
+                long position = index.find(key.getBytes());
+                assertTrue(position >= 0);
+                KVItem item = lsmFile.readValue(position).toKVItem();
+                assertEquals(key, item.getKey());
+                assertEquals("value" + i, item.getValue());
+            }
+
+            assertEquals(-1, index.find("key".getBytes()));
+            assertEquals(-1, index.find("key99999".getBytes()));
+            assertEquals(-1, index.find("a".getBytes()));
+        }
+    }
+
+    @Test
+    public void testSearchInsertionPoint() throws IOException {
+        try (LSMFile lsmFile = writeFile(10)) {
+            LSMIndex index = lsmFile.getIndex();
+            assertEquals(3, index.search("key00003".getBytes()));
+            assertEquals(-4, index.search("key00002a".getBytes()));
+            assertEquals(-1, index.search("a".getBytes()));
+            assertEquals(-11, index.search("z".getBytes()));
+            assertEquals("key00007", index.getKey(7));
+        }
+    }
+
+    @Test
+    public void testEmptyIndex() throws IOException {
+        try (LSMFile lsmFile = writeFile(0)) {
+            assertEquals(0, lsmFile.getIndex().size());
+            assertEquals(-1, lsmFile.getIndex().find("key".getBytes()));
+        }
+    }
+
+    @Test
+    public void testHeapBytes() throws IOException {
+        try (LSMFile lsmFile = writeFile(1000)) {
+            // 8 key bytes + 4 bytes offset + 8 bytes position per key
+            assertTrue(lsmFile.getIndex().heapBytes() < 1000 * 21);
+        }
+    }
+}
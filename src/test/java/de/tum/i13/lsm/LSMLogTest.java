@@ -1,15 +1,26 @@
 package de.tum.i13.lsm;
 
+import de.tum.i13.shared.Constants;
 import de.tum.i13.shared.KVItem;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,7 +30,14 @@ class LSMLogTest {
 
     @AfterEach
     public void cleanup() throws IOException {
-        Files.walk(Paths.get(TEST_DIR))
+        delete(Paths.get(TEST_DIR));
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walk(path)
                 .sorted(Comparator.reverseOrder())
                 .map(Path::toFile)
                 .forEach(File::delete);
@@ -32,7 +50,196 @@ class LSMLogTest {
         assertEquals(0, wal.size());
         wal.append(new KVItem("key", "value"));
         assertEquals(1, wal.size());
+        wal.close();
+    }
+
+    @Test
+    public void testConcurrentAppendsAreGrouped() throws Exception {
+        for (LSMLog.SyncMode mode : LSMLog.SyncMode.values()) {
+            Path file = Paths.get(TEST_DIR + "-" + mode);
+            try {
+                LSMLog wal = new LSMLog(file, mode);
+                int threads = 8;
+                int items = 50;
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < items; i++) {
+                            wal.append(new KVItem("key-" + thread + "-" + i, "value" + i, 1));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+                executor.shutdown();
+
+                assertEquals(threads * items, wal.size());
+                assertTrue(wal.getGroupCount() <= threads * items);
+                if (mode == LSMLog.SyncMode.NONE) {
+                    assertEquals(0, wal.getSyncCount());
+                } else if (mode == LSMLog.SyncMode.ALWAYS) {
+                    assertEquals(threads * items, wal.getSyncCount());
+                }
+                wal.close();
+
+                LSMLog reopened = new LSMLog(file, mode);
+                TreeMap<String, KVItem> items1 = reopened.readAllSinceFlush();
+                assertEquals(threads * items, items1.size());
+                assertEquals("value7", items1.get("key-3-7").getValue());
+                reopened.close();
+            } finally {
+                delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testSealAndTruncate() throws IOException {
+        LSMLog wal = new LSMLog(Paths.get(TEST_DIR));
+        long sealed = wal.getSegment();
+        wal.append(new KVItem("flushed", "value", 1), sealed);
+        wal.append(new KVItem("key", "value", 2), sealed + 1);
+
+        assertEquals(2, wal.listSegments().size());
+        assertEquals(sealed + 1, wal.getSegment());
+
+        wal.seal(sealed);
+        assertThrows(IOException.class, () -> wal.append(new KVItem("late", "value", 3), sealed));
+
+        wal.truncate(sealed);
+        assertEquals(1, wal.listSegments().size());
+        wal.close();
+
+        LSMLog reopened = new LSMLog(Paths.get(TEST_DIR));
+        TreeMap<String, KVItem> items = reopened.readAllSinceFlush();
+        assertEquals(1, items.size());
+        assertEquals("value", items.get("key").getValue());
+        reopened.close();
+    }
+
+    @Test
+    public void testReadLegacyLogFile() throws IOException {
+        LSMLog wal = new LSMLog(Paths.get(TEST_DIR));
+        wal.append(new KVItem("flushed", "value", 1));
+        wal.append(new KVItem(Constants.FLUSH_MESSAGE, "", 0));
+        wal.append(new KVItem("key", "value", 2));
+        wal.close();
+
+        // an old log is a single file instead of a directory of segments
+        Path segment = Paths.get(TEST_DIR, "log-" + wal.getSegment());
+        Path legacy = Paths.get(TEST_DIR + "-file");
+        Files.move(segment, legacy);
+        delete(Paths.get(TEST_DIR));
+        Files.move(legacy, Paths.get(TEST_DIR));
 
+        LSMLog reopened = new LSMLog(Paths.get(TEST_DIR));
+        TreeMap<String, KVItem> items = reopened.readAllSinceFlush();
+        assertEquals(1, items.size());
+        assertTrue(items.containsKey("key"));
+        reopened.close();
+    }
+
+    @Test
+    public void testReplayStopsAtTornRecord() throws IOException {
+        LSMLog wal = new LSMLog(Paths.get(TEST_DIR));
+        for (int i = 0; i < 10; i++) {
+            wal.append(new KVItem("key" + i, "value" + i, i));
+        }
+        wal.close();
+
+        // a crash in the middle of the last record
+        Path segment = Paths.get(TEST_DIR, "log-" + wal.getSegment());
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        long tornSize = Files.size(segment);
+        LSMLog reopened = new LSMLog(Paths.get(TEST_DIR));
+        TreeMap<String, KVItem> items = reopened.readAllSinceFlush();
+        assertEquals(9, items.size());
+        assertFalse(items.containsKey("key9"));
+        reopened.close();
+
+        // the torn record was cut off
+        int recordLength = LSMFile.KEY_LENGTH + 3 * Long.BYTES + "value8".length() + Integer.BYTES;
+        assertEquals(tornSize - (recordLength - 3), Files.size(segment));
+
+        // a corrupt value is detected by the checksum: overwrite the last value
+        // byte of key8, which is followed by its checksum
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            long position = channel.size() - Integer.BYTES - 1;
+            channel.write(ByteBuffer.wrap("X".getBytes()), position);
+        }
+        reopened = new LSMLog(Paths.get(TEST_DIR));
+        items = reopened.readAllSinceFlush();
+        assertEquals(8, items.size());
+        assertEquals("value7", items.get("key7").getValue());
+        reopened.close();
+    }
+
+    @Test
+    public void testReplayStopsAtFirstCorruptSegment() throws IOException {
+        LSMLog wal = new LSMLog(Paths.get(TEST_DIR), LSMLog.SyncMode.NONE);
+        long first = wal.getSegment();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                wal.append(new KVItem("key" + i, "value" + round, round), first + round);
+            }
+        }
+        wal.close();
 
+        // corrupt the last value byte of the last record of the middle segment
+        Path middle = Paths.get(TEST_DIR, "log-" + (first + 1));
+        try (FileChannel channel = FileChannel.open(middle, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("X".getBytes()), channel.size() - Integer.BYTES - 1);
+        }
+
+        LSMLog reopened = new LSMLog(Paths.get(TEST_DIR));
+        ConcurrentHashMap<String, KVItem> items = new ConcurrentHashMap<>();
+        // nothing after the corrupt record is replayed, also not the newer segment
+        assertEquals(19, reopened.replay(item -> items.put(item.getKey().toString(), item.toKVItem()), 4));
+        assertEquals("value1", items.get("key8").getValue());
+        assertEquals("value0", items.get("key9").getValue());
+        assertTrue(Files.exists(Paths.get(TEST_DIR, "log-" + (first + 2) + ".skipped")));
+
+        // items written after the recovery are replayed on the next restart
+        reopened.append(new KVItem("key9", "later", 3));
+        reopened.close();
+        LSMLog again = new LSMLog(Paths.get(TEST_DIR));
+        TreeMap<String, KVItem> replayed = again.readAllSinceFlush();
+        assertEquals("later", replayed.get("key9").getValue());
+        assertEquals("value1", replayed.get("key8").getValue());
+        again.close();
+    }
+
+    @Test
+    public void testParallelReplay() throws IOException {
+        LSMLog wal = new LSMLog(Paths.get(TEST_DIR), LSMLog.SyncMode.NONE);
+        long first = wal.getSegment();
+        // every round overwrites all keys in a new segment
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+                wal.append(new KVItem("key" + i, "value" + round, round), first + round);
+            }
+        }
+        wal.close();
+
+        LSMLog reopened = new LSMLog(Paths.get(TEST_DIR));
+        ConcurrentHashMap<String, KVItem> items = new ConcurrentHashMap<>();
+        assertEquals(3000, reopened.replay(item -> items.put(item.getKey().toString(), item.toKVItem()), 4));
+        assertEquals(1000, items.size());
+        // the newest version of every key wins
+        assertTrue(items.values().stream().allMatch(i -> i.getValue().endsWith("2")));
+        reopened.close();
+    }
+
+    @Test
+    public void testAppendToClosedLog() throws IOException {
+        LSMLog wal = new LSMLog(Paths.get(TEST_DIR));
+        wal.close();
+        assertThrows(IOException.class, () -> wal.append(new KVItem("key", "value")));
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LSMManifestTest {
+
+    private static final String TEST_DIR = "manifesttest";
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private LSMFile writeFile(String... keys) throws IOException {
+        LSMFile lsmFile = new LSMFile(Paths.get(TEST_DIR));
+        for (String key : keys) {
+            lsmFile.append(new KVItem(key, "value", 1));
+        }
+        lsmFile.close();
+        return new LSMFile(Paths.get(TEST_DIR), lsmFile.getName());
+    }
+
+    @Test
+    public void testAddAndRecover() throws IOException {
+        LSMManifest manifest = new LSMManifest(Paths.get(TEST_DIR));
+        LSMFile first = writeFile("a", "b");
+        LSMFile second = writeFile("c");
+        manifest.add(first);
+        manifest.add(second);
+
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(3, version.getNumber());
+            assertEquals(List.of(second, first), version.getFiles());
+        }
+
+        LSMManifest recovered = new LSMManifest(Paths.get(TEST_DIR));
+        try (LSMVersion version = recovered.acquire()) {
+            assertEquals(3, version.getNumber());
+            assertEquals(2, version.getFiles().size());
+            assertEquals(second.getName(), version.getFiles().get(0).getName());
+            assertEquals(first.getName(), version.getFiles().get(1).getName());
+        }
+    }
+
+    @Test
+    public void testRemovedFileIsDeletedAfterRelease() throws IOException {
+        LSMManifest manifest = new LSMManifest(Paths.get(TEST_DIR));
+        LSMFile old = writeFile("a");
+        manifest.add(old);
+
+        LSMVersion reader = manifest.acquire();
+        LSMFile replacement = writeFile("a", "b");
+        manifest.apply(List.of(replacement), List.of(old));
+
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(List.of(replacement), version.getFiles());
+        }
+        assertTrue(Files.exists(Paths.get(TEST_DIR, old.getName())));
+        assertEquals(0, reader.getFiles().get(0).getIndex().search("a".getBytes()));
+
+        reader.close();
+        assertFalse(Files.exists(Paths.get(TEST_DIR, old.getName())));
+    }
+
+    @Test
+    public void testUnlistedFilesAreDeletedOnRecovery() throws IOException {
+        LSMManifest manifest = new LSMManifest(Paths.get(TEST_DIR));
+        LSMFile live = writeFile("a");
+        manifest.add(live);
+        LSMFile orphan = writeFile("b");
+        orphan.close();
+
+        new LSMManifest(Paths.get(TEST_DIR));
+        assertTrue(Files.exists(Paths.get(TEST_DIR, live.getName())));
+        assertFalse(Files.exists(Paths.get(TEST_DIR, orphan.getName())));
+    }
+
+    @Test
+    public void testMigrateDirectoryWithoutManifest() throws IOException {
+        LSMFile existing = writeFile("a");
+        existing.close();
+
+        LSMManifest manifest = new LSMManifest(Paths.get(TEST_DIR));
+        try (LSMVersion version = manifest.acquire()) {
+            assertEquals(1, version.getFiles().size());
+            assertEquals(existing.getName(), version.getFiles().get(0).getName());
+        }
+        assertTrue(Files.exists(Paths.get(TEST_DIR, LSMManifest.MANIFEST_FILE_NAME)));
+    }
+}
@@ -0,0 +1,220 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LSMMemtablesTest {
+
+    private static final String TEST_DIR = "memtabletest";
+
+    private LSMLog lsmLog;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        Files.createDirectories(Paths.get(TEST_DIR));
+        lsmLog = new LSMLog(Paths.get(TEST_DIR, "log"), LSMLog.SyncMode.NONE);
+    }
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        lsmLog.close();
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Test
+    public void testSwapWhenFull() throws Exception {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 1000, 4);
+
+        memtables.put(new KVItem("key1", "a".repeat(500), 1));
+        assertEquals(0, memtables.getImmutableCount());
+        memtables.put(new KVItem("key2", "b".repeat(500), 2));
+        assertEquals(1, memtables.getImmutableCount());
+
+        // items of the immutable cache are still visible
+        assertEquals("a".repeat(500), memtables.get("key1").toKVItem().getValue());
+        memtables.put(new KVItem("key1", "c", 3));
+        assertEquals("c", memtables.get("key1").toKVItem().getValue());
+
+        LSMMemtables.Immutable immutable = memtables.awaitOldest();
+        assertEquals(2, immutable.getCache().size());
+        assertEquals(2, lsmLog.listSegments().size());
+
+        lsmLog.seal(immutable.getSegment());
+        memtables.remove(immutable);
+        lsmLog.truncate(immutable.getSegment());
+        assertEquals(0, memtables.getImmutableCount());
+        assertNull(memtables.get("key2"));
+        assertEquals(1, lsmLog.listSegments().size());
+    }
+
+    @Test
+    public void testWritesStallWhenQueueIsFull() throws Exception {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 100, 1);
+        memtables.put(new KVItem("key1", "a".repeat(100), 1));
+        assertEquals(1, memtables.getImmutableCount());
+
+        CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+            try {
+                memtables.put(new KVItem("key2", "b", 2));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> write.get(200, TimeUnit.MILLISECONDS));
+
+        memtables.remove(memtables.awaitOldest());
+        write.get(5, TimeUnit.SECONDS);
+        assertEquals(1, memtables.getStallCount());
+        assertEquals("b", memtables.get("key2").toKVItem().getValue());
+    }
+
+    @Test
+    public void testConcurrentPutsDuringSwaps() throws Exception {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 2000, 1000);
+        int threads = 8;
+        int items = 200;
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writes.add(CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 0; i < items; i++) {
+                        memtables.put(new KVItem("key-" + thread + "-" + i, "value" + i, 1));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (CompletableFuture<Void> w : writes) {
+            w.get(30, TimeUnit.SECONDS);
+        }
+
+        assertTrue(memtables.getImmutableCount() > 1);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < items; i++) {
+                assertEquals("value" + i, memtables.get("key-" + t + "-" + i).toKVItem().getValue());
+            }
+        }
+
+        // every item is logged in the segment of the cache it was put to
+        int total = 0;
+        while (memtables.getImmutableCount() > 0) {
+            LSMMemtables.Immutable immutable = memtables.awaitOldest();
+            lsmLog.seal(immutable.getSegment());
+            total += immutable.getCache().size();
+            memtables.remove(immutable);
+            lsmLog.truncate(immutable.getSegment());
+        }
+        lsmLog.close();
+        lsmLog = new LSMLog(Paths.get(TEST_DIR, "log"), LSMLog.SyncMode.NONE);
+        assertEquals(threads * items - total, lsmLog.readAllSinceFlush().size());
+    }
+
+    @Test
+    public void testRecoverFromLog() throws IOException {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 1000, 4);
+        memtables.put(new KVItem("key", "value", 1));
+        lsmLog.close();
+
+        lsmLog = new LSMLog(Paths.get(TEST_DIR, "log"), LSMLog.SyncMode.NONE);
+        LSMMemtables recovered = new LSMMemtables(lsmLog, 1000, 4);
+        assertEquals("value", recovered.get("key").toKVItem().getValue());
+    }
+
+    @Test
+    public void testUtf8ItemsInByteOrder() throws IOException {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 1000000, 4);
+        // in UTF-16 the surrogate pair sorts before U+E000, in UTF-8 after it
+        memtables.put(new KVItem("\uD83D\uDE00", "emoji", 1));
+        memtables.put(new KVItem("\uE000", "private use", 2));
+        memtables.put(new KVItem("gr\u00fc\u00dfe", "gr\u00fc\u00dfe", 3));
+        memtables.put(KVItem.tombstone("deleted", 4));
+
+        List<String> keys = memtables.getCaches().get(0).getItems().stream()
+                .map(KVItem::getKey)
+                .collect(Collectors.toList());
+        assertEquals(List.of("deleted", "gr\u00fc\u00dfe", "\uE000", "\uD83D\uDE00"), keys);
+        // UTF-8 bytes of the keys and values and the overhead per item
+        assertEquals((4 + 5) + (3 + 11) + (7 + 7) + 7 + 4 * 64, memtables.getCaches().get(0).getSizeBytes());
+        lsmLog.close();
+
+        lsmLog = new LSMLog(Paths.get(TEST_DIR, "log"), LSMLog.SyncMode.NONE);
+        LSMMemtables recovered = new LSMMemtables(lsmLog, 1000000, 4);
+        assertEquals("gr\u00fc\u00dfe", recovered.get("gr\u00fc\u00dfe").toKVItem().getValue());
+        assertEquals("emoji", recovered.get("\uD83D\uDE00").toKVItem().getValue());
+        assertTrue(recovered.get("deleted").isTombstone());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 1000000, 4);
+        LSMManifest manifest = new LSMManifest(Paths.get(TEST_DIR, "data"));
+
+        memtables.put(new KVItem("key1", "a", 1));
+        LSMSnapshot snapshot = memtables.snapshot(manifest);
+        memtables.put(new KVItem("key1", "b", 2));
+        memtables.put(new KVItem("key1", "c", 3));
+        memtables.put(new KVItem("key2", "d", 4));
+
+        assertEquals("a", snapshot.get("key1").toKVItem().getValue());
+        assertNull(snapshot.get("key2"));
+        assertEquals("c", memtables.get("key1").toKVItem().getValue());
+        assertEquals(1, memtables.getSnapshotCount());
+        assertEquals(4, memtables.getSequence());
+
+        // the swapped cache stays part of the snapshot after it was flushed
+        memtables.swap();
+        memtables.remove(memtables.awaitOldest());
+        assertNull(memtables.get("key1"));
+        assertEquals("a", snapshot.get("key1").toKVItem().getValue());
+
+        snapshot.close();
+        snapshot.close();
+        assertEquals(0, memtables.getSnapshotCount());
+    }
+
+    @Test
+    public void testOlderVersionsAreDroppedAfterRelease() throws Exception {
+        LSMMemtables memtables = new LSMMemtables(lsmLog, 1000000, 4);
+        LSMManifest manifest = new LSMManifest(Paths.get(TEST_DIR, "data"));
+        LSMCache cache = memtables.getCaches().get(0);
+
+        memtables.put(new KVItem("key", "a", 1));
+        long oneVersion = cache.getSizeBytes();
+        memtables.put(new KVItem("key", "b", 2));
+        assertEquals(oneVersion, cache.getSizeBytes());
+
+        try (LSMSnapshot snapshot = memtables.snapshot(manifest)) {
+            memtables.put(new KVItem("key", "c", 3));
+            memtables.put(new KVItem("key", "d", 4));
+            // b is kept for the snapshot, c isn't needed by anyone
+            assertEquals(2 * oneVersion, cache.getSizeBytes());
+            assertEquals("b", snapshot.get("key").toKVItem().getValue());
+        }
+        memtables.put(new KVItem("key", "e", 5));
+        assertEquals(oneVersion, cache.getSizeBytes());
+        assertEquals(1, cache.size());
+        assertEquals(List.of("e"), cache.getItems().stream().map(KVItem::getValue).collect(Collectors.toList()));
+    }
+}
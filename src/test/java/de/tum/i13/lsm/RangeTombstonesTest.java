@@ -0,0 +1,101 @@
+package de.tum.i13.lsm;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeTombstonesTest {
+
+    private static final String TEST_DIR = "rangetombstonestest";
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        if (!Files.exists(Paths.get(TEST_DIR))) {
+            return;
+        }
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static Path file() throws IOException {
+        Files.createDirectories(Paths.get(TEST_DIR));
+        return Paths.get(TEST_DIR, "rangetombstones");
+    }
+
+    @Test
+    public void testDeletedAt() throws IOException {
+        try (RangeTombstones ranges = new RangeTombstones(file(), LSMLog.SyncMode.NONE)) {
+            assertEquals(Long.MIN_VALUE, ranges.deletedAt("b"));
+
+            ranges.add("b", "d", 10);
+            ranges.add("c", null, 5);
+            ranges.add("c", "cc", 20);
+
+            assertEquals(Long.MIN_VALUE, ranges.deletedAt("a"));
+            assertEquals(10, ranges.deletedAt("b"));
+            assertEquals(20, ranges.deletedAt("c"));
+            assertEquals(20, ranges.deletedAt("cb"));
+            assertEquals(10, ranges.deletedAt("cc"));
+            assertEquals(5, ranges.deletedAt("d"));
+            assertEquals(5, ranges.deletedAt("zzz"));
+
+            // only the tombstones a snapshot has seen
+            assertEquals(10, ranges.deletedAt("c", 1));
+            assertEquals(10, ranges.deletedAt("c", 2));
+            assertEquals(Long.MIN_VALUE, ranges.deletedAt("d", 1));
+            assertEquals(Long.MIN_VALUE, ranges.deletedAt("c", 0));
+
+            assertTrue(ranges.covers(LSMItem.of(new KVItem("cb", "value", 20))));
+            assertFalse(ranges.covers(LSMItem.of(new KVItem("cb", "value", 21))));
+            assertFalse(ranges.covers(LSMItem.of(new KVItem("cb", "value", 20)), 2));
+        }
+
+        // the fragments are rebuilt from the file
+        try (RangeTombstones ranges = new RangeTombstones(file(), LSMLog.SyncMode.NONE)) {
+            assertEquals(3, ranges.size());
+            assertEquals(20, ranges.deletedAt("c"));
+            assertEquals(5, ranges.deletedAt("d"));
+        }
+    }
+
+    @Test
+    public void testDeletedAtMatchesAllRanges() throws IOException {
+        Random random = new Random(42);
+        try (RangeTombstones ranges = new RangeTombstones(file(), LSMLog.SyncMode.NONE)) {
+            for (int i = 0; i < 200; i++) {
+                String from = String.format("key%03d", random.nextInt(1000));
+                String to = random.nextInt(10) == 0 ? null : String.format("key%03d", random.nextInt(1000));
+                if (to == null || Key.compare(from, to) < 0) {
+                    ranges.add(from, to, random.nextInt(100000));
+                }
+            }
+
+            List<RangeTombstones.Range> all = ranges.getRanges();
+            for (int k = 0; k < 1001; k++) {
+                String key = k == 1000 ? "a" : String.format("key%03d", k);
+                for (int count : new int[]{1, all.size() / 2, all.size()}) {
+                    long expected = Long.MIN_VALUE;
+                    for (RangeTombstones.Range range : all.subList(0, count)) {
+                        if (range.contains(key)) {
+                            expected = Math.max(expected, range.getTimestamp());
+                        }
+                    }
+                    assertEquals(expected, ranges.deletedAt(key, count), key + " with " + count + " tombstones");
+                }
+            }
+        }
+    }
+}
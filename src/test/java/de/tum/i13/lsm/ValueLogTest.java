@@ -0,0 +1,102 @@
+package de.tum.i13.lsm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueLogTest {
+
+    private static final String TEST_DIR = "valuelogtest";
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        if (!Files.exists(Paths.get(TEST_DIR))) {
+            return;
+        }
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        try (ValueLog valueLog = new ValueLog(Paths.get(TEST_DIR), 200, LSMLog.SyncMode.BATCH)) {
+            List<ValuePointer> pointers = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                pointers.add(valueLog.append(Key.of("key" + i), bytes("value".repeat(10) + i)));
+            }
+            for (int i = 0; i < 10; i++) {
+                ValuePointer pointer = ValuePointer.decode(pointers.get(i).encode());
+                assertArrayEquals(bytes("value".repeat(10) + i), valueLog.read(Key.of("key" + i), pointer));
+            }
+
+            // a pointer only resolves for the key it was written for
+            assertThrows(IOException.class, () -> valueLog.read(Key.of("key1"), pointers.get(0)));
+
+            // segments are rolled over once they are full
+            assertTrue(valueLog.getSegments().size() > 1);
+            assertEquals(valueLog.getSegments().get(valueLog.getSegments().size() - 1), valueLog.getActiveSegment());
+
+            List<String> keys = new ArrayList<>();
+            long first = valueLog.getSegments().get(0);
+            valueLog.scan(first, (key, pointer, value) -> keys.add(key.toString()));
+            assertEquals("key0", keys.get(0));
+
+            valueLog.delete(first);
+            assertThrows(IOException.class, () -> valueLog.read(Key.of("key0"), pointers.get(0)));
+            assertThrows(IOException.class, () -> valueLog.delete(valueLog.getActiveSegment()));
+        }
+    }
+
+    @Test
+    public void testChecksum() throws IOException {
+        ValuePointer pointer;
+        long segment;
+        try (ValueLog valueLog = new ValueLog(Paths.get(TEST_DIR), 1024, LSMLog.SyncMode.NONE)) {
+            pointer = valueLog.append(Key.of("key"), bytes("value"));
+            segment = valueLog.getActiveSegment();
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(Paths.get(TEST_DIR, "vlog-" + segment).toFile(), "rw")) {
+            file.seek(12);
+            file.write('X');
+        }
+
+        try (ValueLog valueLog = new ValueLog(Paths.get(TEST_DIR), 1024, LSMLog.SyncMode.NONE)) {
+            assertNotEquals(segment, valueLog.getActiveSegment());
+            assertThrows(IOException.class, () -> valueLog.read(Key.of("key"), pointer));
+        }
+    }
+
+    @Test
+    public void testPointerEncoding() {
+        ValuePointer pointer = new ValuePointer(3, 1234, 567);
+        assertTrue(ValuePointer.isPointer(pointer.encode()));
+        assertFalse(ValuePointer.isPointer("value"));
+        assertTrue(ValuePointer.isPointer(pointer.toBytes()));
+        assertFalse(ValuePointer.isPointer(bytes("value")));
+        assertEquals(0, pointer.compareTo(ValuePointer.decode(pointer.toBytes())));
+
+        ValuePointer decoded = ValuePointer.decode(pointer.encode());
+        assertEquals(3, decoded.getSegment());
+        assertEquals(1234, decoded.getOffset());
+        assertEquals(567, decoded.getLength());
+    }
+}
@@ -0,0 +1,56 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheBuilder;
+import de.tum.i13.server.kv.KVCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSimulatorTest {
+
+    private static final Path TRACE_FILE = Paths.get("cachetrace.txt");
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        Files.deleteIfExists(TRACE_FILE);
+    }
+
+    @Test
+    void testRecordAndReplay() throws IOException {
+        KVCache cache = CacheBuilder.newBuilder()
+                .size(100)
+                .algorithm(CacheBuilder.Algorithm.LRU)
+                .trace(TRACE_FILE)
+                .build();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            if (i % 5000 == 4999) {
+                // a periodic scan over keys read only once
+                for (int j = 0; j < 500; j++) {
+                    cache.get("scan" + i + "_" + j);
+                }
+            }
+            // skewed towards small key numbers
+            double u = random.nextDouble();
+            cache.get("key" + (int) (1000 * u * u * u));
+        }
+        ((TracingCache) cache).close();
+
+        List<String> trace = CacheSimulator.readTrace(TRACE_FILE);
+        assertEquals(22000, trace.size());
+        assertTrue(trace.get(0).startsWith("key"));
+
+        double lru = CacheSimulator.hitRatio(CacheBuilder.Algorithm.LRU, 100, trace);
+        double tinyLfu = CacheSimulator.hitRatio(CacheBuilder.Algorithm.TINYLFU, 100, trace);
+        assertTrue(lru > 0);
+        assertTrue(tinyLfu > lru, "TinyLFU " + tinyLfu + " LRU " + lru);
+    }
+}
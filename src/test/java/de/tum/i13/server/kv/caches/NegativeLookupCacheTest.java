@@ -0,0 +1,93 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.kvtp2.Message;
+import de.tum.i13.kvtp2.MessageWriter;
+import de.tum.i13.server.kv.KVStore;
+import de.tum.i13.server.kv.handlers.kv.Get;
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class NegativeLookupCacheTest {
+
+    private final NegativeLookupCache negativeCache = new NegativeLookupCache(3);
+
+    @Test
+    void testAddAndInvalidate() {
+        negativeCache.add("missing", negativeCache.stamp("missing"));
+        assertTrue(negativeCache.contains("missing"));
+        assertFalse(negativeCache.contains("other"));
+
+        negativeCache.invalidate("missing");
+        assertFalse(negativeCache.contains("missing"));
+    }
+
+    @Test
+    void testWriteDuringLookup() {
+        long stamp = negativeCache.stamp("key");
+        // a put of the key after the store was read
+        negativeCache.invalidate("key");
+        negativeCache.add("key", stamp);
+        assertFalse(negativeCache.contains("key"));
+    }
+
+    @Test
+    void testCapacity() {
+        for (int i = 0; i < 10; i++) {
+            negativeCache.add("key" + i, negativeCache.stamp("key" + i));
+        }
+        assertEquals(3, negativeCache.size());
+        assertTrue(negativeCache.contains("key9"));
+        assertFalse(negativeCache.contains("key0"));
+
+        // invalidated keys don't pile up
+        for (int i = 0; i < 1000; i++) {
+            negativeCache.add("poll", negativeCache.stamp("poll"));
+            negativeCache.invalidate("poll");
+        }
+        assertTrue(negativeCache.size() <= 3);
+
+        negativeCache.clear();
+        assertEquals(0, negativeCache.size());
+        assertFalse(negativeCache.contains("key9"));
+    }
+
+    @Test
+    void testDisabled() {
+        NegativeLookupCache disabled = new NegativeLookupCache(0);
+        disabled.add("key", disabled.stamp("key"));
+        assertFalse(disabled.contains("key"));
+    }
+
+    @Test
+    void testGetSkipsStore() throws IOException {
+        KVStore kvStore = mock(KVStore.class);
+        MessageWriter writer = mock(MessageWriter.class);
+        Get get = new Get(new LRUCache(3), negativeCache, kvStore);
+
+        Message request = new Message("get");
+        request.put("key", "missing");
+        get.handle(writer, request);
+        get.handle(writer, request);
+
+        // the second miss is answered without reading the store
+        verify(kvStore, times(1)).get("missing");
+        ArgumentCaptor<Message> responses = ArgumentCaptor.forClass(Message.class);
+        verify(writer, times(2)).write(responses.capture());
+        for (Message response : responses.getAllValues()) {
+            assertEquals("get_error", response.getCommand());
+            assertEquals("not found", response.get("msg"));
+        }
+
+        // a write of the key makes the store visible again
+        negativeCache.invalidate("missing");
+        when(kvStore.get("missing")).thenReturn(new KVItem("missing", "found"));
+        get.handle(writer, request);
+        verify(kvStore, times(2)).get("missing");
+    }
+}
@@ -0,0 +1,115 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.Weigher;
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapCacheTest {
+
+    private final OffHeapCache offHeapCache = new OffHeapCache(5);
+
+    @Test
+    void get_basic() {
+        KVItem KVPair = new KVItem("jbl","music speaker", 42);
+        offHeapCache.put(KVPair);
+        KVItem cached = offHeapCache.get("jbl");
+        assertEquals("jbl", cached.getKey());
+        assertEquals("music speaker", cached.getValue());
+        assertEquals(42, cached.getTimestamp());
+        assertNull(offHeapCache.get("apple"));
+    }
+
+    @Test
+    void put_replaces() {
+        offHeapCache.put(new KVItem("apple","mac books"));
+        offHeapCache.put(new KVItem("apple","iphones"));
+        assertEquals("iphones", offHeapCache.get("apple").getValue());
+        assertEquals(1, offHeapCache.stats().getEntries());
+        // header, key and value
+        assertEquals(16 + 5 + 7, offHeapCache.stats().getWeight());
+    }
+
+    @Test
+    void delete_basic() {
+        offHeapCache.put(new KVItem("apple","mac books"));
+        offHeapCache.delete("apple");
+        assertNull(offHeapCache.get("apple"));
+        assertEquals(0, offHeapCache.stats().getEntries());
+        assertEquals(0, offHeapCache.stats().getWeight());
+    }
+
+    @Test
+    void testScan() {
+        offHeapCache.put(new KVItem("key1","1"));
+        offHeapCache.put(new KVItem("key2","2"));
+        offHeapCache.put(new KVItem("other","3"));
+        assertEquals(2, offHeapCache.scan("key").size());
+    }
+
+    @Test
+    void testOversizedItem() {
+        // 5 items of 1 KB make a single slab of 5120 bytes
+        offHeapCache.put(new KVItem("big", "v".repeat(6000)));
+        assertNull(offHeapCache.get("big"));
+        assertEquals(0, offHeapCache.stats().getEntries());
+    }
+
+    @Test
+    void testReclaimKeepsReadItems() {
+        OffHeapCache cache = new OffHeapCache(0, 1024 * 1024, Weigher.ITEM_BYTES);
+        String value = "v".repeat(1000);
+        cache.put(new KVItem("hot", value));
+        for (int i = 0; i < 5000; i++) {
+            assertNotNull(cache.get("hot"));
+            cache.put(new KVItem("key" + i, value));
+            CacheStats stats = cache.stats();
+            assertTrue(stats.getWeight() <= stats.getMaxWeight());
+        }
+        // the ring was reclaimed several times, but the read item was kept
+        assertTrue(cache.stats().getEvictions() > 3000);
+        assertEquals(value, cache.get("hot").getValue());
+        assertEquals(value, cache.get("key4999").getValue());
+        assertNull(cache.get("key0"));
+    }
+
+    @Test
+    void testRandomOperations() {
+        OffHeapCache cache = new OffHeapCache(0, 512 * 1024, Weigher.ITEM_BYTES);
+        Map<String, String> written = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            String key = "key" + random.nextInt(2000);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                String value = Integer.toString(i).repeat(1 + random.nextInt(200));
+                cache.put(new KVItem(key, value));
+                written.put(key, value);
+            } else if (op < 6) {
+                cache.delete(key);
+                written.remove(key);
+            } else {
+                KVItem item = cache.get(key);
+                if (item != null) {
+                    // items may be evicted, but never return a wrong value
+                    assertEquals(written.get(key), item.getValue());
+                }
+            }
+        }
+        CacheStats stats = cache.stats();
+        assertTrue(stats.getEvictions() > 0);
+        long weight = 0;
+        for (KVItem item : cache.scan("")) {
+            assertEquals(written.get(item.getKey()), item.getValue());
+            weight += 16 + Weigher.ITEM_BYTES.weigh(item);
+        }
+        assertEquals(stats.getEntries(), cache.scan("").size());
+        assertEquals(weight, stats.getWeight());
+    }
+}
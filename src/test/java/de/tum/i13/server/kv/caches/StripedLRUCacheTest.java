@@ -0,0 +1,122 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedLRUCacheTest {
+
+    @Test
+    void get_basic() {
+        StripedLRUCache cache = new StripedLRUCache(5);
+        KVItem KVPair = new KVItem("jbl","music speaker");
+        cache.put(KVPair);
+        assertEquals(KVPair, cache.get("jbl"));
+        assertNull(cache.get("apple"));
+    }
+
+    @Test
+    void put_replaces() {
+        StripedLRUCache cache = new StripedLRUCache(5);
+        cache.put(new KVItem("apple","mac books"));
+        KVItem replaced = new KVItem("apple","iphones");
+        cache.put(replaced);
+        assertEquals(replaced, cache.get("apple"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void delete_basic() {
+        StripedLRUCache cache = new StripedLRUCache(5);
+        KVItem KVPair = new KVItem("apple","mac books");
+        cache.put(KVPair);
+        cache.delete(KVPair.getKey());
+        assertNull(cache.get(KVPair.getKey()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        // small caches have a single stripe, so the order is exact once the hits are drained
+        StripedLRUCache cache = new StripedLRUCache(1);
+        cache.put(new KVItem("1","1"));
+        cache.put(new KVItem("2","2"));
+        assertNull(cache.get("1"));
+
+        StripedLRUCache lruCache = new StripedLRUCache(16);
+        for (int i = 0; i < 1000; i++) {
+            lruCache.put(new KVItem(Integer.toString(i), "value"));
+            // keep the first key hot, its hits are drained on the next put
+            for (int j = 0; j < 32; j++) {
+                assertNotNull(lruCache.get("0"));
+            }
+        }
+        assertEquals(16, lruCache.size());
+        assertNotNull(lruCache.get("0"));
+        assertNotNull(lruCache.get("999"));
+        assertNull(lruCache.get("1"));
+    }
+
+    @Test
+    void testStripes() {
+        StripedLRUCache cache = new StripedLRUCache(1000);
+        for (int i = 0; i < 2000; i++) {
+            cache.put(new KVItem(Integer.toString(i), "value"));
+        }
+        // every stripe evicts on its own, but the capacities add up
+        assertEquals(1000, cache.size());
+    }
+
+    @Test
+    void testScan() {
+        StripedLRUCache cache = new StripedLRUCache(10);
+        cache.put(new KVItem("key1","1"));
+        cache.put(new KVItem("key2","2"));
+        cache.put(new KVItem("other","3"));
+        assertEquals(2, cache.scan("key").size());
+    }
+
+    @Test
+    void testZeroSize() {
+        StripedLRUCache cache = new StripedLRUCache(0);
+        cache.put(new KVItem("1","1"));
+        assertNull(cache.get("1"));
+    }
+
+    @Test
+    void testConcurrentAccess() throws Exception {
+        StripedLRUCache cache = new StripedLRUCache(64);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String key = Integer.toString((i * 7 + offset) % 200);
+                    if (i % 4 == 0) {
+                        cache.put(new KVItem(key, key));
+                    } else if (i % 50 == 0) {
+                        cache.delete(key);
+                    } else {
+                        KVItem item = cache.get(key);
+                        if (item != null) {
+                            assertEquals(key, item.getValue());
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(cache.size() <= 64);
+    }
+}
@@ -0,0 +1,81 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TinyLFUCacheTest {
+
+    private final TinyLFUCache tinyLFUCache = new TinyLFUCache(5);
+
+    @Test
+    void get_basic() {
+        KVItem KVPair = new KVItem("jbl","music speaker");
+        tinyLFUCache.put(KVPair);
+        assertEquals(KVPair, tinyLFUCache.get("jbl"));
+    }
+
+    @Test
+    void put_replaces() {
+        tinyLFUCache.put(new KVItem("apple","mac books"));
+        KVItem replaced = new KVItem("apple","iphones");
+        tinyLFUCache.put(replaced);
+        assertEquals(replaced, tinyLFUCache.get("apple"));
+    }
+
+    @Test
+    void delete_basic() {
+        KVItem KVPair = new KVItem("apple","mac books");
+        tinyLFUCache.put(KVPair);
+        tinyLFUCache.delete(KVPair.getKey());
+        assertNull(tinyLFUCache.get(KVPair.getKey()));
+    }
+
+    @Test
+    void testScanResistance() {
+        TinyLFUCache cache = new TinyLFUCache(100);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 90; i++) {
+                String key = "hot" + i;
+                if (cache.get(key) == null) {
+                    cache.put(new KVItem(key, "value"));
+                }
+            }
+        }
+        // a scan of keys read only once must not replace the popular ones
+        for (int i = 0; i < 1000; i++) {
+            String key = "scan" + i;
+            if (cache.get(key) == null) {
+                cache.put(new KVItem(key, "value"));
+            }
+        }
+        int hits = 0;
+        for (int i = 0; i < 90; i++) {
+            if (cache.get("hot" + i) != null) {
+                hits++;
+            }
+        }
+        assertTrue(hits >= 85, "hot keys left " + hits);
+        assertTrue(cache.scan("").size() <= 100);
+    }
+
+    @Test
+    void testSketch() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("a");
+        }
+        sketch.increment("b");
+        assertTrue(sketch.frequency("a") >= 5);
+        assertTrue(sketch.frequency("b") >= 1);
+
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a");
+        }
+        // counters saturate at 15 and are halved on reset
+        assertEquals(15, sketch.frequency("a"));
+        sketch.reset();
+        assertEquals(7, sketch.frequency("a"));
+    }
+}
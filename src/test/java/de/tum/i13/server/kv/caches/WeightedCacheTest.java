@@ -0,0 +1,126 @@
+package de.tum.i13.server.kv.caches;
+
+import de.tum.i13.server.kv.CacheBuilder;
+import de.tum.i13.server.kv.CacheStats;
+import de.tum.i13.server.kv.KVCache;
+import de.tum.i13.server.kv.Weigher;
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedCacheTest {
+
+    private static final long MAX_WEIGHT = 10000;
+
+    private static KVCache build(CacheBuilder.Algorithm algorithm) throws IOException {
+        return CacheBuilder.newBuilder()
+                .size(3)
+                .maxWeight(MAX_WEIGHT)
+                .algorithm(algorithm)
+                .build();
+    }
+
+    @Test
+    void testWeightLimit() throws IOException {
+        for (CacheBuilder.Algorithm algorithm : CacheBuilder.Algorithm.values()) {
+            // weighs its records instead, see OffHeapCacheTest
+            if (algorithm != CacheBuilder.Algorithm.OFF_HEAP) {
+                testWeightLimit(algorithm);
+            }
+        }
+    }
+
+    private void testWeightLimit(CacheBuilder.Algorithm algorithm) throws IOException {
+        KVCache cache = build(algorithm);
+        // the size is ignored once the weight is limited
+        for (int i = 0; i < 10; i++) {
+            cache.put(new KVItem("key" + i, "v".repeat(96)));
+        }
+        CacheStats stats = cache.stats();
+        assertEquals(10, stats.getEntries());
+        assertEquals(1000, stats.getWeight());
+        assertEquals(MAX_WEIGHT, stats.getMaxWeight());
+        assertEquals(0, stats.getEvictions());
+
+        for (int i = 10; i < 1000; i++) {
+            cache.put(new KVItem("key" + i, "v".repeat(i % 7 == 0 ? 1996 : 96)));
+            assertTrue(cache.stats().getWeight() <= MAX_WEIGHT);
+        }
+        stats = cache.stats();
+        assertTrue(stats.getEvictions() > 0);
+        assertEquals(stats.getEntries(), cache.scan("key").size());
+        long weight = 0;
+        for (KVItem item : cache.scan("key")) {
+            weight += Weigher.ITEM_BYTES.weigh(item);
+        }
+        assertEquals(weight, stats.getWeight());
+    }
+
+    @Test
+    void testOversizedItem() throws IOException {
+        for (CacheBuilder.Algorithm algorithm : CacheBuilder.Algorithm.values()) {
+            // weighs its records instead, see OffHeapCacheTest
+            if (algorithm != CacheBuilder.Algorithm.OFF_HEAP) {
+                testOversizedItem(algorithm);
+            }
+        }
+    }
+
+    private void testOversizedItem(CacheBuilder.Algorithm algorithm) throws IOException {
+        KVCache cache = build(algorithm);
+        cache.put(new KVItem("small", "value"));
+        assertEquals(10, cache.stats().getWeight());
+
+        // an item larger than the cache replaces nothing and removes its older version
+        cache.put(new KVItem("small", "v".repeat((int) MAX_WEIGHT)));
+        assertNull(cache.get("small"));
+        assertEquals(0, cache.stats().getEntries());
+        assertEquals(0, cache.stats().getWeight());
+    }
+
+    @Test
+    void testUpdateAndDelete() throws IOException {
+        for (CacheBuilder.Algorithm algorithm : CacheBuilder.Algorithm.values()) {
+            // weighs its records instead, see OffHeapCacheTest
+            if (algorithm != CacheBuilder.Algorithm.OFF_HEAP) {
+                testUpdateAndDelete(algorithm);
+            }
+        }
+    }
+
+    private void testUpdateAndDelete(CacheBuilder.Algorithm algorithm) throws IOException {
+        KVCache cache = build(algorithm);
+        cache.put(new KVItem("key", "value"));
+        cache.put(new KVItem("key", "longer value"));
+        assertEquals(1, cache.stats().getEntries());
+        assertEquals(15, cache.stats().getWeight());
+
+        cache.delete("key");
+        assertEquals(0, cache.stats().getEntries());
+        assertEquals(0, cache.stats().getWeight());
+        assertEquals(0, cache.stats().getEvictions());
+    }
+
+    @Test
+    void testEntryLimitWithoutWeight() throws IOException {
+        KVCache cache = CacheBuilder.newBuilder().size(3).algorithm(CacheBuilder.Algorithm.LRU).build();
+        for (int i = 0; i < 5; i++) {
+            cache.put(new KVItem("key" + i, "value"));
+        }
+        CacheStats stats = cache.stats();
+        assertEquals(3, stats.getEntries());
+        assertEquals(0, stats.getMaxWeight());
+        assertEquals(2, stats.getEvictions());
+    }
+
+    @Test
+    void testUtf8Length() {
+        assertEquals(0, Weigher.utf8Length(null));
+        String key = "caf\u00e9 \u20ac \uD83D\uDE00";
+        assertEquals(key.getBytes(StandardCharsets.UTF_8).length, Weigher.utf8Length(key));
+    }
+}
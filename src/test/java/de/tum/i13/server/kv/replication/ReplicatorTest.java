@@ -43,6 +43,7 @@ public class ReplicatorTest {
         clientFactory = mock(KVTP2ClientFactory.class);
         when(clientFactory.get(anyString(), anyInt())).thenReturn(kvClient);
         kvStore = mock(KVStore.class);
+        when(kvStore.snapshot()).thenReturn(mock(KVStore.Snapshot.class));
         testMap = ConsistentHashMap.fromKeyrangeReadString(TestConstants.KEYRANGE_REPLICA_FULL);
     }
 
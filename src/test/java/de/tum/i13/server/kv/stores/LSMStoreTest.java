@@ -0,0 +1,397 @@
+package de.tum.i13.server.kv.stores;
+
+import de.tum.i13.lsm.BloomFilter;
+import de.tum.i13.lsm.Compaction;
+import de.tum.i13.lsm.CompactionStrategy;
+import de.tum.i13.lsm.Key;
+import de.tum.i13.lsm.LSMFile;
+import de.tum.i13.server.kv.KVStore;
+import de.tum.i13.shared.Constants;
+import de.tum.i13.shared.KVItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LSMStoreTest {
+
+    private static final String TEST_DIR = "lsmstoretest";
+
+    private LSMStore store;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        Files.createDirectories(Paths.get(TEST_DIR));
+        // a tiny memtable, so that the items are spread over several LSMFiles
+        store = LSMStoreBuilder.newBuilder()
+                .dataDir(Paths.get(TEST_DIR))
+                .memtableSize(500)
+                .build();
+
+        for (int i = 0; i < 30; i++) {
+            store.put(new KVItem(String.format("key%02d", i), "value" + i));
+        }
+        store.put(new KVItem("key05", "updated"));
+        store.put(new KVItem("key06", Constants.DELETE_MARKER));
+        store.put(new KVItem("other", "value"));
+    }
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        store.close();
+        Files.walk(Paths.get(TEST_DIR))
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static List<String> keys(List<KVItem> items) {
+        return items.stream().map(KVItem::getKey).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testKeyTooLong() throws IOException, InterruptedException {
+        // 20 characters, but 40 bytes in UTF-8
+        String key = "\u00e4".repeat(20);
+        assertThrows(IOException.class, () -> store.put(new KVItem(key, "value")));
+        assertThrows(IOException.class, () -> store.putBlind(new KVItem(key, "value")));
+        assertThrows(IOException.class, () -> store.delete(key));
+
+        String longest = "\u00e4".repeat(10);
+        store.put(new KVItem(longest, "value"));
+        assertTrue(store.flush());
+        assertEquals("value", store.get(longest).getValue());
+    }
+
+    @Test
+    public void testValueLooksLikePointer() {
+        // would resolve to the value of another key in the value log
+        String value = Constants.VALUE_POINTER_MARKER + "1:0:5";
+        assertThrows(IOException.class, () -> store.put(new KVItem("key", value)));
+        assertThrows(IOException.class, () -> store.putBlind(new KVItem("key", value)));
+    }
+
+    @Test
+    public void testRangeScan() throws IOException {
+        List<KVItem> items = store.rangeScan("key04", "key09", 0);
+        assertEquals(List.of("key04", "key05", "key07", "key08"), keys(items));
+        assertEquals("updated", items.get(1).getValue());
+
+        assertEquals(List.of("key28", "key29", "other"), keys(store.rangeScan("key28", null, 0)));
+        assertEquals(List.of("key00", "key01"), keys(store.rangeScan("", null, 2)));
+        assertTrue(store.rangeScan("key09", "key04", 0).isEmpty());
+    }
+
+    @Test
+    public void testPrefixScan() throws IOException {
+        assertEquals(List.of("key10", "key11", "key12"), keys(store.prefixScan("key1", 3)));
+        assertEquals(30, store.prefixScan("", 0).size());
+        assertEquals(29, store.prefixScan("key", 0).size());
+        assertTrue(store.prefixScan("zzz", 0).isEmpty());
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        Set<KVItem> items = store.scan("y0");
+        assertEquals(9, items.size());
+        assertTrue(items.stream().noneMatch(i -> i.getKey().equals("key06")));
+        assertTrue(items.stream().anyMatch(i -> i.getValue().equals("updated")));
+    }
+
+    @Test
+    public void testPrefixEnd() throws IOException {
+        assertEquals(Key.of("kez"), LSMStore.prefixEnd("key"));
+        // U+FFFF is EF BF BF in UTF-8, only its last byte is incremented
+        assertEquals(Key.wrap(new byte[]{'k', (byte) 0xEF, (byte) 0xBF, (byte) 0xC0}),
+                LSMStore.prefixEnd("k" + Character.MAX_VALUE));
+        assertNull(LSMStore.prefixEnd(""));
+
+        // U+1F600 sorts after U+FFFF in UTF-8, but its surrogates sort before it in UTF-16
+        store.put(new KVItem("p\uFFFF", "max", 0));
+        store.put(new KVItem("p\uFFFFa", "max a", 0));
+        store.put(new KVItem("p\uD83D\uDE00", "emoji", 0));
+        assertEquals(List.of("p\uFFFF", "p\uFFFFa"), keys(store.prefixScan("p\uFFFF", 0)));
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        assertNull(store.get("key06"));
+        store.delete("key07");
+        store.delete("missing");
+        assertNull(store.get("key07"));
+        assertNull(store.get("missing"));
+        assertEquals(List.of("key05", "key08"), keys(store.rangeScan("key05", "key09", 0)));
+        assertEquals("success", store.put(new KVItem("key07", "again")));
+        assertEquals("again", store.get("key07").getValue());
+    }
+
+    @Test
+    public void testDeleteRange() throws IOException {
+        store.deleteRange("key10", "key20");
+        assertNull(store.get("key10"));
+        assertNull(store.get("key19"));
+        assertEquals("value20", store.get("key20").getValue());
+        assertEquals(List.of("key08", "key09", "key20"), keys(store.rangeScan("key08", "key21", 0)));
+
+        // newer items of the range are visible, even if written in the same millisecond
+        assertEquals("success", store.put(new KVItem("key15", "new")));
+        assertEquals("new", store.get("key15").getValue());
+
+        // the range tombstone survives a restart
+        store.close();
+        store = LSMStoreBuilder.newBuilder().dataDir(Paths.get(TEST_DIR)).build();
+        assertNull(store.get("key11"));
+        assertEquals("new", store.get("key15").getValue());
+        assertEquals(20, store.prefixScan("key", 0).size());
+    }
+
+    @Test
+    public void testBlindPut() throws IOException {
+        assertTrue(store.mightContain("key00"));
+        assertTrue(store.mightContain("other"));
+        assertFalse(store.mightContain("key06"));
+        assertFalse(store.mightContain("missing"));
+
+        store.putBlind(new KVItem("missing", "found"));
+        store.putBlind(new KVItem("key00", "updated"));
+        assertTrue(store.mightContain("missing"));
+        assertEquals("found", store.get("missing").getValue());
+        assertEquals("updated", store.get("key00").getValue());
+
+        store.delete("key00");
+        assertFalse(store.mightContain("key00"));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        try (KVStore.Snapshot snapshot = store.snapshot()) {
+            store.put(new KVItem("key00", "changed"));
+            store.delete("key01");
+            store.put(new KVItem("key99", "new"));
+            store.deleteRange("key10", "key20");
+            // enough writes to swap and flush the tiny memtable several times
+            for (int i = 0; i < 100; i++) {
+                store.put(new KVItem(String.format("key%02d", i % 30), "round" + i));
+            }
+
+            assertEquals("value0", snapshot.get("key00").getValue());
+            assertEquals("value1", snapshot.get("key01").getValue());
+            assertEquals("updated", snapshot.get("key05").getValue());
+            assertEquals("value15", snapshot.get("key15").getValue());
+            assertNull(snapshot.get("key06"));
+            assertNull(snapshot.get("key99"));
+
+            List<KVItem> items = snapshot.rangeScan("key00", "key08", 0);
+            assertEquals(List.of("key00", "key01", "key02", "key03", "key04", "key05", "key07"), keys(items));
+            assertEquals("value1", items.get(1).getValue());
+            assertEquals(29, snapshot.getAll(k -> k.startsWith("key")).size());
+            assertTrue(snapshot.getAllKeys(k -> true).containsAll(Set.of("key00", "key29", "other")));
+            assertFalse(snapshot.getAllKeys(k -> true).contains("key99"));
+        }
+
+        assertEquals("round90", store.get("key00").getValue());
+        assertEquals("round99", store.get("key09").getValue());
+        assertEquals("new", store.get("key99").getValue());
+        assertEquals(31, store.prefixScan("key", 0).size());
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        Path dir = Paths.get(TEST_DIR, "source");
+        Path checkpoint = Paths.get(TEST_DIR, "checkpoint");
+        LSMStore source = LSMStoreBuilder.newBuilder()
+                .dataDir(dir)
+                .memtableSize(2000)
+                .valueThreshold(50)
+                .build();
+        try {
+            for (int i = 0; i < 50; i++) {
+                source.put(new KVItem(String.format("key%02d", i), i % 10 == 0 ? large(0, i) : "value" + i));
+            }
+            source.delete("key01");
+            source.deleteRange("key40", "key45");
+
+            source.checkpoint(checkpoint);
+            assertThrows(FileAlreadyExistsException.class, () -> source.checkpoint(checkpoint));
+            // without a flush the memtables are copied into the log of the checkpoint
+            source.put(new KVItem("key03", "logged"));
+            source.checkpoint(Paths.get(TEST_DIR, "unflushed"), false);
+
+            // the checkpoint doesn't see later writes
+            source.put(new KVItem("key02", "changed"));
+            source.put(new KVItem("key99", "new"));
+        } finally {
+            source.close();
+        }
+        assertTrue(Files.exists(checkpoint.resolve("data").resolve("MANIFEST")));
+
+        LSMStore copy = LSMStoreBuilder.newBuilder().dataDir(checkpoint).build();
+        try {
+            assertEquals(large(0, 10), copy.get("key10").getValue());
+            assertEquals("value2", copy.get("key02").getValue());
+            assertNull(copy.get("key01"));
+            assertNull(copy.get("key42"));
+            assertNull(copy.get("key99"));
+            assertEquals(44, copy.prefixScan("key", 0).size());
+        } finally {
+            copy.close();
+        }
+
+        copy = LSMStoreBuilder.newBuilder().dataDir(Paths.get(TEST_DIR, "unflushed")).build();
+        try {
+            assertEquals("logged", copy.get("key03").getValue());
+            assertEquals("value2", copy.get("key02").getValue());
+            assertEquals(44, copy.prefixScan("key", 0).size());
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Test
+    public void testIngest() throws IOException {
+        Path bulkDir = Paths.get(TEST_DIR, "bulk");
+        LSMFile bulk = new LSMFile(bulkDir, BloomFilter.DEFAULT_BITS_PER_KEY, LSMFile.Format.V2, LSMFile.DEFAULT_BLOCK_SIZE);
+        for (int i = 10; i < 40; i++) {
+            // the timestamps of the file are replaced by the time of the ingestion
+            bulk.append(new KVItem(String.format("key%02d", i), "bulk" + i, 1));
+        }
+        bulk.close();
+
+        // an older version which is still in the memtable
+        store.put(new KVItem("key11", "memtable"));
+        store.ingest(bulkDir.resolve(bulk.getName()));
+        assertThrows(FileAlreadyExistsException.class, () -> store.ingest(bulkDir.resolve(bulk.getName())));
+
+        assertEquals("bulk11", store.get("key11").getValue());
+        assertEquals("bulk39", store.get("key39").getValue());
+        assertEquals("value9", store.get("key09").getValue());
+        assertEquals(List.of("bulk10", "bulk11"),
+                store.rangeScan("key10", "key12", 0).stream().map(KVItem::getValue).collect(Collectors.toList()));
+
+        // later writes replace the ingested items, even within the same millisecond
+        assertEquals("update", store.put(new KVItem("key12", "later")));
+        store.delete("key13");
+        assertEquals("later", store.get("key12").getValue());
+        assertNull(store.get("key13"));
+
+        store.close();
+        store = LSMStoreBuilder.newBuilder().dataDir(Paths.get(TEST_DIR)).build();
+        assertEquals("bulk11", store.get("key11").getValue());
+        assertEquals("later", store.get("key12").getValue());
+        assertNull(store.get("key13"));
+        assertEquals(38, store.prefixScan("key", 0).size());
+
+        // keys have to be strictly ascending
+        LSMFile unsorted = new LSMFile(bulkDir, BloomFilter.DEFAULT_BITS_PER_KEY, LSMFile.Format.V2, LSMFile.DEFAULT_BLOCK_SIZE);
+        unsorted.append(new KVItem("key00", "first", 1));
+        unsorted.append(new KVItem("key00", "second", 1));
+        unsorted.close();
+        assertThrows(IOException.class, () -> store.ingest(bulkDir.resolve(unsorted.getName())));
+        assertFalse(Files.exists(Paths.get(TEST_DIR, "data", unsorted.getName())));
+        assertEquals("value0", store.get("key00").getValue());
+    }
+
+    @Test
+    public void testValueLog() throws IOException {
+        Path dir = Paths.get(TEST_DIR, "valuelog");
+        LSMStore vlogStore = LSMStoreBuilder.newBuilder()
+                .dataDir(dir)
+                .memtableSize(2000)
+                .valueThreshold(10)
+                .valueLogSegmentSize(1024)
+                .build();
+        try {
+            String large = "x".repeat(100);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 20; i++) {
+                    vlogStore.put(new KVItem(String.format("key%02d", i), large + round + i));
+                }
+            }
+            vlogStore.put(new KVItem("small", "value"));
+            assertEquals("small", vlogStore.get("small").getKey());
+            assertTrue(Files.list(dir.resolve("vlog")).count() > 3);
+
+            // the first segments only hold overwritten values
+            int collected = 0;
+            while (vlogStore.collectValueLog()) {
+                collected++;
+            }
+            vlogStore.collectValueLog();
+            assertTrue(collected > 0);
+
+            for (int i = 0; i < 20; i++) {
+                assertEquals(large + 2 + i, vlogStore.get(String.format("key%02d", i)).getValue());
+            }
+            assertEquals(large + 2 + 0, vlogStore.rangeScan("key00", "key01", 0).get(0).getValue());
+            assertEquals("value", vlogStore.get("small").getValue());
+        } finally {
+            vlogStore.close();
+        }
+
+        // values are still found after a restart
+        vlogStore = LSMStoreBuilder.newBuilder().dataDir(dir).build();
+        try {
+            assertEquals(large(2, 7), vlogStore.get("key07").getValue());
+        } finally {
+            vlogStore.close();
+        }
+    }
+
+    @Test
+    public void testValueLogRelocationAndCompaction() throws IOException, InterruptedException {
+        Path dir = Paths.get(TEST_DIR, "relocation");
+        LSMStore vlogStore = LSMStoreBuilder.newBuilder()
+                .dataDir(dir)
+                .compactionStrategy(CompactionStrategy.Type.NONE)
+                .valueThreshold(10)
+                .valueLogSegmentSize(1024)
+                .build();
+        try {
+            // the first segment holds a live value among overwritten ones
+            vlogStore.put(new KVItem("live", large(0, 0)));
+            for (int i = 0; i < 30; i++) {
+                vlogStore.put(new KVItem("dead", large(1, i)));
+            }
+            assertTrue(vlogStore.flush());
+
+            // the relocated value keeps its timestamp and is flushed to a newer file
+            assertTrue(vlogStore.collectValueLog());
+            assertTrue(vlogStore.flush());
+
+            // rewrite the old pointer into a file ordered before the relocated one
+            assertTrue(vlogStore.compact(version -> {
+                List<LSMFile> files = version.getFiles();
+                return files.size() < 2 ? null : new Compaction(files.subList(files.size() - 1, files.size()), 0, Long.MAX_VALUE);
+            }));
+
+            // the next round deletes the first segment
+            vlogStore.collectValueLog();
+            assertEquals(large(0, 0), vlogStore.get("live").getValue());
+            assertEquals(large(1, 29), vlogStore.get("dead").getValue());
+            assertEquals(List.of(large(0, 0)),
+                    vlogStore.prefixScan("live", 0).stream().map(KVItem::getValue).collect(Collectors.toList()));
+
+            // a compaction of all files keeps the relocated value
+            assertTrue(vlogStore.compact(version -> new Compaction(version.getFiles(), 0, Long.MAX_VALUE)));
+            assertEquals(large(0, 0), vlogStore.get("live").getValue());
+        } finally {
+            vlogStore.close();
+        }
+    }
+
+    private static String large(int round, int i) {
+        return "x".repeat(100) + round + i;
+    }
+}
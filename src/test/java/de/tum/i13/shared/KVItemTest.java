@@ -15,6 +15,16 @@ public class KVItemTest {
         assertFalse(testItem.isValid());
     }
 
+    @Test
+    public void keyInvalidInUtf8() {
+        // 20 characters, but 40 bytes in UTF-8
+        KVItem testItem = new KVItem("\u00e4".repeat(20), "val");
+        assertFalse(testItem.isValid());
+
+        testItem = new KVItem("\u00e4".repeat(10), "val");
+        assertTrue(testItem.isValid());
+    }
+
     @Test
     public void keyNullOrEmpty() {
         KVItem testItem;
@@ -65,6 +75,15 @@ public class KVItemTest {
         assertEquals(testValue, dest.getValue());
     }
 
+    @Test
+    public void encodeDecodeUtf8() {
+        final String testValue = "gr\u00fc\u00dfe \uD83D\uDE00";
+
+        KVItem dest = new KVItem("key");
+        dest.setValueFrom64(new KVItem("key", testValue).getValueAs64());
+        assertEquals(testValue, dest.getValue());
+    }
+
     @Test
     public void nullValDecode() {
         // when